@@ -1,7 +1,10 @@
 package johnwilde.androidchessclock;
 
+import android.app.Instrumentation;
 import android.test.ActivityInstrumentationTestCase2;
 
+import johnwilde.androidchessclock.ClockEngine.GameState;
+
 /**
  * This is a simple framework for a test of an Application.  See
  * {@link android.test.ApplicationTestCase ApplicationTestCase} for more information on
@@ -18,4 +21,41 @@ public class ChessTimerActivityTest extends ActivityInstrumentationTestCase2<Che
         super("johnwilde.androidchessclock", ChessTimerActivity.class);
     }
 
+    // A configuration change must not pause a running game, and the new
+    // activity must reattach to the clocks within one frame.
+    public void testRecreateKeepsClockRunning() throws Throwable {
+        final ChessTimerActivity activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                activity.findViewById(R.id.start_button).performClick();
+            }
+        });
+        // the engine thread carries out the start
+        ClockSnapshot clock = new ClockSnapshot();
+        assertTrue(activity.mClock.awaitIdle(1000));
+        activity.mClock.read(clock);
+        assertEquals(GameState.RUNNING, clock.getState());
+
+        Instrumentation.ActivityMonitor monitor = getInstrumentation().addMonitor(
+                ChessTimerActivity.class.getName(), null, false);
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                activity.recreate();
+            }
+        });
+        ChessTimerActivity recreated = (ChessTimerActivity) getInstrumentation()
+                .waitForMonitorWithTimeout(monitor, 5000);
+        getInstrumentation().removeMonitor(monitor);
+
+        assertNotNull(recreated);
+        assertSame(activity.mClock, recreated.mClock);
+        recreated.mClock.read(clock);
+        assertEquals(GameState.RUNNING, clock.getState());
+        assertTrue("reattach took " + recreated.mReattachNanos + " ns",
+                recreated.mReattachNanos >= 0
+                        && recreated.mReattachNanos < ChessTimerActivity.FRAME_NANOS);
+        recreated.finish();
+    }
 }
@@ -0,0 +1,115 @@
+package johnwilde.androidchessclock;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.GameState;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+
+/**
+ * Checks that a tap on a player button allocates nothing on the path it
+ * takes in the app: PlayerButtonClickListener.onClick on the UI thread,
+ * the switch Message to the engine thread, the engine update, and the
+ * snapshot and event published for it.
+ *
+ * adb shell am instrument -w \
+ * -e class johnwilde.androidchessclock.SwitchAllocationDeviceTest \
+ * johnwilde.androidchessclock.tests/android.test.InstrumentationTestRunner
+ *
+ * Allocations are counted per thread: on the UI thread around each
+ * onClick(), on the engine thread from the start to the end of a game.
+ * Each game stays within the moves the game record has room for
+ * (ClockEngine.RECORD_MOVES); past that the record doubles, which is an
+ * allocation by design.
+ */
+public class SwitchAllocationDeviceTest extends ActivityInstrumentationTestCase2<ChessTimerActivity> {
+
+    private static final int SWITCHES = 10000;
+    private static final int GAME_SWITCHES = ClockEngine.RECORD_MOVES;
+    private static final long TIMEOUT_MS = 1000;
+
+    // UI thread
+    private int mUiAllocations;
+    // engine thread, read once it is idle
+    private volatile int mEngineAllocations;
+    private volatile GameState mEndState;
+    private volatile int mEndMoves;
+
+    private final Runnable mTap = new Runnable() {
+        @Override
+        public void run() {
+            ChessTimerActivity activity = getActivity();
+            ChessTimerActivity.PlayerButton button = activity.buttonOf(
+                    activity.snapshot().getActive());
+            Debug.resetThreadAllocCount();
+            button.listener.onClick(button.button);
+            mUiAllocations += Debug.getThreadAllocCount();
+        }
+    };
+
+    public SwitchAllocationDeviceTest() {
+        super("johnwilde.androidchessclock", ChessTimerActivity.class);
+    }
+
+    public void testTapAllocatesNothing() throws Throwable {
+        EngineThread clock = getActivity().mClock;
+        Debug.startAllocCounting();
+        try {
+            // fail, rather than pass, where nothing is counted
+            Debug.resetThreadAllocCount();
+            Object[] probe = new Object[8];
+            assertTrue("allocation counting not supported",
+                    Debug.getThreadAllocCount() > 0 && probe.length > 0);
+
+            for (int switches = 0; switches < SWITCHES; switches += GAME_SWITCHES) {
+                playGame(clock, Math.min(GAME_SWITCHES, SWITCHES - switches));
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("objects allocated on the UI thread by " + SWITCHES + " taps",
+                0, mUiAllocations);
+        assertEquals("objects allocated on the engine thread by " + SWITCHES + " taps",
+                0, mEngineAllocations);
+    }
+
+    // A new game of 'taps' moves; an hour each, so no flag falls
+    private void playGame(EngineThread clock, int taps) throws Throwable {
+        clock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                engine.mTimeControlType = TimeControlType.BASIC;
+                engine.mDelayType = DelayType.BRONSTEIN;
+                engine.mIncrementSeconds = 2;
+                engine.mInitialDurationSeconds = 3600;
+            }
+        });
+        clock.reset();
+        clock.start(ChessTimerActivity.WHITE, SystemClock.uptimeMillis());
+        clock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                Debug.resetThreadAllocCount();
+            }
+        });
+        for (int i = 0; i < taps; i++) {
+            // the UI reads the snapshot of the last switch
+            assertTrue(clock.awaitIdle(TIMEOUT_MS));
+            runTestOnUiThread(mTap);
+        }
+        clock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                mEngineAllocations += Debug.getThreadAllocCount();
+                mEndState = engine.getState();
+                mEndMoves = engine.getMoveNumber(ChessTimerActivity.WHITE)
+                        + engine.getMoveNumber(ChessTimerActivity.BLACK) - 2;
+            }
+        });
+        assertTrue(clock.awaitIdle(TIMEOUT_MS));
+        assertEquals(GameState.RUNNING, mEndState);
+        assertEquals(taps, mEndMoves);
+    }
+}
@@ -0,0 +1,105 @@
+package johnwilde.androidchessclock;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs TickBenchmark on each tick backend on the device, with the clock
+ * screen up, and logs the numbers:
+ *
+ * adb shell am instrument -w \
+ * -e class johnwilde.androidchessclock.TickBenchmarkDeviceTest \
+ * johnwilde.androidchessclock.tests/android.test.InstrumentationTestRunner
+ * adb logcat -s TickBenchmark
+ *
+ * Run it plugged in and on battery, screen on and off, to pick the
+ * backend for each mode.
+ *
+ * testHundredthsFrames ticks as a clock in the hundredths window does,
+ * a ClockFace update every frame, and checks the frames keep up.
+ */
+public class TickBenchmarkDeviceTest extends ActivityInstrumentationTestCase2<ChessTimerActivity> {
+
+    private static final String TAG = "TickBenchmark";
+
+    public TickBenchmarkDeviceTest() {
+        super("johnwilde.androidchessclock", ChessTimerActivity.class);
+    }
+
+    // a clock below 10 seconds, every 100 ms for 30 seconds
+    public void testTenthsCadence() throws Throwable {
+        runAll(100, 300);
+    }
+
+    // a clock above 10 seconds, every second for a minute
+    public void testSecondsCadence() throws Throwable {
+        runAll(1000, 60);
+    }
+
+    // 10 seconds of frame ticks; a dropped frame in a hundred is allowed
+    // for the test runner's own work
+    public void testHundredthsFrames() throws Throwable {
+        final ChessTimerActivity activity = getActivity();
+        final FrameStats stats = new FrameStats(activity.framePeriodNanos());
+        final ClockFace face = new ClockFace(0);
+        face.setHundredthsWindow(10000);
+        final long end = System.nanoTime() + 10000000000L;
+        final CountDownLatch done = new CountDownLatch(1);
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                activity.frameScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        TickScheduler frames = activity.frameScheduler();
+                        long now = frames.nanoTime();
+                        stats.frame(now);
+                        face.update(activity.snapshot(), now / 1000000);
+                        if (now < end)
+                            frames.schedule(this, ClockFace.FRAME_TICK);
+                        else
+                            done.countDown();
+                    }
+                }, ClockFace.FRAME_TICK);
+            }
+        });
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        String result = stats.frames() + " frames, " + stats.dropped() + " dropped, worst "
+                + stats.worstNanos() / 1000000 + " ms";
+        Log.i(TAG, "hundredths: " + result);
+        assertTrue(result, stats.dropped() * 100 <= stats.frames());
+    }
+
+    private void runAll(long periodMs, int ticks) throws Throwable {
+        getActivity();
+        for (int backend = 0; backend < TickSchedulers.BACKENDS; backend++) {
+            final int which = backend;
+            final TickScheduler[] scheduler = new TickScheduler[1];
+            final TickBenchmark[] benchmark = new TickBenchmark[1];
+            final long period = periodMs;
+            final int count = ticks;
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler[0] = TickSchedulers.create(which);
+                    benchmark[0] = new TickBenchmark(scheduler[0], period, count);
+                    benchmark[0].start();
+                }
+            });
+            boolean done = benchmark[0].await(periodMs * ticks * 2);
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler[0].release();
+                }
+            });
+            assertTrue(TickSchedulers.name(backend) + " did not finish", done);
+            TickBenchmark.Result result = benchmark[0].result(TickSchedulers.name(backend));
+            Log.i(TAG, result.toString());
+            assertTrue(result.toString(), result.p50 < periodMs * 1000000L);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package johnwilde.androidchessclock;
+
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+// Lets the user adjust a player's clock in place, over the clock screen.
+//
+// Each +/- 10 seconds press sets the engine's remaining time directly
+// (the game is paused while the overlay is shown), so there is no result
+// to hand back: the clock and the overlay's preview both show what the
+// engine publishes. The preview is drawn by a ClockFace, the same
+// renderer as the clocks. Cancel puts back the time the clock had when
+// the overlay was opened.
+//
+// The overlay is inflated once, the first time it is needed, and after
+// that only shown and hidden: opening and closing it is a visibility
+// change, not an activity transition with its window animation and
+// lifecycle passes. The time from the tap to the screen being back is
+// traced in ms (EVENT_ADJUST_OPENED, EVENT_ADJUST_CLOSED).
+final class AdjustOverlay implements OnClickListener {
+    private static final long STEP_MS = 10 * 1000;
+
+    private final ChessTimerActivity mActivity;
+    private View mView;
+    private TextView mPreview;
+    private ImageView mImage;
+    private final BitmapDrawable[] mImages = new BitmapDrawable[ChessTimerActivity.PLAYERS];
+    private ClockFace mFace;
+
+    private int mPlayer = ClockEngine.NO_PLAYER;
+    private long mStartTime;
+    private long mTime;
+
+    // when the tap that opened or closed the overlay happened
+    private long mTapMs;
+    private final Runnable mOpened = new Runnable() {
+        @Override
+        public void run() {
+            Tracing.event(Tracing.EVENT_ADJUST_OPENED, SystemClock.uptimeMillis() - mTapMs);
+        }
+    };
+    private final Runnable mClosed = new Runnable() {
+        @Override
+        public void run() {
+            Tracing.event(Tracing.EVENT_ADJUST_CLOSED, SystemClock.uptimeMillis() - mTapMs);
+        }
+    };
+
+    AdjustOverlay(ChessTimerActivity activity) {
+        mActivity = activity;
+    }
+
+    boolean isShowing() {
+        return mPlayer != ClockEngine.NO_PLAYER;
+    }
+
+    // Show the overlay for 'player', whose clock reads 'msToGo'
+    void show(int player, long msToGo) {
+        mTapMs = SystemClock.uptimeMillis();
+        if (mView == null)
+            inflate();
+        mPlayer = player;
+        mStartTime = msToGo;
+        mTime = msToGo;
+        if (mImages[player] == null) {
+            mImages[player] = new BitmapDrawable(mActivity.getResources(),
+                    PlayerBitmaps.get(mActivity.getResources(), player));
+        }
+        mImage.setImageDrawable(mImages[player]);
+        // a new face draws the preview in full
+        mFace = new ClockFace(player);
+        update();
+        mView.setVisibility(View.VISIBLE);
+        mView.post(mOpened);
+    }
+
+    // Show what the engine published; called by the activity whenever the
+    // engine changes
+    void update() {
+        if (!isShowing())
+            return;
+        int changes = mFace.update(mActivity.snapshot(), SystemClock.uptimeMillis());
+        if ((changes & ClockFace.TEXT_CHANGED) != 0)
+            mPreview.setText(mFace.getText(), 0, mFace.getTextLength());
+    }
+
+    // Put back the time the clock had when the overlay was opened
+    void cancel() {
+        if (mTime != mStartTime)
+            setTime(mStartTime);
+        close();
+    }
+
+    @Override
+    public void onClick(View v) {
+        switch (v.getId()) {
+        case R.id.add_time_button:
+            setTime(mTime + STEP_MS);
+            break;
+        case R.id.subtract_time_button:
+            setTime(mTime - STEP_MS);
+            break;
+        case R.id.ok_button:
+            close();
+            break;
+        case R.id.cancel_button:
+            cancel();
+            break;
+        }
+    }
+
+    private void setTime(long ms) {
+        mTime = ms;
+        mActivity.buttonOf(mPlayer).adjustTime(ms);
+    }
+
+    private void close() {
+        mTapMs = SystemClock.uptimeMillis();
+        mPlayer = ClockEngine.NO_PLAYER;
+        mView.setVisibility(View.GONE);
+        mView.post(mClosed);
+    }
+
+    private void inflate() {
+        mView = mActivity.getLayoutInflater().inflate(R.layout.adjust_time, null);
+        mActivity.addContentView(mView, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.FILL_PARENT, ViewGroup.LayoutParams.FILL_PARENT));
+        mPreview = (TextView) mView.findViewById(R.id.adjustTimeTextView);
+        mImage = (ImageView) mView.findViewById(R.id.adjustTimePlayerView);
+        mView.findViewById(R.id.add_time_button).setOnClickListener(this);
+        mView.findViewById(R.id.subtract_time_button).setOnClickListener(this);
+        mView.findViewById(R.id.ok_button).setOnClickListener(this);
+        mView.findViewById(R.id.cancel_button).setOnClickListener(this);
+    }
+}
@@ -0,0 +1,29 @@
+package johnwilde.androidchessclock;
+
+import android.os.Trace;
+
+// Tracing sink for systrace. Sections map to android.os.Trace sections;
+// an event becomes an empty section named after it, which shows up as a
+// marker on the timeline (its field values are only kept by
+// RingBufferSink).
+//
+// android.os.Trace exists from API 18 (JELLY_BEAN_MR2); only install
+// this sink there.
+final class AndroidTraceSink implements Tracing.Sink {
+
+    @Override
+    public void begin(String section) {
+        Trace.beginSection(section);
+    }
+
+    @Override
+    public void end() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void event(String name, long value1, long value2) {
+        Trace.beginSection(name);
+        Trace.endSection();
+    }
+}
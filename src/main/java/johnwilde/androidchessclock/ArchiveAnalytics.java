@@ -0,0 +1,182 @@
+package johnwilde.androidchessclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Computes TimeUsageStats over the GameArchive in a directory.
+//
+// Each archive segment is scanned by its own task on a small thread
+// pool. A task memory-maps its segment and reads the move records in
+// place, so no ArchivedGame is ever built. The per-segment results are
+// cached: a segment is only rescanned for the games appended to it since
+// the last call, and closed segments are never read again.
+final class ArchiveAnalytics {
+
+    private final File mDirectory;
+    private final ExecutorService mExecutor;
+
+    // Cached results, indexed by segment, and how many of the segment's
+    // games they include
+    private TimeUsageStats[] mSegmentStats = new TimeUsageStats[0];
+    private int[] mSegmentGames = new int[0];
+
+    ArchiveAnalytics(File directory) {
+        this(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    ArchiveAnalytics(File directory, int threads) {
+        mDirectory = directory;
+        mExecutor = Executors.newFixedThreadPool(Math.max(threads, 1),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ArchiveAnalytics");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    // Statistics over every game in the index. Only segments with games
+    // that are not yet in the cache are read.
+    synchronized TimeUsageStats compute(final GameIndex index) throws IOException {
+        int segments = index.size() == 0 ? 0 : index.mSegment[index.size() - 1] + 1;
+        growCache(segments);
+
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        int start = 0;
+        for (int segment = 0; segment < segments; segment++) {
+            int end = segmentEnd(index, segment, start);
+            final int from = start + mSegmentGames[segment];
+            final int to = end;
+            final int s = segment;
+            if (from < to) {
+                pending.add(mExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        scanSegment(index, s, from, to, mSegmentStats[s]);
+                        return null;
+                    }
+                }));
+                mSegmentGames[segment] = end - start;
+            }
+            start = end;
+        }
+
+        try {
+            for (Future<?> f : pending) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException ex) {
+            // drop the cache, some segments may be partially counted
+            mSegmentStats = new TimeUsageStats[0];
+            mSegmentGames = new int[0];
+            throw new IOException("scan failed: " + ex.getCause());
+        }
+
+        TimeUsageStats total = new TimeUsageStats();
+        for (int segment = 0; segment < segments; segment++) {
+            total.add(mSegmentStats[segment]);
+        }
+        return total;
+    }
+
+    private void growCache(int segments) {
+        if (mSegmentStats.length >= segments)
+            return;
+        TimeUsageStats[] stats = new TimeUsageStats[segments];
+        int[] games = new int[segments];
+        System.arraycopy(mSegmentStats, 0, stats, 0, mSegmentStats.length);
+        System.arraycopy(mSegmentGames, 0, games, 0, mSegmentGames.length);
+        for (int i = mSegmentStats.length; i < segments; i++) {
+            stats[i] = new TimeUsageStats();
+        }
+        mSegmentStats = stats;
+        mSegmentGames = games;
+    }
+
+    // End (exclusive) of a segment's games in the index, which are stored
+    // contiguously starting at 'start'
+    private static int segmentEnd(GameIndex index, int segment, int start) {
+        int lo = start, hi = index.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.mSegment[mid] <= segment)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void scanSegment(GameIndex index, int segment, int from, int to,
+            TimeUsageStats stats) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(
+                GameArchive.segmentFile(mDirectory, segment), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            for (int i = from; i < to; i++) {
+                scanGame(buffer, index, i, stats);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    // Add game i of the index, reading its moves straight from the segment
+    static void scanGame(ByteBuffer segment, GameIndex index, int i,
+            TimeUsageStats stats) {
+        int offset = index.mOffset[i];
+        int moves = segment.getInt(offset + 8);
+        int firstPlayer = segment.get(offset + 12);
+        int players = Math.max(segment.get(offset + 13), 1);
+        long initialMs = index.mInitialSeconds[i] * 1000L;
+        long troubleMs = initialMs * TimeUsageStats.TIME_TROUBLE_PERCENT / 100;
+
+        int result = index.mResult[i];
+        stats.addGame(index.mDelayType[i], index.mIncrementSeconds[i],
+                result >= ArchivedGame.RESULT_FLAG);
+
+        int trouble = 0; // bit per player
+        int move = offset + GameArchive.RECORD_HEADER_BYTES;
+        for (int m = 0; m < moves; m++, move += GameArchive.MOVE_BYTES) {
+            int player = (firstPlayer + m) % players;
+            long moveMs = segment.getInt(move);
+            long remainingMs = segment.getInt(move + 4);
+            stats.addMove(m / players + 1, moveMs, remainingMs, initialMs);
+            if (remainingMs < troubleMs)
+                trouble |= 1 << player;
+        }
+        if (result >= ArchivedGame.RESULT_FLAG)
+            trouble |= 1 << (result - ArchivedGame.RESULT_FLAG);
+        for (int player = 0; player < players; player++) {
+            stats.addPlayer(player, (trouble & (1 << player)) != 0);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package johnwilde.androidchessclock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A GameArchive packed into one compressed file, to collect the games of
+// several devices on one machine.
+//
+// A bundle is a file header (magic, version) followed by blocks:
+//
+// raw length (int), compressed length (int), CRC32 of the raw bytes (int),
+// the raw bytes deflated
+//
+// and ends with a block of raw length 0. The raw bytes of a block are
+// whole games, each a GameIndex entry (segment and offset left 0)
+// followed by the game record as GameArchive stores it. Blocks hold about
+// BLOCK_BYTES; a longer game gets a block of its own.
+//
+// Both directions stream: export() loads one game at a time into a reused
+// ArchivedGame, importInto() appends each game of a block as it is
+// checked. Besides one block, only the ids are held: the import skips a
+// game whose id (random, see ClockEngine) is already in the archive or
+// earlier in the bundle, so merging the same bundle twice adds nothing.
+//
+// Pure Java, so ArchiveTool can run it outside the app.
+final class ArchiveBundle {
+
+    static final String EXTENSION = ".bundle";
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x43434742; // "CCGB"
+    private static final int VERSION = 1;
+    // a game of more moves than this is taken as a corrupt bundle
+    private static final int MAX_MOVES = 1 << 20;
+
+    /**
+     * What an import did.
+     */
+    static final class Result {
+        int imported;
+        // already in the archive, or twice in the bundle
+        int duplicates;
+    }
+
+    private ArchiveBundle() {
+    }
+
+    // Write every game of 'index' to 'out'. Returns the number of games.
+    static int export(GameArchive archive, GameIndex index, OutputStream out)
+            throws IOException {
+        Writer writer = new Writer(out);
+        try {
+            ArchivedGame game = new ArchivedGame();
+            for (int i = 0; i < index.size(); i++) {
+                archive.load(index, i, game);
+                writer.add(game);
+            }
+            writer.finish();
+        } finally {
+            writer.end();
+        }
+        return index.size();
+    }
+
+    // Append the games of the bundle in 'in' that the archive does not
+    // have. A corrupt or truncated bundle throws, after the games of the
+    // blocks before the bad one are imported.
+    static Result importInto(GameArchive archive, InputStream in)
+            throws IOException {
+        IdSet ids = idsOf(archive);
+        Result result = new Result();
+        Reader reader = new Reader(in);
+        try {
+            ArchivedGame game = new ArchivedGame();
+            while (reader.next(game)) {
+                if (ids.add(game.mId)) {
+                    archive.append(game);
+                    result.imported++;
+                } else {
+                    result.duplicates++;
+                }
+            }
+        } finally {
+            reader.end();
+        }
+        return result;
+    }
+
+    // The ids of the archived games; the index is dropped once read
+    private static IdSet idsOf(GameArchive archive) throws IOException {
+        GameIndex index = archive.readIndex();
+        IdSet ids = new IdSet(index.size() + 1024);
+        for (int i = 0; i < index.size(); i++) {
+            ids.add(index.mId[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Packs games into deflated blocks.
+     */
+    private static final class Writer {
+        private final DataOutputStream mOut;
+        private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+        private final CRC32 mCrc = new CRC32();
+        private ByteBuffer mBlock = ByteBuffer.allocate(BLOCK_BYTES);
+        private byte[] mCompressed = new byte[BLOCK_BYTES];
+
+        Writer(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(out);
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        void add(ArchivedGame game) throws IOException {
+            int length = GameIndex.ENTRY_BYTES + GameArchive.recordBytes(game);
+            if (mBlock.position() > 0 && mBlock.position() + length > BLOCK_BYTES)
+                flush();
+            if (mBlock.capacity() < length)
+                mBlock = ByteBuffer.allocate(length);
+            GameIndex.encode(mBlock, game, 0, 0);
+            GameArchive.encodeRecord(mBlock, game);
+        }
+
+        void finish() throws IOException {
+            flush();
+            mOut.writeInt(0);
+            mOut.flush();
+        }
+
+        void end() {
+            mDeflater.end();
+        }
+
+        private void flush() throws IOException {
+            int length = mBlock.position();
+            if (length == 0)
+                return;
+            mDeflater.reset();
+            mDeflater.setInput(mBlock.array(), 0, length);
+            mDeflater.finish();
+            int compressed = 0;
+            while (!mDeflater.finished()) {
+                if (compressed == mCompressed.length) {
+                    byte[] bigger = new byte[mCompressed.length * 2];
+                    System.arraycopy(mCompressed, 0, bigger, 0, compressed);
+                    mCompressed = bigger;
+                }
+                compressed += mDeflater.deflate(mCompressed, compressed,
+                        mCompressed.length - compressed);
+            }
+            mCrc.reset();
+            mCrc.update(mBlock.array(), 0, length);
+            mOut.writeInt(length);
+            mOut.writeInt(compressed);
+            mOut.writeInt((int) mCrc.getValue());
+            mOut.write(mCompressed, 0, compressed);
+            mBlock.clear();
+        }
+    }
+
+    /**
+     * Unpacks and checks the blocks, a game at a time.
+     */
+    private static final class Reader {
+        private final DataInputStream mIn;
+        private final Inflater mInflater = new Inflater();
+        private final CRC32 mCrc = new CRC32();
+        private ByteBuffer mBlock = ByteBuffer.allocate(BLOCK_BYTES);
+        private byte[] mCompressed = new byte[BLOCK_BYTES];
+        private boolean mEnded;
+
+        Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(in);
+            try {
+                if (mIn.readInt() != MAGIC || mIn.readInt() != VERSION)
+                    throw new IOException("Not a game bundle");
+            } catch (EOFException ex) {
+                throw new IOException("Not a game bundle");
+            }
+            mBlock.limit(0);
+        }
+
+        // Decode the next game into 'game'. Returns false at the end.
+        boolean next(ArchivedGame game) throws IOException {
+            if (!mBlock.hasRemaining() && !readBlock())
+                return false;
+            if (mBlock.remaining() < GameIndex.ENTRY_BYTES)
+                throw new IOException("Bundle block ends inside a game");
+            int moves = GameIndex.decodeHeader(mBlock, game);
+            if (moves < 0 || moves > MAX_MOVES || mBlock.remaining()
+                    < GameArchive.RECORD_HEADER_BYTES + moves * GameArchive.MOVE_BYTES)
+                throw new IOException("Bundle block ends inside a game");
+            long id = game.mId;
+            GameArchive.decodeRecord(mBlock, game);
+            if (game.mId != id || game.mMoveCount != moves)
+                throw new IOException("Bundle entry does not match its record");
+            return true;
+        }
+
+        void end() {
+            mInflater.end();
+        }
+
+        private boolean readBlock() throws IOException {
+            if (mEnded)
+                return false;
+            int length;
+            int compressed;
+            int crc;
+            try {
+                length = mIn.readInt();
+                if (length == 0) {
+                    mEnded = true;
+                    return false;
+                }
+                compressed = mIn.readInt();
+                crc = mIn.readInt();
+                int maxGame = GameIndex.ENTRY_BYTES + GameArchive.RECORD_HEADER_BYTES
+                        + MAX_MOVES * GameArchive.MOVE_BYTES;
+                if (length < 0 || length > Math.max(BLOCK_BYTES, maxGame)
+                        || compressed <= 0 || compressed > length + length / 8 + 64)
+                    throw new IOException("Bad bundle block header");
+                if (mCompressed.length < compressed)
+                    mCompressed = new byte[compressed];
+                mIn.readFully(mCompressed, 0, compressed);
+            } catch (EOFException ex) {
+                throw new IOException("Bundle is truncated");
+            }
+
+            if (mBlock.capacity() < length)
+                mBlock = ByteBuffer.allocate(length);
+            mInflater.reset();
+            mInflater.setInput(mCompressed, 0, compressed);
+            int inflated = 0;
+            try {
+                while (inflated < length && !mInflater.finished()) {
+                    int n = mInflater.inflate(mBlock.array(), inflated, length - inflated);
+                    if (n == 0 && (mInflater.needsInput() || mInflater.needsDictionary()))
+                        break;
+                    inflated += n;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt bundle block: " + ex.getMessage());
+            }
+            mCrc.reset();
+            mCrc.update(mBlock.array(), 0, inflated);
+            if (inflated != length || !mInflater.finished()
+                    || (int) mCrc.getValue() != crc)
+                throw new IOException("Bundle block fails its checksum");
+            mBlock.clear();
+            mBlock.limit(length);
+            return true;
+        }
+    }
+
+    /**
+     * Set of game ids, open addressing over a long array.
+     */
+    static final class IdSet {
+        // 0 marks a free slot, so id 0 is kept apart
+        private long[] mSlots;
+        private int mSize;
+        private boolean mHasZero;
+
+        IdSet(int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2)
+                capacity <<= 1;
+            mSlots = new long[capacity];
+        }
+
+        // Returns false if 'id' was already in the set
+        boolean add(long id) {
+            if (id == 0) {
+                boolean added = !mHasZero;
+                mHasZero = true;
+                return added;
+            }
+            if ((mSize + 1) * 2 > mSlots.length)
+                grow();
+            if (!insert(mSlots, id))
+                return false;
+            mSize++;
+            return true;
+        }
+
+        private static boolean insert(long[] slots, long id) {
+            int mask = slots.length - 1;
+            int i = hash(id) & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == id)
+                    return false;
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+            return true;
+        }
+
+        private void grow() {
+            long[] slots = new long[mSlots.length * 2];
+            for (long id : mSlots) {
+                if (id != 0)
+                    insert(slots, id);
+            }
+            mSlots = slots;
+        }
+
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
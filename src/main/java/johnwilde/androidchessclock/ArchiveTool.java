@@ -0,0 +1,89 @@
+package johnwilde.androidchessclock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Command line access to game archives outside the app, e.g. to merge
+// the bundles exported by every clock of a tournament on one machine:
+//
+// ArchiveTool import <archive directory> <bundle>...
+// ArchiveTool export <archive directory> <bundle>
+//
+// The archive directory is created if needed. It needs nothing from
+// Android; build and run it with:
+//
+// javac -d out ArchiveTool.java ArchiveBundle.java GameArchive.java \
+//     GameIndex.java ArchivedGame.java
+// java -cp out johnwilde.androidchessclock.ArchiveTool import games *.bundle
+final class ArchiveTool {
+
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    private ArchiveTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !(args[0].equals("import") || args[0].equals("export"))
+                || (args[0].equals("export") && args.length != 3)) {
+            System.err.println("usage: ArchiveTool import <archive directory> <bundle>...");
+            System.err.println("       ArchiveTool export <archive directory> <bundle>");
+            System.exit(2);
+        }
+        GameArchive archive = new GameArchive(new File(args[1]));
+        boolean failed = false;
+        try {
+            if (args[0].equals("export")) {
+                exportTo(archive, new File(args[2]));
+            } else {
+                // a bad bundle does not stop the others
+                for (int i = 2; i < args.length; i++) {
+                    try {
+                        importFrom(archive, new File(args[i]));
+                    } catch (IOException ex) {
+                        System.err.println(args[i] + ": " + ex.getMessage());
+                        failed = true;
+                    }
+                }
+            }
+        } finally {
+            archive.close();
+        }
+        if (failed)
+            System.exit(1);
+    }
+
+    private static void exportTo(GameArchive archive, File file) throws IOException {
+        long start = System.nanoTime();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+                STREAM_BUFFER_BYTES);
+        int games;
+        try {
+            games = ArchiveBundle.export(archive, archive.readIndex(), out);
+        } finally {
+            out.close();
+        }
+        System.out.println(String.format("%s: %d games exported, %d bytes, %.1f s",
+                file, games, file.length(), (System.nanoTime() - start) / 1e9));
+    }
+
+    private static void importFrom(GameArchive archive, File file) throws IOException {
+        long start = System.nanoTime();
+        InputStream in = new BufferedInputStream(new FileInputStream(file),
+                STREAM_BUFFER_BYTES);
+        ArchiveBundle.Result result;
+        try {
+            result = ArchiveBundle.importInto(archive, in);
+        } finally {
+            in.close();
+        }
+        System.out.println(String.format("%s: %d games imported, %d duplicates, %.1f s",
+                file, result.imported, result.duplicates,
+                (System.nanoTime() - start) / 1e9));
+    }
+}
@@ -0,0 +1,75 @@
+package johnwilde.androidchessclock;
+
+// One finished (or abandoned) game as it is stored in the GameArchive.
+//
+// The header fields describe the time control that was active when the
+// game started. Moves are kept in two parallel arrays:
+//
+// mMoveMs[i]: ms the player spent on move i (pauses excluded)
+// mRemainingMs[i]: ms left on that player's clock after move i, including
+// any increment that was added
+//
+// Move i was made by player (mFirstPlayer + i) % mPlayers.
+final class ArchivedGame {
+
+    static final byte RESULT_UNFINISHED = 0;
+    // RESULT_FLAG + n: player n ran out of time
+    static final byte RESULT_FLAG = 1;
+
+    // mDelayType and mControlType values, the ordinals of
+    // ClockEngine.DelayType and TimeControlType
+    static final byte DELAY_FISCHER = 0;
+    static final byte DELAY_BRONSTEIN = 1;
+    static final byte CONTROL_BASIC = 0;
+    static final byte CONTROL_TOURNAMENT = 1;
+
+    long mId;
+    long mStartTime; // wall clock ms
+    int mInitialSeconds;
+    int mIncrementSeconds;
+    byte mDelayType;
+    byte mControlType;
+    int mPhase1Moves;
+    int mPhase2Minutes;
+    byte mResult = RESULT_UNFINISHED;
+    int mPlayers = 2;
+    int mFirstPlayer = 0;
+
+    int mMoveCount = 0;
+    int[] mMoveMs;
+    int[] mRemainingMs;
+
+    ArchivedGame() {
+        this(64);
+    }
+
+    ArchivedGame(int capacity) {
+        mMoveMs = new int[capacity];
+        mRemainingMs = new int[capacity];
+    }
+
+    // Allocates only when the arrays are full: they double, so the copies
+    // add up to less than one per move (amortized)
+    void addMove(long moveMs, long remainingMs) {
+        if (mMoveCount == mMoveMs.length) {
+            int[] moveMsCopy = new int[mMoveCount * 2];
+            int[] remainingCopy = new int[mMoveCount * 2];
+            System.arraycopy(mMoveMs, 0, moveMsCopy, 0, mMoveCount);
+            System.arraycopy(mRemainingMs, 0, remainingCopy, 0, mMoveCount);
+            mMoveMs = moveMsCopy;
+            mRemainingMs = remainingCopy;
+        }
+        mMoveMs[mMoveCount] = (int) moveMs;
+        mRemainingMs[mMoveCount] = (int) remainingMs;
+        mMoveCount++;
+    }
+
+    int playerOfMove(int move) {
+        return (mFirstPlayer + move) % mPlayers;
+    }
+
+    // The player who ran out of time, or -1
+    int flaggedPlayer() {
+        return mResult >= RESULT_FLAG ? mResult - RESULT_FLAG : -1;
+    }
+}
@@ -9,12 +9,13 @@ import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.res.AssetFileDescriptor;
+import android.graphics.drawable.BitmapDrawable;
 import android.media.AudioManager;
-import android.media.SoundPool;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Menu;
@@ -23,6 +24,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
@@ -30,86 +32,80 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
-import johnwilde.androidchessclock.TimerOptions.TimeControl;
+import johnwilde.androidchessclock.ClockEngine.GameState;
 
 /**
  * Activity holding two clocks and two buttons.
  */
 public class ChessTimerActivity extends Activity {
 
-    /**
-     * The 4 states are:
-     * 
-     * IDLE: Waiting for a player to make the first move.
-     * 
-     * RUNNING: The timer for one player is running.
-     * 
-     * PAUSED: Neither timer is running, but mActive stores the button of the
-     * player whose timer will start when play is resumed.
-     * 
-     * DONE: Neither timer is running and one timer has reached 0.0. mActive
-     * stores the player whose timer ran out.
-     * 
-     */
-    enum GameState {
-        IDLE, RUNNING, PAUSED, DONE
-    };
-
-    GameState mCurrentState = GameState.IDLE;
-
-    enum TimeControlType {
-        BASIC, TOURNAMENT
-    };
-
-    TimeControlType mTimeControlType = TimeControlType.BASIC;
-
-    enum DelayType {
-        FISCHER, BRONSTEIN;
-    }
-
-    DelayType mDelayType;
-
-    PlayerButton mButton1, mButton2; // The two big buttons
+    // The clocks. The engine runs on its own thread and is handed over
+    // to the next instance of the activity when it is recreated for a
+    // configuration change. The UI sends it commands and shows the state
+    // it publishes, read into mSnapshot by snapshot().
+    EngineThread mClock;
+    private final ClockSnapshot mSnapshot = new ClockSnapshot();
+    private ArchiveWriter mArchive;
+    // the time control presets, parsed once
+    private TimeControlPresets mPresets;
+    private boolean mRetained = false;
+    // time spent in onCreate() when the activity reattached to a running
+    // engine, should stay below FRAME_NANOS
+    long mReattachNanos = -1;
+    // a frame at 60 Hz, the refresh rate of most displays
+    static final long FRAME_NANOS = 16666667;
+
+    // times the clocks' redraws (see TickScheduler), and those in the
+    // hundredths window, one per frame
+    private TickScheduler mTicks;
+    private TickScheduler mFrameTicks;
+    // the clock state shared with other apps, null unless enabled
+    private ClockFeed mFeed;
+    static final String FEED_FILE = "clock.feed";
+
+    // The big buttons, indexed by player
+    final PlayerButton[] mButtons = new PlayerButton[PLAYERS];
+    private final AdjustOverlay mAdjustOverlay = new AdjustOverlay(this);
     Button mResetButton;
     Button mStartButton;
     ImageButton mOverflowButton;
     ToggleButton mPauseButton;
     AlertDialog mPauseDialog;
 
-    // This field holds a reference to either mButton1 or mButton2.
+    // This field holds a reference to one of mButtons.
     //
-    // if mCurrentState == IDLE:
+    // if the state is IDLE:
     // it will be null.
-    // if mCurrentState == RUNNING:
+    // if the state is RUNNING:
     // it will point to the player whose clock is running
-    // if mCurrentState == PAUSED:
+    // if the state is PAUSED:
     // it will point to the player whose clock was running
     // when paused
-    // if mCurrentState == DONE:
+    // if the state is DONE:
     // it will point to the player whose clock ran out of fime
     PlayerButton mActive = null;
 
     private SharedPreferences mSharedPref;
 
-    // The values below are populated from the user preferences
-    int mInitialDurationSeconds = 60;
-    int mIncrementSeconds;
-    boolean mAllowNegativeTime = false;
+    // The values below are populated from the user preferences (the
+    // time control is kept in the engine)
     boolean mShowMoveCounter = false;
     private boolean mWhiteOnLeft = false;
     private int mWakeLockType;
-    // set when using TOURNAMENT time control
-    private int mPhase1NumberMoves;
-    private int mPhase2Minutes;
+
+    private boolean mHasLowTimeWarnings;
 
     // used to keep the screen bright during play
     private WakeLock mWakeLock;
-    // for sounding buzzer
-    int mBellId;
-    int mClickId;
-    SoundPool mSoundPool;
+    // for sounding buzzer; played by a consumer of the engine's events,
+    // on its own thread
+    ClockSounds mSounds;
+    private final ExecutorService mSoundExecutor = MoveEventBus.newExecutor("ClockSounds");
+    private MoveEventBus.Subscription mSoundSubscription;
 
     public boolean shouldPlaySoundAtEnd() {
         return mPlaySoundAtEnd;
@@ -121,37 +117,75 @@ public class ChessTimerActivity extends Activity {
     private boolean mPlaySoundOnClick;
 
     // Constants
-    public final static String EXTRA_COLOR = "johnwilde.androidchessclock.COLOR";
-    public final static String EXTRA_TIME = "johnwilde.androidchessclock.TIME";
 
     private static final String TAG = "ChessTimerActivity";
     private static final int BUTTON_FADED = 25;
     private static final int BUTTON_VISIBLE = 255;
     private static final int REQUEST_CODE_PREFERENCES = 1;
-    private static final int REQUEST_CODE_ADJUST_TIME = 2;
+    static final String ARCHIVE_DIRECTORY = "games";
+    static final int WHITE = 0;
+    static final int BLACK = 1;
+    // players the layout has clocks for
+    static final int PLAYERS = 2;
+
+    /**
+     * What a recreated activity takes over from the previous instance.
+     */
+    static final class Retained {
+        final EngineThread clock;
+        final ArchiveWriter archive;
+        final TimeControlPresets presets;
+
+        Retained(EngineThread clock, ArchiveWriter archive, TimeControlPresets presets) {
+            this.clock = clock;
+            this.archive = archive;
+            this.presets = presets;
+        }
+    }
 
-    // Create all the objects and enter IDLE state
+    // Create all the objects and enter IDLE state, or reattach to the
+    // engine of the previous instance
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        long startNanos = System.nanoTime();
+        // systrace sections in debug builds
+        if (BuildConfig.DEBUG && !Tracing.isEnabled()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Tracing.setSink(new AndroidTraceSink());
+        Tracing.begin(Tracing.SECTION_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
         // the layout looks best in landscape orientation
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
 
-        // set default values (for first run)
         mSharedPref = PreferenceManager.getDefaultSharedPreferences(this);
-        PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
-        loadAllUserPreferences();
+        Retained retained = (Retained) getLastNonConfigurationInstance();
+        if (retained != null) {
+            mClock = retained.clock;
+            mArchive = retained.archive;
+            mPresets = retained.presets;
+        } else {
+            // set default values (for first run)
+            PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
+            mClock = new EngineThread(new ClockEngine());
+            openArchive();
+            loadTimeControlPreferences();
+            mPresets = TimeControlPreferences.presets(mSharedPref);
+        }
+        mClock.setCallbacks(new EngineCallbacks());
+        mTicks = TickSchedulers.create(TickSchedulers.DEFAULT);
+        mFrameTicks = TickSchedulers.create(TickSchedulers.CHOREOGRAPHER);
 
-        Timer whiteTimer = new Timer(this, R.id.whiteClock,
-                R.id.whiteSpinnerContainer, "white");
-        mButton1 = new PlayerButton(whiteTimer, R.id.whiteButton,
+        Timer whiteTimer = new Timer(this, WHITE, R.id.whiteClock,
+                R.id.whiteSpinnerContainer);
+        mButtons[WHITE] = new PlayerButton(whiteTimer, R.id.whiteButton,
                 R.id.whiteMoveCounter);
-        Timer blackTimer = new Timer(this, R.id.blackClock,
-                R.id.blackSpinnerContainer, "black");
-        mButton2 = new PlayerButton(blackTimer, R.id.blackButton,
+        Timer blackTimer = new Timer(this, BLACK, R.id.blackClock,
+                R.id.blackSpinnerContainer);
+        mButtons[BLACK] = new PlayerButton(blackTimer, R.id.blackButton,
                 R.id.blackMoveCounter);
+        loadUiPreferences();
 
         mResetButton = (Button) findViewById(R.id.reset_button);
         mStartButton = (Button) findViewById(R.id.start_button);
@@ -161,10 +195,9 @@ public class ChessTimerActivity extends Activity {
         mPauseButton.setOnClickListener(new PauseButtonClickListener());
         mPauseButton.setVisibility(View.GONE);
 
-        mButton1.setButtonListener(new PlayerButtonClickListener(mButton1,
-                mButton2));
-        mButton2.setButtonListener(new PlayerButtonClickListener(mButton2,
-                mButton1));
+        for (PlayerButton button : mButtons) {
+            button.setButtonListener(new PlayerButtonClickListener(button));
+        }
 
         mResetButton.setOnClickListener(new ResetButtonClickListener());
 
@@ -174,12 +207,16 @@ public class ChessTimerActivity extends Activity {
         // enable following line to clear settings if they are in a bad state
         // mSharedPref.edit().clear().apply();
 
-        transitionTo(GameState.IDLE);
-
-        acquireWakeLock();
-        acquireMediaPlayer();
+        if (retained != null) {
+            showEngineState();
+            mReattachNanos = System.nanoTime() - startNanos;
+            Tracing.event(Tracing.EVENT_REATTACH, mReattachNanos);
+        } else {
+            transitionTo(GameState.IDLE);
+        }
 
-        Log.d(TAG, "Finished onCreate()");
+        // the wake lock and the sounds are acquired in onResume()
+        Tracing.end();
     }
 
     @Override
@@ -200,66 +237,67 @@ public class ChessTimerActivity extends Activity {
     public void onDestroy() {
         releaseWakeLock();
         releaseMediaPlayer();
+        for (PlayerButton button : mButtons) {
+            button.timer.detach();
+        }
+        mTicks.release();
+        mFrameTicks.release();
+        closeFeed();
+        mSoundExecutor.shutdown();
+        if (!mRetained) {
+            // the game in progress is published before the archive
+            // drains the bus and closes
+            mClock.quit();
+            closeArchive();
+        }
         super.onDestroy();
     }
 
-    // Save data needed to recreate activity. Enter PAUSED state
-    // if we are currently RUNNING.
+    // Hand the engine (and the open archive) over to the next instance.
+    // A running game keeps running.
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        mRetained = true;
+        return new Retained(mClock, mArchive, mPresets);
+    }
+
+    // Save data needed to recreate the activity if the process is
+    // killed. The engine itself survives configuration changes.
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        if (mCurrentState == GameState.RUNNING)
-            mPauseButton.performClick(); // pause, if not IDLE
-
-        outState.putLong("Timer1", mButton1.timer.getMsToGo());
-        outState.putLong("Timer1Delay", mButton1.timer.getMsDelayToGo());
-        outState.putLong("Timer2", mButton2.timer.getMsToGo());
-        outState.putLong("Timer2Delay", mButton2.timer.getMsDelayToGo());
-        outState.putInt("MoveCounter1", mButton1.mMoveNumber);
-        outState.putInt("MoveCounter2", mButton2.mMoveNumber);
-        outState.putString("State", mCurrentState.toString());
-
-        // if IDLE, the current state is NULL
-        if (mCurrentState != GameState.IDLE)
-            outState.putInt("ActiveButton", mActive.getButtonId());
+        ClockSnapshot clock = snapshot();
+        clock.settle(SystemClock.uptimeMillis());
+        long[] snapshot = new long[ClockSnapshot.ENGINE_FIELDS];
+        clock.copyEngineState(snapshot);
+        outState.putLongArray("Engine", snapshot);
+        outState.putString("State", clock.getState().toString());
     }
 
     // This is called after onCreate() and restores the activity state
-    // using data saved in onSaveInstanceState(). The activity will
-    // never be in the RUNNING state after this method.
+    // using data saved in onSaveInstanceState(), unless the engine was
+    // retained. The activity will never be in the RUNNING state after
+    // this method.
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
 
+        // the retained engine is more recent than the saved state
+        if (mReattachNanos >= 0)
+            return;
+
         GameState stateToRestore = GameState.valueOf(savedInstanceState
                 .getString("State"));
+        long[] snapshot = savedInstanceState.getLongArray("Engine");
 
         // onCreate() puts us in IDLE and we don't need to do anything else
-        if (stateToRestore == GameState.IDLE)
-            return;
-
-        long activeButtonId = savedInstanceState.getInt("ActiveButton");
-        boolean button1Active = mButton1.getButtonId() == activeButtonId;
-        boolean button2Active = mButton2.getButtonId() == activeButtonId;
-
-        mButton1.setTimeAndState(savedInstanceState.getLong("Timer1"),
-                savedInstanceState.getLong("Timer1Delay"),
-                savedInstanceState.getInt("MoveCounter1"), button1Active);
-        mButton2.setTimeAndState(savedInstanceState.getLong("Timer2"),
-                savedInstanceState.getLong("Timer2Delay"),
-                savedInstanceState.getInt("MoveCounter2"), button2Active);
-
-        if (stateToRestore == GameState.DONE) {
-            transitionTo(GameState.DONE);
+        if (stateToRestore == GameState.IDLE || snapshot == null
+                || snapshot.length != ClockSnapshot.ENGINE_FIELDS)
             return;
-        }
-
-        if (stateToRestore == GameState.PAUSED) {
-            transitionToPauseAndToast();
-            return;
-        }
 
+        // showEngineState() follows when the engine has restored it
+        mClock.restore(stateToRestore, snapshot);
     }
 
     @Override
@@ -272,6 +310,9 @@ public class ChessTimerActivity extends Activity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         transitionToPauseAndToast();
+        ClockSnapshot clock = snapshot();
+        menu.findItem(R.id.optionsmenu_undo).setEnabled(clock.canUndo());
+        menu.findItem(R.id.optionsmenu_redo).setEnabled(clock.canRedo());
         return true;
     }
 
@@ -282,6 +323,18 @@ public class ChessTimerActivity extends Activity {
         case R.id.optionsmenu_preferences:
             launchPreferencesActivity();
             break;
+        case R.id.optionsmenu_presets:
+            showPresetsDialog();
+            break;
+        case R.id.optionsmenu_undo:
+            undoMove();
+            break;
+        case R.id.optionsmenu_redo:
+            redoMove();
+            break;
+        case R.id.optionsmenu_history:
+            startActivity(new Intent().setClass(this, GameHistory.class));
+            break;
         case R.id.optionsmenu_about:
             showAboutDialog();
             break;
@@ -317,93 +370,210 @@ public class ChessTimerActivity extends Activity {
             } else {
                 loadUiPreferences();
             }
-        } else if (requestCode == REQUEST_CODE_ADJUST_TIME) {
-            if (data == null)
-                return; // no change
-            long newTime = data.getLongExtra(AdjustClock.NEW_TIME, 0);
-            String playerColor = data.getStringExtra(AdjustClock.COLOR);
-            PlayerButton button;
-            if (playerColor.equalsIgnoreCase("white"))
-                button = mButton1;
-            else
-                button = mButton2;
+        }
+    }
 
-            button.adjustTime(newTime);
-            if (mActive != null && mActive != button) {
-                button.setTransparency(BUTTON_FADED);
-            }
+    private void acquireMediaPlayer() {
+        releaseMediaPlayer();
+        // the click is loaded on the conditions it is played under
+        mSounds = new ClockSounds(mPlaySoundOnClick || mHasLowTimeWarnings,
+                mPlaySoundAtEnd);
+        SoundPlayer player = new SoundPlayer(mSounds,
+                (AudioManager) getSystemService(Context.AUDIO_SERVICE),
+                mPlaySoundOnClick, mHasLowTimeWarnings, mPlaySoundAtEnd);
+        mSoundSubscription = mClock.events().subscribe(player, mSoundExecutor,
+                MoveEventBus.DEFAULT_BATCH);
+    }
 
+    private void releaseMediaPlayer() {
+        if (mSoundSubscription != null) {
+            mClock.events().unsubscribe(mSoundSubscription);
+            mSoundSubscription = null;
+        }
+        if (mSounds != null) {
+            mSounds.release();
+            mSounds = null;
         }
     }
 
-    private void acquireMediaPlayer() {
-        mSoundPool = new SoundPool(1, AudioManager.STREAM_MUSIC, 100);
-        if (mPlaySoundAtEnd) {
-            mBellId = getMediaPlayer(R.raw.bell);
+    /**
+     * Plays the click for each move, start and resume, a click for each
+     * low time warning (configuring warnings asks for them), and the bell
+     * at flag fall, on the sound executor. Of several events in one batch only the latest is heard,
+     * the others would come late.
+     */
+    static final class SoundPlayer implements MoveEventBus.Consumer {
+        private final ClockSounds mSounds;
+        private final AudioManager mAudioManager;
+        private final boolean mClickOnMove;
+        private final boolean mClickOnWarning;
+        private final boolean mSoundAtEnd;
+
+        SoundPlayer(ClockSounds sounds, AudioManager audioManager,
+                boolean clickOnMove, boolean clickOnWarning, boolean soundAtEnd) {
+            mSounds = sounds;
+            mAudioManager = audioManager;
+            mClickOnMove = clickOnMove;
+            mClickOnWarning = clickOnWarning;
+            mSoundAtEnd = soundAtEnd;
         }
-        if (mPlaySoundOnClick) {
-            mClickId = getMediaPlayer(R.raw.click);
+
+        @Override
+        public void onEvents(MoveEventBus.Batch batch) {
+            long click = -1;
+            long bell = -1;
+            for (int i = 0; i < batch.size(); i++) {
+                switch (batch.type(i)) {
+                case MoveEventBus.START:
+                case MoveEventBus.RESUME:
+                case MoveEventBus.SWITCH:
+                    if (mClickOnMove)
+                        click = batch.when(i);
+                    break;
+                case MoveEventBus.LOW_TIME:
+                    if (mClickOnWarning)
+                        click = batch.when(i);
+                    break;
+                case MoveEventBus.FLAG:
+                    if (mSoundAtEnd)
+                        bell = batch.when(i);
+                    break;
+                default:
+                    break;
+                }
+            }
+            if (click >= 0)
+                play(ClockSounds.CLICK, click);
+            if (bell >= 0)
+                play(ClockSounds.BELL, bell);
         }
 
+        // 'now' is the uptime of the tap or event the sound answers
+        private void play(int voice, long now) {
+            float curVolume = mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+            float maxVolume = mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+            mSounds.play(voice, curVolume / maxVolume, now);
+        }
     }
 
-    private int getMediaPlayer(int media) {
-        int id = -1;
-        try {
-            AssetFileDescriptor afd = getResources().openRawResourceFd(media);
-            if (afd == null)
-                return id;
-            id = mSoundPool.load(afd, 1);
-            afd.close();
-        } catch (IOException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
-        } catch (IllegalArgumentException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
-        } catch (SecurityException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
+    /**
+     * Saves each finished game to the archive, on its own thread.
+     */
+    static final class ArchiveWriter implements MoveEventBus.Consumer {
+        private final GameArchive mArchive;
+        private final MoveEventBus mEvents;
+        private final ExecutorService mExecutor = MoveEventBus.newExecutor("ArchiveWriter");
+        private final MoveEventBus.Subscription mSubscription;
+
+        ArchiveWriter(GameArchive archive, MoveEventBus events) {
+            mArchive = archive;
+            mEvents = events;
+            mSubscription = events.subscribe(this, mExecutor, MoveEventBus.DEFAULT_BATCH);
+        }
+
+        @Override
+        public void onEvents(MoveEventBus.Batch batch) {
+            if (batch.dropped() > 0)
+                Log.d(TAG, batch.dropped() + " events dropped, games may be missing");
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.type(i) != MoveEventBus.GAME_FINISHED)
+                    continue;
+                try {
+                    mArchive.append((ArchivedGame) batch.payload(i));
+                } catch (IOException ex) {
+                    Log.d(TAG, "saving game failed:", ex);
+                }
+            }
+        }
+
+        // Close the archive after the games already published are saved.
+        // The last task on the executor drains the bus up to now; only
+        // then is the subscription closed (so no later drain touches the
+        // archive) and the archive with it.
+        void close() {
+            final long end = mEvents.published();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mSubscription.drainTo(end);
+                    mEvents.unsubscribe(mSubscription);
+                    try {
+                        mArchive.close();
+                    } catch (IOException ex) {
+                        Log.d(TAG, "close failed:", ex);
+                    }
+                }
+            });
+            mExecutor.shutdown();
         }
-        return id;
     }
 
-    private void releaseMediaPlayer() {
-        if (mSoundPool != null) {
-            mSoundPool.release();
-            mSoundPool = null;
-            mClickId = -1;
-            mBellId = -1;
+    // The UI thread's copy of the clock state, refreshed
+    ClockSnapshot snapshot() {
+        mClock.read(mSnapshot);
+        return mSnapshot;
+    }
+
+    /**
+     * Reacts to what happens in the engine.
+     */
+    final class EngineCallbacks implements EngineThread.Callbacks {
+        @Override
+        public void onEngineChanged() {
+            showEngineState();
         }
     }
 
-    void playBell() {
-        playSound(mBellId);
+    TickScheduler tickScheduler() {
+        return mTicks;
     }
 
-    void playClick() {
-        playSound(mClickId);
+    TickScheduler frameScheduler() {
+        return mFrameTicks;
     }
 
-    private void playSound(int soundID) {
-        if (mSoundPool == null) {
-            return;
+    // The display's frame period, FRAME_NANOS if it reports no rate
+    long framePeriodNanos() {
+        float rate = getWindowManager().getDefaultDisplay().getRefreshRate();
+        return (rate >= 1) ? (long) (1e9 / rate) : FRAME_NANOS;
+    }
+
+    PlayerButton buttonOf(int player) {
+        return mButtons[player];
+    }
+
+    private void openArchive() {
+        try {
+            mArchive = new ArchiveWriter(new GameArchive(new File(getFilesDir(),
+                    ARCHIVE_DIRECTORY)), mClock.events());
+        } catch (IOException ex) {
+            Log.d(TAG, "archive unavailable:", ex);
         }
-        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        float curVolume = audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
-        float maxVolume = audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-        float leftVolume = curVolume / maxVolume;
-        float rightVolume = curVolume / maxVolume;
-        int priority = 1;
-        int no_loop = 0;
-        float normal_playback_rate = 1f;
-        mSoundPool.play(soundID, leftVolume, rightVolume, priority, no_loop, normal_playback_rate);
     }
+
+    private void closeArchive() {
+        if (mArchive == null)
+            return;
+        mArchive.close();
+        mArchive = null;
+    }
+
+    // Undo the last move switch, restoring all clocks, the move numbers
+    // and the side to move exactly as they were at the tap
+    void undoMove() {
+        mClock.undo(SystemClock.uptimeMillis());
+    }
+
+    // Redo the last undone move switch
+    void redoMove() {
+        mClock.redo(SystemClock.uptimeMillis());
+    }
+
     private void releaseWakeLock() {
         if (mWakeLock != null) {
             if (mWakeLock.isHeld()) {
                 mWakeLock.release();
-                Log.d(TAG, "released wake lock " + mWakeLock);
+                Tracing.event(Tracing.EVENT_WAKE_LOCK, 0, mWakeLockType);
             }
         }
     }
@@ -413,90 +583,137 @@ public class ChessTimerActivity extends Activity {
         PowerManager pm = (PowerManager) getSystemService(ChessTimerActivity.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(mWakeLockType, TAG);
         mWakeLock.acquire();
-        Log.d(TAG, "acquired wake lock " + mWakeLock);
+        Tracing.event(Tracing.EVENT_WAKE_LOCK, 1, mWakeLockType);
     }
 
-    // All state transitions occur here. The logic that controls
-    // the UI elements is here.
+    // All state transitions are requested here. The engine thread
+    // carries them out and showEngineState() updates the UI elements
+    // when it publishes the new state.
     public void transitionTo(GameState state) {
-        GameState start = mCurrentState;
+        Tracing.begin(Tracing.SECTION_TRANSITION);
+        GameState start = snapshot().getState();
+        long now = SystemClock.uptimeMillis();
 
         switch (state) {
         case IDLE:
-            mCurrentState = GameState.IDLE;
+            mClock.reset();
+            break;
+
+        case RUNNING:
+            if (start == GameState.IDLE)
+                mClock.start(mActive.timer.getPlayer(), now);
+            else
+                mClock.resume(now);
+
+            // start the clock
+            mActive.moveStarted();
+            break;
+
+        case PAUSED:
+            // pause the clock
+            mClock.pause(now);
+            break;
+
+        case DONE:
+            // the engine ends the game when a flag falls
+            break;
+        }
+
+        Tracing.event(Tracing.EVENT_STATE, start.ordinal(), state.ordinal());
+        Tracing.end();
+
+    }
+
+    // Set the buttons for the given state
+    private void showControls(GameState state) {
+        switch (state) {
+        case IDLE:
             mStartButton.setEnabled(true);
             mStartButton.setVisibility(View.VISIBLE);
             mResetButton.setEnabled(false);
             mPauseButton.setVisibility(View.GONE);
-            mButton1.reset();
-            mButton2.reset();
             break;
 
         case RUNNING:
-            mCurrentState = GameState.RUNNING;
             mResetButton.setEnabled(true);
             mStartButton.setEnabled(false);
             mStartButton.setVisibility(View.GONE);
             mPauseButton.setVisibility(View.VISIBLE);
             mPauseButton.setClickable(true); // enable 'pause'
             mPauseButton.setChecked(false); // set toggle to show "pause" text
-
-            // start the clock
-            mActive.moveStarted();
             break;
 
         case PAUSED:
-            mCurrentState = GameState.PAUSED;
+            mResetButton.setEnabled(true);
             mStartButton.setVisibility(View.GONE);
             mPauseButton.setVisibility(View.VISIBLE);
             mPauseButton.setChecked(true); // Changes text on Pause button
             mPauseButton.setClickable(true); // enable 'resume'
-            // pause the clock
-            mActive.timer.pause();
             break;
 
         case DONE:
-            if (mActive != null) {
-                mCurrentState = GameState.DONE;
-                mStartButton.setEnabled(true);
-                mStartButton.setVisibility(View.VISIBLE);
-                mPauseButton.setVisibility(View.GONE);
-                mResetButton.setEnabled(true);
-                mPauseButton.setClickable(false); // disable pause when DONE
-                break;
-            } else {
-                Log.d(TAG,
-                        "Can't tranition to DONE when neither player is active");
-                return;
-            }
+            mStartButton.setEnabled(true);
+            mStartButton.setVisibility(View.VISIBLE);
+            mPauseButton.setVisibility(View.GONE);
+            mResetButton.setEnabled(true);
+            mPauseButton.setClickable(false); // disable pause when DONE
+            break;
+        }
+    }
 
+    // Make the UI show the engine as it is. This runs whenever the engine
+    // thread has published a new state, and when the activity reattaches.
+    private void showEngineState() {
+        ClockSnapshot clock = snapshot();
+        showControls(clock.getState());
+        int active = clock.getActive();
+        if (active == ClockEngine.NO_PLAYER) {
+            mActive = null;
+            resetButtons();
+        } else {
+            setActiveButtonAndMoveCount(buttonOf(active));
         }
+        if (mFeed != null)
+            mFeed.stateChanged(clock);
+        for (PlayerButton button : mButtons) {
+            button.timer.update();
+        }
+        mAdjustOverlay.update();
+    }
 
-        Log.d(TAG, "Transition from " + start + " to " + mCurrentState);
+    // A clock's text changed to show 'ms'
+    void displayChanged(int player, long ms) {
+        if (mFeed != null)
+            mFeed.displayChanged(player, ms);
+    }
 
+    private void resetButtons() {
+        for (PlayerButton button : mButtons) {
+            button.reset();
+        }
     }
 
     public void setActiveButtonAndMoveCount(PlayerButton button) {
         mActive = button;
 
         // Give visual indication of which player goes next by fading
-        // the button of the player who just moved
+        // the buttons of the players who are not on move
+        for (PlayerButton other : mButtons) {
+            if (other != mActive) {
+                other.setTransparency(BUTTON_FADED);
+                other.mMoveCounter.setVisibility(View.GONE);
+            }
+        }
         mActive.setTransparency(BUTTON_VISIBLE);
-        PlayerButton other = (mButton1 == mActive ? mButton2 : mButton1);
-        other.setTransparency(BUTTON_FADED);
 
         if (mShowMoveCounter) {
             mActive.mMoveCounter.setVisibility(View.VISIBLE);
-            String s = getString(R.string.move_counter_text) + " "
-                    + mActive.mMoveNumber;
-            mActive.mMoveCounter.setText(s);
-            other.mMoveCounter.setVisibility(View.GONE);
+            mActive.showMoveStats(mSnapshot);
         } else {
             mActive.mMoveCounter.setVisibility(View.GONE);
-            other.mMoveCounter.setVisibility(View.GONE);
         }
 
-        Log.d(TAG, "Setting active button = " + button.getButtonId());
+        // no logging here, this runs on every move
     }
 
     public void launchPreferencesActivity() {
@@ -508,15 +725,100 @@ public class ChessTimerActivity extends Activity {
                 REQUEST_CODE_PREFERENCES);
     }
 
-    public void launchAdjustPlayerClockActivity(String color, long time) {
-        // launch an activity through this intent
-        Intent launchAdjustPlayerClockIntent = new Intent().setClass(this,
-                AdjustClock.class);
-        launchAdjustPlayerClockIntent.putExtra(EXTRA_COLOR, color);
-        launchAdjustPlayerClockIntent.putExtra(EXTRA_TIME, time);
-        // Make it a subactivity so we know when it returns
-        startActivityForResult(launchAdjustPlayerClockIntent,
-                REQUEST_CODE_ADJUST_TIME);
+    // Adjust a player's clock in place (the game is paused first)
+    public void showAdjustOverlay(int player, long time) {
+        mAdjustOverlay.show(player, time);
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (mAdjustOverlay.isShowing()) {
+            mAdjustOverlay.cancel();
+            return;
+        }
+        super.onBackPressed();
+    }
+
+    // The presets, then saving the current time control as one and
+    // deleting one
+    void showPresetsDialog() {
+        final int count = mPresets.size();
+        String[] items = new String[count + 2];
+        System.arraycopy(mPresets.names(), 0, items, 0, count);
+        items[count] = getString(R.string.presets_save);
+        items[count + 1] = getString(R.string.presets_delete);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.optionsmenu_presets)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which < count)
+                            applyPreset(mPresets.get(which));
+                        else if (which == count)
+                            showSavePresetDialog();
+                        else
+                            showDeletePresetDialog();
+                    }
+                }).show();
+    }
+
+    // One write of the preferences, and the engine configured from the
+    // parsed preset; the clocks are reset as after a settings change
+    void applyPreset(TimeControlPresets.Preset preset) {
+        long start = System.nanoTime();
+        SharedPreferences.Editor editor = mSharedPref.edit();
+        TimeControlPreferences.write(editor, preset);
+        TimeControlPreferences.save(editor);
+        final TimeControlPresets.Preset chosen = preset;
+        mClock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                chosen.applyTo(engine);
+            }
+        });
+        if (mPauseDialog != null)
+            mPauseDialog.cancel();
+        transitionTo(GameState.IDLE);
+        Tracing.event(Tracing.EVENT_PRESET_APPLIED, (System.nanoTime() - start) / 1000);
+        Toast.makeText(this, preset.name, Toast.LENGTH_SHORT).show();
+    }
+
+    private void showSavePresetDialog() {
+        final EditText name = new EditText(this);
+        name.setSingleLine();
+        name.setHint(R.string.presets_name);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.presets_save)
+                .setView(name)
+                .setPositiveButton(R.string.OK, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ClockEngine current = new ClockEngine();
+                        TimeControlPreferences.load(mSharedPref, current);
+                        String saved = mPresets.add(name.getText().toString(),
+                                TimeControlPresets.Preset.of("", current));
+                        if (saved != null)
+                            savePresets();
+                    }
+                }).setNegativeButton(R.string.cancel, null).show();
+    }
+
+    private void showDeletePresetDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.presets_delete)
+                .setItems(mPresets.names(), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mPresets.remove(which);
+                        savePresets();
+                    }
+                }).show();
+    }
+
+    private void savePresets() {
+        SharedPreferences.Editor editor = mSharedPref.edit();
+        TimeControlPreferences.putPresets(editor, mPresets);
+        TimeControlPreferences.save(editor);
     }
 
     public void showAboutDialog() {
@@ -566,51 +868,28 @@ public class ChessTimerActivity extends Activity {
     private void loadUiPreferences() {
         loadMoveCounterUserPreference();
         loadSwapSidesUserPreference();
+        loadLowTimeWarningUserPreference();
         loadAudibleNotificationUserPreference();
         loadScreenDimUserPreference();
+        loadSharedFeedUserPreference();
+        loadHundredthsUserPreference();
     }
 
-    // determine whether we're using BASIC or TOURNAMENT time control
+    // The time control is loaded on the engine thread, in order with the
+    // commands (see TimeControlPreferences).
     private void loadTimeControlPreferences() {
-        String s = mSharedPref.getString(
-                TimerOptions.Key.TIMECONTROL_TYPE.toString(),
-                "DISABLED");
-        TimerOptions.TimeControl timeControl = TimerOptions.TimeControl.valueOf(s);
-
-        if (timeControl == TimeControl.DISABLED) {
-            mTimeControlType = TimeControlType.BASIC;
-            loadBasicTimeControlUserPreference();
-        } else {
-            mTimeControlType = TimeControlType.TOURNAMENT;
-            loadAdvancedTimeControlUserPreference();
-        }
-    }
-
-    private void loadBasicTimeControlUserPreference() {
-        loadInitialTimeUserPreferences();
-        loadIncrementUserPreference(TimerOptions.Key.INCREMENT_SECONDS);
-        loadDelayTypeUserPreference(TimerOptions.Key.DELAY_TYPE);
-        loadNegativeTimeUserPreference(TimerOptions.Key.NEGATIVE_TIME);
-    }
-
-    private void loadAdvancedTimeControlUserPreference() {
-
-        int minutes1 = getTimerOptionsValue(TimerOptions.Key.FIDE_MIN_PHASE1);
-
-        setInitialDuration(minutes1 * 60);
-
-        mPhase1NumberMoves = getTimerOptionsValue(TimerOptions.Key.FIDE_MOVES_PHASE1);
-        mPhase2Minutes = getTimerOptionsValue(TimerOptions.Key.FIDE_MIN_PHASE2);
-
-        loadDelayTypeUserPreference(TimerOptions.Key.ADV_DELAY_TYPE);
-        loadIncrementUserPreference(TimerOptions.Key.ADV_INCREMENT_SECONDS);
-        loadNegativeTimeUserPreference(TimerOptions.Key.ADV_NEGATIVE_TIME);
+        mClock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                TimeControlPreferences.load(mSharedPref, engine);
+            }
+        });
     }
 
     private void loadMoveCounterUserPreference() {
         mShowMoveCounter = mSharedPref.getBoolean(
                 TimerOptions.Key.SHOW_MOVE_COUNTER.toString(), false);
-        if (mCurrentState == GameState.PAUSED)
+        if (snapshot().getState() == GameState.PAUSED && mActive != null)
             setActiveButtonAndMoveCount(mActive);
     }
 
@@ -625,7 +904,7 @@ public class ChessTimerActivity extends Activity {
                 TimerOptions.Key.PLAY_BELL.toString(), false);
         mPlaySoundOnClick = mSharedPref.getBoolean(
                 TimerOptions.Key.PLAY_CLICK.toString(), false);
-        acquireMediaPlayer();
+        // the sounds are (re)loaded in onResume()
     }
 
     private void configureSides() {
@@ -678,14 +957,15 @@ public class ChessTimerActivity extends Activity {
 
     }
 
-    private void loadNegativeTimeUserPreference(TimerOptions.Key key) {
-        mAllowNegativeTime = mSharedPref.getBoolean(key.toString(), false);
-    }
-
-    private void loadDelayTypeUserPreference(TimerOptions.Key key) {
-        String delayTypeString = mSharedPref.getString(key.toString(),
-                "FISCHER");
-        mDelayType = DelayType.valueOf(delayTypeString.toUpperCase());
+    private void loadLowTimeWarningUserPreference() {
+        final long[] warningsMs = TimeControlPreferences.lowTimeWarnings(mSharedPref);
+        mHasLowTimeWarnings = warningsMs.length > 0;
+        mClock.configure(new EngineThread.Task() {
+            @Override
+            public void run(ClockEngine engine) {
+                engine.mLowTimeWarningsMs = warningsMs;
+            }
+        });
     }
 
     private void loadScreenDimUserPreference() {
@@ -696,60 +976,143 @@ public class ChessTimerActivity extends Activity {
                 : PowerManager.SCREEN_BRIGHT_WAKE_LOCK;
     }
 
-    private void loadIncrementUserPreference(TimerOptions.Key key) {
-        int seconds = getTimerOptionsValue(key);
-        setIncrement(seconds);
-    }
-
-    private void loadInitialTimeUserPreferences() {
-        int minutes = getTimerOptionsValue(TimerOptions.Key.MINUTES);
-        int seconds = getTimerOptionsValue(TimerOptions.Key.SECONDS);
-        setInitialDuration(minutes * 60 + seconds);
-    }
-
-    private int getTimerOptionsValue(TimerOptions.Key key) {
-        try {
-            String s = mSharedPref.getString(key.toString(), "0");
-
-            if (s.length() == 0) {
-                s = "0";
+    // The frame ticks need Choreographer (API 16, JELLY_BEAN): below that
+    // the clocks keep to tenths
+    private void loadHundredthsUserPreference() {
+        long windowMs = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            String seconds = mSharedPref.getString(
+                    TimerOptions.Key.HUNDREDTHS.toString(), "0");
+            try {
+                windowMs = Math.min(Long.parseLong(seconds), 10) * 1000;
+            } catch (NumberFormatException ex) {
+                windowMs = 0;
             }
-
-            return (Integer.parseInt(s));
-
-        } catch (NumberFormatException ex) {
-            Log.d(TAG, ex.getMessage());
-            return 0;
+        }
+        for (PlayerButton button : mButtons) {
+            button.timer.setHundredthsWindow(windowMs);
+            button.timer.update();
         }
     }
 
-    private void setInitialDuration(int seconds) {
-        mInitialDurationSeconds = seconds;
+    // The feed goes in the external files directory (API 8 and up), where
+    // other apps can read it, else in the private one
+    private void loadSharedFeedUserPreference() {
+        boolean share = mSharedPref.getBoolean(
+                TimerOptions.Key.SHARED_FEED.toString(), false);
+        if (!share) {
+            closeFeed();
+            return;
+        }
+        if (mFeed != null)
+            return;
+        File dir = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO)
+            dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
+        try {
+            mFeed = ClockFeed.create(new File(dir, FEED_FILE));
+        } catch (IOException ex) {
+            Log.d(TAG, "clock feed unavailable:", ex);
+            return;
+        }
+        // the redraws only publish the clocks whose text changes
+        ClockSnapshot clock = snapshot();
+        mFeed.stateChanged(clock);
+        long now = SystemClock.uptimeMillis();
+        for (int player = 0; player < clock.getPlayerCount(); player++) {
+            mFeed.displayChanged(player, clock.getMsToGo(player, now));
+        }
     }
 
-    private void setIncrement(int seconds) {
-        mIncrementSeconds = seconds;
+    private void closeFeed() {
+        if (mFeed != null) {
+            mFeed.close();
+            mFeed = null;
+        }
     }
 
     // Class to aggregate a button, a timer and a move counter.
-    // It provides a method for setting the time which is used when the
-    // activity must be recreated after it had been started.
-    // The methods of this class implement the logic of when time
-    // should be added to each clock according to the style of time
-    // control that the user configured.
+    // The time control logic (when time is added to each clock) is in
+    // the ClockEngine; this class only deals with the views.
     class PlayerButton {
         Timer timer;
         ImageButton button;
+        PlayerButtonClickListener listener;
+        // this button's own drawable over the shared player bitmap
+        private final BitmapDrawable mImage;
+        private int mAlpha = BUTTON_VISIBLE;
         TextView mMoveCounter;
         private int mId;
-        private int mMoveNumber;
+        // "Move " followed by room for the number and the move
+        // statistics; the TextView shows this buffer without copying it
+        private final char[] mMoveCounterText;
+        private final int mMoveCounterPrefix;
+        private final String mAverageLabel;
+        private final String mLastLabel;
+        private final String mControlLabel;
 
         PlayerButton(Timer timer, int buttonId, int moveCounterId) {
             this.timer = timer;
             button = (ImageButton) findViewById(buttonId);
+            mImage = new BitmapDrawable(getResources(),
+                    PlayerBitmaps.get(getResources(), timer.getPlayer()));
+            button.setImageDrawable(mImage);
             mMoveCounter = (TextView) findViewById(moveCounterId);
             mId = buttonId;
-            mMoveNumber = 1;
+            String prefix = getString(R.string.move_counter_text) + " ";
+            mMoveCounterPrefix = prefix.length();
+            mAverageLabel = getString(R.string.move_stats_average) + " ";
+            mLastLabel = "  " + getString(R.string.move_stats_last) + " ";
+            mControlLabel = getString(R.string.move_stats_control) + " ";
+            mMoveCounterText = new char[mMoveCounterPrefix + 10
+                    + mAverageLabel.length() + mLastLabel.length()
+                    + mControlLabel.length() + 20 + 4 * Utils.MAX_TIME_CHARS];
+            prefix.getChars(0, mMoveCounterPrefix, mMoveCounterText, 0);
+        }
+
+        // The move number, then the player's average (and deviation) and
+        // last move, and the time projected at the next control:
+        //
+        // Move 12
+        // avg 34 +-8  last 12 (with a plus-minus sign)
+        // at move 40: 5:12
+        //
+        // The statistics are kept by the engine (see MoveStats); this only
+        // formats them into the buffer, so it allocates nothing.
+        void showMoveStats(ClockSnapshot clock) {
+            int player = timer.getPlayer();
+            char[] out = mMoveCounterText;
+            int n = Utils.appendNumber(out, mMoveCounterPrefix,
+                    clock.getMoveNumber(player), 1);
+            if (clock.getTimedMoves(player) > 0) {
+                out[n++] = '\n';
+                n = append(out, n, mAverageLabel);
+                n = Utils.formatTime(clock.getMeanMoveMs(player), out, n);
+                if (clock.getTimedMoves(player) > 1) {
+                    out[n++] = ' ';
+                    out[n++] = '\u00b1';
+                    n = Utils.formatTime(clock.getMoveDeviationMs(player), out, n);
+                }
+                n = append(out, n, mLastLabel);
+                n = Utils.formatTime(clock.getLastMoveMs(player), out, n);
+            }
+            long projected = clock.getProjectedMsAtControl(player);
+            if (projected != MoveStats.NO_PROJECTION) {
+                out[n++] = '\n';
+                n = append(out, n, mControlLabel);
+                n = Utils.appendNumber(out, n, clock.getControlMoves(), 1);
+                out[n++] = ':';
+                out[n++] = ' ';
+                n = Utils.formatTime(projected, out, n);
+            }
+            mMoveCounter.setText(out, 0, n);
+        }
+
+        private int append(char[] out, int pos, String text) {
+            text.getChars(0, text.length(), out, pos);
+            return pos + text.length();
         }
 
         public int getButtonId() {
@@ -757,80 +1120,54 @@ public class ChessTimerActivity extends Activity {
         }
 
         void setButtonListener(PlayerButtonClickListener listener) {
+            this.listener = listener;
             button.setOnClickListener(listener);
         }
 
-        // 0 is fully transparent, 255 is fully opaque
+        // 0 is fully transparent, 255 is fully opaque. Only changes the
+        // alpha of this button's Paint; the drawable redraws itself.
         private void setTransparency(int alpha) {
-            if (button == null)
-            {
-                Log.e(TAG, "Button is NULL");
-            }
-
-            button.getDrawable().setAlpha(alpha);
-            button.invalidateDrawable(button.getDrawable());
-        }
-
-        public void setTimeAndState(long time, long delay, int moveCount,
-                boolean isActive) {
-            if (isActive)
-                setActiveButtonAndMoveCount(this);
-            mMoveNumber = moveCount;
-            timer.initializeWithValue(time, delay);
+            if (alpha == mAlpha)
+                return;
+            mAlpha = alpha;
+            mImage.setAlpha(alpha);
         }
 
         public void adjustTime(long time) {
-            timer.initializeWithValue(time, timer.getMsDelayToGo());
+            mClock.setMsToGo(timer.getPlayer(), time, SystemClock.uptimeMillis());
         }
 
         // Put the button into the initial 'IDLE' configuration
         public void reset() {
-            mMoveNumber = 1;
-            timer.reset();
+            timer.update();
             setTransparency(BUTTON_VISIBLE);
             mMoveCounter.setVisibility(View.GONE);
         }
 
-        public void moveFinished() {
-
-            mMoveNumber++;
-
-            if (mTimeControlType == TimeControlType.TOURNAMENT) {
-                if (mMoveNumber == (mPhase1NumberMoves + 1)) {
-                    timer.increment(mPhase2Minutes * 60);
-                }
-            }
-
-            timer.moveFinished();
-
-            if (mDelayType == DelayType.FISCHER)
-                timer.increment(mIncrementSeconds);
-
-        }
-
+        // The click is played by the SoundPlayer when the engine has
+        // switched
         public void moveStarted() {
-            if (mPlaySoundOnClick) {
-                playClick();
-            }
-            timer.moveStarted();
+            timer.update();
         }
     }
 
     /**
-     * Pause one clock and start the other when a button is clicked.
+     * Pause one clock and start the next player's when a button is clicked.
      */
     final class PlayerButtonClickListener implements OnClickListener {
-        PlayerButton mine, other;
+        PlayerButton mine;
 
-        public PlayerButtonClickListener(PlayerButton mine, PlayerButton other) {
+        public PlayerButtonClickListener(PlayerButton mine) {
             this.mine = mine;
-            this.other = other;
         }
 
         @Override
         public void onClick(View v) {
+            long now = SystemClock.uptimeMillis();
+            ClockSnapshot clock = snapshot();
+            int player = mine.timer.getPlayer();
 
-            switch (mCurrentState) {
+            switch (clock.getState()) {
 
             case PAUSED:
                 // alternate way to un-pause the activity
@@ -842,16 +1179,15 @@ public class ChessTimerActivity extends Activity {
                 return;
 
             case RUNNING:
-                if (mine.timer.isRunning()) {
-                    mine.moveFinished();
-                    other.moveStarted();
-                    setActiveButtonAndMoveCount(other);
-                }
+                // the buttons follow when the engine has switched
+                // (onEngineChanged() refreshes both clocks)
+                if (clock.isRunning(player))
+                    mClock.switchMove(player, now);
                 break;
 
             case IDLE:
-                // the game just started
-                setActiveButtonAndMoveCount(other);
+                // the game just started, the next player is on move
+                setActiveButtonAndMoveCount(buttonOf(clock.nextPlayer(player)));
                 transitionTo(GameState.RUNNING);
                 break;
             }
@@ -906,10 +1242,11 @@ public class ChessTimerActivity extends Activity {
         @Override
         public void onClick(View v) {
 
-            if (mCurrentState == GameState.DONE)
+            GameState state = snapshot().getState();
+            if (state == GameState.DONE)
                 return;
-            if (mCurrentState == GameState.IDLE) {
-                setActiveButtonAndMoveCount(mButton1);
+            if (state == GameState.IDLE) {
+                setActiveButtonAndMoveCount(mButtons[WHITE]);
                 transitionTo(GameState.RUNNING);
                 return;
             }
@@ -923,9 +1260,10 @@ public class ChessTimerActivity extends Activity {
         @Override
         public void onClick(View v) {
 
-            if (mCurrentState == GameState.DONE)
+            GameState state = snapshot().getState();
+            if (state == GameState.DONE)
                 return;
-            if (mCurrentState == GameState.PAUSED) {
+            if (state == GameState.PAUSED) {
                 transitionTo(GameState.RUNNING);
             } else {
                 transitionToPauseAndToast();
@@ -934,7 +1272,8 @@ public class ChessTimerActivity extends Activity {
     }
 
     public void transitionToPauseAndToast() {
-        if (mCurrentState == GameState.DONE || mCurrentState == GameState.IDLE)
+        GameState state = snapshot().getState();
+        if (state == GameState.DONE || state == GameState.IDLE)
             return;
         transitionTo(GameState.PAUSED);
         Toast.makeText(this, getString(R.string.pause_toast),
@@ -0,0 +1,82 @@
+package johnwilde.androidchessclock;
+
+import android.view.Choreographer;
+
+// Ticks run as Choreographer frame callbacks.
+//
+// A frame callback runs at the start of the first frame after its delay,
+// before that frame's layout and drawing, so the text a tick sets is on
+// screen in the same frame instead of waiting for the next vsync. The
+// price is that a tick is late by up to a frame (16 ms at 60 Hz).
+//
+// Each task gets one FrameCallback, made the first time the task is
+// scheduled and reused after that. Create and use on the UI thread: the
+// Choreographer belongs to the thread's looper.
+//
+// Choreographer exists from API 16 (JELLY_BEAN); TickSchedulers falls
+// back to the Handler below that.
+final class ChoreographerTickScheduler implements TickScheduler {
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    // the tasks seen so far and their callbacks; a clock has one or two
+    private Runnable[] mTasks = new Runnable[2];
+    private Choreographer.FrameCallback[] mCallbacks = new Choreographer.FrameCallback[2];
+    private int mCount;
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        Choreographer.FrameCallback callback = callbackOf(task);
+        mChoreographer.removeFrameCallback(callback);
+        mChoreographer.postFrameCallbackDelayed(callback, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (int i = 0; i < mCount; i++) {
+            if (mTasks[i] == task)
+                mChoreographer.removeFrameCallback(mCallbacks[i]);
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public int wakeupsPerTick() {
+        return 1;
+    }
+
+    @Override
+    public void release() {
+        for (int i = 0; i < mCount; i++) {
+            mChoreographer.removeFrameCallback(mCallbacks[i]);
+        }
+    }
+
+    private Choreographer.FrameCallback callbackOf(final Runnable task) {
+        for (int i = 0; i < mCount; i++) {
+            if (mTasks[i] == task)
+                return mCallbacks[i];
+        }
+        if (mCount == mTasks.length) {
+            Runnable[] tasks = new Runnable[mCount * 2];
+            Choreographer.FrameCallback[] callbacks = new Choreographer.FrameCallback[mCount * 2];
+            System.arraycopy(mTasks, 0, tasks, 0, mCount);
+            System.arraycopy(mCallbacks, 0, callbacks, 0, mCount);
+            mTasks = tasks;
+            mCallbacks = callbacks;
+        }
+        Choreographer.FrameCallback callback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                task.run();
+            }
+        };
+        mTasks[mCount] = task;
+        mCallbacks[mCount] = callback;
+        mCount++;
+        return callback;
+    }
+}
@@ -0,0 +1,671 @@
+package johnwilde.androidchessclock;
+
+import java.util.Random;
+
+// The clocks of a game, kept apart from the activity that shows them.
+//
+// The engine is not thread safe. On a device it is owned by an
+// EngineThread, which alone calls it and publishes its state to other
+// threads (see ClockSnapshot). ChessTimerActivity hands the EngineThread
+// over to the next instance when it is recreated for a configuration
+// change, so a running game keeps running and the new activity only has
+// to bind its views.
+//
+// The engine has no timers of its own. Every method that depends on
+// time takes 'now' (uptime milliseconds) from the caller. The running
+// clock is only charged when something happens (a switch, a pause, a
+// deadline); in between its values are computed from mSettledAt.
+//
+// Any number of players (up to MAX_PLAYERS) take turns in order; the
+// turn passes from player p to p + 1, and from the last player back to
+// player 0. Per player state is kept in arrays indexed by player:
+//
+// mMsToGo: ms until the clock reaches 0
+// mMsDelayToGo: ms left of the Bronstein delay for the current move
+// mMoveMs: ms spent on the current move so far (delay included)
+// mMoveNumber: the player's move number, starting at 1
+// mInOvertime: the main time is used up and mMsToGo counts down the
+// current byo-yomi period or Canadian block
+// mPeriodsLeft: in overtime, the byo-yomi periods left (the current one
+// included) or the moves still to make in the Canadian block
+//
+// The Bronstein delay is also the simple (US) delay: the clock does not
+// run for the first seconds of a move, which ends with the same time as
+// a Bronstein refund would. The overtime policy is a plain switch on
+// mOvertime at flag fall and at the end of a move, nothing is evaluated
+// while a clock runs.
+//
+// Flag fall, delay expiry and low time warnings are armed in a
+// DeadlineScheduler. The owner posts a wake-up for nextDeadline() and
+// calls pollDeadlines() when it is due.
+final class ClockEngine implements DeadlineScheduler.Listener {
+
+    /**
+     * The 4 states are:
+     *
+     * IDLE: Waiting for a player to make the first move.
+     *
+     * RUNNING: The timer for one player is running.
+     *
+     * PAUSED: Neither timer is running, but getActive() is the player
+     * whose timer will start when play is resumed.
+     *
+     * DONE: Neither timer is running and one timer has reached 0.0.
+     * getActive() is the player whose timer ran out.
+     *
+     */
+    enum GameState {
+        IDLE, RUNNING, PAUSED, DONE
+    };
+
+    enum TimeControlType {
+        BASIC, TOURNAMENT
+    };
+
+    enum DelayType {
+        FISCHER, BRONSTEIN;
+    }
+
+    /**
+     * What happens when a player's main time runs out.
+     *
+     * NONE: the flag falls.
+     *
+     * BYO_YOMI: the player gets mOvertimePeriods periods of
+     * mOvertimeSeconds. A move made within a period starts the next move
+     * with a full period; the flag falls when the last period runs out.
+     *
+     * CANADIAN: the player gets mOvertimeSeconds to make mOvertimePeriods
+     * moves, then a new block. The flag falls when a block runs out.
+     *
+     * HOURGLASS: the time a player uses is added to the next player's
+     * clock. There is no overtime.
+     */
+    enum OvertimeType {
+        NONE, BYO_YOMI, CANADIAN, HOURGLASS
+    }
+
+    interface Listener {
+        // A clock reached 0. If negative time is not allowed the game
+        // is over (state DONE) when this is called.
+        void onFlag(int player);
+
+        void onDelayExpired(int player);
+
+        void onLowTimeWarning(int player);
+
+        // The earliest armed deadline changed
+        void onDeadlinesChanged(long nextDeadline);
+
+        // A game with at least one move ended, or was reset
+        void onGameFinished(ArchivedGame game);
+    }
+
+    static final int MAX_PLAYERS = 8;
+    static final int NO_PLAYER = -1;
+    static final int UNDO_LEVELS = 64;
+    // moves the game record has room for when a game starts, more than
+    // all but the longest games; a switch past it copies the record
+    static final int RECORD_MOVES = 256;
+
+    // Time control, loaded from the preferences by the activity. Changes
+    // take effect at the next reset().
+    int mPlayers = 2;
+    TimeControlType mTimeControlType = TimeControlType.BASIC;
+    DelayType mDelayType = DelayType.FISCHER;
+    int mInitialDurationSeconds = 60;
+    int mIncrementSeconds;
+    int mPhase1NumberMoves;
+    int mPhase2Minutes;
+    boolean mAllowNegativeTime = false;
+    OvertimeType mOvertimeType = OvertimeType.NONE;
+    // byo-yomi: number of periods, Canadian: moves to make in a block
+    int mOvertimePeriods;
+    // byo-yomi: length of a period, Canadian: length of a block
+    int mOvertimeSeconds;
+    // remaining time (ms) at which each low time warning is given
+    long[] mLowTimeWarningsMs = new long[0];
+
+    private GameState mState = GameState.IDLE;
+    private int mActive = NO_PLAYER;
+    private long mSettledAt;
+
+    // the configuration of the game in progress, copied at reset()
+    private int mPlayerCount;
+    private OvertimeType mOvertime = OvertimeType.NONE;
+    private int mOvertimeCount;
+    private long mOvertimeMs;
+    private long mBronsteinMs;
+    // tournament: the move of the time control (0 for none), and the
+    // time added when it is reached
+    private int mControlMoves;
+    private long mPhase2Ms;
+    // Fischer increment of a move
+    private long mIncrementMs;
+    // the time control as the game record describes it
+    private int mRecordInitialSeconds;
+    private int mRecordIncrementSeconds;
+    private byte mRecordDelayType;
+    private byte mRecordControlType;
+    private int mRecordPhase1Moves;
+    private int mRecordPhase2Minutes;
+
+    private final long[] mMsToGo = new long[MAX_PLAYERS];
+    private final long[] mMsDelayToGo = new long[MAX_PLAYERS];
+    private final long[] mMoveMs = new long[MAX_PLAYERS];
+    private final int[] mMoveNumber = new int[MAX_PLAYERS];
+    private final boolean[] mInOvertime = new boolean[MAX_PLAYERS];
+    private final int[] mPeriodsLeft = new int[MAX_PLAYERS];
+    private final boolean[] mFlagged = new boolean[MAX_PLAYERS];
+    private final MoveStats mStats = new MoveStats(MAX_PLAYERS);
+
+    private final DeadlineScheduler mDeadlines = new DeadlineScheduler(MAX_PLAYERS);
+    private Listener mListener;
+
+    // Undo/redo of move switches. The snapshot arrays are reused for
+    // every switch.
+    private final MoveHistory mHistory = new MoveHistory(MAX_PLAYERS, UNDO_LEVELS);
+    private final long[] mBeforeSwitch = new long[mHistory.snapshotSize()];
+    private final long[] mAfterSwitch = new long[mHistory.snapshotSize()];
+
+    // Games are recorded into mGame while they are played and handed to
+    // the listener when they end.
+    private ArchivedGame mGame;
+    private final Random mRandom = new Random();
+
+    ClockEngine() {
+        reset();
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    GameState getState() {
+        return mState;
+    }
+
+    // The player on move, or NO_PLAYER when IDLE
+    int getActive() {
+        return mActive;
+    }
+
+    int getPlayerCount() {
+        return mPlayerCount;
+    }
+
+    // The player who moves after 'player'
+    int nextPlayer(int player) {
+        int next = player + 1;
+        return (next == mPlayerCount) ? 0 : next;
+    }
+
+    int getMoveNumber(int player) {
+        return mMoveNumber[player];
+    }
+
+    boolean isInOvertime(int player) {
+        return mInOvertime[player];
+    }
+
+    // Byo-yomi periods, or moves of the Canadian block, still to go
+    int getPeriodsLeft(int player) {
+        return mPeriodsLeft[player];
+    }
+
+    boolean isRunning(int player) {
+        return mState == GameState.RUNNING && mActive == player;
+    }
+
+    // The player's clock changes with time: it runs, or it fills up in
+    // an hourglass game
+    boolean isChanging(int player) {
+        return isRunning(player) || (mState == GameState.RUNNING
+                && mOvertime == OvertimeType.HOURGLASS && player == nextPlayer(mActive));
+    }
+
+    // Bronstein delay of a move, 0 for Fischer
+    long getDelayMs() {
+        return mBronsteinMs;
+    }
+
+    long getMsToGo(int player, long now) {
+        if (mState != GameState.RUNNING)
+            return mMsToGo[player];
+        if (player == mActive)
+            return mMsToGo[player] - charged(now - mSettledAt);
+        if (mOvertime == OvertimeType.HOURGLASS && player == nextPlayer(mActive))
+            return mMsToGo[player] + charged(now - mSettledAt);
+        return mMsToGo[player];
+    }
+
+    long getMsDelayToGo(int player, long now) {
+        if (!isRunning(player))
+            return mMsDelayToGo[player];
+        long elapsed = now - mSettledAt;
+        return mMsDelayToGo[player] - delayUsed(player, elapsed);
+    }
+
+    long getMoveMs(int player, long now) {
+        if (!isRunning(player))
+            return mMoveMs[player];
+        return mMoveMs[player] + now - mSettledAt;
+    }
+
+    private long delayUsed(int player, long elapsed) {
+        return Math.min(elapsed, Math.max(mMsDelayToGo[player], 0));
+    }
+
+    // Time charged to the running clock for 'elapsed' ms since mSettledAt
+    private long charged(long elapsed) {
+        return elapsed - delayUsed(mActive, elapsed);
+    }
+
+    // Back to IDLE with every clock set from the time control. A game in
+    // progress is saved as unfinished.
+    void reset() {
+        if (mActive != NO_PLAYER)
+            mDeadlines.cancelAll(mActive);
+        endGameRecord(ArchivedGame.RESULT_UNFINISHED);
+        mHistory.clear();
+        mState = GameState.IDLE;
+        mActive = NO_PLAYER;
+        mPlayerCount = Math.max(2, Math.min(mPlayers, MAX_PLAYERS));
+        mOvertime = mOvertimeType;
+        mOvertimeCount = mOvertimePeriods;
+        mOvertimeMs = mOvertimeSeconds * 1000L;
+        mBronsteinMs = (mDelayType == DelayType.BRONSTEIN) ? mIncrementSeconds * 1000L : 0;
+        mControlMoves = (mTimeControlType == TimeControlType.TOURNAMENT) ? mPhase1NumberMoves : 0;
+        mPhase2Ms = (mControlMoves > 0) ? mPhase2Minutes * 60 * 1000L : 0;
+        mIncrementMs = (mDelayType == DelayType.FISCHER) ? mIncrementSeconds * 1000L : 0;
+        mRecordInitialSeconds = mInitialDurationSeconds;
+        mRecordIncrementSeconds = mIncrementSeconds;
+        mRecordDelayType = (mDelayType == DelayType.BRONSTEIN)
+                ? ArchivedGame.DELAY_BRONSTEIN : ArchivedGame.DELAY_FISCHER;
+        mRecordControlType = (mTimeControlType == TimeControlType.TOURNAMENT)
+                ? ArchivedGame.CONTROL_TOURNAMENT : ArchivedGame.CONTROL_BASIC;
+        mRecordPhase1Moves = mPhase1NumberMoves;
+        mRecordPhase2Minutes = mPhase2Minutes;
+        for (int player = 0; player < mPlayerCount; player++) {
+            mMsToGo[player] = mInitialDurationSeconds * 1000L + mIncrementMs;
+            mMsDelayToGo[player] = mBronsteinMs;
+            mMoveMs[player] = 0;
+            mMoveNumber[player] = 1;
+            mInOvertime[player] = false;
+            mPeriodsLeft[player] = 0;
+            mFlagged[player] = false;
+            mStats.clear(player);
+            // without main time the game starts in overtime
+            if (mMsToGo[player] <= 0)
+                nextOvertimePeriod(player);
+        }
+        deadlinesChanged();
+    }
+
+    // IDLE -> RUNNING with 'first' to move. Returns false (and does
+    // nothing) if the game is not IDLE.
+    boolean start(int first, long now) {
+        if (mState != GameState.IDLE)
+            return false;
+        mActive = first;
+        beginGameRecord(first);
+        run(now);
+        return true;
+    }
+
+    // Returns false (and does nothing) if the game is not RUNNING
+    boolean pause(long now) {
+        if (mState != GameState.RUNNING)
+            return false;
+        settle(now);
+        mState = GameState.PAUSED;
+        mDeadlines.cancelAll(mActive);
+        deadlinesChanged();
+        return true;
+    }
+
+    // Returns false (and does nothing) if the game is not PAUSED
+    boolean resume(long now) {
+        if (mState != GameState.PAUSED)
+            return false;
+        run(now);
+        return true;
+    }
+
+    private void run(long now) {
+        mState = GameState.RUNNING;
+        mSettledAt = now;
+        armDeadlines(now);
+    }
+
+    // The running player ends the move and the next player's clock
+    // starts. Returns false (and does nothing) if 'player' is not on move.
+    boolean switchMove(int player, long now) {
+        if (!isRunning(player))
+            return false;
+        Tracing.begin(Tracing.SECTION_SWITCH);
+        settle(now);
+        mDeadlines.cancelAll(player);
+        saveSnapshot(mBeforeSwitch);
+        finishMove(player);
+        mActive = nextPlayer(player);
+        run(now);
+        saveSnapshot(mAfterSwitch);
+        mHistory.record(mBeforeSwitch, mAfterSwitch);
+        Tracing.event(Tracing.EVENT_SWITCH, player, mMsToGo[player]);
+        Tracing.end();
+        return true;
+    }
+
+    // Uses only the configuration copied at reset(): the preferences may
+    // change while a game is played
+    private void finishMove(int player) {
+        mMoveNumber[player]++;
+        if (!mInOvertime[player]) {
+            if (mControlMoves > 0 && mMoveNumber[player] == mControlMoves + 1)
+                mMsToGo[player] += mPhase2Ms;
+            mMsToGo[player] += mIncrementMs;
+        } else {
+            switch (mOvertime) {
+            case BYO_YOMI:
+                // the next move starts with a full period
+                mMsToGo[player] = mOvertimeMs;
+                break;
+            case CANADIAN:
+                if (--mPeriodsLeft[player] <= 0) {
+                    mMsToGo[player] = mOvertimeMs;
+                    mPeriodsLeft[player] = mOvertimeCount;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        // when a move finishes we must reset the delay timer
+        mMsDelayToGo[player] = mBronsteinMs;
+        if (mGame != null)
+            mGame.addMove(mMoveMs[player], mMsToGo[player]);
+        mStats.add(player, mMoveMs[player]);
+        mMoveMs[player] = 0;
+    }
+
+    // Set a player's remaining time (from AdjustOverlay)
+    // A changing clock (the running one, or the one an hourglass fills)
+    // is settled first, so the new value counts from 'now'. Only the
+    // running player's deadlines depend on it.
+    void setMsToGo(int player, long msToGo, long now) {
+        boolean running = isRunning(player);
+        if (isChanging(player))
+            settle(now);
+        if (running)
+            mDeadlines.cancelAll(player);
+        mMsToGo[player] = msToGo;
+        mFlagged[player] = msToGo <= 0;
+        if (running)
+            armDeadlines(now);
+    }
+
+    boolean canUndo() {
+        return inGame() && mHistory.canUndo();
+    }
+
+    boolean canRedo() {
+        return inGame() && mHistory.canRedo();
+    }
+
+    // Undo the last move switch, restoring all clocks, the move numbers
+    // and the side to move exactly as they were at the tap. A running
+    // game keeps running, a paused one stays paused.
+    boolean undo(long now) {
+        if (!inGame() || !mHistory.undo(mBeforeSwitch))
+            return false;
+        restoreMove(mBeforeSwitch, now);
+        return true;
+    }
+
+    // Redo the last undone move switch
+    boolean redo(long now) {
+        if (!inGame() || !mHistory.redo(mAfterSwitch))
+            return false;
+        restoreMove(mAfterSwitch, now);
+        return true;
+    }
+
+    private boolean inGame() {
+        return mState == GameState.RUNNING || mState == GameState.PAUSED;
+    }
+
+    private void restoreMove(long[] snapshot, long now) {
+        boolean running = mState == GameState.RUNNING;
+        if (running)
+            mDeadlines.cancelAll(mActive);
+        restoreSnapshot(snapshot);
+        if (mGame != null)
+            mGame.mMoveCount = (int) snapshot[MoveHistory.RECORDED_MOVES];
+        if (running) {
+            run(now);
+        } else {
+            deadlinesChanged();
+        }
+    }
+
+    // Copy the settled clock state into 'snapshot' (MoveHistory layout)
+    void saveSnapshot(long[] snapshot) {
+        saveSnapshot(snapshot, 0);
+    }
+
+    private void saveSnapshot(long[] snapshot, int offset) {
+        snapshot[offset + MoveHistory.ACTIVE] = mActive;
+        snapshot[offset + MoveHistory.RECORDED_MOVES] = (mGame == null) ? 0 : mGame.mMoveCount;
+        for (int player = 0; player < mPlayerCount; player++) {
+            int base = offset + MoveHistory.field(player, 0);
+            snapshot[base + MoveHistory.MS_TO_GO] = mMsToGo[player];
+            snapshot[base + MoveHistory.MS_DELAY_TO_GO] = mMsDelayToGo[player];
+            snapshot[base + MoveHistory.MOVE_MS] = mMoveMs[player];
+            snapshot[base + MoveHistory.MOVE_NUMBER] = mMoveNumber[player];
+            snapshot[base + MoveHistory.IN_OVERTIME] = mInOvertime[player] ? 1 : 0;
+            snapshot[base + MoveHistory.PERIODS_LEFT] = mPeriodsLeft[player];
+            mStats.save(player, snapshot, base);
+        }
+    }
+
+    // Write the whole state for readers on other threads (ClockSnapshot
+    // layout). The running clock is not settled, readers compute it.
+    void writeSnapshot(long[] fields) {
+        fields[ClockSnapshot.STATE] = mState.ordinal();
+        fields[ClockSnapshot.SETTLED_AT] = mSettledAt;
+        fields[ClockSnapshot.PLAYER_COUNT] = mPlayerCount;
+        fields[ClockSnapshot.DELAY_MS] = mBronsteinMs;
+        fields[ClockSnapshot.OVERTIME] = mOvertime.ordinal();
+        fields[ClockSnapshot.CONTROL_MOVES] = mControlMoves;
+        fields[ClockSnapshot.INCREMENT_MS] = mIncrementMs;
+        fields[ClockSnapshot.FLAGS] = (canUndo() ? ClockSnapshot.CAN_UNDO : 0)
+                | (canRedo() ? ClockSnapshot.CAN_REDO : 0);
+        saveSnapshot(fields, ClockSnapshot.ENGINE);
+    }
+
+    private void restoreSnapshot(long[] snapshot) {
+        mActive = (int) snapshot[MoveHistory.ACTIVE];
+        for (int player = 0; player < mPlayerCount; player++) {
+            mMsToGo[player] = snapshot[MoveHistory.field(player, MoveHistory.MS_TO_GO)];
+            mMsDelayToGo[player] = snapshot[MoveHistory.field(player, MoveHistory.MS_DELAY_TO_GO)];
+            mMoveMs[player] = snapshot[MoveHistory.field(player, MoveHistory.MOVE_MS)];
+            mMoveNumber[player] = (int) snapshot[MoveHistory.field(player, MoveHistory.MOVE_NUMBER)];
+            mInOvertime[player] = snapshot[MoveHistory.field(player, MoveHistory.IN_OVERTIME)] != 0;
+            mPeriodsLeft[player] = (int) snapshot[MoveHistory.field(player, MoveHistory.PERIODS_LEFT)];
+            mFlagged[player] = mMsToGo[player] <= 0;
+            mStats.restore(player, snapshot, MoveHistory.field(player, 0));
+        }
+    }
+
+    int snapshotSize() {
+        return mHistory.snapshotSize();
+    }
+
+    // Snapshot for onSaveInstanceState; a running clock is settled first
+    void save(long[] snapshot, long now) {
+        if (mState == GameState.RUNNING)
+            settle(now);
+        saveSnapshot(snapshot);
+    }
+
+    // Restore a game saved with save() after the process was killed. A
+    // game that was running comes back PAUSED.
+    void restore(GameState state, long[] snapshot) {
+        reset();
+        if (state == GameState.IDLE)
+            return;
+        restoreSnapshot(snapshot);
+        mState = (state == GameState.DONE) ? GameState.DONE : GameState.PAUSED;
+    }
+
+    // Bring the running clock up to 'now'
+    private void settle(long now) {
+        int player = mActive;
+        long elapsed = now - mSettledAt;
+        long delay = delayUsed(player, elapsed);
+        mSettledAt = now;
+        mMoveMs[player] += elapsed;
+        mMsDelayToGo[player] -= delay;
+        mMsToGo[player] -= elapsed - delay;
+        if (mOvertime == OvertimeType.HOURGLASS)
+            mMsToGo[nextPlayer(player)] += elapsed - delay;
+    }
+
+    // The player's clock reached 0. Start overtime, or its next period,
+    // if the time control has one left; mMsToGo stays at or below 0
+    // otherwise.
+    private void nextOvertimePeriod(int player) {
+        switch (mOvertime) {
+        case BYO_YOMI:
+            if (!mInOvertime[player]) {
+                mInOvertime[player] = true;
+                mPeriodsLeft[player] = mOvertimeCount;
+            } else {
+                mPeriodsLeft[player]--;
+            }
+            if (mPeriodsLeft[player] > 0)
+                mMsToGo[player] += mOvertimeMs;
+            break;
+        case CANADIAN:
+            if (!mInOvertime[player]) {
+                mInOvertime[player] = true;
+                mPeriodsLeft[player] = mOvertimeCount;
+                mMsToGo[player] += mOvertimeMs;
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    //
+    // Deadlines
+    //
+
+    long nextDeadline() {
+        return mDeadlines.nextDeadline();
+    }
+
+    // Fire the deadlines that are due at 'now'
+    void pollDeadlines(long now) {
+        Tracing.begin(Tracing.SECTION_DEADLINES);
+        mDeadlines.pollDue(now, this);
+        deadlinesChanged();
+        Tracing.end();
+    }
+
+    @Override
+    public void onDeadline(int player, int kind, long deadline) {
+        if (kind >= DeadlineScheduler.KIND_WARNING) {
+            if (mListener != null)
+                mListener.onLowTimeWarning(player);
+        } else if (kind == DeadlineScheduler.KIND_DELAY_EXPIRED) {
+            if (mListener != null)
+                mListener.onDelayExpired(player);
+        } else if (isRunning(player)) {
+            flagFall(player, deadline);
+        }
+    }
+
+    private void flagFall(int player, long now) {
+        settle(now);
+        if (mMsToGo[player] <= 0)
+            nextOvertimePeriod(player);
+        if (mMsToGo[player] > 0) {
+            // the clock was adjusted, or an overtime period started: wait
+            // for the new flag fall
+            mDeadlines.cancelAll(player);
+            armDeadlines(now);
+            return;
+        }
+        if (!mAllowNegativeTime) {
+            mState = GameState.DONE;
+            mDeadlines.cancelAll(player);
+            endGameRecord((byte) (ArchivedGame.RESULT_FLAG + player));
+        }
+        if (!mFlagged[player]) {
+            mFlagged[player] = true;
+            if (mListener != null)
+                mListener.onFlag(player);
+        }
+    }
+
+    // Arm the running player's deadlines for a clock that runs from 'now'
+    private void armDeadlines(long now) {
+        int player = mActive;
+        long delay = Math.max(mMsDelayToGo[player], 0);
+        if (delay > 0) {
+            mDeadlines.arm(player, DeadlineScheduler.KIND_DELAY_EXPIRED, now + delay);
+        }
+        long flagFall = now + delay + mMsToGo[player];
+        if (mMsToGo[player] > 0) {
+            mDeadlines.arm(player, DeadlineScheduler.KIND_FLAG, flagFall);
+        }
+        long[] warnings = mLowTimeWarningsMs;
+        for (int i = 0; i < warnings.length; i++) {
+            if (mMsToGo[player] > warnings[i]) {
+                mDeadlines.arm(player, DeadlineScheduler.KIND_WARNING + i,
+                        flagFall - warnings[i]);
+            }
+        }
+        deadlinesChanged();
+    }
+
+    private void deadlinesChanged() {
+        if (mListener != null)
+            mListener.onDeadlinesChanged(mDeadlines.nextDeadline());
+    }
+
+    //
+    // Game record
+    //
+
+    // Start recording a game in which 'first' has the first move, with
+    // the time control copied at reset()
+    private void beginGameRecord(int first) {
+        ArchivedGame game = new ArchivedGame(RECORD_MOVES);
+        game.mId = mRandom.nextLong();
+        game.mStartTime = System.currentTimeMillis();
+        game.mInitialSeconds = mRecordInitialSeconds;
+        game.mIncrementSeconds = mRecordIncrementSeconds;
+        game.mDelayType = mRecordDelayType;
+        game.mControlType = mRecordControlType;
+        game.mPhase1Moves = mRecordPhase1Moves;
+        game.mPhase2Minutes = mRecordPhase2Minutes;
+        game.mPlayers = mPlayerCount;
+        game.mFirstPlayer = first;
+        mGame = game;
+    }
+
+    // Hand over the game being recorded (if any moves were made)
+    private void endGameRecord(byte result) {
+        ArchivedGame game = mGame;
+        mGame = null;
+        if (game == null || game.mMoveCount == 0)
+            return;
+        game.mResult = result;
+        if (mListener != null)
+            mListener.onGameFinished(game);
+    }
+}
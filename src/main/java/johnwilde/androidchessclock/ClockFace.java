@@ -0,0 +1,160 @@
+package johnwilde.androidchessclock;
+
+// What one player's clock shows, worked out from a ClockSnapshot: the
+// text, whether it is in low time (shown in red), the Bronstein delay
+// spinner, and when it next has to be looked at.
+//
+// Timer applies the changes update() reports to its views; the decisions
+// live here, away from the views, so the JVM tests can hold them to the
+// tick, allocation and layout budgets (see PerformanceBudgetTest).
+//
+// The next tick is when the text next changes (Utils.msUntilTextChanges):
+// once a second above 10 seconds, every 100 ms below. While the spinner
+// is shown it is redrawn every SPINNER_TICK_MS. A clock that is not
+// changing is not ticked at all; the engine publishing a new state
+// updates it.
+//
+// In the hundredths window (off unless setHundredthsWindow() is given
+// one) a clock shows hundredths, "N.NN", and while it changes it asks
+// for a tick every frame (FRAME_TICK, see isFrameSynced()). Once the
+// clock leaves the window, with time added or when it stops, it goes
+// back to ticking when the text changes.
+//
+// update() allocates nothing.
+final class ClockFace {
+
+    // update() result bits
+    static final int TEXT_CHANGED = 1;
+    static final int LOW_TIME_CHANGED = 2;
+    static final int SPINNER_SHOWN = 4; // the view is added: a layout
+    static final int SPINNER_CHANGED = 8;
+    static final int SPINNER_HIDDEN = 16; // the view is removed: a layout
+
+    static final long NO_TICK = -1;
+    static final long FRAME_TICK = 0; // the next frame
+    static final long SPINNER_TICK_MS = 100;
+    static final long LOW_TIME_MS = 10000;
+
+    private final int mPlayer;
+    // the text shown; the TextView displays this buffer without copying
+    private final char[] mText = new char[Utils.MAX_TIME_CHARS];
+    private final char[] mScratch = new char[Utils.MAX_TIME_CHARS];
+    private int mLength = -1; // nothing shown yet
+    private long mMsShown;
+    private boolean mLowTime;
+    private boolean mSpinnerShown;
+    private long mDelayToGo;
+    private long mNextTick = NO_TICK;
+    private long mHundredthsWindowMs;
+    private boolean mFrameSynced;
+
+    ClockFace(int player) {
+        mPlayer = player;
+    }
+
+    // Bring the face up to 'now'. Returns the result bits for what changed.
+    int update(ClockSnapshot clock, long now) {
+        int changes = 0;
+        long msToGo = clock.getMsToGo(mPlayer, now);
+
+        boolean lowTime = msToGo < LOW_TIME_MS;
+        if (lowTime != mLowTime || mLength < 0) {
+            mLowTime = lowTime;
+            changes |= LOW_TIME_CHANGED;
+        }
+
+        boolean hundredths = msToGo >= 0 && msToGo < mHundredthsWindowMs;
+        int n = Utils.formatTime(msToGo, mScratch, 0, hundredths);
+        if (clock.isInOvertime(mPlayer)) {
+            mScratch[n++] = ' ';
+            mScratch[n++] = '(';
+            n = Utils.appendNumber(mScratch, n, clock.getPeriodsLeft(mPlayer), 1);
+            mScratch[n++] = ')';
+        }
+        if (!sameText(n)) {
+            System.arraycopy(mScratch, 0, mText, 0, n);
+            mLength = n;
+            mMsShown = msToGo;
+            changes |= TEXT_CHANGED;
+        }
+
+        long delayToGo = clock.isRunning(mPlayer)
+                ? clock.getMsDelayToGo(mPlayer, now) : 0;
+        if (delayToGo > 0) {
+            if (!mSpinnerShown) {
+                mSpinnerShown = true;
+                changes |= SPINNER_SHOWN;
+            }
+            if (delayToGo != mDelayToGo)
+                changes |= SPINNER_CHANGED;
+        } else if (mSpinnerShown) {
+            mSpinnerShown = false;
+            changes |= SPINNER_HIDDEN;
+        }
+        mDelayToGo = delayToGo;
+
+        mFrameSynced = false;
+        if (!clock.isChanging(mPlayer)) {
+            mNextTick = NO_TICK;
+        } else if (delayToGo > 0) {
+            // the clock itself stands still during the delay
+            mNextTick = Math.min(SPINNER_TICK_MS, delayToGo);
+        } else if (hundredths) {
+            mFrameSynced = true;
+            mNextTick = FRAME_TICK;
+        } else {
+            mNextTick = Utils.msUntilTextChanges(msToGo, !clock.isRunning(mPlayer));
+        }
+        return changes;
+    }
+
+    // Show hundredths below 'windowMs' (at most 10 seconds, 0 for never)
+    void setHundredthsWindow(long windowMs) {
+        mHundredthsWindowMs = windowMs;
+    }
+
+    // The next tick is FRAME_TICK: run it on the next frame
+    boolean isFrameSynced() {
+        return mFrameSynced;
+    }
+
+    char[] getText() {
+        return mText;
+    }
+
+    int getTextLength() {
+        return mLength;
+    }
+
+    // the time (ms) the text showed when it last changed
+    long getMsShown() {
+        return mMsShown;
+    }
+
+    boolean isLowTime() {
+        return mLowTime;
+    }
+
+    boolean isSpinnerShown() {
+        return mSpinnerShown;
+    }
+
+    long getDelayToGo() {
+        return mDelayToGo;
+    }
+
+    // ms from the last update() until the next one is due, or NO_TICK
+    long getNextTick() {
+        return mNextTick;
+    }
+
+    private boolean sameText(int n) {
+        if (n != mLength)
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (mScratch[i] != mText[i])
+                return false;
+        }
+        return true;
+    }
+}
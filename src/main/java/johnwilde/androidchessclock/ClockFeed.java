@@ -0,0 +1,73 @@
+package johnwilde.androidchessclock;
+
+import java.io.File;
+import java.io.IOException;
+
+// The clock state published for other apps on the device (an overlay, a
+// streaming tool) in a MappedSeqlock file, so they can poll it every
+// frame without binding to a service or making a system call.
+//
+// The fields are:
+//
+// [WRITTEN_AT] [DISPLAY_MS] * MAX_PLAYERS, then from STATE on the
+// ClockSnapshot fields, whose getters document how to compute a running
+// clock from them.
+//
+// WRITTEN_AT is the wall clock time (ms) of the publication and
+// DISPLAY_MS each player's time as the clock shows it, so a reader that
+// only wants to draw the digits needs nothing else.
+//
+// The file is written from the UI thread only, and only when the state
+// or the displayed text changes: about once a second while a clock runs.
+final class ClockFeed {
+
+    static final int WRITTEN_AT = 0;
+    static final int DISPLAY_MS = 1;
+    static final int STATE = DISPLAY_MS + ClockEngine.MAX_PLAYERS;
+    static final int SIZE = STATE + ClockSnapshot.SIZE;
+
+    private final MappedSeqlock mLock;
+    private final long[] mFields = new long[SIZE];
+
+    private ClockFeed(MappedSeqlock lock) {
+        mLock = lock;
+    }
+
+    static ClockFeed create(File file) throws IOException {
+        return new ClockFeed(MappedSeqlock.create(file, SIZE));
+    }
+
+    // The engine state changed (a move, a pause, a reset...)
+    void stateChanged(ClockSnapshot snapshot) {
+        long[] state = snapshot.fields();
+        boolean changed = false;
+        for (int i = 0; i < ClockSnapshot.SIZE; i++) {
+            if (mFields[STATE + i] != state[i]) {
+                mFields[STATE + i] = state[i];
+                changed = true;
+            }
+        }
+        if (changed)
+            publish();
+    }
+
+    // A player's clock shows 'ms' now
+    void displayChanged(int player, long ms) {
+        if (mFields[DISPLAY_MS + player] == ms)
+            return;
+        mFields[DISPLAY_MS + player] = ms;
+        publish();
+    }
+
+    void close() {
+        try {
+            mLock.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void publish() {
+        mFields[WRITTEN_AT] = System.currentTimeMillis();
+        mLock.publish(mFields);
+    }
+}
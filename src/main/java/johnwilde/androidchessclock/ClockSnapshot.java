@@ -0,0 +1,225 @@
+package johnwilde.androidchessclock;
+
+import johnwilde.androidchessclock.ClockEngine.GameState;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+
+// A reader's copy of the clock state published by the engine thread.
+//
+// Each reader (the UI, a service, a network feed) owns a ClockSnapshot
+// and refreshes it with readFrom(); it answers the same questions as
+// the ClockEngine, computing the running clock from the time it was
+// last settled, so a snapshot read once stays correct until the engine
+// publishes again.
+//
+// The state is a fixed number of longs:
+//
+// [STATE] [SETTLED_AT] [PLAYER_COUNT] [DELAY_MS] [OVERTIME] [FLAGS]
+// [CONTROL_MOVES] [INCREMENT_MS] then from ENGINE on, the engine's snapshot in the MoveHistory layout.
+final class ClockSnapshot {
+
+    static final int STATE = 0; // GameState ordinal
+    static final int SETTLED_AT = 1; // uptime ms the running clock was settled
+    static final int PLAYER_COUNT = 2;
+    static final int DELAY_MS = 3; // Bronstein delay of a move
+    static final int OVERTIME = 4; // OvertimeType ordinal
+    static final int FLAGS = 5;
+    static final int CONTROL_MOVES = 6; // move of the time control, 0 for none
+    static final int INCREMENT_MS = 7; // Fischer increment of a move
+    static final int ENGINE = 8;
+
+    static final int ENGINE_FIELDS = MoveHistory.snapshotSize(ClockEngine.MAX_PLAYERS);
+    static final int SIZE = ENGINE + ENGINE_FIELDS;
+
+    // FLAGS bits
+    static final long CAN_UNDO = 1;
+    static final long CAN_REDO = 2;
+
+    private static final GameState[] STATES = GameState.values();
+
+    private final long[] mFields = new long[SIZE];
+    private int mSequence = -1;
+
+    ClockSnapshot() {
+        mFields[STATE] = GameState.IDLE.ordinal();
+        mFields[ENGINE + MoveHistory.ACTIVE] = ClockEngine.NO_PLAYER;
+    }
+
+    long[] fields() {
+        return mFields;
+    }
+
+    // Copy the latest publication. Returns true if it is newer than the
+    // one this snapshot held.
+    boolean readFrom(SnapshotChannel channel) {
+        int sequence = channel.read(mFields);
+        boolean changed = sequence != mSequence;
+        mSequence = sequence;
+        return changed;
+    }
+
+    GameState getState() {
+        return STATES[(int) mFields[STATE]];
+    }
+
+    int getActive() {
+        return (int) mFields[ENGINE + MoveHistory.ACTIVE];
+    }
+
+    int getPlayerCount() {
+        return (int) mFields[PLAYER_COUNT];
+    }
+
+    int nextPlayer(int player) {
+        int next = player + 1;
+        return (next == getPlayerCount()) ? 0 : next;
+    }
+
+    int getMoveNumber(int player) {
+        return (int) field(player, MoveHistory.MOVE_NUMBER);
+    }
+
+    boolean isInOvertime(int player) {
+        return field(player, MoveHistory.IN_OVERTIME) != 0;
+    }
+
+    int getPeriodsLeft(int player) {
+        return (int) field(player, MoveHistory.PERIODS_LEFT);
+    }
+
+    long getDelayMs() {
+        return mFields[DELAY_MS];
+    }
+
+    //
+    // The player's move statistics (see MoveStats)
+    //
+
+    int getTimedMoves(int player) {
+        return (int) field(player, MoveHistory.STATS_MOVES);
+    }
+
+    long getLastMoveMs(int player) {
+        return field(player, MoveHistory.LAST_MOVE_MS);
+    }
+
+    long getMeanMoveMs(int player) {
+        return Math.round(doubleField(player, MoveHistory.MEAN_MS));
+    }
+
+    long getMoveDeviationMs(int player) {
+        return Math.round(MoveStats.deviation(getTimedMoves(player),
+                doubleField(player, MoveHistory.M2)));
+    }
+
+    // the player's recent pace, the moving average of the moves
+    long getPaceMs(int player) {
+        return Math.round(doubleField(player, MoveHistory.EMA_MS));
+    }
+
+    // The time the player will have after the move of the time control
+    // if the moves until then go at getPaceMs(), from the time the
+    // player had when the clock was last settled (for the player on move,
+    // the start of the move). MoveStats.NO_PROJECTION if there is no
+    // control ahead or no move to take the pace from.
+    long getProjectedMsAtControl(int player) {
+        if (getTimedMoves(player) == 0)
+            return MoveStats.NO_PROJECTION;
+        return MoveStats.projectMsAtControl(field(player, MoveHistory.MS_TO_GO),
+                getMoveNumber(player), (int) mFields[CONTROL_MOVES],
+                mFields[INCREMENT_MS], getPaceMs(player));
+    }
+
+    int getControlMoves() {
+        return (int) mFields[CONTROL_MOVES];
+    }
+
+    boolean canUndo() {
+        return (mFields[FLAGS] & CAN_UNDO) != 0;
+    }
+
+    boolean canRedo() {
+        return (mFields[FLAGS] & CAN_REDO) != 0;
+    }
+
+    boolean isRunning(int player) {
+        return getState() == GameState.RUNNING && getActive() == player;
+    }
+
+    // See ClockEngine.isChanging()
+    boolean isChanging(int player) {
+        return isRunning(player) || (getState() == GameState.RUNNING
+                && isHourglass() && player == nextPlayer(getActive()));
+    }
+
+    long getMsToGo(int player, long now) {
+        long msToGo = field(player, MoveHistory.MS_TO_GO);
+        if (getState() != GameState.RUNNING)
+            return msToGo;
+        int active = getActive();
+        if (player == active)
+            return msToGo - charged(now);
+        if (isHourglass() && player == nextPlayer(active))
+            return msToGo + charged(now);
+        return msToGo;
+    }
+
+    long getMsDelayToGo(int player, long now) {
+        long delayToGo = field(player, MoveHistory.MS_DELAY_TO_GO);
+        if (!isRunning(player))
+            return delayToGo;
+        return delayToGo - delayUsed(now - mFields[SETTLED_AT]);
+    }
+
+    long getMoveMs(int player, long now) {
+        long moveMs = field(player, MoveHistory.MOVE_MS);
+        if (!isRunning(player))
+            return moveMs;
+        return moveMs + now - mFields[SETTLED_AT];
+    }
+
+    // Bring the running clock up to 'now', as ClockEngine.settle() would
+    void settle(long now) {
+        if (getState() != GameState.RUNNING)
+            return;
+        int active = getActive();
+        long elapsed = now - mFields[SETTLED_AT];
+        long delay = delayUsed(elapsed);
+        if (isHourglass())
+            mFields[index(nextPlayer(active), MoveHistory.MS_TO_GO)] += elapsed - delay;
+        mFields[index(active, MoveHistory.MS_TO_GO)] -= elapsed - delay;
+        mFields[index(active, MoveHistory.MS_DELAY_TO_GO)] -= delay;
+        mFields[index(active, MoveHistory.MOVE_MS)] += elapsed;
+        mFields[SETTLED_AT] = now;
+    }
+
+    // Copy the engine's part, for ClockEngine.restore()
+    void copyEngineState(long[] into) {
+        System.arraycopy(mFields, ENGINE, into, 0, ENGINE_FIELDS);
+    }
+
+    private boolean isHourglass() {
+        return mFields[OVERTIME] == OvertimeType.HOURGLASS.ordinal();
+    }
+
+    private long charged(long now) {
+        long elapsed = now - mFields[SETTLED_AT];
+        return elapsed - delayUsed(elapsed);
+    }
+
+    private long delayUsed(long elapsed) {
+        long delayToGo = field(getActive(), MoveHistory.MS_DELAY_TO_GO);
+        return Math.min(elapsed, Math.max(delayToGo, 0));
+    }
+
+    private long field(int player, int field) {
+        return mFields[index(player, field)];
+    }
+
+    private double doubleField(int player, int field) {
+        return Double.longBitsToDouble(mFields[index(player, field)]);
+    }
+
+    private static int index(int player, int field) {
+        return ENGINE + MoveHistory.field(player, field);
+    }
+}
@@ -0,0 +1,150 @@
+package johnwilde.androidchessclock;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+
+// Plays the click and the bell from PCM held in memory.
+//
+// Each sound is a voice with its own static mode AudioTrack: the PCM is
+// written to the track once, and playing it only rewinds and starts the
+// track, with no decoding or buffering on the way. Because the voices are
+// separate, a click no longer cuts off the bell or the other way round.
+//
+// The PCM is synthesized by ToneSynth at the output's native sample rate
+// the first time it is needed and shared by later instances.
+//
+// play() runs on the thread of the SoundPlayer that answers the engine's
+// events, release() on the UI thread; the tracks are only touched while
+// holding this object's lock, and a released instance stays silent.
+//
+// Latency is traced for each sound: EVENT_SOUND_STARTED when play() has
+// returned and, from API 19 (KITKAT) on, EVENT_SOUND_LATENCY from the
+// output's timestamp once the sound is out. Both are measured from the
+// tap, in microseconds. SystemClock.uptimeMillis(), System.nanoTime()
+// and AudioTimestamp.nanoTime all count CLOCK_MONOTONIC, so they can be
+// subtracted.
+final class ClockSounds {
+
+    static final int CLICK = 0;
+    static final int BELL = 1;
+    static final int VOICES = 2;
+
+    // when to ask the output where the sound got to
+    private static final long MEASURE_DELAY_MS = 100;
+
+    private static int sSampleRate;
+    private static final short[][] sPcm = new short[VOICES][];
+
+    private final AudioTrack[] mTracks = new AudioTrack[VOICES];
+    private final int[] mFrames = new int[VOICES];
+    private final int mSampleRate;
+
+    // latency measurement (API 19 and up, while tracing)
+    private final Handler mHandler = new Handler();
+    private final Runnable mMeasure = new Runnable() {
+        @Override
+        public void run() {
+            measure();
+        }
+    };
+    private Object mTimestamp; // AudioTimestamp
+    private int mMeasuredVoice;
+    private long mTapMs;
+
+    // Create the tracks for the voices that are wanted. Call on the UI
+    // thread.
+    ClockSounds(boolean click, boolean bell) {
+        mSampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        if (click)
+            mTracks[CLICK] = createTrack(CLICK);
+        if (bell)
+            mTracks[BELL] = createTrack(BELL);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            mTimestamp = new AudioTimestamp();
+    }
+
+    // Start a voice from the beginning, cutting off its previous sound.
+    // 'tapMs' is the uptime of the tap the sound answers.
+    synchronized void play(int voice, float volume, long tapMs) {
+        AudioTrack track = mTracks[voice];
+        if (track == null)
+            return;
+        Tracing.begin(Tracing.SECTION_PLAY_SOUND);
+        if (track.getPlayState() != AudioTrack.PLAYSTATE_STOPPED)
+            track.stop();
+        track.reloadStaticData(); // rewinds the static buffer
+        track.setStereoVolume(volume, volume);
+        track.play();
+        Tracing.end();
+
+        if (!Tracing.isEnabled())
+            return;
+        Tracing.event(Tracing.EVENT_SOUND_STARTED, voice,
+                (System.nanoTime() - tapMs * 1000000L) / 1000);
+        if (mTimestamp != null) {
+            mMeasuredVoice = voice;
+            mTapMs = tapMs;
+            mHandler.removeCallbacks(mMeasure);
+            mHandler.postDelayed(mMeasure, MEASURE_DELAY_MS);
+        }
+    }
+
+    synchronized void release() {
+        mHandler.removeCallbacks(mMeasure);
+        for (int voice = 0; voice < VOICES; voice++) {
+            if (mTracks[voice] != null) {
+                mTracks[voice].release();
+                mTracks[voice] = null;
+            }
+        }
+    }
+
+    private AudioTrack createTrack(int voice) {
+        short[] pcm = pcm(voice, mSampleRate);
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC,
+                mSampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, pcm.length * 2,
+                AudioTrack.MODE_STATIC);
+        track.write(pcm, 0, pcm.length);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            // no output for this voice, it stays silent
+            track.release();
+            return null;
+        }
+        mFrames[voice] = pcm.length;
+        return track;
+    }
+
+    private static synchronized short[] pcm(int voice, int sampleRate) {
+        if (sampleRate != sSampleRate) {
+            sPcm[CLICK] = null;
+            sPcm[BELL] = null;
+            sSampleRate = sampleRate;
+        }
+        if (sPcm[voice] == null) {
+            sPcm[voice] = (voice == CLICK) ? ToneSynth.click(sampleRate)
+                    : ToneSynth.bell(sampleRate);
+        }
+        return sPcm[voice];
+    }
+
+    // The output reports the frame it presented at a point in time; go
+    // back from there to when the first frame of the sound came out
+    private synchronized void measure() {
+        AudioTrack track = mTracks[mMeasuredVoice];
+        AudioTimestamp timestamp = (AudioTimestamp) mTimestamp;
+        if (track == null || !track.getTimestamp(timestamp))
+            return;
+        long frame = timestamp.framePosition;
+        // outside this sound, e.g. the position counts earlier plays
+        if (frame <= 0 || frame > mFrames[mMeasuredVoice])
+            return;
+        long onsetNanos = timestamp.nanoTime - frame * 1000000000L / mSampleRate;
+        Tracing.event(Tracing.EVENT_SOUND_LATENCY, mMeasuredVoice,
+                (onsetNanos - mTapMs * 1000000L) / 1000);
+    }
+}
@@ -0,0 +1,425 @@
+package johnwilde.androidchessclock;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+
+import johnwilde.androidchessclock.ClockEngine.GameState;
+
+// The clock on a text terminal, for boards without a display server:
+// the ClockEngine and the ClockFaces the app's Timers use, with no
+// Android class involved.
+//
+// One thread runs everything. It waits in a Selector for a key or for
+// the next time something is due: a face's next tick (when its text next
+// changes, see ClockFace) or an engine deadline (a flag fall, a low time
+// warning). The status line is rewritten in place with ANSI codes, and
+// only when the line differs from the one shown:
+//
+//  1 4:59    2 5:00   paused
+//
+// with the player on move in reverse video and a clock in low time in
+// red. A flag fall and a low time warning ring the terminal bell.
+//
+// Keys: 1-9 the button of that player (as in the app, it ends that
+// player's move, or starts the game with the next player on move);
+// space the button of the player on move; p pause or resume; u undo;
+// r reset (when not running); q quit. Other bytes (the line ends of a
+// terminal left in line mode) are ignored.
+//
+// A terminal file, a FIFO or a device file cannot be selected in Java,
+// so a reader thread blocks on the input and forwards what it reads
+// through a Pipe, whose source end the clock thread selects without
+// blocking. The end of the input quits.
+//
+// Everything needed is pure Java, so it builds and runs without the
+// Android SDK, in a few MB of heap. From src/main/java:
+//
+// javac -sourcepath . -d out johnwilde/androidchessclock/ConsoleClock.java
+// stty -icanon -echo
+// java -Xmx4m -XX:+UseSerialGC -XX:TieredStopAtLevel=1 -cp out \
+//     johnwilde.androidchessclock.ConsoleClock [-stats] [-input file] \
+//     [3+2 | "FIDE 40/90+30" | minutes+increment]
+//
+// -stats prints to stderr, at the end, the time from main() to the first
+// line drawn, the heap in use and the peak resident memory.
+final class ConsoleClock implements ClockEngine.Listener {
+
+    static final String RESET_ATTRIBUTES = "\033[0m";
+    static final String REVERSE = "\033[7m";
+    static final String RED = "\033[31m";
+    static final String ERASE_TO_END = "\033[K";
+    static final String HIDE_CURSOR = "\033[?25l";
+    static final String SHOW_CURSOR = "\033[?25h";
+    private static final byte BELL = 7;
+    private static final String DEFAULT_PRESET = "5+0";
+
+    private final ClockEngine mEngine;
+    private final WritableByteChannel mOut;
+    private final ClockSnapshot mSnapshot = new ClockSnapshot();
+    private final ClockFace[] mFaces;
+    // the line being built and the line shown, as bytes
+    private final ByteBuffer mLine = ByteBuffer.allocate(256);
+    private final byte[] mShown = new byte[256];
+    private int mShownLength = -1;
+    private final ByteBuffer mInput = ByteBuffer.allocate(64);
+    private boolean mBell;
+    private boolean mQuit;
+    private int mLinesDrawn;
+
+    ConsoleClock(ClockEngine engine, WritableByteChannel out) {
+        mEngine = engine;
+        mOut = out;
+        mFaces = new ClockFace[engine.mPlayers];
+        for (int i = 0; i < mFaces.length; i++) {
+            mFaces[i] = new ClockFace(i);
+        }
+        engine.setListener(this);
+        engine.reset();
+    }
+
+    boolean isQuit() {
+        return mQuit;
+    }
+
+    // status lines written so far
+    int linesDrawn() {
+        return mLinesDrawn;
+    }
+
+    // Act on one byte of input at 'now'
+    void key(byte key, long now) {
+        mEngine.writeSnapshot(mSnapshot.fields());
+        GameState state = mSnapshot.getState();
+        if (key >= '1' && key < '1' + mFaces.length) {
+            press(key - '1', state, now);
+        } else if (key == ' ') {
+            int active = mSnapshot.getActive();
+            // before the game, as the last player's button: the first
+            // player moves first
+            press(active == ClockEngine.NO_PLAYER ? mFaces.length - 1 : active, state, now);
+        } else if (key == 'p') {
+            if (state == GameState.RUNNING)
+                mEngine.pause(now);
+            else if (state == GameState.PAUSED)
+                mEngine.resume(now);
+        } else if (key == 'u') {
+            mEngine.undo(now);
+        } else if (key == 'r') {
+            if (state != GameState.RUNNING)
+                mEngine.reset();
+        } else if (key == 'q') {
+            mQuit = true;
+        }
+    }
+
+    // The rules of the app's player buttons
+    private void press(int player, GameState state, long now) {
+        switch (state) {
+        case IDLE:
+            mEngine.start(mSnapshot.nextPlayer(player), now);
+            break;
+        case PAUSED:
+            mEngine.resume(now);
+            break;
+        case RUNNING:
+            if (mSnapshot.isRunning(player))
+                mEngine.switchMove(player, now);
+            break;
+        case DONE:
+            break;
+        }
+    }
+
+    // Fire the deadlines due at 'now' and redraw the line if it changed.
+    // Returns when the clock next has to be looked at, or
+    // DeadlineScheduler.NONE.
+    long update(long now) throws IOException {
+        mEngine.pollDeadlines(now);
+        mEngine.writeSnapshot(mSnapshot.fields());
+        long due = mEngine.nextDeadline();
+        for (ClockFace face : mFaces) {
+            face.update(mSnapshot, now);
+            if (face.getNextTick() != ClockFace.NO_TICK)
+                due = Math.min(due, now + face.getNextTick());
+        }
+        buildLine();
+        if (!sameLine() || mBell) {
+            mShownLength = mLine.position();
+            System.arraycopy(mLine.array(), 0, mShown, 0, mShownLength);
+            if (mBell)
+                mLine.put(BELL);
+            mBell = false;
+            mLine.flip();
+            write(mLine);
+            mLinesDrawn++;
+        }
+        return due;
+    }
+
+    // The status line, without a trailing bell
+    private void buildLine() {
+        ByteBuffer b = mLine;
+        b.clear();
+        b.put((byte) '\r');
+        int active = mSnapshot.getActive();
+        for (int i = 0; i < mFaces.length; i++) {
+            ClockFace face = mFaces[i];
+            if (i == active)
+                put(b, REVERSE);
+            if (face.isLowTime())
+                put(b, RED);
+            b.put((byte) ' ');
+            b.put((byte) ('1' + i));
+            b.put((byte) ' ');
+            char[] text = face.getText();
+            for (int c = 0; c < face.getTextLength(); c++) {
+                b.put((byte) text[c]);
+            }
+            b.put((byte) ' ');
+            if (i == active || face.isLowTime())
+                put(b, RESET_ATTRIBUTES);
+            put(b, "   ");
+        }
+        switch (mSnapshot.getState()) {
+        case PAUSED:
+            put(b, "paused");
+            break;
+        case DONE:
+            put(b, "game over");
+            break;
+        default:
+            break;
+        }
+        put(b, ERASE_TO_END);
+    }
+
+    private boolean sameLine() {
+        int n = mLine.position();
+        if (n != mShownLength)
+            return false;
+        byte[] line = mLine.array();
+        for (int i = 0; i < n; i++) {
+            if (line[i] != mShown[i])
+                return false;
+        }
+        return true;
+    }
+
+    // The codes are ASCII
+    private static void put(ByteBuffer b, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            b.put((byte) s.charAt(i));
+        }
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            mOut.write(b);
+    }
+
+    // Run until 'q' or the end of the input, selected without blocking
+    void run(Pipe.SourceChannel input) throws IOException {
+        input.configureBlocking(false);
+        Selector selector = Selector.open();
+        try {
+            input.register(selector, SelectionKey.OP_READ);
+            while (!mQuit) {
+                long now = now();
+                long due = update(now);
+                long wait = (due == DeadlineScheduler.NONE) ? 0 : Math.max(1, due - now);
+                if (selector.select(wait) > 0)
+                    selector.selectedKeys().clear();
+                readInput(input);
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    private void readInput(ReadableByteChannel input) throws IOException {
+        mInput.clear();
+        int n = input.read(mInput);
+        if (n < 0) {
+            mQuit = true;
+            return;
+        }
+        long now = now();
+        for (int i = 0; i < n && !mQuit; i++) {
+            key(mInput.get(i), now);
+        }
+    }
+
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    //
+    // ClockEngine.Listener
+    //
+
+    @Override
+    public void onFlag(int player) {
+        mBell = true;
+    }
+
+    @Override
+    public void onDelayExpired(int player) {
+    }
+
+    @Override
+    public void onLowTimeWarning(int player) {
+        mBell = true;
+    }
+
+    @Override
+    public void onDeadlinesChanged(long nextDeadline) {
+        // the loop asks for the next deadline each time round
+    }
+
+    @Override
+    public void onGameFinished(ArchivedGame game) {
+    }
+
+    // A preset of the default library by name, or minutes+increment;
+    // null if 'name' is neither
+    static TimeControlPresets.Preset preset(String name) {
+        TimeControlPresets presets = TimeControlPresets.defaults();
+        for (int i = 0; i < presets.size(); i++) {
+            if (presets.get(i).name.equals(name))
+                return presets.get(i);
+        }
+        int plus = name.indexOf('+');
+        if (plus <= 0)
+            return null;
+        try {
+            return TimeControlPresets.Preset.basic(name,
+                    Integer.parseInt(name.substring(0, plus)),
+                    Integer.parseInt(name.substring(plus + 1)));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long started = System.nanoTime();
+        boolean stats = false;
+        String inputPath = null;
+        String presetName = DEFAULT_PRESET;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-stats"))
+                stats = true;
+            else if (args[i].equals("-input") && i + 1 < args.length)
+                inputPath = args[++i];
+            else
+                presetName = args[i];
+        }
+        TimeControlPresets.Preset preset = preset(presetName);
+        if (preset == null) {
+            System.err.println("usage: ConsoleClock [-stats] [-input file] "
+                    + "[preset | minutes+increment]");
+            System.exit(2);
+        }
+
+        ClockEngine engine = new ClockEngine();
+        preset.applyTo(engine);
+        WritableByteChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        ConsoleClock clock = new ConsoleClock(engine, out);
+        ReadableByteChannel in = (inputPath != null)
+                ? new FileInputStream(inputPath).getChannel()
+                : new FileInputStream(FileDescriptor.in).getChannel();
+        Pipe pipe = Pipe.open();
+        Thread reader = new Thread(new InputForwarder(in, pipe.sink()), "ConsoleInput");
+        reader.setDaemon(true);
+        reader.start();
+
+        write(out, HIDE_CURSOR);
+        clock.update(now());
+        long firstLine = System.nanoTime();
+        try {
+            clock.run(pipe.source());
+        } finally {
+            write(out, "\n" + SHOW_CURSOR);
+        }
+        if (stats) {
+            Runtime runtime = Runtime.getRuntime();
+            System.err.println(String.format(
+                    "first line %.1f ms after main, heap %d KB in use of %d KB max, "
+                            + "peak resident %s",
+                    (firstLine - started) / 1e6,
+                    (runtime.totalMemory() - runtime.freeMemory()) / 1024,
+                    runtime.maxMemory() / 1024, peakResident()));
+        }
+        // the reader may still be blocked on the input
+        System.exit(0);
+    }
+
+    private static void write(WritableByteChannel out, String s) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(s.length());
+        put(b, s);
+        b.flip();
+        while (b.hasRemaining())
+            out.write(b);
+    }
+
+    // VmHWM from /proc (Linux), or "unknown"
+    private static String peakResident() {
+        try {
+            BufferedReader status = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = status.readLine()) != null) {
+                    if (line.startsWith("VmHWM:"))
+                        return line.substring("VmHWM:".length()).trim();
+                }
+            } finally {
+                status.close();
+            }
+        } catch (IOException ex) {
+            // not Linux
+        }
+        return "unknown";
+    }
+
+    /**
+     * Blocks on the input and hands what it reads to the clock thread.
+     */
+    private static final class InputForwarder implements Runnable {
+        private final ReadableByteChannel mIn;
+        private final Pipe.SinkChannel mSink;
+
+        InputForwarder(ReadableByteChannel in, Pipe.SinkChannel sink) {
+            mIn = in;
+            mSink = sink;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            try {
+                while (mIn.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        mSink.write(buffer);
+                    buffer.clear();
+                }
+            } catch (IOException ex) {
+                // the input is gone: as its end
+            }
+            try {
+                mSink.close();
+            } catch (IOException ex) {
+                // nothing left to tell
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package johnwilde.androidchessclock;
+
+// Priority queue of absolute clock deadlines (in uptime milliseconds).
+//
+// Each player owns a fixed block of slots, one per deadline kind:
+//
+// KIND_FLAG: the player's clock reaches 0
+// KIND_DELAY_EXPIRED: the Bronstein delay interval reaches 0
+// KIND_WARNING + i: the clock passes the i-th low time warning
+//
+// The queue is an indexed binary heap, so arming, re-arming and
+// cancelling a slot are O(log n) and nothing is allocated after
+// construction. The owner is responsible for waking up at
+// nextDeadline() and calling pollDue().
+final class DeadlineScheduler {
+
+    interface Listener {
+        void onDeadline(int player, int kind, long deadline);
+    }
+
+    static final int KIND_FLAG = 0;
+    static final int KIND_DELAY_EXPIRED = 1;
+    static final int KIND_WARNING = 2;
+    static final int MAX_WARNINGS = 4;
+    static final int KINDS_PER_PLAYER = KIND_WARNING + MAX_WARNINGS;
+
+    static final long NONE = Long.MAX_VALUE;
+
+    private final long[] mDeadline; // indexed by slot
+    private final int[] mPosition; // slot -> heap index, or -1
+    private final int[] mHeap; // heap index -> slot
+    private int mSize = 0;
+
+    DeadlineScheduler(int players) {
+        int slots = players * KINDS_PER_PLAYER;
+        mDeadline = new long[slots];
+        mPosition = new int[slots];
+        mHeap = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            mPosition[i] = -1;
+        }
+    }
+
+    // Arm (or re-arm) a deadline
+    void arm(int player, int kind, long deadline) {
+        int slot = player * KINDS_PER_PLAYER + kind;
+        int pos = mPosition[slot];
+        if (pos < 0) {
+            pos = mSize++;
+            mHeap[pos] = slot;
+            mPosition[slot] = pos;
+            mDeadline[slot] = deadline;
+            siftUp(pos);
+            return;
+        }
+        long previous = mDeadline[slot];
+        mDeadline[slot] = deadline;
+        if (deadline < previous) {
+            siftUp(pos);
+        } else {
+            siftDown(pos);
+        }
+    }
+
+    void cancel(int player, int kind) {
+        removeSlot(player * KINDS_PER_PLAYER + kind);
+    }
+
+    void cancelAll(int player) {
+        int first = player * KINDS_PER_PLAYER;
+        for (int slot = first; slot < first + KINDS_PER_PLAYER; slot++) {
+            removeSlot(slot);
+        }
+    }
+
+    boolean isArmed(int player, int kind) {
+        return mPosition[player * KINDS_PER_PLAYER + kind] >= 0;
+    }
+
+    // The earliest armed deadline, or NONE
+    long nextDeadline() {
+        return mSize == 0 ? NONE : mDeadline[mHeap[0]];
+    }
+
+    // Remove every deadline that is due at 'now' and report it to the
+    // listener in deadline order. Returns the number of deadlines fired.
+    int pollDue(long now, Listener listener) {
+        int fired = 0;
+        while (mSize > 0 && mDeadline[mHeap[0]] <= now) {
+            int slot = mHeap[0];
+            long deadline = mDeadline[slot];
+            removeSlot(slot);
+            fired++;
+            listener.onDeadline(slot / KINDS_PER_PLAYER,
+                    slot % KINDS_PER_PLAYER, deadline);
+        }
+        return fired;
+    }
+
+    private void removeSlot(int slot) {
+        int pos = mPosition[slot];
+        if (pos < 0)
+            return;
+        mPosition[slot] = -1;
+        int last = --mSize;
+        if (pos == last)
+            return;
+        int moved = mHeap[last];
+        mHeap[pos] = moved;
+        mPosition[moved] = pos;
+        siftUp(pos);
+        siftDown(mPosition[moved]);
+    }
+
+    private void siftUp(int pos) {
+        int slot = mHeap[pos];
+        long deadline = mDeadline[slot];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int parentSlot = mHeap[parent];
+            if (mDeadline[parentSlot] <= deadline)
+                break;
+            mHeap[pos] = parentSlot;
+            mPosition[parentSlot] = pos;
+            pos = parent;
+        }
+        mHeap[pos] = slot;
+        mPosition[slot] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int slot = mHeap[pos];
+        long deadline = mDeadline[slot];
+        int half = mSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < mSize && mDeadline[mHeap[right]] < mDeadline[mHeap[child]])
+                child = right;
+            int childSlot = mHeap[child];
+            if (deadline <= mDeadline[childSlot])
+                break;
+            mHeap[pos] = childSlot;
+            mPosition[childSlot] = pos;
+            pos = child;
+        }
+        mHeap[pos] = slot;
+        mPosition[slot] = pos;
+    }
+}
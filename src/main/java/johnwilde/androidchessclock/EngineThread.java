@@ -0,0 +1,324 @@
+package johnwilde.androidchessclock;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.ClockEngine.GameState;
+
+// Runs a ClockEngine on its own high priority thread.
+//
+// The engine is only ever touched by that thread. Taps, pauses and the
+// other commands are sent to it as Messages from the global pool, so a
+// tap allocates nothing, and the engine's deadlines are timed by the same
+// Handler: a busy UI thread, a dialog or a garbage collection of UI
+// objects no longer delays a flag fall.
+//
+// A command carries the uptime at which the user gave it as its
+// Message.getWhen(), so the clock is charged up to the tap and not up
+// to the moment the engine thread got to it, and commands and deadlines
+// are handled in the order they happened.
+//
+// After every command and deadline the engine thread publishes the
+// whole clock state to a SnapshotChannel. Readers on any thread copy it
+// with read() without taking a lock, and the UI's Callbacks are told.
+//
+// What happened (a move, a start, a flag fall, a finished game, ...) is
+// also published as an event to the MoveEventBus, whose consumers run
+// the side effects (the sounds, saving the game) on their own threads.
+final class EngineThread implements Handler.Callback, ClockEngine.Listener {
+
+    // All called on the UI thread
+    interface Callbacks {
+        // The engine carried out a command or a deadline fired. read()
+        // returns the new state.
+        void onEngineChanged();
+    }
+
+    // Work on the engine itself (e.g. loading the time control), run on
+    // the engine thread in order with the commands
+    interface Task {
+        void run(ClockEngine engine);
+    }
+
+    // Engine thread messages
+    private static final int MSG_START = 1; // arg1: first player
+    private static final int MSG_PAUSE = 2;
+    private static final int MSG_RESUME = 3;
+    private static final int MSG_SWITCH = 4; // arg1: player
+    private static final int MSG_SET_TIME = 5; // arg1: player, obj: Long ms
+    private static final int MSG_UNDO = 6;
+    private static final int MSG_REDO = 7;
+    private static final int MSG_RESET = 8;
+    private static final int MSG_RESTORE = 9; // arg1: GameState, obj: long[]
+    private static final int MSG_TASK = 10; // obj: Task
+    private static final int MSG_DEADLINE = 11;
+
+    // how long quit() waits for the game in progress to be handed over
+    private static final long QUIT_TIMEOUT_MS = 500;
+
+    // UI thread messages
+    private static final int UI_CHANGED = 1;
+
+    private static final GameState[] STATES = GameState.values();
+
+    private final ClockEngine mEngine;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mUiHandler;
+    private final SnapshotChannel mChannel = new SnapshotChannel(ClockSnapshot.SIZE);
+    private final long[] mFields = new long[ClockSnapshot.SIZE];
+    private final MoveEventBus mEvents = new MoveEventBus(MoveEventBus.DEFAULT_CAPACITY);
+    // when the message being handled happened
+    private long mNow;
+    private Callbacks mCallbacks;
+
+    EngineThread(ClockEngine engine) {
+        mEngine = engine;
+        engine.setListener(this);
+        // nobody else writes yet, the thread starts after this
+        engine.writeSnapshot(mFields);
+        mChannel.publish(mFields);
+
+        mThread = new HandlerThread("ClockEngine",
+                Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper(), this);
+        mUiHandler = new Handler(Looper.getMainLooper(), new UiCallback());
+    }
+
+    // Called on the UI thread; null stops the callbacks
+    void setCallbacks(Callbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    // Stop the engine thread. The commands already sent are carried out,
+    // then a game in progress is ended as a reset ends it: handed over as
+    // unfinished (a GAME_FINISHED event). Returns once that is published,
+    // or after QUIT_TIMEOUT_MS, so a consumer closed next can drain it
+    // (see ArchiveWriter.close()).
+    void quit() {
+        mCallbacks = null;
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mNow = SystemClock.uptimeMillis();
+                mEngine.reset();
+                done.countDown();
+            }
+        });
+        try {
+            done.await(QUIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        mThread.quit();
+        mUiHandler.removeCallbacksAndMessages(null);
+        mEvents.quit();
+    }
+
+    // Where the engine's events are published; subscribe from any thread
+    MoveEventBus events() {
+        return mEvents;
+    }
+
+    // Copy the latest published state into 'into'. Returns true if it
+    // changed since 'into' was last read.
+    boolean read(ClockSnapshot into) {
+        return into.readFrom(mChannel);
+    }
+
+    //
+    // Commands, sent from any thread. 'now' is the uptime at which the
+    // user gave the command.
+    //
+
+    void start(int first, long now) {
+        send(MSG_START, first, null, now);
+    }
+
+    void pause(long now) {
+        send(MSG_PAUSE, 0, null, now);
+    }
+
+    void resume(long now) {
+        send(MSG_RESUME, 0, null, now);
+    }
+
+    void switchMove(int player, long now) {
+        send(MSG_SWITCH, player, null, now);
+    }
+
+    void setMsToGo(int player, long msToGo, long now) {
+        send(MSG_SET_TIME, player, Long.valueOf(msToGo), now);
+    }
+
+    void undo(long now) {
+        send(MSG_UNDO, 0, null, now);
+    }
+
+    void redo(long now) {
+        send(MSG_REDO, 0, null, now);
+    }
+
+    void reset() {
+        send(MSG_RESET, 0, null, SystemClock.uptimeMillis());
+    }
+
+    void restore(GameState state, long[] snapshot) {
+        send(MSG_RESTORE, state.ordinal(), snapshot, SystemClock.uptimeMillis());
+    }
+
+    void configure(Task task) {
+        send(MSG_TASK, 0, task, SystemClock.uptimeMillis());
+    }
+
+    // Wait until the engine thread has handled everything sent so far
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(int what, int arg1, Object obj, long now) {
+        mHandler.sendMessageAtTime(mHandler.obtainMessage(what, arg1, 0, obj), now);
+    }
+
+    //
+    // Engine thread
+    //
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        ClockEngine engine = mEngine;
+        long now = msg.getWhen();
+        mNow = now;
+        switch (msg.what) {
+        case MSG_START:
+            // a command sent from a stale snapshot changes nothing and
+            // is not an event
+            if (engine.start(msg.arg1, now))
+                event(MoveEventBus.START, msg.arg1, 0, null);
+            break;
+        case MSG_PAUSE:
+            if (engine.pause(now))
+                event(MoveEventBus.PAUSE, engine.getActive(), 0, null);
+            break;
+        case MSG_RESUME:
+            if (engine.resume(now))
+                event(MoveEventBus.RESUME, engine.getActive(), 0, null);
+            break;
+        case MSG_SWITCH: {
+            long moveMs = engine.getMoveMs(msg.arg1, now);
+            if (engine.switchMove(msg.arg1, now))
+                event(MoveEventBus.SWITCH, msg.arg1, moveMs, null);
+            break;
+        }
+        case MSG_SET_TIME:
+            engine.setMsToGo(msg.arg1, ((Long) msg.obj).longValue(), now);
+            break;
+        case MSG_UNDO:
+            if (engine.undo(now))
+                event(MoveEventBus.UNDO, engine.getActive(), 0, null);
+            break;
+        case MSG_REDO:
+            if (engine.redo(now))
+                event(MoveEventBus.REDO, engine.getActive(), 0, null);
+            break;
+        case MSG_RESET:
+            engine.reset();
+            event(MoveEventBus.RESET, ClockEngine.NO_PLAYER, 0, null);
+            break;
+        case MSG_RESTORE:
+            engine.restore(STATES[msg.arg1], (long[]) msg.obj);
+            break;
+        case MSG_TASK:
+            ((Task) msg.obj).run(engine);
+            break;
+        case MSG_DEADLINE:
+            mNow = SystemClock.uptimeMillis();
+            engine.pollDeadlines(mNow);
+            break;
+        default:
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    private void publish() {
+        mEngine.writeSnapshot(mFields);
+        mChannel.publish(mFields);
+        // one pending notification is enough, the UI reads the latest
+        if (!mUiHandler.hasMessages(UI_CHANGED))
+            mUiHandler.sendEmptyMessage(UI_CHANGED);
+    }
+
+    private void event(int type, int player, long moveMs, Object payload) {
+        if (player == ClockEngine.NO_PLAYER) {
+            mEvents.publish(type, player, mNow, 0, 0, 0, payload);
+            return;
+        }
+        ClockEngine engine = mEngine;
+        mEvents.publish(type, player, mNow, engine.getMsToGo(player, mNow),
+                moveMs, engine.getMoveNumber(player), payload);
+    }
+
+    @Override
+    public void onFlag(int player) {
+        event(MoveEventBus.FLAG, player, 0, null);
+    }
+
+    @Override
+    public void onDelayExpired(int player) {
+        // the published state shows it
+    }
+
+    @Override
+    public void onLowTimeWarning(int player) {
+        event(MoveEventBus.LOW_TIME, player, 0, null);
+    }
+
+    @Override
+    public void onDeadlinesChanged(long nextDeadline) {
+        mHandler.removeMessages(MSG_DEADLINE);
+        if (nextDeadline != DeadlineScheduler.NONE) {
+            mHandler.sendMessageAtTime(mHandler.obtainMessage(MSG_DEADLINE),
+                    nextDeadline);
+        }
+    }
+
+    @Override
+    public void onGameFinished(ArchivedGame game) {
+        event(MoveEventBus.GAME_FINISHED, ClockEngine.NO_PLAYER, 0, game);
+    }
+
+    //
+    // UI thread
+    //
+
+    private final class UiCallback implements Handler.Callback {
+        @Override
+        public boolean handleMessage(Message msg) {
+            Callbacks callbacks = mCallbacks;
+            if (callbacks == null)
+                return true;
+            if (msg.what != UI_CHANGED)
+                return false;
+            callbacks.onEngineChanged();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package johnwilde.androidchessclock;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Ticks timed by a dedicated ScheduledExecutorService thread and handed
+// to a delivery Executor (on a device a Handler on the UI thread, in a
+// JVM any executor) to run.
+//
+// The timing thread sleeps in the kernel until the tick is due, not in a
+// message queue that other work can hold up, but each tick wakes two
+// threads and each schedule() allocates the executor's future.
+//
+// A tick cancelled or rescheduled after the timing thread handed it over
+// is dropped by the delivery side: it only runs a task that is still
+// pending and due.
+final class ExecutorTickScheduler implements TickScheduler {
+
+    private final ScheduledExecutorService mExecutor;
+    private final Executor mDelivery;
+    // the tasks seen so far; a clock has one or two
+    private Tick[] mTicks = new Tick[2];
+    private int mCount;
+
+    ExecutorTickScheduler(Executor delivery) {
+        mDelivery = delivery;
+        // a cancelled tick stays queued until it is due (removing it at
+        // once, setRemoveOnCancelPolicy(), needs API 21)
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ClockTicks");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void schedule(Runnable task, long delayMs) {
+        Tick tick = tickOf(task);
+        if (tick.mFuture != null)
+            tick.mFuture.cancel(false);
+        tick.mPending = true;
+        tick.mDueNanos = System.nanoTime() + delayMs * 1000000L;
+        tick.mFuture = mExecutor.schedule(tick, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void cancel(Runnable task) {
+        for (int i = 0; i < mCount; i++) {
+            Tick tick = mTicks[i];
+            if (tick.mTask == task) {
+                tick.mPending = false;
+                if (tick.mFuture != null)
+                    tick.mFuture.cancel(false);
+                tick.mFuture = null;
+            }
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public int wakeupsPerTick() {
+        return 2;
+    }
+
+    @Override
+    public void release() {
+        mExecutor.shutdownNow();
+    }
+
+    private Tick tickOf(Runnable task) {
+        for (int i = 0; i < mCount; i++) {
+            if (mTicks[i].mTask == task)
+                return mTicks[i];
+        }
+        if (mCount == mTicks.length) {
+            Tick[] ticks = new Tick[mCount * 2];
+            System.arraycopy(mTicks, 0, ticks, 0, mCount);
+            mTicks = ticks;
+        }
+        Tick tick = new Tick(task);
+        mTicks[mCount++] = tick;
+        return tick;
+    }
+
+    /**
+     * A task's pending run. run() is the timing thread's part, mDeliver
+     * the delivery thread's.
+     */
+    private final class Tick implements Runnable {
+        final Runnable mTask;
+        // guarded by the scheduler
+        boolean mPending;
+        long mDueNanos;
+        ScheduledFuture<?> mFuture;
+
+        final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ExecutorTickScheduler.this) {
+                    // cancelled, or a stale hand-over of a rescheduled tick
+                    if (!mPending || System.nanoTime() < mDueNanos)
+                        return;
+                    mPending = false;
+                    mFuture = null;
+                }
+                mTask.run();
+            }
+        };
+
+        Tick(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            mDelivery.execute(mDeliver);
+        }
+    }
+}
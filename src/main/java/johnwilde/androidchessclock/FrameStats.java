@@ -0,0 +1,61 @@
+package johnwilde.androidchessclock;
+
+// Frame times of a clock ticking every frame (the hundredths window, see
+// ClockFace), to check the ticks keep up with the display.
+//
+// frame() takes the time of each tick. An interval of about n frame
+// periods means n - 1 frames were dropped: the tick, or something else
+// on the UI thread, took longer than its frame. Nothing is allocated.
+final class FrameStats {
+
+    private final long mPeriodNanos;
+    private long mLastNanos = -1;
+    private int mFrames;
+    private int mDropped;
+    private long mWorstNanos;
+
+    FrameStats(long periodNanos) {
+        mPeriodNanos = periodNanos;
+    }
+
+    void frame(long nanos) {
+        if (mLastNanos >= 0) {
+            long interval = nanos - mLastNanos;
+            mFrames++;
+            long periods = (interval + mPeriodNanos / 2) / mPeriodNanos;
+            if (periods > 1)
+                mDropped += periods - 1;
+            mWorstNanos = Math.max(mWorstNanos, interval);
+        }
+        mLastNanos = nanos;
+    }
+
+    // The ticks stopped; the next frame() starts a new run
+    void pause() {
+        mLastNanos = -1;
+    }
+
+    boolean isRunning() {
+        return mLastNanos >= 0;
+    }
+
+    // frame intervals measured
+    int frames() {
+        return mFrames;
+    }
+
+    int dropped() {
+        return mDropped;
+    }
+
+    long worstNanos() {
+        return mWorstNanos;
+    }
+
+    void reset() {
+        mLastNanos = -1;
+        mFrames = 0;
+        mDropped = 0;
+        mWorstNanos = 0;
+    }
+}
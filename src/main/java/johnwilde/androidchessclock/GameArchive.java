@@ -0,0 +1,248 @@
+package johnwilde.androidchessclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+// Append-only store of played games.
+//
+// The archive is a directory holding:
+//
+// games.idx: a file header followed by one GameIndex entry
+// (ENTRY_BYTES wide) per game
+// games-NNNN.dat: segments holding the game records. A segment is
+// closed once it grows past SEGMENT_BYTES and is never
+// rewritten.
+//
+// A game record is a 16 byte header (id, move count, first player,
+// number of players) followed by one 8 byte record per move (ms spent,
+// ms remaining). The index entry holds the segment and offset of the
+// record, so a game is loaded with a single positioned read.
+//
+// The record is written before its index entry, so a crash can at worst
+// leave an unreferenced record at the end of a segment.
+//
+// The same directory may be open more than once in the process (the
+// clock saving a game while the history screen imports a bundle).
+// Appends are serialized across instances and each one starts from the
+// files as the others left them.
+final class GameArchive {
+
+    static final String INDEX_FILE = "games.idx";
+    static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    private static final int INDEX_MAGIC = 0x43434749; // "CCGI"
+    private static final int SEGMENT_MAGIC = 0x43434753; // "CCGS"
+    private static final int VERSION = 1;
+    static final int FILE_HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 16;
+    static final int MOVE_BYTES = 8;
+
+    private static final Object APPEND_LOCK = new Object();
+
+    private final File mDirectory;
+    private RandomAccessFile mIndex;
+    private RandomAccessFile mSegment;
+    private int mSegmentNumber;
+    private int mGameCount;
+
+    // reused encode buffer, grown when a long game is appended
+    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+    private final ByteBuffer mIndexEntry = ByteBuffer.allocate(GameIndex.ENTRY_BYTES);
+    // reused read buffer for load(index, i, game)
+    private ByteBuffer mReadBuffer = ByteBuffer.allocate(4096);
+
+    GameArchive(File directory) throws IOException {
+        mDirectory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        mIndex = openWithHeader(new File(directory, INDEX_FILE), INDEX_MAGIC);
+        // drop a partially written trailing entry
+        long entries = (mIndex.length() - FILE_HEADER_BYTES) / GameIndex.ENTRY_BYTES;
+        mIndex.setLength(FILE_HEADER_BYTES + entries * GameIndex.ENTRY_BYTES);
+        mGameCount = (int) entries;
+
+        mSegmentNumber = 0;
+        while (segmentFile(mSegmentNumber + 1).exists())
+            mSegmentNumber++;
+        mSegment = openWithHeader(segmentFile(mSegmentNumber), SEGMENT_MAGIC);
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    int size() {
+        return mGameCount;
+    }
+
+    int segmentCount() {
+        return mSegmentNumber + 1;
+    }
+
+    File segmentFile(int segment) {
+        return segmentFile(mDirectory, segment);
+    }
+
+    static File segmentFile(File directory, int segment) {
+        return new File(directory,
+                String.format(Locale.US, "games-%04d.dat", segment));
+    }
+
+    // Append a game and return its position in the index
+    synchronized int append(ArchivedGame game) throws IOException {
+        synchronized (APPEND_LOCK) {
+            catchUp();
+            return appendLocked(game);
+        }
+    }
+
+    private int appendLocked(ArchivedGame game) throws IOException {
+        int length = recordBytes(game);
+        if (mSegment.length() + length > SEGMENT_BYTES
+                && mSegment.length() > FILE_HEADER_BYTES) {
+            mSegment.close();
+            mSegmentNumber++;
+            mSegment = openWithHeader(segmentFile(mSegmentNumber), SEGMENT_MAGIC);
+        }
+
+        if (mBuffer.capacity() < length)
+            mBuffer = ByteBuffer.allocate(Math.max(length, mBuffer.capacity() * 2));
+        ByteBuffer b = mBuffer;
+        b.clear();
+        encodeRecord(b, game);
+        int offset = (int) mSegment.length();
+        mSegment.seek(offset);
+        mSegment.write(b.array(), 0, b.position());
+
+        mIndexEntry.clear();
+        GameIndex.encode(mIndexEntry, game, mSegmentNumber, offset);
+        mIndex.seek(FILE_HEADER_BYTES + (long) mGameCount * GameIndex.ENTRY_BYTES);
+        mIndex.write(mIndexEntry.array(), 0, GameIndex.ENTRY_BYTES);
+        return mGameCount++;
+    }
+
+    // Pick up the games and segments another instance appended
+    private void catchUp() throws IOException {
+        mGameCount = indexEntries();
+        if (segmentFile(mSegmentNumber + 1).exists()) {
+            mSegment.close();
+            while (segmentFile(mSegmentNumber + 1).exists())
+                mSegmentNumber++;
+            mSegment = openWithHeader(segmentFile(mSegmentNumber), SEGMENT_MAGIC);
+        }
+    }
+
+    private int indexEntries() throws IOException {
+        return (int) ((mIndex.length() - FILE_HEADER_BYTES) / GameIndex.ENTRY_BYTES);
+    }
+
+    // Read the whole index with one read. The game records are not touched.
+    synchronized GameIndex readIndex() throws IOException {
+        int count;
+        synchronized (APPEND_LOCK) {
+            count = indexEntries();
+        }
+        mGameCount = count;
+        GameIndex index = new GameIndex(count);
+        byte[] bytes = new byte[count * GameIndex.ENTRY_BYTES];
+        mIndex.seek(FILE_HEADER_BYTES);
+        mIndex.readFully(bytes);
+        index.decode(ByteBuffer.wrap(bytes), count);
+        return index;
+    }
+
+    // Load game i of the index with a single positioned read
+    ArchivedGame load(GameIndex index, int i) throws IOException {
+        ArchivedGame game = new ArchivedGame(Math.max(index.mMoveCount[i], 1));
+        load(index, i, game);
+        return game;
+    }
+
+    // Load game i into an existing game, reusing its move arrays
+    synchronized void load(GameIndex index, int i, ArchivedGame game)
+            throws IOException {
+        int length = RECORD_HEADER_BYTES + index.mMoveCount[i] * MOVE_BYTES;
+        if (mReadBuffer.capacity() < length)
+            mReadBuffer = ByteBuffer.allocate(Math.max(length, mReadBuffer.capacity() * 2));
+        ByteBuffer b = mReadBuffer;
+        int segment = index.mSegment[i];
+        if (segment == mSegmentNumber) {
+            readAt(mSegment, index.mOffset[i], b.array(), length);
+        } else {
+            RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "r");
+            try {
+                readAt(file, index.mOffset[i], b.array(), length);
+            } finally {
+                file.close();
+            }
+        }
+
+        index.copyHeader(i, game);
+        b.clear();
+        decodeRecord(b, game);
+        if (game.mId != index.mId[i])
+            throw new IOException("Index entry " + i + " does not match its record");
+    }
+
+    static int recordBytes(ArchivedGame game) {
+        return RECORD_HEADER_BYTES + game.mMoveCount * MOVE_BYTES;
+    }
+
+    // Encode the record of 'game' at the buffer's position
+    static void encodeRecord(ByteBuffer b, ArchivedGame game) {
+        b.putLong(game.mId);
+        b.putInt(game.mMoveCount);
+        b.put((byte) game.mFirstPlayer);
+        b.put((byte) game.mPlayers);
+        b.putShort((short) 0);
+        for (int i = 0; i < game.mMoveCount; i++) {
+            b.putInt(game.mMoveMs[i]);
+            b.putInt(game.mRemainingMs[i]);
+        }
+    }
+
+    // Decode a record at the buffer's position into 'game' (header fields
+    // other than id and player layout are left untouched)
+    static void decodeRecord(ByteBuffer b, ArchivedGame game) {
+        game.mId = b.getLong();
+        int moves = b.getInt();
+        game.mFirstPlayer = b.get();
+        game.mPlayers = b.get();
+        b.getShort();
+        game.mMoveCount = 0;
+        for (int i = 0; i < moves; i++) {
+            game.addMove(b.getInt(), b.getInt());
+        }
+    }
+
+    synchronized void close() throws IOException {
+        mIndex.close();
+        mSegment.close();
+    }
+
+    private static void readAt(RandomAccessFile file, long offset, byte[] bytes,
+            int length) throws IOException {
+        file.seek(offset);
+        file.readFully(bytes, 0, length);
+    }
+
+    private static RandomAccessFile openWithHeader(File f, int magic)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "rw");
+        if (file.length() < FILE_HEADER_BYTES) {
+            file.setLength(0);
+            file.writeInt(magic);
+            file.writeInt(VERSION);
+        } else {
+            file.seek(0);
+            if (file.readInt() != magic || file.readInt() != VERSION) {
+                file.close();
+                throw new IOException("Unrecognized archive file " + f);
+            }
+        }
+        return file;
+    }
+}
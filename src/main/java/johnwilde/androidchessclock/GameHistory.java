@@ -0,0 +1,536 @@
+package johnwilde.androidchessclock;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Activity listing the archived games, newest first.
+ *
+ * Only the archive index is read to build the list. The moves of a game
+ * are loaded when the game is selected. The options menu shows time
+ * usage statistics over all games, and exports or imports the games
+ * (PGN, or an ArchiveBundle to merge them on another device).
+ */
+public class GameHistory extends ListActivity {
+
+    private static final String TAG = "GameHistoryActivity";
+    static final String PGN_FILE = "games.pgn";
+    static final String BUNDLE_FILE = "games" + ArchiveBundle.EXTENSION;
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    private GameArchive mArchive;
+    private GameIndex mIndex;
+    private DateFormat mDateFormat;
+    private Retained mShared;
+    private boolean mRetained = false;
+
+    // Kept for the life of the process so its per-segment results are
+    // reused the next time the statistics are shown.
+    private static ArchiveAnalytics sAnalytics;
+
+    /**
+     * The open archive and the tasks using it, handed over to the next
+     * instance on a configuration change. The archive is closed once the
+     * activity is gone for good and the last task has finished. Only
+     * used on the UI thread.
+     */
+    static final class Retained {
+        final GameArchive archive;
+        GameIndex index;
+        // the instance task results go to, null once finishing
+        GameHistory activity;
+        private int mTasks;
+        private boolean mReleased;
+
+        Retained(GameArchive archive, GameIndex index) {
+            this.archive = archive;
+            this.index = index;
+        }
+
+        void taskStarted() {
+            mTasks++;
+        }
+
+        void taskFinished() {
+            mTasks--;
+            closeIfIdle();
+        }
+
+        void release() {
+            activity = null;
+            mReleased = true;
+            closeIfIdle();
+        }
+
+        private void closeIfIdle() {
+            if (!mReleased || mTasks > 0)
+                return;
+            try {
+                archive.close();
+            } catch (IOException ex) {
+                Log.d(TAG, "close failed:", ex);
+            }
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mDateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT,
+                DateFormat.SHORT);
+        mShared = (Retained) getLastNonConfigurationInstance();
+        if (mShared == null) {
+            try {
+                GameArchive archive = new GameArchive(new File(getFilesDir(),
+                        ChessTimerActivity.ARCHIVE_DIRECTORY));
+                mShared = new Retained(archive, archive.readIndex());
+            } catch (IOException ex) {
+                Log.d(TAG, "archive unavailable:", ex);
+                finish();
+                return;
+            }
+        }
+        mShared.activity = this;
+        mArchive = mShared.archive;
+        mIndex = mShared.index;
+        setListAdapter(new IndexAdapter());
+    }
+
+    // The archive stays open for the next instance, or until the tasks
+    // still running (an import, say) have finished
+    @Override
+    protected void onDestroy() {
+        if (mShared != null) {
+            if (mRetained)
+                mShared.activity = null;
+            else
+                mShared.release();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        mRetained = true;
+        mShared.index = mIndex;
+        return mShared;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.history, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.historymenu_statistics) {
+            new StatisticsTask(mShared).execute(mIndex);
+            return true;
+        }
+        if (item.getItemId() == R.id.historymenu_export_pgn) {
+            new ExportTask(mShared, new File(exportDirectory(), PGN_FILE)).execute(mIndex);
+            return true;
+        }
+        if (item.getItemId() == R.id.historymenu_export_bundle) {
+            new BundleExportTask(mShared, new File(exportDirectory(), BUNDLE_FILE))
+                    .execute(mIndex);
+            return true;
+        }
+        if (item.getItemId() == R.id.historymenu_import_bundles) {
+            importBundles();
+            return true;
+        }
+        return false;
+    }
+
+    private static synchronized ArchiveAnalytics getAnalytics(File directory) {
+        if (sAnalytics != null && !sAnalytics.getDirectory().equals(directory)) {
+            sAnalytics.shutdown();
+            sAnalytics = null;
+        }
+        if (sAnalytics == null)
+            sAnalytics = new ArchiveAnalytics(directory);
+        return sAnalytics;
+    }
+
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        ArchivedGame game;
+        try {
+            game = mArchive.load(mIndex, indexOf(position));
+        } catch (IOException ex) {
+            Log.d(TAG, "load failed:", ex);
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(describe(indexOf(position)))
+                .setMessage(describeMoves(game))
+                .setPositiveButton(R.string.OK, null)
+                .show();
+    }
+
+    // newest game first
+    private int indexOf(int position) {
+        return mIndex.size() - 1 - position;
+    }
+
+    private String describe(int i) {
+        return mDateFormat.format(new Date(mIndex.mStartTime[i])) + "  "
+                + describeTimeControl(i) + "  "
+                + getString(R.string.history_moves, mIndex.mMoveCount[i]) + "  "
+                + describeResult(mIndex.mResult[i]);
+    }
+
+    private String describeTimeControl(int i) {
+        String s = Utils.formatTime(mIndex.mInitialSeconds[i] * 1000L);
+        if (mIndex.mControlType[i] == ArchivedGame.CONTROL_TOURNAMENT)
+            s = mIndex.mPhase1Moves[i] + "/" + s;
+        return s + " +" + mIndex.mIncrementSeconds[i];
+    }
+
+    private String describeResult(byte result) {
+        if (result == ArchivedGame.RESULT_UNFINISHED)
+            return getString(R.string.history_unfinished);
+        return getString(R.string.history_lost_on_time,
+                playerName(result - ArchivedGame.RESULT_FLAG));
+    }
+
+    private String playerName(int player) {
+        switch (player) {
+        case ChessTimerActivity.WHITE:
+            return getString(R.string.player_white);
+        case ChessTimerActivity.BLACK:
+            return getString(R.string.player_black);
+        default:
+            return String.valueOf(player + 1);
+        }
+    }
+
+    private String describeMoves(ArchivedGame game) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < game.mMoveCount; i++) {
+            sb.append(i / game.mPlayers + 1).append(". ")
+                    .append(playerName(game.playerOfMove(i))).append("  ")
+                    .append(Utils.formatTime(game.mMoveMs[i])).append("  (")
+                    .append(Utils.formatTime(game.mRemainingMs[i])).append(")\n");
+        }
+        return sb.toString();
+    }
+
+    private String describeStatistics(TimeUsageStats stats) {
+        String[] delayTypes = getResources().getStringArray(
+                R.array.delay_type_descriptions);
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(getString(R.string.stats_average_header)).append('\n');
+        sb.append(getString(R.string.stats_phase_opening)).append(": ")
+                .append(Utils.formatTime(stats.averageMoveMs(TimeUsageStats.PHASE_OPENING)))
+                .append('\n');
+        sb.append(getString(R.string.stats_phase_middlegame)).append(": ")
+                .append(Utils.formatTime(stats.averageMoveMs(TimeUsageStats.PHASE_MIDDLEGAME)))
+                .append('\n');
+        sb.append(getString(R.string.stats_phase_endgame)).append(": ")
+                .append(Utils.formatTime(stats.averageMoveMs(TimeUsageStats.PHASE_ENDGAME)))
+                .append("\n\n");
+
+        sb.append(getString(R.string.stats_time_trouble_header,
+                TimeUsageStats.TIME_TROUBLE_PERCENT)).append('\n');
+        for (int player = ChessTimerActivity.WHITE; player <= ChessTimerActivity.BLACK; player++) {
+            sb.append(playerName(player)).append(": ")
+                    .append(stats.timeTroublePercent(player)).append("%\n");
+        }
+        sb.append('\n');
+
+        sb.append(getString(R.string.stats_flag_rate_header)).append('\n');
+        for (int delay = 0; delay < TimeUsageStats.DELAY_TYPES; delay++) {
+            for (int bucket = 0; bucket < TimeUsageStats.INCREMENT_BUCKETS; bucket++) {
+                long games = stats.controlGames(delay, bucket);
+                if (games == 0)
+                    continue;
+                sb.append(getString(R.string.stats_flag_rate, delayTypes[delay],
+                        TimeUsageStats.incrementBucketStart(bucket),
+                        stats.flagRatePercent(delay, bucket), games)).append('\n');
+            }
+        }
+        sb.append('\n');
+
+        sb.append(getString(R.string.stats_curve_header)).append('\n');
+        for (int move = 10; move <= TimeUsageStats.CURVE_MOVES; move += 10) {
+            int median = stats.remainingPercentile(move, 50);
+            if (median < 0)
+                break;
+            sb.append(getString(R.string.stats_curve, move, median,
+                    stats.remainingPercentile(move, 10))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A task using the retained archive. Its result goes to the activity
+     * showing when it finishes (none if the history is closed), and the
+     * archive is not closed before it has finished.
+     */
+    abstract static class ArchiveTask<P, R> extends AsyncTask<P, Void, R> {
+        final Retained mShared;
+        final GameArchive mArchive;
+
+        ArchiveTask(Retained shared) {
+            mShared = shared;
+            mArchive = shared.archive;
+            shared.taskStarted();
+        }
+
+        @Override
+        protected final void onPostExecute(R result) {
+            GameHistory activity = mShared.activity;
+            if (activity != null && !activity.isFinishing())
+                onFinished(activity, result);
+            mShared.taskFinished();
+        }
+
+        // on the UI thread
+        abstract void onFinished(GameHistory activity, R result);
+    }
+
+    /**
+     * Computes the statistics off the UI thread.
+     */
+    static final class StatisticsTask extends ArchiveTask<GameIndex, TimeUsageStats> {
+        StatisticsTask(Retained shared) {
+            super(shared);
+        }
+
+        @Override
+        protected TimeUsageStats doInBackground(GameIndex... index) {
+            try {
+                return getAnalytics(mArchive.getDirectory()).compute(index[0]);
+            } catch (IOException ex) {
+                Log.d(TAG, "statistics failed:", ex);
+                return null;
+            }
+        }
+
+        @Override
+        void onFinished(GameHistory activity, TimeUsageStats stats) {
+            if (stats == null)
+                return;
+            new AlertDialog.Builder(activity)
+                    .setTitle(R.string.historymenu_statistics)
+                    .setMessage(activity.describeStatistics(stats))
+                    .setPositiveButton(R.string.OK, null)
+                    .show();
+        }
+    }
+
+    // External files are readable by other apps (API 8 and up)
+    private File exportDirectory() {
+        File dir = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO)
+            dir = getExternalFilesDir(null);
+        return dir != null ? dir : getFilesDir();
+    }
+
+    /**
+     * Writes every archived game to a PGN file off the UI thread.
+     */
+    static final class ExportTask extends ArchiveTask<GameIndex, File> {
+        private final File mFile;
+
+        ExportTask(Retained shared, File file) {
+            super(shared);
+            mFile = file;
+        }
+
+        @Override
+        protected File doInBackground(GameIndex... index) {
+            try {
+                OutputStreamWriter out = new OutputStreamWriter(
+                        new FileOutputStream(mFile), "UTF-8");
+                try {
+                    new PgnExporter(out).writeAll(mArchive, index[0]);
+                } finally {
+                    out.close();
+                }
+                return mFile;
+            } catch (IOException ex) {
+                Log.d(TAG, "export failed:", ex);
+                return null;
+            }
+        }
+
+        @Override
+        void onFinished(GameHistory activity, File file) {
+            activity.showExportResult(file);
+        }
+    }
+
+    /**
+     * Writes every archived game to a bundle off the UI thread. The bundle
+     * is written under a temporary name, so an import never sees half of it.
+     */
+    static final class BundleExportTask extends ArchiveTask<GameIndex, File> {
+        private final File mFile;
+
+        BundleExportTask(Retained shared, File file) {
+            super(shared);
+            mFile = file;
+        }
+
+        @Override
+        protected File doInBackground(GameIndex... index) {
+            File partial = new File(mFile.getPath() + ".tmp");
+            try {
+                OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(partial), STREAM_BUFFER_BYTES);
+                try {
+                    ArchiveBundle.export(mArchive, index[0], out);
+                } finally {
+                    out.close();
+                }
+                if (!partial.renameTo(mFile))
+                    throw new IOException("Can't rename " + partial);
+                return mFile;
+            } catch (IOException ex) {
+                Log.d(TAG, "export failed:", ex);
+                partial.delete();
+                return null;
+            }
+        }
+
+        @Override
+        void onFinished(GameHistory activity, File file) {
+            activity.showExportResult(file);
+        }
+    }
+
+    private void showExportResult(File file) {
+        String message = (file == null) ? getString(R.string.export_failed)
+                : getString(R.string.export_done, file.getPath());
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    // Import the bundles copied into the export directory
+    private void importBundles() {
+        File dir = exportDirectory();
+        File[] bundles = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(ArchiveBundle.EXTENSION);
+            }
+        });
+        if (bundles == null || bundles.length == 0) {
+            Toast.makeText(this, getString(R.string.import_none,
+                    ArchiveBundle.EXTENSION, dir.getPath()), Toast.LENGTH_LONG).show();
+            return;
+        }
+        new ImportTask(mShared).execute(bundles);
+    }
+
+    /**
+     * Merges bundles into the archive off the UI thread, then shows the
+     * index read again.
+     */
+    static final class ImportTask extends ArchiveTask<File, GameIndex> {
+        private int mImported;
+        private int mDuplicates;
+        private String mError;
+
+        ImportTask(Retained shared) {
+            super(shared);
+        }
+
+        @Override
+        protected GameIndex doInBackground(File... bundles) {
+            for (File bundle : bundles) {
+                try {
+                    InputStream in = new BufferedInputStream(
+                            new FileInputStream(bundle), STREAM_BUFFER_BYTES);
+                    try {
+                        ArchiveBundle.Result result = ArchiveBundle.importInto(mArchive, in);
+                        mImported += result.imported;
+                        mDuplicates += result.duplicates;
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException ex) {
+                    Log.d(TAG, "import of " + bundle + " failed:", ex);
+                    mError = bundle.getName() + ": " + ex.getMessage();
+                }
+            }
+            try {
+                return mArchive.readIndex();
+            } catch (IOException ex) {
+                Log.d(TAG, "index unavailable:", ex);
+                return null;
+            }
+        }
+
+        @Override
+        void onFinished(GameHistory activity, GameIndex index) {
+            if (index != null) {
+                activity.mIndex = index;
+                ((BaseAdapter) activity.getListAdapter()).notifyDataSetChanged();
+            }
+            String message = (mError != null)
+                    ? activity.getString(R.string.import_failed, mError)
+                    : activity.getString(R.string.import_done, mImported, mDuplicates);
+            Toast.makeText(activity, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Formats rows on demand, so only visible rows are ever built.
+     */
+    final class IndexAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mIndex.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIndex.mId[indexOf(position)];
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView row = (TextView) convertView;
+            if (row == null) {
+                row = (TextView) getLayoutInflater().inflate(
+                        android.R.layout.simple_list_item_1, parent, false);
+            }
+            row.setText(describe(indexOf(position)));
+            return row;
+        }
+    }
+}
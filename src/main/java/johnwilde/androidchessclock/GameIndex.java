@@ -0,0 +1,184 @@
+package johnwilde.androidchessclock;
+
+import java.nio.ByteBuffer;
+
+// In-memory copy of the archive index: one fixed-width entry per game,
+// decoded into parallel primitive arrays. Position i in the index is
+// the i-th game appended to the archive.
+//
+// This is all the history screen needs; the moves of a game are only
+// read (by GameArchive.load) when the game is opened.
+//
+// Games played on the device are appended as they finish, so their
+// start times ascend. Games imported from another device (ArchiveBundle)
+// come after them whatever their start time; searches then fall back to
+// a scan.
+final class GameIndex {
+
+    // Layout of one entry in the index file
+    static final int ENTRY_BYTES = 40;
+    private static final int ID = 0; // long
+    private static final int START_TIME = 8; // long
+    private static final int INITIAL_SECONDS = 16; // int
+    private static final int INCREMENT_SECONDS = 20; // short
+    private static final int DELAY_TYPE = 22; // byte
+    private static final int CONTROL_TYPE = 23; // byte
+    private static final int PHASE1_MOVES = 24; // short
+    private static final int PHASE2_MINUTES = 26; // short
+    private static final int RESULT = 28; // byte
+    private static final int PLAYERS = 29; // byte
+    private static final int SEGMENT = 30; // short
+    private static final int OFFSET = 32; // int
+    private static final int MOVE_COUNT = 36; // int
+
+    int mSize;
+    // some start time is earlier than the one before it
+    boolean mUnordered;
+    long[] mId;
+    long[] mStartTime;
+    int[] mInitialSeconds;
+    short[] mIncrementSeconds;
+    byte[] mDelayType;
+    byte[] mControlType;
+    short[] mPhase1Moves;
+    short[] mPhase2Minutes;
+    byte[] mResult;
+    byte[] mPlayers;
+    short[] mSegment;
+    int[] mOffset;
+    int[] mMoveCount;
+
+    GameIndex(int capacity) {
+        mId = new long[capacity];
+        mStartTime = new long[capacity];
+        mInitialSeconds = new int[capacity];
+        mIncrementSeconds = new short[capacity];
+        mDelayType = new byte[capacity];
+        mControlType = new byte[capacity];
+        mPhase1Moves = new short[capacity];
+        mPhase2Minutes = new short[capacity];
+        mResult = new byte[capacity];
+        mPlayers = new byte[capacity];
+        mSegment = new short[capacity];
+        mOffset = new int[capacity];
+        mMoveCount = new int[capacity];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    // Decode 'count' entries from the buffer's current position
+    void decode(ByteBuffer buffer, int count) {
+        for (int i = 0; i < count; i++) {
+            int base = buffer.position();
+            int n = mSize++;
+            mId[n] = buffer.getLong(base + ID);
+            mStartTime[n] = buffer.getLong(base + START_TIME);
+            mInitialSeconds[n] = buffer.getInt(base + INITIAL_SECONDS);
+            mIncrementSeconds[n] = buffer.getShort(base + INCREMENT_SECONDS);
+            mDelayType[n] = buffer.get(base + DELAY_TYPE);
+            mControlType[n] = buffer.get(base + CONTROL_TYPE);
+            mPhase1Moves[n] = buffer.getShort(base + PHASE1_MOVES);
+            mPhase2Minutes[n] = buffer.getShort(base + PHASE2_MINUTES);
+            mResult[n] = buffer.get(base + RESULT);
+            mPlayers[n] = buffer.get(base + PLAYERS);
+            mSegment[n] = buffer.getShort(base + SEGMENT);
+            mOffset[n] = buffer.getInt(base + OFFSET);
+            mMoveCount[n] = buffer.getInt(base + MOVE_COUNT);
+            if (n > 0 && mStartTime[n] < mStartTime[n - 1])
+                mUnordered = true;
+            buffer.position(base + ENTRY_BYTES);
+        }
+    }
+
+    // Decode the header fields of the entry at the buffer's position into
+    // a game, as copyHeader() does, and the move count of its record
+    static int decodeHeader(ByteBuffer buffer, ArchivedGame game) {
+        int base = buffer.position();
+        game.mId = buffer.getLong(base + ID);
+        game.mStartTime = buffer.getLong(base + START_TIME);
+        game.mInitialSeconds = buffer.getInt(base + INITIAL_SECONDS);
+        game.mIncrementSeconds = buffer.getShort(base + INCREMENT_SECONDS);
+        game.mDelayType = buffer.get(base + DELAY_TYPE);
+        game.mControlType = buffer.get(base + CONTROL_TYPE);
+        game.mPhase1Moves = buffer.getShort(base + PHASE1_MOVES);
+        game.mPhase2Minutes = buffer.getShort(base + PHASE2_MINUTES);
+        game.mResult = buffer.get(base + RESULT);
+        game.mPlayers = buffer.get(base + PLAYERS);
+        int moves = buffer.getInt(base + MOVE_COUNT);
+        buffer.position(base + ENTRY_BYTES);
+        return moves;
+    }
+
+    static void encode(ByteBuffer buffer, ArchivedGame game, int segment,
+            int offset) {
+        int base = buffer.position();
+        buffer.putLong(base + ID, game.mId);
+        buffer.putLong(base + START_TIME, game.mStartTime);
+        buffer.putInt(base + INITIAL_SECONDS, game.mInitialSeconds);
+        buffer.putShort(base + INCREMENT_SECONDS, (short) game.mIncrementSeconds);
+        buffer.put(base + DELAY_TYPE, game.mDelayType);
+        buffer.put(base + CONTROL_TYPE, game.mControlType);
+        buffer.putShort(base + PHASE1_MOVES, (short) game.mPhase1Moves);
+        buffer.putShort(base + PHASE2_MINUTES, (short) game.mPhase2Minutes);
+        buffer.put(base + RESULT, game.mResult);
+        buffer.put(base + PLAYERS, (byte) game.mPlayers);
+        buffer.putShort(base + SEGMENT, (short) segment);
+        buffer.putInt(base + OFFSET, offset);
+        buffer.putInt(base + MOVE_COUNT, game.mMoveCount);
+        buffer.position(base + ENTRY_BYTES);
+    }
+
+    // Copy the header fields of entry i into a game (moves not included)
+    void copyHeader(int i, ArchivedGame game) {
+        game.mId = mId[i];
+        game.mStartTime = mStartTime[i];
+        game.mInitialSeconds = mInitialSeconds[i];
+        game.mIncrementSeconds = mIncrementSeconds[i];
+        game.mDelayType = mDelayType[i];
+        game.mControlType = mControlType[i];
+        game.mPhase1Moves = mPhase1Moves[i];
+        game.mPhase2Minutes = mPhase2Minutes[i];
+        game.mResult = mResult[i];
+        game.mPlayers = mPlayers[i];
+    }
+
+    // Index of the first game started at or after 'time', when start
+    // times ascend (!mUnordered)
+    int firstStartedAtOrAfter(long time) {
+        int lo = 0, hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mStartTime[mid] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Positions of the games in [from, to) matching a time control and
+    // result. Pass -1 to match any value.
+    int[] find(long from, long to, int initialSeconds, int incrementSeconds,
+            int result) {
+        int start = mUnordered ? 0 : firstStartedAtOrAfter(from);
+        int end = mUnordered ? mSize : firstStartedAtOrAfter(to);
+        int[] matches = new int[Math.max(end - start, 0)];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (mStartTime[i] < from || mStartTime[i] >= to)
+                continue;
+            if (initialSeconds >= 0 && mInitialSeconds[i] != initialSeconds)
+                continue;
+            if (incrementSeconds >= 0 && mIncrementSeconds[i] != incrementSeconds)
+                continue;
+            if (result >= 0 && mResult[i] != result)
+                continue;
+            matches[count++] = i;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(matches, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
@@ -0,0 +1,36 @@
+package johnwilde.androidchessclock;
+
+import android.os.Handler;
+import android.os.Looper;
+
+// Ticks posted to the UI thread's message queue with postDelayed()
+final class HandlerTickScheduler implements TickScheduler {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        mHandler.removeCallbacks(task);
+        mHandler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public int wakeupsPerTick() {
+        return 1;
+    }
+
+    @Override
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+    }
+}
@@ -0,0 +1,159 @@
+package johnwilde.androidchessclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A sequence lock in a memory mapped file: one writer process publishes
+// a fixed number of longs, readers in any process map the same file and
+// copy consistent snapshots without locks and without system calls.
+//
+// The file is HEADER longs followed by the fields, all in the platform's
+// native byte order (MAGIC reads correctly only in the right order):
+//
+// [MAGIC] [VERSION] [FIELD_COUNT] [SEQUENCE] then FIELD_COUNT fields
+//
+// As in SnapshotChannel, the writer makes SEQUENCE odd, writes the fields
+// and makes it even again; a reader copies the fields between two reads
+// of SEQUENCE and retries if it was odd or changed. In C:
+//
+//   do {
+//       s1 = atomic_load_explicit(&seq, memory_order_acquire);
+//       copy the fields;
+//       atomic_thread_fence(memory_order_acquire);
+//       s2 = atomic_load_explicit(&seq, memory_order_relaxed);
+//   } while ((s1 & 1) || s1 != s2);
+//
+// Java before 9 has no fences for buffer accesses. A volatile write alone
+// is only a release (stlr on ART arm64): later loads may pass it. So
+// fence() writes a volatile field and reads it back. The write keeps the
+// accesses before it ahead, the read keeps those after it behind, and
+// the pair stays in order, which makes a full fence on ART and HotSpot
+// between the sequence and field accesses on both sides; that is what
+// keeps them in order for the other process.
+final class MappedSeqlock {
+
+    static final long MAGIC = 0x436c6f636b466431L; // "ClockFd1"
+    static final long VERSION = 1;
+
+    static final int MAGIC_INDEX = 0;
+    static final int VERSION_INDEX = 1;
+    static final int FIELD_COUNT_INDEX = 2;
+    static final int SEQUENCE_INDEX = 3;
+    static final int HEADER = 4;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mFieldCount;
+    private long mSequence; // the writer's
+    private volatile int mFence;
+
+    private MappedSeqlock(RandomAccessFile file, MappedByteBuffer buffer, int fieldCount) {
+        mFile = file;
+        mBuffer = buffer;
+        mFieldCount = fieldCount;
+    }
+
+    // Create (or take over) 'file' for a writer of 'fieldCount' fields.
+    // Readers that mapped an older file of the same size keep working.
+    static MappedSeqlock create(File file, int fieldCount) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = (HEADER + fieldCount) * 8L;
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            MappedSeqlock lock = new MappedSeqlock(raf, buffer, fieldCount);
+            long sequence = buffer.getLong(SEQUENCE_INDEX * 8);
+            // continue the old sequence (made even), so a reader never
+            // sees it go back to a value it has seen
+            lock.mSequence = (sequence + 1) & ~1L;
+            buffer.putLong(SEQUENCE_INDEX * 8, lock.mSequence);
+            buffer.putLong(FIELD_COUNT_INDEX * 8, fieldCount);
+            buffer.putLong(VERSION_INDEX * 8, VERSION);
+            buffer.putLong(MAGIC_INDEX * 8, MAGIC);
+            return lock;
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    // Map a file written by create() for reading
+    static MappedSeqlock open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER * 8)
+                throw new IOException("not a clock feed: " + file);
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getLong(MAGIC_INDEX * 8) != MAGIC
+                    || buffer.getLong(VERSION_INDEX * 8) != VERSION)
+                throw new IOException("not a clock feed: " + file);
+            long count = buffer.getLong(FIELD_COUNT_INDEX * 8);
+            if (count < 0 || (HEADER + count) * 8 > raf.length())
+                throw new IOException("truncated clock feed: " + file);
+            return new MappedSeqlock(raf, buffer, (int) count);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    int fieldCount() {
+        return mFieldCount;
+    }
+
+    // Publish the first fieldCount() longs of 'fields'. Writer only.
+    void publish(long[] fields) {
+        MappedByteBuffer buffer = mBuffer;
+        long sequence = mSequence;
+        buffer.putLong(SEQUENCE_INDEX * 8, sequence + 1);
+        fence();
+        for (int i = 0; i < mFieldCount; i++) {
+            buffer.putLong((HEADER + i) * 8, fields[i]);
+        }
+        fence();
+        buffer.putLong(SEQUENCE_INDEX * 8, sequence + 2);
+        mSequence = sequence + 2;
+    }
+
+    // Copy the last publication into 'into' (up to fieldCount() longs)
+    // and return its sequence number, which grows by 2 with every
+    // publication
+    long read(long[] into) {
+        MappedByteBuffer buffer = mBuffer;
+        int count = Math.min(into.length, mFieldCount);
+        while (true) {
+            long sequence = buffer.getLong(SEQUENCE_INDEX * 8);
+            fence();
+            if ((sequence & 1) != 0) {
+                // the writer is half way, let it finish
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                into[i] = buffer.getLong((HEADER + i) * 8);
+            }
+            fence();
+            if (buffer.getLong(SEQUENCE_INDEX * 8) == sequence)
+                return sequence;
+        }
+    }
+
+    // The mapping stays valid until the buffer is collected
+    void close() throws IOException {
+        mFile.close();
+    }
+
+    // A volatile store then a volatile load (store-load ordering)
+    private int fence() {
+        mFence = 0;
+        return mFence;
+    }
+}
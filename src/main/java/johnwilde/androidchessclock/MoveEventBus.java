@@ -0,0 +1,362 @@
+package johnwilde.androidchessclock;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Hands what happens in a game (moves, starts, flags, ...) to the side
+// effects that answer it, without making the tap wait for them.
+//
+// The engine thread is the only producer. publish() writes the event's
+// fields into a ring of atomic arrays, bumps the cursor and, if the
+// dispatcher thread is parked, unparks it: a fixed amount of work that
+// allocates nothing and does not depend on how many consumers there are
+// or on what they do.
+//
+// The slots are atomic because a consumer may read one while the
+// producer laps it. Each field is written with a release store and read
+// with an acquire load, so the cursor a consumer reads after copying a
+// slot is at least that of any event whose fields it copied; plain
+// array accesses could be reordered past the cursor read (as they are on
+// ARM) and let a torn event through.
+//
+// Each consumer is subscribed with its own Executor and reads the ring
+// from its own position. The dispatcher only submits a consumer's drain
+// task when it has something to read and is not already draining, and
+// the task hands over everything published since, in batches of up to
+// maxBatch events, so a consumer that falls behind catches up in a few
+// large batches instead of many small ones.
+//
+// The ring is bounded and the producer never waits for a consumer. A
+// consumer that falls more than the capacity behind has lost the oldest
+// events: the batch it gets next starts at the oldest event still in the
+// ring and dropped() says how many it missed. That is the back-pressure
+// policy: the cost of a slow consumer stays with that consumer.
+final class MoveEventBus {
+
+    // Event types
+    static final int START = 1; // player: first player
+    static final int PAUSE = 2;
+    static final int RESUME = 3;
+    static final int SWITCH = 4; // player: who moved, moveMs: the move
+    static final int FLAG = 5;
+    static final int LOW_TIME = 6;
+    static final int UNDO = 7;
+    static final int REDO = 8;
+    static final int RESET = 9;
+    static final int GAME_FINISHED = 10; // payload: ArchivedGame
+
+    static final int DEFAULT_CAPACITY = 256;
+    static final int DEFAULT_BATCH = 32;
+
+    interface Consumer {
+        // Called on the consumer's executor, with the events in the order
+        // they were published. 'batch' is reused after the call returns.
+        void onEvents(Batch batch);
+    }
+
+    // The events handed to a consumer in one call
+    static final class Batch {
+        private final int[] mType;
+        private final int[] mPlayer;
+        private final long[] mWhen;
+        private final long[] mMsToGo;
+        private final long[] mMoveMs;
+        private final int[] mMoveNumber;
+        private final Object[] mPayload;
+        private int mSize;
+        private long mFirstSequence;
+        private long mDropped;
+
+        Batch(int maxSize) {
+            mType = new int[maxSize];
+            mPlayer = new int[maxSize];
+            mWhen = new long[maxSize];
+            mMsToGo = new long[maxSize];
+            mMoveMs = new long[maxSize];
+            mMoveNumber = new int[maxSize];
+            mPayload = new Object[maxSize];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        // Sequence number of the first event (they count from 0)
+        long firstSequence() {
+            return mFirstSequence;
+        }
+
+        // Events lost just before this batch because the consumer fell
+        // too far behind
+        long dropped() {
+            return mDropped;
+        }
+
+        int type(int i) {
+            return mType[i];
+        }
+
+        int player(int i) {
+            return mPlayer[i];
+        }
+
+        // uptime ms at which it happened (the tap, for a command)
+        long when(int i) {
+            return mWhen[i];
+        }
+
+        // the player's time left after the event
+        long msToGo(int i) {
+            return mMsToGo[i];
+        }
+
+        long moveMs(int i) {
+            return mMoveMs[i];
+        }
+
+        // the player's move number after the event
+        int moveNumber(int i) {
+            return mMoveNumber[i];
+        }
+
+        Object payload(int i) {
+            return mPayload[i];
+        }
+    }
+
+    /**
+     * A consumer, its executor and its position in the ring.
+     */
+    final class Subscription implements Runnable {
+        private final Consumer mConsumer;
+        private final Executor mExecutor;
+        private final Batch mBatch;
+        // next sequence to read; written by the drain task, read by the
+        // dispatcher
+        private volatile long mNext;
+        // false while a drain task is submitted or running
+        private final AtomicBoolean mIdle = new AtomicBoolean(true);
+        private volatile boolean mClosed;
+
+        Subscription(Consumer consumer, Executor executor, int maxBatch, long next) {
+            mConsumer = consumer;
+            mExecutor = executor;
+            mBatch = new Batch(maxBatch);
+            mNext = next;
+        }
+
+        // dispatcher thread
+        void schedule(long cursor) {
+            if (mClosed || cursor <= mNext || !mIdle.compareAndSet(true, false))
+                return;
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // the owner shut the executor down before unsubscribing
+                unsubscribe(this);
+            }
+        }
+
+        // the drain task, on the consumer's executor
+        @Override
+        public void run() {
+            while (!mClosed) {
+                if (!fill()) {
+                    mIdle.set(true);
+                    // an event published after fill() looked, whose
+                    // dispatch found this task still running
+                    if (mCursor.get() > mNext && mIdle.compareAndSet(true, false))
+                        continue;
+                    return;
+                }
+                mConsumer.onEvents(mBatch);
+            }
+        }
+
+        // On the consumer's executor: hand over the events published
+        // before 'end' that are still to be read, even once unsubscribed
+        // (a last drain before the consumer is closed)
+        void drainTo(long end) {
+            while (mNext < end && fill()) {
+                mConsumer.onEvents(mBatch);
+            }
+        }
+
+        // Copy the next events into mBatch. Returns false if there are none.
+        private boolean fill() {
+            long cursor = mCursor.get();
+            if (cursor <= mNext)
+                return false;
+            long dropped = Math.max(0, cursor - mCapacity - mNext);
+            long first = mNext + dropped;
+            int size = (int) Math.min(cursor - first, mBatch.mType.length);
+            for (int i = 0; i < size; i++) {
+                copy((int) ((first + i) & mMask), mBatch, i);
+            }
+            // the producer may have lapped the copy. A copied field written
+            // by the event at sequence q means the cursor read here is at
+            // least q (the slot loads are acquires), so the events it
+            // overwrote, and the one it may be writing, are dropped as well
+            long overwritten = mCursor.get() - mCapacity - first + 1;
+            int lost = (int) Math.max(0, Math.min(overwritten, size));
+            if (lost > 0) {
+                for (int i = lost; i < size; i++) {
+                    move(mBatch, i, i - lost);
+                }
+            }
+            mBatch.mSize = size - lost;
+            mBatch.mFirstSequence = first + lost;
+            mBatch.mDropped = dropped + lost;
+            mNext = first + size;
+            return true;
+        }
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicIntegerArray mType;
+    private final AtomicIntegerArray mPlayer;
+    private final AtomicLongArray mWhen;
+    private final AtomicLongArray mMsToGo;
+    private final AtomicLongArray mMoveMs;
+    private final AtomicIntegerArray mMoveNumber;
+    private final AtomicReferenceArray<Object> mPayload;
+    // sequence of the next event; events below it are published
+    private final AtomicLong mCursor = new AtomicLong();
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions =
+            new CopyOnWriteArrayList<Subscription>();
+    private final Thread mDispatcher;
+    private volatile boolean mParked;
+    private volatile boolean mQuit;
+
+    // 'capacity' is rounded up to a power of two
+    MoveEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mType = new AtomicIntegerArray(size);
+        mPlayer = new AtomicIntegerArray(size);
+        mWhen = new AtomicLongArray(size);
+        mMsToGo = new AtomicLongArray(size);
+        mMoveMs = new AtomicLongArray(size);
+        mMoveNumber = new AtomicIntegerArray(size);
+        mPayload = new AtomicReferenceArray<Object>(size);
+
+        mDispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "MoveEvents");
+        mDispatcher.setDaemon(true);
+        mDispatcher.start();
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    // Events published so far
+    long published() {
+        return mCursor.get();
+    }
+
+    // Any thread. The consumer gets the events published from now on.
+    Subscription subscribe(Consumer consumer, Executor executor, int maxBatch) {
+        Subscription subscription = new Subscription(consumer, executor,
+                maxBatch, mCursor.get());
+        mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    // Any thread. A batch being delivered finishes, no other is started.
+    void unsubscribe(Subscription subscription) {
+        subscription.mClosed = true;
+        mSubscriptions.remove(subscription);
+    }
+
+    // Stop dispatching. The consumers' executors are their owners' to
+    // shut down.
+    void quit() {
+        mQuit = true;
+        LockSupport.unpark(mDispatcher);
+    }
+
+    // The producer thread only
+    void publish(int type, int player, long when, long msToGo, long moveMs,
+            int moveNumber, Object payload) {
+        long sequence = mCursor.get();
+        int i = (int) (sequence & mMask);
+        // release stores: ordered after the cursor was set to 'sequence'
+        mType.lazySet(i, type);
+        mPlayer.lazySet(i, player);
+        mWhen.lazySet(i, when);
+        mMsToGo.lazySet(i, msToGo);
+        mMoveMs.lazySet(i, moveMs);
+        mMoveNumber.lazySet(i, moveNumber);
+        mPayload.lazySet(i, payload);
+        // a volatile write, ordered before the read of mParked below
+        mCursor.set(sequence + 1);
+        if (mParked)
+            LockSupport.unpark(mDispatcher);
+    }
+
+    private void dispatch() {
+        while (!mQuit) {
+            long cursor = mCursor.get();
+            for (Subscription subscription : mSubscriptions) {
+                subscription.schedule(cursor);
+            }
+            mParked = true;
+            // an event published before mParked was set is seen here,
+            // one published after it unparks this thread
+            if (mCursor.get() == cursor && !mQuit)
+                LockSupport.park(this);
+            mParked = false;
+        }
+    }
+
+    // acquire loads: the cursor read after them sees the events they saw
+    private void copy(int slot, Batch batch, int i) {
+        batch.mType[i] = mType.get(slot);
+        batch.mPlayer[i] = mPlayer.get(slot);
+        batch.mWhen[i] = mWhen.get(slot);
+        batch.mMsToGo[i] = mMsToGo.get(slot);
+        batch.mMoveMs[i] = mMoveMs.get(slot);
+        batch.mMoveNumber[i] = mMoveNumber.get(slot);
+        batch.mPayload[i] = mPayload.get(slot);
+    }
+
+    private static void move(Batch batch, int from, int to) {
+        batch.mType[to] = batch.mType[from];
+        batch.mPlayer[to] = batch.mPlayer[from];
+        batch.mWhen[to] = batch.mWhen[from];
+        batch.mMsToGo[to] = batch.mMsToGo[from];
+        batch.mMoveMs[to] = batch.mMoveMs[from];
+        batch.mMoveNumber[to] = batch.mMoveNumber[from];
+        batch.mPayload[to] = batch.mPayload[from];
+    }
+
+    // A single thread executor for one consumer, on a daemon thread
+    static ExecutorService newExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
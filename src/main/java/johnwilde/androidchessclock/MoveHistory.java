@@ -0,0 +1,118 @@
+package johnwilde.androidchessclock;
+
+// Bounded undo/redo history of move switches.
+//
+// Each switch is stored as two snapshots of the clock state: the state
+// at the moment of the tap (before the switch) and the state right after
+// it. Undo restores the 'before' snapshot of the last switch, redo its
+// 'after' snapshot, so neither has to recompute anything.
+//
+// A snapshot is a fixed number of longs:
+//
+// [ACTIVE] player whose clock runs (or would run when resumed)
+// [RECORDED_MOVES] moves in the game record
+// then for every player, at PLAYER_BASE + player * PLAYER_FIELDS:
+// [MS_TO_GO] [MS_DELAY_TO_GO] [MOVE_MS] [MOVE_NUMBER] [IN_OVERTIME]
+// [PERIODS_LEFT] and the player's MoveStats: [STATS_MOVES]
+// [LAST_MOVE_MS] [MEAN_MS] [M2] [EMA_MS] (the last three are double bits)
+//
+// All snapshots live in one preallocated long[] used as a ring, so
+// recording a switch only copies two snapshots and never allocates.
+// When the ring is full the oldest switch is forgotten.
+final class MoveHistory {
+
+    static final int ACTIVE = 0;
+    static final int RECORDED_MOVES = 1;
+    static final int PLAYER_BASE = 2;
+
+    static final int MS_TO_GO = 0;
+    static final int MS_DELAY_TO_GO = 1;
+    static final int MOVE_MS = 2;
+    static final int MOVE_NUMBER = 3;
+    static final int IN_OVERTIME = 4;
+    static final int PERIODS_LEFT = 5;
+    static final int STATS_MOVES = 6;
+    static final int LAST_MOVE_MS = 7;
+    static final int MEAN_MS = 8;
+    static final int M2 = 9;
+    static final int EMA_MS = 10;
+    static final int PLAYER_FIELDS = 11;
+
+    private final int mCapacity;
+    private final int mStride; // longs per snapshot
+    private final long[] mEntries; // mCapacity entries of 2 snapshots
+
+    private int mOldest; // ring slot of the oldest switch
+    private int mUndoCount; // switches that can be undone
+    private int mRedoCount; // switches that can be redone
+
+    MoveHistory(int players, int capacity) {
+        mCapacity = capacity;
+        mStride = snapshotSize(players);
+        mEntries = new long[capacity * 2 * mStride];
+    }
+
+    // Size of the arrays passed to record(), undo() and redo()
+    int snapshotSize() {
+        return mStride;
+    }
+
+    static int snapshotSize(int players) {
+        return PLAYER_BASE + players * PLAYER_FIELDS;
+    }
+
+    static int field(int player, int field) {
+        return PLAYER_BASE + player * PLAYER_FIELDS + field;
+    }
+
+    // Record a switch. Anything that could be redone is dropped.
+    void record(long[] before, long[] after) {
+        mRedoCount = 0;
+        if (mUndoCount == mCapacity) {
+            mOldest = (mOldest + 1) % mCapacity;
+            mUndoCount--;
+        }
+        int offset = offset(mUndoCount);
+        System.arraycopy(before, 0, mEntries, offset, mStride);
+        System.arraycopy(after, 0, mEntries, offset + mStride, mStride);
+        mUndoCount++;
+    }
+
+    boolean canUndo() {
+        return mUndoCount > 0;
+    }
+
+    boolean canRedo() {
+        return mRedoCount > 0;
+    }
+
+    // Copy the state before the last switch into 'into'
+    boolean undo(long[] into) {
+        if (mUndoCount == 0)
+            return false;
+        mUndoCount--;
+        mRedoCount++;
+        System.arraycopy(mEntries, offset(mUndoCount), into, 0, mStride);
+        return true;
+    }
+
+    // Copy the state after the last undone switch into 'into'
+    boolean redo(long[] into) {
+        if (mRedoCount == 0)
+            return false;
+        System.arraycopy(mEntries, offset(mUndoCount) + mStride, into, 0, mStride);
+        mUndoCount++;
+        mRedoCount--;
+        return true;
+    }
+
+    void clear() {
+        mOldest = 0;
+        mUndoCount = 0;
+        mRedoCount = 0;
+    }
+
+    private int offset(int switchIndex) {
+        return (mOldest + switchIndex) % mCapacity * 2 * mStride;
+    }
+}
@@ -0,0 +1,109 @@
+package johnwilde.androidchessclock;
+
+// Running statistics of the moves each player has made in the game in
+// progress, updated by the engine when a move ends.
+//
+// Nothing but a few numbers per player is kept, and a move updates them
+// in constant time without allocating: the number of moves, the last
+// move, the mean and variance of all moves (Welford's online algorithm)
+// and an exponential moving average with weight EMA_WEIGHT that follows
+// the player's recent pace.
+//
+// The engine stores them with the rest of a player's state in its
+// MoveHistory snapshots (the doubles as their raw bits), so undo, redo
+// and the published ClockSnapshot carry them without recomputing.
+final class MoveStats {
+
+    // weight of the latest move in the moving average
+    static final double EMA_WEIGHT = 0.25;
+    // returned by projectMsAtControl() when there is no control ahead
+    static final long NO_PROJECTION = Long.MIN_VALUE;
+
+    private final int[] mMoves;
+    private final long[] mLastMs;
+    private final double[] mMean;
+    private final double[] mM2; // sum of squared differences from the mean
+    private final double[] mEma;
+
+    MoveStats(int players) {
+        mMoves = new int[players];
+        mLastMs = new long[players];
+        mMean = new double[players];
+        mM2 = new double[players];
+        mEma = new double[players];
+    }
+
+    void clear(int player) {
+        mMoves[player] = 0;
+        mLastMs[player] = 0;
+        mMean[player] = 0;
+        mM2[player] = 0;
+        mEma[player] = 0;
+    }
+
+    // A move of 'moveMs' ended
+    void add(int player, long moveMs) {
+        int n = ++mMoves[player];
+        double x = moveMs;
+        double delta = x - mMean[player];
+        mMean[player] += delta / n;
+        mM2[player] += delta * (x - mMean[player]);
+        mEma[player] = (n == 1) ? x : mEma[player] + EMA_WEIGHT * (x - mEma[player]);
+        mLastMs[player] = moveMs;
+    }
+
+    int getMoves(int player) {
+        return mMoves[player];
+    }
+
+    long getLastMs(int player) {
+        return mLastMs[player];
+    }
+
+    double getMeanMs(int player) {
+        return mMean[player];
+    }
+
+    double getDeviationMs(int player) {
+        return deviation(mMoves[player], mM2[player]);
+    }
+
+    double getEmaMs(int player) {
+        return mEma[player];
+    }
+
+    // Copy a player's statistics to and from the MoveHistory layout;
+    // 'base' is the index of the player's first field
+    void save(int player, long[] snapshot, int base) {
+        snapshot[base + MoveHistory.STATS_MOVES] = mMoves[player];
+        snapshot[base + MoveHistory.LAST_MOVE_MS] = mLastMs[player];
+        snapshot[base + MoveHistory.MEAN_MS] = Double.doubleToRawLongBits(mMean[player]);
+        snapshot[base + MoveHistory.M2] = Double.doubleToRawLongBits(mM2[player]);
+        snapshot[base + MoveHistory.EMA_MS] = Double.doubleToRawLongBits(mEma[player]);
+    }
+
+    void restore(int player, long[] snapshot, int base) {
+        mMoves[player] = (int) snapshot[base + MoveHistory.STATS_MOVES];
+        mLastMs[player] = snapshot[base + MoveHistory.LAST_MOVE_MS];
+        mMean[player] = Double.longBitsToDouble(snapshot[base + MoveHistory.MEAN_MS]);
+        mM2[player] = Double.longBitsToDouble(snapshot[base + MoveHistory.M2]);
+        mEma[player] = Double.longBitsToDouble(snapshot[base + MoveHistory.EMA_MS]);
+    }
+
+    // Sample standard deviation of 'moves' moves
+    static double deviation(int moves, double m2) {
+        return (moves > 1) ? Math.sqrt(m2 / (moves - 1)) : 0;
+    }
+
+    // The time a player on move 'moveNumber' with 'msToGo' left will have
+    // after move 'controlMoves', if each move until then takes 'paceMs'
+    // and earns 'incrementMs'. NO_PROJECTION if the control is passed or
+    // there is none (controlMoves 0).
+    static long projectMsAtControl(long msToGo, int moveNumber, int controlMoves,
+            long incrementMs, long paceMs) {
+        int movesLeft = controlMoves - moveNumber + 1;
+        if (controlMoves <= 0 || movesLeft <= 0)
+            return NO_PROJECTION;
+        return msToGo + movesLeft * (incrementMs - paceMs);
+    }
+}
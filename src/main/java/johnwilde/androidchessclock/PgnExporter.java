@@ -0,0 +1,184 @@
+package johnwilde.androidchessclock;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+
+// Writes archived games as PGN with clock annotations.
+//
+// The clock does not know which moves were played, so every move is
+// written as the null move "--" followed by a comment holding the
+// remaining time and the time spent on the move:
+//
+// 1. -- {[%clk 0:04:57] [%emt 0:00:03]} -- {[%clk 0:04:58] [%emt 0:00:02]}
+//
+// Times are written digit by digit into one reused BufferedWriter, so
+// the per-move path does not build any strings.
+final class PgnExporter {
+
+    private static final int LINE_LENGTH = 79;
+
+    private final BufferedWriter mOut;
+    private final ArchivedGame mGame = new ArchivedGame();
+    private final Calendar mCalendar = Calendar.getInstance();
+    private int mColumn;
+
+    PgnExporter(Writer out) {
+        mOut = (out instanceof BufferedWriter) ? (BufferedWriter) out
+                : new BufferedWriter(out, 64 * 1024);
+    }
+
+    // Export every game in the index, oldest first
+    void writeAll(GameArchive archive, GameIndex index) throws IOException {
+        for (int i = 0; i < index.size(); i++) {
+            archive.load(index, i, mGame);
+            write(mGame);
+        }
+        mOut.flush();
+    }
+
+    void write(ArchivedGame game) throws IOException {
+        String result = result(game);
+        writeTag("Event", "?");
+        writeTag("Site", "?");
+        mCalendar.setTimeInMillis(game.mStartTime);
+        mOut.write("[Date \"");
+        writeNumber(mCalendar.get(Calendar.YEAR), 4);
+        mOut.write('.');
+        writeNumber(mCalendar.get(Calendar.MONTH) + 1, 2);
+        mOut.write('.');
+        writeNumber(mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+        mOut.write("\"]\n");
+        writeTag("Round", "?");
+        writeTag("White", "?");
+        writeTag("Black", "?");
+        writeTag("Result", result);
+        mOut.write("[TimeControl \"");
+        writeTimeControl(game);
+        mOut.write("\"]\n");
+        if (game.mResult >= ArchivedGame.RESULT_FLAG)
+            writeTag("Termination", "time forfeit");
+        mOut.write('\n');
+
+        mColumn = 0;
+        for (int i = 0; i < game.mMoveCount; i++) {
+            int player = game.playerOfMove(i);
+            int moveNumber = (game.mFirstPlayer + i) / 2 + 1;
+            if (player == 0) { // white
+                startToken(digits(moveNumber) + 2);
+                writeNumber(moveNumber, 1);
+                mOut.write('.');
+            } else if (i == 0) {
+                startToken(digits(moveNumber) + 4);
+                writeNumber(moveNumber, 1);
+                mOut.write("...");
+            }
+            startToken(2);
+            mOut.write("--");
+            // {[%clk h:mm:ss] [%emt h:mm:ss]}
+            startToken(29 + digits(hours(game.mRemainingMs[i]))
+                    + digits(hours(game.mMoveMs[i])));
+            mOut.write("{[%clk ");
+            writeTime(game.mRemainingMs[i]);
+            mOut.write("] [%emt ");
+            writeTime(game.mMoveMs[i]);
+            mOut.write("]}");
+        }
+        startToken(result.length());
+        mOut.write(result);
+        mOut.write("\n\n");
+    }
+
+    void flush() throws IOException {
+        mOut.flush();
+    }
+
+    // PGN TimeControl field: seconds for the first period and the
+    // increment, e.g. "300+3" or "40/5400+30:1800+30" for FIDE.
+    // There is no standard field for a delay; Bronstein delay is
+    // written as "d" followed by the delay in seconds.
+    private void writeTimeControl(ArchivedGame game) throws IOException {
+        boolean tournament = game.mControlType == ArchivedGame.CONTROL_TOURNAMENT;
+        if (tournament) {
+            writeNumber(game.mPhase1Moves, 1);
+            mOut.write('/');
+        }
+        writeNumber(game.mInitialSeconds, 1);
+        writeBonus(game);
+        if (tournament) {
+            mOut.write(':');
+            writeNumber(game.mPhase2Minutes * 60, 1);
+            writeBonus(game);
+        }
+    }
+
+    private void writeBonus(ArchivedGame game) throws IOException {
+        if (game.mIncrementSeconds == 0)
+            return;
+        boolean bronstein = game.mDelayType == ArchivedGame.DELAY_BRONSTEIN;
+        mOut.write(bronstein ? 'd' : '+');
+        writeNumber(game.mIncrementSeconds, 1);
+    }
+
+    private static String result(ArchivedGame game) {
+        if (game.mPlayers != 2 || game.mResult < ArchivedGame.RESULT_FLAG)
+            return "*";
+        return game.flaggedPlayer() == 0 ? "0-1" : "1-0";
+    }
+
+    private void writeTag(String name, String value) throws IOException {
+        mOut.write('[');
+        mOut.write(name);
+        mOut.write(" \"");
+        mOut.write(value);
+        mOut.write("\"]\n");
+    }
+
+    // Start a movetext token of the given length, wrapping the line if
+    // it would become too long
+    private void startToken(int length) throws IOException {
+        if (mColumn > 0 && mColumn + 1 + length > LINE_LENGTH) {
+            mOut.write('\n');
+            mColumn = 0;
+        } else if (mColumn > 0) {
+            mOut.write(' ');
+            mColumn++;
+        }
+        mColumn += length;
+    }
+
+    // h:mm:ss, negative times are written as 0:00:00
+    private void writeTime(long ms) throws IOException {
+        long seconds = Math.max(ms, 0) / 1000;
+        writeNumber(seconds / 3600, 1);
+        mOut.write(':');
+        writeNumber(seconds / 60 % 60, 2);
+        mOut.write(':');
+        writeNumber(seconds % 60, 2);
+    }
+
+    private static long hours(long ms) {
+        return Math.max(ms, 0) / 3600000;
+    }
+
+    private void writeNumber(long value, int minDigits) throws IOException {
+        int n = Math.max(digits(value), minDigits);
+        long divisor = 1;
+        for (int i = 1; i < n; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            mOut.write((char) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private static int digits(long value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,80 @@
+package johnwilde.androidchessclock;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+
+// The white and black player images, decoded once per process at the
+// size they are shown and shared by every screen that shows them.
+//
+// white.png and black.png are 512 x 512 and live in drawable/, which is
+// mdpi, so inflating them the usual way scales them by the display
+// density: 1024 x 1024 (4 MB) each on an xhdpi phone, and a separate copy
+// again for the adjust screen. Here they are decoded straight to the
+// largest square any screen shows, the display's shorter side (each
+// player button in landscape, the adjust overlay's image in portrait),
+// and never up. inSampleSize does most of a big reduction in the
+// decoder; inDensity/inTargetDensity scale the rest of the way in the
+// same pass, so no full size copy is ever made.
+//
+// Callers wrap the bitmap in their own BitmapDrawable, so setting one
+// button's alpha only changes that drawable's Paint: the bitmap and the
+// other screens are untouched and nothing is decoded again.
+final class PlayerBitmaps {
+
+    private static final int[] IMAGES = {R.drawable.white, R.drawable.black};
+
+    private static final Bitmap[] sBitmaps = new Bitmap[IMAGES.length];
+
+    private PlayerBitmaps() {
+    }
+
+    // Call on the UI thread
+    static Bitmap get(Resources res, int player) {
+        int image = (player == ChessTimerActivity.BLACK) ? 1 : 0;
+        Bitmap bitmap = sBitmaps[image];
+        if (bitmap == null || bitmap.isRecycled()) {
+            bitmap = decode(res, IMAGES[image]);
+            sBitmaps[image] = bitmap;
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decode(Resources res, int id) {
+        DisplayMetrics metrics = res.getDisplayMetrics();
+        int target = Math.min(metrics.widthPixels, metrics.heightPixels);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(res, id, options);
+        int side = Math.max(options.outWidth, options.outHeight);
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = 1;
+        while (side / (options.inSampleSize * 2) >= target) {
+            options.inSampleSize *= 2;
+        }
+        int sampled = side / options.inSampleSize;
+        if (target > 0 && sampled > target) {
+            options.inScaled = true;
+            options.inDensity = sampled;
+            options.inTargetDensity = target;
+        }
+        Bitmap bitmap = BitmapFactory.decodeResource(res, id, options);
+
+        if (bitmap != null) {
+            // one bitmap pixel per screen pixel, whatever the decoder set
+            bitmap.setDensity(metrics.densityDpi);
+            // bytes now, and what inflating the resource at the display
+            // density used to take
+            long scaled = (long) side * metrics.densityDpi / DisplayMetrics.DENSITY_DEFAULT;
+            Tracing.event(Tracing.EVENT_BITMAP_DECODED,
+                    (long) bitmap.getRowBytes() * bitmap.getHeight(),
+                    scaled * scaled * 4);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,213 @@
+package johnwilde.androidchessclock;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import johnwilde.androidchessclock.TimerOptions.Key;
+import johnwilde.androidchessclock.TimerOptions.TimeControl;
+
+// Keeps the settings screen's summaries, titles and enabled states in
+// step with the preference values.
+//
+// refreshAll() goes over every preference, when the screen is shown. A
+// change goes through changed(), which refreshes only the preference
+// that changed and those that show its value, from a dependency map
+// built once:
+//
+// FIDE_MOVES_PHASE1 -> FIDE_MIN_PHASE1 (its title names the moves)
+// TIMECONTROL_TYPE -> the screens, enabled or not, and the FIDE values
+//
+// The screen is reached through Screen, so the JVM tests can count the
+// lookups (each Screen call but getString() is a findPreference() in
+// TimerOptions) and the summaries written per change.
+final class PreferenceUpdater {
+
+    interface Screen {
+        // the text of an EditTextPreference, the value of a ListPreference
+        String getValue(Key key);
+
+        // Set it if it differs. Returns true if it did.
+        boolean setValue(Key key, String value);
+
+        boolean setChecked(Key key, boolean checked);
+
+        void setSummary(Key key, String summary);
+
+        void setTitle(Key key, String title);
+
+        boolean isEnabled(Key key);
+
+        // Returns true if the state changed
+        boolean setEnabled(Key key, boolean enabled);
+
+        // an enabled state changed: the list has to be redrawn
+        void contentChanged();
+
+        String getString(int id);
+    }
+
+    // the official FIDE tournament time control
+    private static final int FIDE_PHASE1_MIN = 90;
+    private static final int FIDE_PHASE2_MIN = 30;
+    private static final int FIDE_PHASE1_MOVES = 40;
+    private static final int FIDE_INCREMENT_SEC = 30;
+
+    private static final Key[] EDIT_TEXT_KEYS = {
+            Key.MINUTES, Key.SECONDS, Key.INCREMENT_SECONDS,
+            Key.OVERTIME_PERIODS, Key.OVERTIME_SECONDS, Key.LOW_TIME_WARNINGS,
+            Key.FIDE_MOVES_PHASE1, Key.FIDE_MIN_PHASE1, Key.FIDE_MIN_PHASE2,
+            Key.ADV_INCREMENT_SECONDS };
+
+    // editable only for the CUSTOM tournament time control
+    private static final Key[] FIDE_KEYS = {
+            Key.FIDE_MIN_PHASE1, Key.FIDE_MIN_PHASE2, Key.FIDE_MOVES_PHASE1,
+            Key.ADV_DELAY_TYPE, Key.ADV_INCREMENT_SECONDS, Key.ADV_NEGATIVE_TIME };
+
+    // what to refresh when a key changes, in order; a key not in the map
+    // refreshes itself
+    private static final Map<Key, Key[]> DEPENDANTS = new EnumMap<Key, Key[]>(Key.class);
+
+    static {
+        DEPENDANTS.put(Key.FIDE_MOVES_PHASE1,
+                new Key[] { Key.FIDE_MOVES_PHASE1, Key.FIDE_MIN_PHASE1 });
+        // the type's own summary, then the enabled states, then the
+        // screens' summaries that describe them
+        DEPENDANTS.put(Key.TIMECONTROL_TYPE,
+                new Key[] { Key.TIMECONTROL_TYPE, Key.BASIC_SCREEN, Key.ADVANCED_SCREEN });
+    }
+
+    private final Screen mScreen;
+    private final Key[] mOne = new Key[1];
+
+    PreferenceUpdater(Screen screen) {
+        mScreen = screen;
+    }
+
+    // Bring the whole screen up to date
+    void refreshAll() {
+        Tracing.begin(Tracing.SECTION_VALIDATE_PREFERENCES);
+        if (timeControl() == TimeControl.FIDE)
+            setFideValues();
+        for (Key key : Key.values()) {
+            refresh(key);
+        }
+        Tracing.end();
+    }
+
+    // 'key' was changed by the user
+    void changed(Key key) {
+        Tracing.begin(Tracing.SECTION_VALIDATE_PREFERENCES);
+        Key[] keys = DEPENDANTS.get(key);
+        if (keys == null) {
+            mOne[0] = key;
+            keys = mOne;
+        }
+        for (Key k : keys) {
+            refresh(k);
+        }
+        Tracing.end();
+    }
+
+    private void refresh(Key key) {
+        switch (key) {
+        case DELAY_TYPE:
+        case ADV_DELAY_TYPE:
+            setCurrentlySummary(key, R.string.summary_delay_type_preference);
+            return;
+        case OVERTIME_TYPE:
+            setCurrentlySummary(key, R.string.summary_overtime_type_preference);
+            return;
+        case TIMECONTROL_TYPE:
+            setCurrentlySummary(key, R.string.summary_advanced_time_preference_description);
+            refreshTimeControl();
+            return;
+        case BASIC_SCREEN:
+            mScreen.setSummary(key, mScreen.getString(mScreen.isEnabled(key)
+                    ? R.string.basic_screen_enabled_summary
+                    : R.string.basic_screen_disabled_summary));
+            return;
+        case ADVANCED_SCREEN:
+            mScreen.setSummary(key, mScreen.getString(R.string.advanced_screen_enabled_summary)
+                    + " Currently " + mScreen.getValue(Key.TIMECONTROL_TYPE) + ".");
+            return;
+        case FIDE_MIN_PHASE1:
+            mScreen.setTitle(key, mScreen.getString(R.string.fide_minutes1_title_part1) + " "
+                    + mScreen.getValue(Key.FIDE_MOVES_PHASE1) + " "
+                    + mScreen.getString(R.string.fide_minutes1_title_part2));
+            refreshEditText(key);
+            return;
+        default:
+            if (isEditText(key))
+                refreshEditText(key);
+            return;
+        }
+    }
+
+    // Enable the screens for the chosen time control and fill in the FIDE
+    // values. The FIDE keys whose value changed are refreshed.
+    private void refreshTimeControl() {
+        TimeControl type = timeControl();
+        if (type == TimeControl.FIDE) {
+            Key[] set = setFideValues();
+            for (Key k : set) {
+                if (k != null)
+                    refresh(k);
+            }
+        }
+        boolean changed = mScreen.setEnabled(Key.BASIC_SCREEN, type == TimeControl.DISABLED);
+        for (Key k : FIDE_KEYS) {
+            changed |= mScreen.setEnabled(k, type == TimeControl.CUSTOM);
+        }
+        if (changed)
+            mScreen.contentChanged();
+    }
+
+    // Returns the keys set, null for those that already had the value
+    private Key[] setFideValues() {
+        Key[] set = new Key[6];
+        int n = 0;
+        if (mScreen.setValue(Key.FIDE_MIN_PHASE1, Integer.toString(FIDE_PHASE1_MIN)))
+            set[n++] = Key.FIDE_MIN_PHASE1;
+        if (mScreen.setValue(Key.FIDE_MIN_PHASE2, Integer.toString(FIDE_PHASE2_MIN)))
+            set[n++] = Key.FIDE_MIN_PHASE2;
+        if (mScreen.setValue(Key.FIDE_MOVES_PHASE1, Integer.toString(FIDE_PHASE1_MOVES))) {
+            set[n++] = Key.FIDE_MOVES_PHASE1;
+            // in the title of the phase 1 minutes
+            set[n++] = Key.FIDE_MIN_PHASE1;
+        }
+        if (mScreen.setValue(Key.ADV_INCREMENT_SECONDS, Integer.toString(FIDE_INCREMENT_SEC)))
+            set[n++] = Key.ADV_INCREMENT_SECONDS;
+        if (mScreen.setValue(Key.ADV_DELAY_TYPE, ClockEngine.DelayType.FISCHER.name()))
+            set[n++] = Key.ADV_DELAY_TYPE;
+        mScreen.setChecked(Key.ADV_NEGATIVE_TIME, false);
+        return set;
+    }
+
+    // an empty field is taken as 0
+    private void refreshEditText(Key key) {
+        String text = mScreen.getValue(key);
+        if (text.trim().length() == 0) {
+            text = "0";
+            mScreen.setValue(key, text);
+            Tracing.event(Tracing.EVENT_PREFERENCE_FIXED, key.ordinal());
+        }
+        mScreen.setSummary(key, "Current value is: " + text);
+    }
+
+    private void setCurrentlySummary(Key key, int summaryId) {
+        mScreen.setSummary(key, mScreen.getString(summaryId)
+                + " Currently " + mScreen.getValue(key) + ".");
+    }
+
+    private TimeControl timeControl() {
+        return TimeControl.valueOf(mScreen.getValue(Key.TIMECONTROL_TYPE));
+    }
+
+    private static boolean isEditText(Key key) {
+        for (Key k : EDIT_TEXT_KEYS) {
+            if (k == key)
+                return true;
+        }
+        return false;
+    }
+}
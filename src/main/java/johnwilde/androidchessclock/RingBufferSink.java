@@ -0,0 +1,125 @@
+package johnwilde.androidchessclock;
+
+// Tracing sink that keeps the last records in memory, for tests and
+// for dumping what led up to a problem.
+//
+// Records are stored in preallocated parallel arrays used as a ring, so
+// recording does not allocate. When the ring is full the oldest record
+// is overwritten.
+final class RingBufferSink implements Tracing.Sink {
+
+    static final byte BEGIN = 0;
+    static final byte END = 1;
+    static final byte EVENT = 2;
+
+    private final int mCapacity;
+    private final long[] mNanos;
+    private final byte[] mKind;
+    private final String[] mName;
+    private final long[] mValue1;
+    private final long[] mValue2;
+    private long mCount; // records ever written
+
+    RingBufferSink(int capacity) {
+        mCapacity = capacity;
+        mNanos = new long[capacity];
+        mKind = new byte[capacity];
+        mName = new String[capacity];
+        mValue1 = new long[capacity];
+        mValue2 = new long[capacity];
+    }
+
+    @Override
+    public synchronized void begin(String section) {
+        add(BEGIN, section, 0, 0);
+    }
+
+    @Override
+    public synchronized void end() {
+        add(END, null, 0, 0);
+    }
+
+    @Override
+    public synchronized void event(String name, long value1, long value2) {
+        add(EVENT, name, value1, value2);
+    }
+
+    private void add(byte kind, String name, long value1, long value2) {
+        int slot = (int) (mCount % mCapacity);
+        mNanos[slot] = System.nanoTime();
+        mKind[slot] = kind;
+        mName[slot] = name;
+        mValue1[slot] = value1;
+        mValue2[slot] = value2;
+        mCount++;
+    }
+
+    // Records currently held, oldest first
+    synchronized int size() {
+        return (int) Math.min(mCount, mCapacity);
+    }
+
+    synchronized void clear() {
+        mCount = 0;
+    }
+
+    // Record i (0 is the oldest held)
+    synchronized byte kind(int i) {
+        return mKind[slot(i)];
+    }
+
+    synchronized String name(int i) {
+        return mName[slot(i)];
+    }
+
+    synchronized long value1(int i) {
+        return mValue1[slot(i)];
+    }
+
+    synchronized long value2(int i) {
+        return mValue2[slot(i)];
+    }
+
+    synchronized long nanos(int i) {
+        return mNanos[slot(i)];
+    }
+
+    // Count the events with the given name
+    synchronized int count(String name) {
+        int n = 0;
+        for (int i = 0; i < size(); i++) {
+            if (mKind[slot(i)] == EVENT && name.equals(mName[slot(i)]))
+                n++;
+        }
+        return n;
+    }
+
+    // One line per record, sections indented by nesting
+    synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < size(); i++) {
+            int slot = slot(i);
+            if (mKind[slot] == END) {
+                depth = Math.max(depth - 1, 0);
+                continue;
+            }
+            for (int d = 0; d < depth; d++) {
+                sb.append("  ");
+            }
+            sb.append(mName[slot]);
+            if (mKind[slot] == BEGIN) {
+                depth++;
+            } else {
+                sb.append(' ').append(mValue1[slot]).append(' ').append(mValue2[slot]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private int slot(int i) {
+        long first = Math.max(mCount - mCapacity, 0);
+        return (int) ((first + i) % mCapacity);
+    }
+}
@@ -0,0 +1,56 @@
+package johnwilde.androidchessclock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A fixed number of longs published by one writer thread and read by
+// any number of threads without locks (a sequence lock).
+//
+// The writer makes the sequence odd, writes the fields and makes it even
+// again. A reader copies the fields between two reads of the sequence
+// and retries if the sequence was odd or changed, so it never returns a
+// mix of two publications. The fields are an AtomicLongArray: with plain
+// longs the Java memory model would let the field reads move past the
+// second read of the sequence.
+//
+// Neither side allocates, and the writer never waits for a reader.
+final class SnapshotChannel {
+
+    private final AtomicLongArray mFields;
+    private volatile int mSequence;
+
+    SnapshotChannel(int size) {
+        mFields = new AtomicLongArray(size);
+    }
+
+    int size() {
+        return mFields.length();
+    }
+
+    // Publish 'fields'. Only one thread may publish.
+    void publish(long[] fields) {
+        int sequence = mSequence;
+        mSequence = sequence + 1;
+        for (int i = 0; i < fields.length; i++) {
+            mFields.set(i, fields[i]);
+        }
+        mSequence = sequence + 2;
+    }
+
+    // Copy the last publication into 'into' and return its sequence
+    // number, which grows by 2 with every publication
+    int read(long[] into) {
+        while (true) {
+            int sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                // the writer is half way, let it finish
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < into.length; i++) {
+                into[i] = mFields.get(i);
+            }
+            if (mSequence == sequence)
+                return sequence;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package johnwilde.androidchessclock;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Measures how well a TickScheduler keeps a running clock's ticks.
+//
+// The clock ticks on a grid: every periodMs (1000 for a clock above 10
+// seconds, 100 below, see ClockFace), each tick asking for the next grid
+// point as Timer does, rounded up to the whole ms the schedulers take.
+// The lateness of each tick (its run time minus its grid point) is kept
+// in a preallocated array; after the last tick result() reports:
+//
+// - lateness percentiles (p50, p90, p99) and the maximum,
+// - jitter, p99 minus p50: how much the redraws wander around the time
+//   the text changes,
+// - wakeups per minute, the energy side of the comparison. This is an
+//   estimate, not a measurement: the ticks times the threads a backend
+//   says it wakes for each (TickScheduler.wakeupsPerTick()).
+//
+// Start it on the scheduler's delivery thread (the UI thread for the
+// Android backends) and wait with await(); for a VirtualTickScheduler
+// advance the clock instead.
+final class TickBenchmark implements Runnable {
+
+    /**
+     * What one run measured. Times in ns.
+     */
+    static final class Result {
+        final String backend;
+        final int ticks;
+        final long elapsedNanos;
+        final long p50;
+        final long p90;
+        final long p99;
+        final long max;
+        // estimated from wakeupsPerTick(), not measured
+        final double estimatedWakeupsPerMinute;
+
+        Result(String backend, int ticks, long elapsedNanos, long p50, long p90,
+                long p99, long max, double estimatedWakeupsPerMinute) {
+            this.backend = backend;
+            this.ticks = ticks;
+            this.elapsedNanos = elapsedNanos;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+            this.estimatedWakeupsPerMinute = estimatedWakeupsPerMinute;
+        }
+
+        long jitter() {
+            return p99 - p50;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %d ticks, late p50 %.2f p90 %.2f p99 %.2f max %.2f ms,"
+                            + " jitter %.2f ms, %.0f wakeups/min (estimated per tick)",
+                    backend, ticks, p50 / 1e6, p90 / 1e6, p99 / 1e6, max / 1e6,
+                    jitter() / 1e6, estimatedWakeupsPerMinute);
+        }
+    }
+
+    private final TickScheduler mScheduler;
+    private final long mPeriodNanos;
+    private final long[] mLateness;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private int mTicks;
+    private long mStartNanos;
+    private long mDueNanos;
+
+    TickBenchmark(TickScheduler scheduler, long periodMs, int ticks) {
+        mScheduler = scheduler;
+        mPeriodNanos = periodMs * 1000000L;
+        mLateness = new long[ticks];
+    }
+
+    // Schedule the first tick, one period from now
+    void start() {
+        mStartNanos = mScheduler.nanoTime();
+        mDueNanos = mStartNanos;
+        scheduleNext(mStartNanos);
+    }
+
+    boolean await(long timeoutMs) throws InterruptedException {
+        return mDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isDone() {
+        return mTicks == mLateness.length;
+    }
+
+    // the tick
+    @Override
+    public void run() {
+        long now = mScheduler.nanoTime();
+        mLateness[mTicks++] = now - mDueNanos;
+        if (isDone()) {
+            mDone.countDown();
+            return;
+        }
+        scheduleNext(now);
+    }
+
+    private void scheduleNext(long now) {
+        // the next grid point after now; a tick later than a period skips
+        // the points it missed, as the clock's text would
+        do {
+            mDueNanos += mPeriodNanos;
+        } while (mDueNanos <= now);
+        long delayMs = (mDueNanos - now + 999999) / 1000000;
+        mScheduler.schedule(this, delayMs);
+    }
+
+    // Call when isDone()
+    Result result(String backend) {
+        // Arrays.copyOf needs API 9
+        long[] sorted = new long[mTicks];
+        System.arraycopy(mLateness, 0, sorted, 0, mTicks);
+        Arrays.sort(sorted);
+        long elapsed = mScheduler.nanoTime() - mStartNanos;
+        double minutes = elapsed / 60e9;
+        double wakeups = minutes > 0 ? mTicks * mScheduler.wakeupsPerTick() / minutes : 0;
+        return new Result(backend, mTicks, elapsed, percentile(sorted, 50),
+                percentile(sorted, 90), percentile(sorted, 99),
+                sorted.length > 0 ? sorted[sorted.length - 1] : 0, wakeups);
+    }
+
+    // nearest rank
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (sorted.length * percent + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
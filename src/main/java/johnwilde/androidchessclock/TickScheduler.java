@@ -0,0 +1,37 @@
+package johnwilde.androidchessclock;
+
+// Schedules the ticks that redraw a running clock.
+//
+// Timer asks for its next tick with schedule() and cancels it when the
+// clock stops; how the delay is timed is up to the backend:
+//
+// HandlerTickScheduler: Handler.postDelayed() on the UI thread's looper.
+// ChoreographerTickScheduler: a frame callback, run with the first frame
+// after the delay, so the new text is drawn in that same frame.
+// ExecutorTickScheduler: a dedicated ScheduledExecutorService thread,
+// which hands the tick to a delivery Executor (the UI thread).
+// VirtualTickScheduler: a virtual clock that tests advance by hand.
+//
+// TickBenchmark compares them on the same tick pattern (see there).
+// TickSchedulers creates the Android backends.
+interface TickScheduler {
+
+    // Run 'task' on the scheduler's delivery thread after 'delayMs'. A
+    // task is pending at most once: scheduling it again replaces the
+    // pending run.
+    void schedule(Runnable task, long delayMs);
+
+    // Forget the pending run of 'task', if any
+    void cancel(Runnable task);
+
+    // The scheduler's clock, in nanoseconds; for a real backend
+    // System.nanoTime(), which counts the same CLOCK_MONOTONIC as
+    // SystemClock.uptimeMillis()
+    long nanoTime();
+
+    // Threads woken to deliver one tick, the backend's cost in wakeups
+    int wakeupsPerTick();
+
+    // Stop scheduling and free the backend's resources
+    void release();
+}
@@ -0,0 +1,52 @@
+package johnwilde.androidchessclock;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+// Creates the Android TickScheduler backends, which all deliver their
+// ticks on the UI thread.
+//
+// The clocks use DEFAULT until TickBenchmark numbers from devices say a
+// mode (tournament, bullet, screen off) is better served by another one.
+final class TickSchedulers {
+
+    static final int HANDLER = 0;
+    static final int CHOREOGRAPHER = 1;
+    static final int EXECUTOR = 2;
+    static final int BACKENDS = 3;
+
+    static final int DEFAULT = HANDLER;
+
+    private static final String[] NAMES = { "handler", "choreographer", "executor" };
+
+    private TickSchedulers() {
+    }
+
+    // Call on the UI thread. Below API 16 (JELLY_BEAN), which has no
+    // Choreographer, CHOREOGRAPHER gives the Handler backend.
+    static TickScheduler create(int backend) {
+        switch (backend) {
+        case CHOREOGRAPHER:
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                return new ChoreographerTickScheduler();
+            return new HandlerTickScheduler();
+        case EXECUTOR:
+            final Handler ui = new Handler(Looper.getMainLooper());
+            return new ExecutorTickScheduler(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    ui.post(command);
+                }
+            });
+        default:
+            return new HandlerTickScheduler();
+        }
+    }
+
+    static String name(int backend) {
+        return NAMES[backend];
+    }
+}
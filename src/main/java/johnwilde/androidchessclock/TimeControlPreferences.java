@@ -0,0 +1,188 @@
+package johnwilde.androidchessclock;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+import johnwilde.androidchessclock.TimerOptions.TimeControl;
+
+// Reads the time control from the preferences into a ClockEngine.
+//
+// The loaders only touch the preferences and the engine, so they can run
+// on the engine thread (ChessTimerActivity runs them as EngineThread
+// tasks) and be checked on the JVM: each preference they need is read
+// once.
+//
+// A TimeControlPresets preset is written back over the same preferences,
+// so the settings screen and the next start show the chosen preset.
+//
+// Note: the default values required by the SharedPreferences getXX
+// methods are not used. The SharedPreferences have their default values
+// set (in ChessTimerActivity.onCreate()) and those defaults are saved in
+// preferences.xml
+final class TimeControlPreferences {
+    private static final String TAG = "TimeControlPreferences";
+
+    private TimeControlPreferences() {
+    }
+
+    // determine whether we're using BASIC or TOURNAMENT time control
+    static void load(SharedPreferences prefs, ClockEngine engine) {
+        String s = prefs.getString(
+                TimerOptions.Key.TIMECONTROL_TYPE.toString(),
+                "DISABLED");
+        TimerOptions.TimeControl timeControl = TimerOptions.TimeControl.valueOf(s);
+
+        engine.mPlayers = ChessTimerActivity.PLAYERS;
+        // overtime is part of the basic time control only
+        engine.mOvertimeType = OvertimeType.NONE;
+        if (timeControl == TimeControl.DISABLED) {
+            engine.mTimeControlType = TimeControlType.BASIC;
+            loadBasicTimeControl(prefs, engine);
+        } else {
+            engine.mTimeControlType = TimeControlType.TOURNAMENT;
+            loadAdvancedTimeControl(prefs, engine);
+        }
+    }
+
+    // Put the preferences load() reads 'preset' from. A tournament preset
+    // is written as the CUSTOM time control, whose values the settings
+    // screen leaves alone.
+    static void write(SharedPreferences.Editor editor, TimeControlPresets.Preset preset) {
+        if (preset.type == TimeControlType.BASIC) {
+            editor.putString(TimerOptions.Key.TIMECONTROL_TYPE.toString(),
+                    TimeControl.DISABLED.name());
+            putInt(editor, TimerOptions.Key.MINUTES, preset.initialSeconds / 60);
+            putInt(editor, TimerOptions.Key.SECONDS, preset.initialSeconds % 60);
+            putInt(editor, TimerOptions.Key.INCREMENT_SECONDS, preset.incrementSeconds);
+            editor.putString(TimerOptions.Key.DELAY_TYPE.toString(), preset.delayType.name());
+            editor.putBoolean(TimerOptions.Key.NEGATIVE_TIME.toString(),
+                    preset.allowNegativeTime);
+            editor.putString(TimerOptions.Key.OVERTIME_TYPE.toString(),
+                    preset.overtimeType.name());
+            putInt(editor, TimerOptions.Key.OVERTIME_PERIODS, preset.overtimePeriods);
+            putInt(editor, TimerOptions.Key.OVERTIME_SECONDS, preset.overtimeSeconds);
+        } else {
+            editor.putString(TimerOptions.Key.TIMECONTROL_TYPE.toString(),
+                    TimeControl.CUSTOM.name());
+            putInt(editor, TimerOptions.Key.FIDE_MIN_PHASE1, preset.initialSeconds / 60);
+            putInt(editor, TimerOptions.Key.FIDE_MOVES_PHASE1, preset.phase1Moves);
+            putInt(editor, TimerOptions.Key.FIDE_MIN_PHASE2, preset.phase2Minutes);
+            editor.putString(TimerOptions.Key.ADV_DELAY_TYPE.toString(),
+                    preset.delayType.name());
+            putInt(editor, TimerOptions.Key.ADV_INCREMENT_SECONDS, preset.incrementSeconds);
+            editor.putBoolean(TimerOptions.Key.ADV_NEGATIVE_TIME.toString(),
+                    preset.allowNegativeTime);
+        }
+    }
+
+    // The stored library (the defaults until one is saved)
+    static TimeControlPresets presets(SharedPreferences prefs) {
+        return TimeControlPresets.parse(prefs.getString(
+                TimerOptions.Key.PRESETS.toString(), null));
+    }
+
+    static void putPresets(SharedPreferences.Editor editor, TimeControlPresets presets) {
+        editor.putString(TimerOptions.Key.PRESETS.toString(), presets.format());
+    }
+
+    // Write the edits in one go. apply() (API 9, GINGERBREAD) leaves the
+    // disk write to a background thread; commit() makes it on this one.
+    static void save(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+            editor.apply();
+        else
+            editor.commit();
+    }
+
+    private static void putInt(SharedPreferences.Editor editor, TimerOptions.Key key,
+            int value) {
+        // the settings screen edits these as text
+        editor.putString(key.toString(), Integer.toString(value));
+    }
+
+    // comma separated list of seconds, e.g. "60,10"
+    static long[] lowTimeWarnings(SharedPreferences prefs) {
+        String s = prefs.getString(
+                TimerOptions.Key.LOW_TIME_WARNINGS.toString(), "0");
+        long[] warnings = new long[DeadlineScheduler.MAX_WARNINGS];
+        int count = 0;
+        for (String part : s.split(",")) {
+            try {
+                int seconds = Integer.parseInt(part.trim());
+                if (seconds > 0 && count < warnings.length) {
+                    warnings[count++] = seconds * 1000L;
+                }
+            } catch (NumberFormatException ex) {
+                Log.d(TAG, ex.getMessage());
+            }
+        }
+        long[] warningsMs = new long[count];
+        System.arraycopy(warnings, 0, warningsMs, 0, count);
+        return warningsMs;
+    }
+
+    private static void loadBasicTimeControl(SharedPreferences prefs, ClockEngine engine) {
+        int minutes = getTimerOptionsValue(prefs, TimerOptions.Key.MINUTES);
+        int seconds = getTimerOptionsValue(prefs, TimerOptions.Key.SECONDS);
+        engine.mInitialDurationSeconds = minutes * 60 + seconds;
+        engine.mIncrementSeconds = getTimerOptionsValue(prefs,
+                TimerOptions.Key.INCREMENT_SECONDS);
+        loadDelayType(prefs, engine, TimerOptions.Key.DELAY_TYPE);
+        loadNegativeTime(prefs, engine, TimerOptions.Key.NEGATIVE_TIME);
+        loadOvertime(prefs, engine);
+    }
+
+    private static void loadAdvancedTimeControl(SharedPreferences prefs, ClockEngine engine) {
+        int minutes1 = getTimerOptionsValue(prefs, TimerOptions.Key.FIDE_MIN_PHASE1);
+        engine.mInitialDurationSeconds = minutes1 * 60;
+
+        engine.mPhase1NumberMoves = getTimerOptionsValue(prefs,
+                TimerOptions.Key.FIDE_MOVES_PHASE1);
+        engine.mPhase2Minutes = getTimerOptionsValue(prefs,
+                TimerOptions.Key.FIDE_MIN_PHASE2);
+
+        loadDelayType(prefs, engine, TimerOptions.Key.ADV_DELAY_TYPE);
+        engine.mIncrementSeconds = getTimerOptionsValue(prefs,
+                TimerOptions.Key.ADV_INCREMENT_SECONDS);
+        loadNegativeTime(prefs, engine, TimerOptions.Key.ADV_NEGATIVE_TIME);
+    }
+
+    private static void loadNegativeTime(SharedPreferences prefs, ClockEngine engine,
+            TimerOptions.Key key) {
+        engine.mAllowNegativeTime = prefs.getBoolean(key.toString(), false);
+    }
+
+    private static void loadOvertime(SharedPreferences prefs, ClockEngine engine) {
+        String overtimeString = prefs.getString(
+                TimerOptions.Key.OVERTIME_TYPE.toString(), "NONE");
+        engine.mOvertimeType = OvertimeType.valueOf(overtimeString.toUpperCase());
+        engine.mOvertimePeriods = getTimerOptionsValue(prefs, TimerOptions.Key.OVERTIME_PERIODS);
+        engine.mOvertimeSeconds = getTimerOptionsValue(prefs, TimerOptions.Key.OVERTIME_SECONDS);
+    }
+
+    private static void loadDelayType(SharedPreferences prefs, ClockEngine engine,
+            TimerOptions.Key key) {
+        String delayTypeString = prefs.getString(key.toString(), "FISCHER");
+        engine.mDelayType = DelayType.valueOf(delayTypeString.toUpperCase());
+    }
+
+    private static int getTimerOptionsValue(SharedPreferences prefs, TimerOptions.Key key) {
+        try {
+            String s = prefs.getString(key.toString(), "0");
+
+            if (s.length() == 0) {
+                s = "0";
+            }
+
+            return (Integer.parseInt(s));
+
+        } catch (NumberFormatException ex) {
+            Log.d(TAG, ex.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package johnwilde.androidchessclock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+
+// The named time controls the players switch between (3+2, 15+10,
+// FIDE 40/90+30...), parsed once and kept in memory so applying one is a
+// copy into the engine, not a trip through the settings screen.
+//
+// The library is stored as text in one preference, a preset per line:
+//
+// name|type|initial s|increment s|delay|negative|overtime|periods|
+// overtime s|phase 1 moves|phase 2 min
+//
+// with the enums by name and negative as 0/1. A line that does not parse
+// is dropped. Names cannot hold '|' or a line break (see add()).
+final class TimeControlPresets {
+
+    /**
+     * One time control; the fields of the ClockEngine it sets.
+     */
+    static final class Preset {
+        final String name;
+        final TimeControlType type;
+        final int initialSeconds;
+        final int incrementSeconds;
+        final DelayType delayType;
+        final boolean allowNegativeTime;
+        final OvertimeType overtimeType;
+        final int overtimePeriods;
+        final int overtimeSeconds;
+        final int phase1Moves;
+        final int phase2Minutes;
+
+        Preset(String name, TimeControlType type, int initialSeconds,
+                int incrementSeconds, DelayType delayType, boolean allowNegativeTime,
+                OvertimeType overtimeType, int overtimePeriods, int overtimeSeconds,
+                int phase1Moves, int phase2Minutes) {
+            this.name = name;
+            this.type = type;
+            this.initialSeconds = initialSeconds;
+            this.incrementSeconds = incrementSeconds;
+            this.delayType = delayType;
+            this.allowNegativeTime = allowNegativeTime;
+            this.overtimeType = overtimeType;
+            this.overtimePeriods = overtimePeriods;
+            this.overtimeSeconds = overtimeSeconds;
+            this.phase1Moves = phase1Moves;
+            this.phase2Minutes = phase2Minutes;
+        }
+
+        // Minutes plus increment, e.g. "3+2"
+        static Preset basic(String name, int minutes, int incrementSeconds) {
+            return new Preset(name, TimeControlType.BASIC, minutes * 60,
+                    incrementSeconds, DelayType.FISCHER, false, OvertimeType.NONE,
+                    0, 0, 0, 0);
+        }
+
+        // The time control an engine is configured with
+        static Preset of(String name, ClockEngine engine) {
+            boolean basic = engine.mTimeControlType == TimeControlType.BASIC;
+            return new Preset(name, engine.mTimeControlType,
+                    engine.mInitialDurationSeconds, engine.mIncrementSeconds,
+                    engine.mDelayType, engine.mAllowNegativeTime,
+                    basic ? engine.mOvertimeType : OvertimeType.NONE,
+                    basic ? engine.mOvertimePeriods : 0,
+                    basic ? engine.mOvertimeSeconds : 0,
+                    basic ? 0 : engine.mPhase1NumberMoves,
+                    basic ? 0 : engine.mPhase2Minutes);
+        }
+
+        // Configure 'engine' as TimeControlPreferences.load() would from
+        // the preferences this preset writes, but for the number of
+        // players, which is up to the front end (the activity or
+        // ConsoleClock). Takes effect at its reset().
+        void applyTo(ClockEngine engine) {
+            engine.mTimeControlType = type;
+            engine.mInitialDurationSeconds = initialSeconds;
+            engine.mIncrementSeconds = incrementSeconds;
+            engine.mDelayType = delayType;
+            engine.mAllowNegativeTime = allowNegativeTime;
+            engine.mOvertimeType = overtimeType;
+            engine.mOvertimePeriods = overtimePeriods;
+            engine.mOvertimeSeconds = overtimeSeconds;
+            if (type == TimeControlType.TOURNAMENT) {
+                engine.mPhase1NumberMoves = phase1Moves;
+                engine.mPhase2Minutes = phase2Minutes;
+            }
+        }
+
+        private void appendTo(StringBuilder out) {
+            out.append(name).append('|').append(type.name())
+                    .append('|').append(initialSeconds)
+                    .append('|').append(incrementSeconds)
+                    .append('|').append(delayType.name())
+                    .append('|').append(allowNegativeTime ? 1 : 0)
+                    .append('|').append(overtimeType.name())
+                    .append('|').append(overtimePeriods)
+                    .append('|').append(overtimeSeconds)
+                    .append('|').append(phase1Moves)
+                    .append('|').append(phase2Minutes);
+        }
+
+        // the stored line
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            appendTo(out);
+            return out.toString();
+        }
+
+        // null if 'line' is not a preset
+        private static Preset parse(String line) {
+            String[] f = line.split("\\|", -1);
+            if (f.length != 11 || f[0].length() == 0)
+                return null;
+            try {
+                return new Preset(f[0], TimeControlType.valueOf(f[1]),
+                        Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                        DelayType.valueOf(f[4]), "1".equals(f[5]),
+                        OvertimeType.valueOf(f[6]), Integer.parseInt(f[7]),
+                        Integer.parseInt(f[8]), Integer.parseInt(f[9]),
+                        Integer.parseInt(f[10]));
+            } catch (IllegalArgumentException ex) {
+                // NumberFormatException included
+                return null;
+            }
+        }
+    }
+
+    private final List<Preset> mPresets = new ArrayList<Preset>();
+
+    // The library a first run starts with
+    static TimeControlPresets defaults() {
+        TimeControlPresets presets = new TimeControlPresets();
+        presets.mPresets.add(Preset.basic("1+0", 1, 0));
+        presets.mPresets.add(Preset.basic("3+2", 3, 2));
+        presets.mPresets.add(Preset.basic("5+0", 5, 0));
+        presets.mPresets.add(Preset.basic("15+10", 15, 10));
+        presets.mPresets.add(new Preset("FIDE 40/90+30", TimeControlType.TOURNAMENT,
+                90 * 60, 30, DelayType.FISCHER, false, OvertimeType.NONE, 0, 0, 40, 30));
+        return presets;
+    }
+
+    // The stored library, or the defaults if nothing is stored
+    static TimeControlPresets parse(String text) {
+        if (text == null)
+            return defaults();
+        TimeControlPresets presets = new TimeControlPresets();
+        for (String line : text.split("\n")) {
+            Preset preset = Preset.parse(line);
+            if (preset != null)
+                presets.mPresets.add(preset);
+        }
+        return presets;
+    }
+
+    String format() {
+        StringBuilder out = new StringBuilder();
+        for (Preset preset : mPresets) {
+            if (out.length() > 0)
+                out.append('\n');
+            preset.appendTo(out);
+        }
+        return out.toString();
+    }
+
+    int size() {
+        return mPresets.size();
+    }
+
+    Preset get(int i) {
+        return mPresets.get(i);
+    }
+
+    String[] names() {
+        String[] names = new String[mPresets.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = mPresets.get(i).name;
+        }
+        return names;
+    }
+
+    // Add 'preset' under a usable version of 'name', replacing a preset
+    // of that name. Returns the name used, null if nothing is left of it.
+    String add(String name, Preset preset) {
+        String clean = name.replace('|', '/').replace('\n', ' ').replace('\r', ' ').trim();
+        if (clean.length() == 0)
+            return null;
+        Preset named = new Preset(clean, preset.type, preset.initialSeconds,
+                preset.incrementSeconds, preset.delayType, preset.allowNegativeTime,
+                preset.overtimeType, preset.overtimePeriods, preset.overtimeSeconds,
+                preset.phase1Moves, preset.phase2Minutes);
+        for (int i = 0; i < mPresets.size(); i++) {
+            if (mPresets.get(i).name.equals(clean)) {
+                mPresets.set(i, named);
+                return clean;
+            }
+        }
+        mPresets.add(named);
+        return clean;
+    }
+
+    void remove(int i) {
+        mPresets.remove(i);
+    }
+}
@@ -0,0 +1,156 @@
+package johnwilde.androidchessclock;
+
+// Aggregate time usage over a set of archived games.
+//
+// Everything is kept as counters and histograms in primitive arrays, so
+// the statistics of two sets of games can be merged with add(). That is
+// what lets ArchiveAnalytics compute one TimeUsageStats per archive
+// segment in parallel and cache it.
+final class TimeUsageStats {
+
+    // Move phases, by the player's own move number
+    static final int PHASE_OPENING = 0; // moves 1 to OPENING_MOVES
+    static final int PHASE_MIDDLEGAME = 1; // up to MIDDLEGAME_MOVES
+    static final int PHASE_ENDGAME = 2;
+    static final int PHASES = 3;
+    static final int OPENING_MOVES = 15;
+    static final int MIDDLEGAME_MOVES = 40;
+
+    static final int MAX_PLAYERS = 4;
+    // a player is in time trouble below this share of the initial time
+    static final int TIME_TROUBLE_PERCENT = 10;
+
+    // Flag rate is kept per delay type and increment bucket
+    static final int DELAY_TYPES = 2;
+    private static final int[] INCREMENT_BUCKET_LIMITS = { 0, 2, 5, 10, 30 };
+    static final int INCREMENT_BUCKETS = INCREMENT_BUCKET_LIMITS.length + 1;
+
+    // Remaining time curves: for each move number, a histogram of the
+    // remaining time in CURVE_BIN_PERCENT steps of the initial time
+    static final int CURVE_MOVES = 100;
+    static final int CURVE_BIN_PERCENT = 2;
+    static final int CURVE_BINS = 200 / CURVE_BIN_PERCENT + 1;
+
+    long mGames;
+    final long[] mPhaseMs = new long[PHASES];
+    final long[] mPhaseMoves = new long[PHASES];
+    final long[] mPlayerGames = new long[MAX_PLAYERS];
+    final long[] mTimeTroubleGames = new long[MAX_PLAYERS];
+    final long[] mControlGames = new long[DELAY_TYPES * INCREMENT_BUCKETS];
+    final long[] mControlFlags = new long[DELAY_TYPES * INCREMENT_BUCKETS];
+    final int[] mCurve = new int[CURVE_MOVES * CURVE_BINS];
+
+    static int phaseOf(int moveNumber) {
+        if (moveNumber <= OPENING_MOVES)
+            return PHASE_OPENING;
+        if (moveNumber <= MIDDLEGAME_MOVES)
+            return PHASE_MIDDLEGAME;
+        return PHASE_ENDGAME;
+    }
+
+    static int incrementBucket(int incrementSeconds) {
+        int bucket = 0;
+        while (bucket < INCREMENT_BUCKET_LIMITS.length
+                && incrementSeconds > INCREMENT_BUCKET_LIMITS[bucket])
+            bucket++;
+        return bucket;
+    }
+
+    // Lower bound (seconds) of an increment bucket
+    static int incrementBucketStart(int bucket) {
+        return bucket == 0 ? 0 : INCREMENT_BUCKET_LIMITS[bucket - 1] + 1;
+    }
+
+    static int controlCell(int delayType, int incrementSeconds) {
+        int delay = (delayType >= 0 && delayType < DELAY_TYPES) ? delayType : 0;
+        return delay * INCREMENT_BUCKETS + incrementBucket(incrementSeconds);
+    }
+
+    void addGame(int delayType, int incrementSeconds, boolean flagged) {
+        mGames++;
+        int cell = controlCell(delayType, incrementSeconds);
+        mControlGames[cell]++;
+        if (flagged)
+            mControlFlags[cell]++;
+    }
+
+    void addMove(int moveNumber, long moveMs, long remainingMs, long initialMs) {
+        int phase = phaseOf(moveNumber);
+        mPhaseMs[phase] += moveMs;
+        mPhaseMoves[phase]++;
+        if (moveNumber <= CURVE_MOVES && initialMs > 0) {
+            long percent = Math.max(remainingMs, 0) * 100 / initialMs;
+            int bin = (int) Math.min(percent / CURVE_BIN_PERCENT, CURVE_BINS - 1);
+            mCurve[(moveNumber - 1) * CURVE_BINS + bin]++;
+        }
+    }
+
+    void addPlayer(int player, boolean hadTimeTrouble) {
+        if (player >= MAX_PLAYERS)
+            return;
+        mPlayerGames[player]++;
+        if (hadTimeTrouble)
+            mTimeTroubleGames[player]++;
+    }
+
+    void add(TimeUsageStats other) {
+        mGames += other.mGames;
+        addAll(mPhaseMs, other.mPhaseMs);
+        addAll(mPhaseMoves, other.mPhaseMoves);
+        addAll(mPlayerGames, other.mPlayerGames);
+        addAll(mTimeTroubleGames, other.mTimeTroubleGames);
+        addAll(mControlGames, other.mControlGames);
+        addAll(mControlFlags, other.mControlFlags);
+        for (int i = 0; i < mCurve.length; i++) {
+            mCurve[i] += other.mCurve[i];
+        }
+    }
+
+    long averageMoveMs(int phase) {
+        return mPhaseMoves[phase] == 0 ? 0 : mPhaseMs[phase] / mPhaseMoves[phase];
+    }
+
+    // Percentage of games in which the player got into time trouble
+    int timeTroublePercent(int player) {
+        return percent(mTimeTroubleGames[player], mPlayerGames[player]);
+    }
+
+    int flagRatePercent(int delayType, int incrementBucket) {
+        int cell = delayType * INCREMENT_BUCKETS + incrementBucket;
+        return percent(mControlFlags[cell], mControlGames[cell]);
+    }
+
+    long controlGames(int delayType, int incrementBucket) {
+        return mControlGames[delayType * INCREMENT_BUCKETS + incrementBucket];
+    }
+
+    // The p-th percentile (0-100) of the remaining time at a move, as a
+    // percentage of the initial time, or -1 when no game got that far
+    int remainingPercentile(int moveNumber, int p) {
+        int base = (moveNumber - 1) * CURVE_BINS;
+        long total = 0;
+        for (int bin = 0; bin < CURVE_BINS; bin++) {
+            total += mCurve[base + bin];
+        }
+        if (total == 0)
+            return -1;
+        long rank = (total * p + 99) / 100;
+        long seen = 0;
+        for (int bin = 0; bin < CURVE_BINS; bin++) {
+            seen += mCurve[base + bin];
+            if (seen >= rank && seen > 0)
+                return bin * CURVE_BIN_PERCENT;
+        }
+        return (CURVE_BINS - 1) * CURVE_BIN_PERCENT;
+    }
+
+    private static int percent(long part, long whole) {
+        return whole == 0 ? 0 : (int) (part * 100 / whole);
+    }
+
+    private static void addAll(long[] to, long[] from) {
+        for (int i = 0; i < to.length; i++) {
+            to[i] += from[i];
+        }
+    }
+}
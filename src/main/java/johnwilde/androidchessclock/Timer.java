@@ -5,7 +5,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
-import android.os.Handler;
 import android.os.SystemClock;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -13,43 +12,55 @@ import android.view.View.OnLongClickListener;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
-import johnwilde.androidchessclock.ChessTimerActivity.DelayType;
-import johnwilde.androidchessclock.ChessTimerActivity.GameState;
-
-// This class updates each player's clock.
-// These variables maintain the clock state:
+// This class shows one player's clock.
+//
+// The clock state lives in the ClockEngine, which runs on its own thread
+// and outlives the activity across configuration changes; a Timer only
+// draws the state the engine publishes (a ClockSnapshot). A ClockFace
+// decides what the clock shows and when it has to be redrawn; the Timer
+// applies that to the text and the Bronstein delay spinner. While the
+// clock changes the text is redrawn when its value changes: every second,
+// or every 100 ms below 10 seconds. In overtime the text ends with the
+// byo-yomi periods (or Canadian moves) left, e.g. "25.3 (2)".
 //
-// mMsToGo: ms until the timer reaches 0
-// mMsDelayToGo: ms until the Bronstein delay interval reaches 0
+// Updating allocates nothing: the text is formatted into the face's
+// buffer, which the TextView displays without copying, and the spinner
+// view is reused.
 //
+// The ticks are scheduled through the activity's TickScheduler, so the
+// backend that times them can be swapped (see TickSchedulers). In the
+// hundredths window they go to the activity's frame scheduler instead,
+// one per frame, and FrameStats counts the frames they drop; the totals
+// are traced (Tracing.EVENT_FRAMES) each time the window is left.
 //
 final class Timer implements OnClickListener, OnLongClickListener {
     private ChessTimerActivity mChessTimerActivity;
     private TextView mView;
     private FrameLayout mSpinContainer;
-    private long mBronsteinMs;
+    private InnerTimer mCountDownTimer = new InnerTimer();
+    private final ClockFace mFace;
+    private final FrameStats mFrames;
 
-    // maintain state
-    private long mMsToGo;
-    private long mMsDelayToGo = 0;
-    private InnerTimer mCountDownTimer;
-    private boolean isRunning = false;
+    private final int mPlayer;
 
-    private String mPlayerColor;
-
-    Timer(ChessTimerActivity chessTimerActivity, int clockId, int spinId, String playerColor) {
+    Timer(ChessTimerActivity chessTimerActivity, int player, int clockId,
+            int spinId) {
         mChessTimerActivity = chessTimerActivity;
+        mPlayer = player;
+        mFace = new ClockFace(player);
+        mFrames = new FrameStats(chessTimerActivity.framePeriodNanos());
         mView = (TextView) mChessTimerActivity.findViewById(clockId);
         mView.setFocusable(false);
+        mView.setOnClickListener(this);
+        mView.setOnLongClickListener(this);
         mSpinContainer = (FrameLayout) mChessTimerActivity.findViewById(spinId);
-        mPlayerColor = playerColor;
-        initialize();
     }
 
     @Override
     public void onClick(View v) {
         mChessTimerActivity.transitionToPauseAndToast();
-        mChessTimerActivity.launchAdjustPlayerClockActivity(mPlayerColor, mMsToGo);
+        mChessTimerActivity.showAdjustOverlay(mPlayer,
+                getClock().getMsToGo(mPlayer, SystemClock.uptimeMillis()));
     }
 
     @Override
@@ -59,112 +70,45 @@ final class Timer implements OnClickListener, OnLongClickListener {
         return true;
     }
 
-    public void initialize() {
-        mBronsteinMs = (
-                mChessTimerActivity.mDelayType == DelayType.BRONSTEIN) ? mChessTimerActivity.mIncrementSeconds * 1000
-                : 0;
-        mMsDelayToGo = mBronsteinMs;
-        initializeWithValue(mChessTimerActivity.mInitialDurationSeconds * 1000, mBronsteinMs);
-        if (mChessTimerActivity.mDelayType == DelayType.FISCHER) {
-            increment(mChessTimerActivity.mIncrementSeconds);
-        }
-    }
-
-    public void initializeWithValue(long msToGo, long msDelayToGo) {
-        mView.setOnClickListener(this);
-        mView.setOnLongClickListener(this);
-        mMsToGo = msToGo;
-        mMsDelayToGo = msDelayToGo;
-        mCountDownTimer = new InnerTimer();
-        isRunning = false;
-        mView.setTextColor(Color.BLACK);
-
-        updateTimerText();
-    }
-
     // Public Interface Methods
 
-    void moveStarted() {
-        start();
+    // Show the engine's state for this player, and keep refreshing
+    // while the player's clock runs
+    void update() {
+        mCountDownTimer.runNow();
     }
 
-    void moveFinished() {
-        // when a move finishes we must reset the delay timer
-        mMsDelayToGo = mBronsteinMs;
-        pause();
-    }
-
-    void start() {
-        mCountDownTimer.start();
-        isRunning = true;
-    }
-
-    void pause() {
-        if (mCountDownTimer != null) {
-            mCountDownTimer.kill();
-        }
-        isRunning = false;
-    }
-
-    void reset() {
+    // Stop refreshing (the activity is going away)
+    void detach() {
         mCountDownTimer.kill();
-        initialize();
-    }
-
-    long getMsDelayToGo() {
-        return mMsDelayToGo;
     }
 
-    long getMsToGo() {
-        return mMsToGo;
+    int getPlayer() {
+        return mPlayer;
     }
 
-    boolean isRunning() {
-        return isRunning;
+    // See ClockFace.setHundredthsWindow(); takes effect on the next update()
+    void setHundredthsWindow(long windowMs) {
+        mFace.setHundredthsWindow(windowMs);
     }
 
-    private boolean getAllowNegativeTime() {
-        return mChessTimerActivity.mAllowNegativeTime;
-    }
-
-    //
-    // Callbacks invoked by the inner timer
-    //
-
-    // callback that is invoked when the clock starts moving (after
-    // Bronstein delay)
-    private void clockStarted() {
-        mSpinContainer.removeAllViews();
+    FrameStats getFrameStats() {
+        return mFrames;
     }
 
-    // callback that is invoked when clock pauses or is otherwise stopped
-    private void clockStopped() {
-        mSpinContainer.removeAllViews();
+    private ClockSnapshot getClock() {
+        return mChessTimerActivity.snapshot();
     }
 
-    // callback that is invoked when clock reaches 0
-    private void done() {
-        mView.setText("0.0");
-        mView.setTextColor(Color.RED);
-        if (mChessTimerActivity.shouldPlaySoundAtEnd()) {
-            mChessTimerActivity.playBell();
+    // Apply what the face reports changed to the text
+    private void updateTimerText(int changes) {
+        // setTextColor() builds a ColorStateList, only call it on change
+        if ((changes & ClockFace.LOW_TIME_CHANGED) != 0)
+            mView.setTextColor(mFace.isLowTime() ? Color.RED : Color.BLACK);
+        if ((changes & ClockFace.TEXT_CHANGED) != 0) {
+            mView.setText(mFace.getText(), 0, mFace.getTextLength());
+            mChessTimerActivity.displayChanged(mPlayer, mFace.getMsShown());
         }
-        mChessTimerActivity.transitionTo(GameState.DONE);
-    }
-
-    void increment(int incrementSeconds) {
-        mMsToGo += incrementSeconds * 1000;
-        updateTimerText();
-    }
-
-    private void updateTimerText() {
-        if (getMsToGo() < 10000) {
-            mView.setTextColor(Color.RED);
-        } else {
-            mView.setTextColor(Color.BLACK);
-        }
-
-        mView.setText(Utils.formatTime(mMsToGo));
     }
 
     public View getView() {
@@ -172,97 +116,75 @@ final class Timer implements OnClickListener, OnLongClickListener {
     }
 
     /*
-     * Inner class to handle the update of the timer text and playing the
-     * buzzer. The timer text updates at faster rate during the last 10
-     * seconds.
+     * Inner class to handle the update of the timer text and of the
+     * Bronstein delay spinner.
      */
     class InnerTimer {
-        Handler mHandler = new Handler();
-        private UpdateTimeTask mUpdateTimeTask;
-        boolean mPlayedBuzzer = false;
+        private UpdateTimeTask mUpdateTimeTask = new UpdateTimeTask();
+        private SpinnerView mSpinner;
 
-        void start() {
-            mUpdateTimeTask = new InnerTimer.UpdateTimeTask();
-            mHandler.post(mUpdateTimeTask);
+        void kill() {
+            cancel();
+            endFrames();
         }
 
-        void kill() {
-            clockStopped();
-            if (mUpdateTimeTask != null) {
-                mUpdateTimeTask.kill();
-            }
-            mHandler.removeCallbacks(mUpdateTimeTask);
+        // update the clock immediately (the task reschedules itself)
+        void runNow() {
+            cancel();
+            mUpdateTimeTask.run();
         }
 
-        // this class will update itself (and call
-        // updateTimerText) accordingly:
-        // if getMsToGo() > 10 * 1000, every 1000 ms
-        // if getMsToGo() < 10 * 1000, every 100 ms
-        // if getMsToGo() < 0 and getAllowNegativeTime is true, every 1000
-        // ms
-        class UpdateTimeTask implements Runnable {
-            boolean startOfMove = true;
+        private void cancel() {
+            mChessTimerActivity.tickScheduler().cancel(mUpdateTimeTask);
+            mChessTimerActivity.frameScheduler().cancel(mUpdateTimeTask);
+        }
 
-            public synchronized void setMoveStartFlag(boolean value) {
-                this.startOfMove = value;
+        private void endFrames() {
+            if (mFrames.isRunning()) {
+                mFrames.pause();
+                Tracing.event(Tracing.EVENT_FRAMES, mFrames.frames(), mFrames.dropped());
             }
+        }
 
-            long startedAt;
-            long lastUpdate;
-            InnerTimer.SpinnerView spinner;
-            static final int POST_SLOW = 1000;
-            static final int POST_FAST = 100;
-
-            UpdateTimeTask() {
-                this.startedAt = SystemClock.uptimeMillis();
-                this.lastUpdate = startedAt;
-                if (mMsDelayToGo > 0) {
-                    spinner = new InnerTimer.SpinnerView(mChessTimerActivity,
-                            mBronsteinMs);
-                    mSpinContainer.addView(spinner);
+        // the spinner is shown while the delay of a running clock counts
+        // down
+        private void updateSpinner(ClockSnapshot clock, int changes) {
+            if ((changes & ClockFace.SPINNER_SHOWN) != 0) {
+                if (mSpinner == null) {
+                    mSpinner = new SpinnerView(mChessTimerActivity);
                 }
+                mSpinner.setTotalMilliseconds(clock.getDelayMs());
+                mSpinContainer.addView(mSpinner);
             }
-
-            void kill() {
-                long dt = SystemClock.uptimeMillis() - lastUpdate;
-                mMsDelayToGo -= dt;
+            if ((changes & ClockFace.SPINNER_CHANGED) != 0) {
+                mSpinner.setElapsedMilliseconds(mFace.getDelayToGo());
+                mSpinner.invalidate();
+            }
+            if ((changes & ClockFace.SPINNER_HIDDEN) != 0) {
+                mSpinContainer.removeAllViews();
             }
+        }
 
+        // this class updates the clock and posts itself again for when
+        // the face next changes (see ClockFace)
+        class UpdateTimeTask implements Runnable {
             public void run() {
-                long now = SystemClock.uptimeMillis();
-                long dt = now - lastUpdate;
-                lastUpdate = now;
-                // Are we in Bronstein delay period?
-                if (startOfMove && mMsDelayToGo > 0) {
-                    mMsDelayToGo -= dt;
-                    spinner.setElapsedMilliseconds(mMsDelayToGo);
-                    spinner.postInvalidate();
-                    mHandler.postDelayed(mUpdateTimeTask, POST_FAST);
-                    return;
-                }
-
-                if (startOfMove) {
-                    Timer.this.clockStarted(); // invoke callback
-                    setMoveStartFlag(false);
-                    mMsDelayToGo = mBronsteinMs; // reset
-                }
-                mMsToGo -= dt;
-
-                if (getMsToGo() > 0) {
-                    updateTimerText();
-                    mHandler.postDelayed(mUpdateTimeTask, POST_FAST);
-                } else if (getMsToGo() < 0 && getAllowNegativeTime()) {
-                    updateTimerText();
-                    if (mChessTimerActivity.shouldPlaySoundAtEnd() && mPlayedBuzzer == false) {
-                        mChessTimerActivity.playBell();
-                        mPlayedBuzzer = true;
-                    }
-
-                    mHandler.postDelayed(mUpdateTimeTask, POST_SLOW);
+                Tracing.begin(Tracing.SECTION_TICK);
+                ClockSnapshot clock = getClock();
+                int changes = mFace.update(clock, SystemClock.uptimeMillis());
+                updateTimerText(changes);
+                updateSpinner(clock, changes);
+                long next = mFace.getNextTick();
+                if (mFace.isFrameSynced()) {
+                    TickScheduler frames = mChessTimerActivity.frameScheduler();
+                    mFrames.frame(frames.nanoTime());
+                    frames.schedule(this, next);
                 } else {
-                    mHandler.removeCallbacks(mUpdateTimeTask);
-                    done();
+                    endFrames();
+                    if (next != ClockFace.NO_TICK)
+                        mChessTimerActivity.tickScheduler().schedule(this, next);
                 }
+                Tracing.end();
             }
         }
 
@@ -278,9 +200,9 @@ final class Timer implements OnClickListener, OnLongClickListener {
             private long msTotal;
             private long msSoFar;
 
-            public SpinnerView(Context context, long msToComplete) {
+            public SpinnerView(Context context) {
                 super(context);
-                this.msTotal = msToComplete;
+                this.msTotal = 0;
                 this.msSoFar = 0;
                 mPaint = new Paint();
                 mPaint.setAntiAlias(true);
@@ -293,7 +215,11 @@ final class Timer implements OnClickListener, OnLongClickListener {
                 canvas.drawArc(mOval, 0, sweep, true, mPaint);
             }
 
-            synchronized void setElapsedMilliseconds(long elapsed) {
+            void setTotalMilliseconds(long total) {
+                this.msTotal = total;
+            }
+
+            void setElapsedMilliseconds(long elapsed) {
                 this.msSoFar = elapsed;
             }
 
@@ -12,7 +12,6 @@ import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
-import android.util.Log;
 
 /**  Activity that inflates the preferences from XML.
  * 
@@ -30,11 +29,19 @@ public class TimerOptions extends PreferenceActivity
 		INCREMENT_SECONDS("increment_preference"),
 		DELAY_TYPE("delay_type_preference"),
 		NEGATIVE_TIME("allow_negative_time_preference"),
+		OVERTIME_TYPE("overtime_type_preference"),
+		OVERTIME_PERIODS("overtime_periods_preference"),
+		OVERTIME_SECONDS("overtime_seconds_preference"),
 		SCREEN_DIM("screen_dim_preference"),
 		SWAP_SIDES("white_on_left_preference"),
         PLAY_CLICK("audible_notification_preference_click"),
 		PLAY_BELL("audible_notification_preference_bell"),
 		SHOW_MOVE_COUNTER("show_move_count_preference"),
+		LOW_TIME_WARNINGS("low_time_warning_preference"),
+		SHARED_FEED("shared_feed_preference"),
+		HUNDREDTHS("hundredths_preference"),
+		// not on the settings screen: the TimeControlPresets library
+		PRESETS("time_control_presets"),
 		TIMECONTROL_TYPE("timecontrol_type_preference"),
 		FIDE_MOVES_PHASE1("fide_n_moves"),
 		FIDE_MIN_PHASE1("fide_minutes1"),
@@ -85,6 +92,7 @@ public class TimerOptions extends PreferenceActivity
 	public enum TimeControl{FIDE, CUSTOM, DISABLED};
 	
 	SharedPreferences mSharedPreferences;
+	private PreferenceUpdater mUpdater;
 	private static final String TAG = "TimerOptionsActivity";
 	
     @Override
@@ -93,19 +101,24 @@ public class TimerOptions extends PreferenceActivity
         // Load the preferences from an XML resource
         addPreferencesFromResource(R.xml.preferences);
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        mUpdater = new PreferenceUpdater(new ScreenAccess());
     }
 
+    // the preferences the clock screen reloads without resetting the game
+    private static final List<Key> UI_KEYS = Arrays.asList(new Key[] {
+            Key.SHOW_MOVE_COUNTER,
+            Key.LOW_TIME_WARNINGS,
+            Key.SWAP_SIDES,
+            Key.SCREEN_DIM,
+            Key.PLAY_BELL,
+            Key.PLAY_CLICK,
+            Key.SHARED_FEED,
+            Key.HUNDREDTHS });
+
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, 
     		String key) {
-        
-        List<Key> uiKeys = Arrays.asList( new Key[] {
-                Key.SHOW_MOVE_COUNTER, 
-                Key.SWAP_SIDES, 
-                Key.SCREEN_DIM,
-                Key.PLAY_BELL,
-                Key.PLAY_CLICK});
-
-        if (uiKeys.contains(Key.fromString(key))){
+        Key changed = Key.fromString(key);
+        if (UI_KEYS.contains(changed)){
             setResult(RESULT_OK, 
                     getIntent().putExtra(TimerPref.LOAD_UI.toString(), true));
         }
@@ -113,197 +126,97 @@ public class TimerOptions extends PreferenceActivity
             setResult(RESULT_OK, 
                     getIntent().putExtra(TimerPref.LOAD_ALL.toString(), true));
         }
-        updateAll();
+        // only the preference and those that show its value
+        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(this);
+        mUpdater.changed(changed);
+        mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
     }    
 
-    private void updateAll(){
-        mSharedPreferences.unregisterOnSharedPreferenceChangeListener(this);        
-        doValidationAndInitialization();
-        doSummaryTextUpdates();
+    @Override
+    protected void onResume() {
+        super.onResume();
+        
+        mUpdater.refreshAll();
+
+        // Set up listener that will update summary text in response to preference changes            
         mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
     }
-    
-    
-	private void setAdvancedTimeControlPreferences() {
-		
-    	Key[] fideKeys = {
-    	        Key.FIDE_MIN_PHASE1, 
-    			Key.FIDE_MIN_PHASE2,
-    			Key.FIDE_MOVES_PHASE1,
-    			Key.ADV_DELAY_TYPE,
-    			Key.ADV_INCREMENT_SECONDS,
-    			Key.ADV_NEGATIVE_TIME,
-    			};
-    	
-    	TimeControl type = TimeControl.valueOf(mSharedPreferences.getString(
-    	        Key.TIMECONTROL_TYPE.toString(), "DISABLED"));
-    	boolean v1 = false, v2 = false;
-    	switch (type){
-    		case FIDE:
-    		    v1 =  setPreferenceEnabledUsingKey(new Key[]{Key.BASIC_SCREEN}, false);
-    		    v2 =  setPreferenceEnabledUsingKey(fideKeys, false);
-    			break;
-    		case CUSTOM:
-    			// allow user to set the values  
-    		    v1 = setPreferenceEnabledUsingKey(new Key[]{Key.BASIC_SCREEN}, false);
-    		    v2 = setPreferenceEnabledUsingKey(fideKeys, true);
-    			break;
-    		case DISABLED:
-    		    v1 = setPreferenceEnabledUsingKey(new Key[]{Key.BASIC_SCREEN}, true);
-    		    v2 = setPreferenceEnabledUsingKey(fideKeys, false);
-    			break;
-    	}
-    	
-    	setFideMovesPhase1SummaryText();
-    	setFirstScreenSummaryText();
-    	if (v1 || v2)
-    	    onContentChanged(); // must update screen if enabled/disabled status has changed
-    	    
-    }
-
-    private void setFideMovesPhase1SummaryText() {
-    	String keyMin = Key.FIDE_MIN_PHASE1.toString();
-    	String keyMoves = Key.FIDE_MOVES_PHASE1.toString();
 
-    	String s1 = getString(R.string.fide_minutes1_title_part1) + " " +
-			PreferenceManager.getDefaultSharedPreferences(this).getString(keyMoves, "N") + " " +
-			getString(R.string.fide_minutes1_title_part2);
+    /**
+     * The screen as PreferenceUpdater sees it. Each call looks the
+     * preference up.
+     */
+    private final class ScreenAccess implements PreferenceUpdater.Screen {
+        @Override
+        public String getValue(Key key) {
+            Preference p = findPreference(key.toString());
+            if (p instanceof EditTextPreference)
+                return ((EditTextPreference) p).getText();
+            return ((ListPreference) p).getValue();
+        }
 
-		EditTextPreference e = (EditTextPreference)findPreference(keyMin);		
-		e.setTitle(s1);
-	}
+        // Checks the value before making a change.
+        // This prevents stack overflow on API 7 devices
+        @Override
+        public boolean setValue(Key key, String value) {
+            Preference p = findPreference(key.toString());
+            if (p instanceof EditTextPreference) {
+                EditTextPreference e = (EditTextPreference) p;
+                if (e.getText().equals(value))
+                    return false;
+                e.setText(value);
+            } else {
+                ListPreference lp = (ListPreference) p;
+                if (lp.getValue().equals(value))
+                    return false;
+                lp.setValue(value);
+            }
+            return true;
+        }
 
-    private void setFirstScreenSummaryText(){
-    	Preference p = findPreference(Key.BASIC_SCREEN.toString());
-    	if (p.isEnabled())
-    		p.setSummary(getString(R.string.basic_screen_enabled_summary));
-    	else
-			p.setSummary(getString(R.string.basic_screen_disabled_summary));
+        @Override
+        public boolean setChecked(Key key, boolean checked) {
+            CheckBoxPreference cb = (CheckBoxPreference) findPreference(key.toString());
+            if (cb.isChecked() == checked)
+                return false;
+            cb.setChecked(checked);
+            return true;
+        }
 
-	    ListPreference lp = (ListPreference) findPreference(Key.TIMECONTROL_TYPE.toString());
-	    p = findPreference(Key.ADVANCED_SCREEN.toString());	    	
-    	p.setSummary(getString(R.string.advanced_screen_enabled_summary) + 
-    					" Currently " +  lp.getValue() + ".");
-    }
-	
-    private void setFidePreferences(){
-    	// These are the official FIDE tournament time control values
-    	int FIDE_PHASE1_MIN = 90;
-        int FIDE_PHASE2_MIN = 30;
-        int FIDE_PHASE1_MOVES = 40;
-        int FIDE_INCREMENT_SEC = 30;
-        String delayType = ChessTimerActivity.DelayType.FISCHER.name();
-        boolean allowNegativeTime = false;
-        
-        setEditTextValue(Key.FIDE_MIN_PHASE1, "" + FIDE_PHASE1_MIN);
-        setEditTextValue(Key.FIDE_MIN_PHASE2, "" + FIDE_PHASE2_MIN);
-        setEditTextValue(Key.FIDE_MOVES_PHASE1, "" + FIDE_PHASE1_MOVES);
-        setEditTextValue(Key.ADV_INCREMENT_SECONDS, "" + FIDE_INCREMENT_SEC);
-        setListPreferenceValue(Key.ADV_DELAY_TYPE, delayType);
-        setCheckBoxValue(Key.ADV_NEGATIVE_TIME, allowNegativeTime);
-    }
+        @Override
+        public void setSummary(Key key, String summary) {
+            findPreference(key.toString()).setSummary(summary);
+        }
 
-    // Helper functions that checks value before making a change.
-    // This prevents stack overflow on API 7 devices
-    private void setEditTextValue(Key key, String value){
-    	EditTextPreference e = (EditTextPreference)findPreference(key.toString());
-    	if ( !e.getText().equals(value) )
-    		e.setText(value);
-    }
+        @Override
+        public void setTitle(Key key, String title) {
+            findPreference(key.toString()).setTitle(title);
+        }
 
-    private void setListPreferenceValue(Key key, String value){
-    	ListPreference lp = (ListPreference)findPreference(key.toString());
-    	if ( ! lp.getValue().equals(value) )
-    		lp.setValue(value);
-    }
-    private void setCheckBoxValue(Key key, Boolean checked){
-    	CheckBoxPreference cb = (CheckBoxPreference)findPreference(key.toString());
-    	if ( !( cb.isChecked() == checked) )
-    		cb.setChecked(checked);
-    }
-    
-    private boolean setPreferenceEnabledUsingKey(Key[] keys, boolean value){
-    	boolean changedStatusOfAKey = false;
-        for (Key key : keys){
-    		Preference p = findPreference(key.toString());
-    		boolean originalValue = p.isEnabled(); 
-    		changedStatusOfAKey = changedStatusOfAKey || (originalValue != value);
-    		p.setEnabled(value);
-    		
-    	}
-        return changedStatusOfAKey;
-    }
-	/*
-	 * Make any necessary changes to preference values.
-	 * 
-	 * Ensure a value was entered for all EditText fields.
-	 * Set default FIDE preferences, if needed.
-	 */
-    private void doValidationAndInitialization(){
-        for (Key k : Key.values()){
-            Log.d(TAG, "Key: " + k.toString());
-            Preference p = findPreference(k.toString());
-            if (p instanceof EditTextPreference){
-                EditTextPreference pref = (EditTextPreference)p;
-                // handle case where user entered no text
-                if (pref.getText().trim().length() == 0){
-                    pref.setText("0");
-                    Log.d(TAG, "New value: " + pref.getText());
-                }
-                
-            }
+        @Override
+        public boolean isEnabled(Key key) {
+            return findPreference(key.toString()).isEnabled();
         }
-        
-        TimeControl type = TimeControl.valueOf(mSharedPreferences.getString(
-                Key.TIMECONTROL_TYPE.toString(), "DISABLED"));
-        switch (type){
-            case FIDE:
-                setFidePreferences();
+
+        @Override
+        public boolean setEnabled(Key key, boolean enabled) {
+            Preference p = findPreference(key.toString());
+            if (p.isEnabled() == enabled)
+                return false;
+            p.setEnabled(enabled);
+            return true;
         }
-    }
-    /*
-     * Make any necessary changes to summary text
-     * and enabled/disabled status of preference fields.
-    */
-    private void doSummaryTextUpdates(){
-        // Populate the preference text descriptions with helpful text
-        // that lets user know the current value of the various options.
-        setTimeControlSummaryText();
-        setAdvancedTimeControlPreferences();
-    }
-    
-    @Override
-    protected void onResume() {
-        super.onResume();
-        
-        updateAll();
 
-        // Set up listener that will update summary text in response to preference changes            
-        mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
-    }
+        @Override
+        public void contentChanged() {
+            onContentChanged();
+        }
 
-    private void setTimeControlSummaryText() {
-    	// Setup the initial values
-        for (Key k : Key.values()){
-        	Preference p = findPreference(k.toString());
-        	if (p instanceof EditTextPreference){
-        		EditTextPreference pref = (EditTextPreference)p;
-        		pref.setSummary("Current value is: " + pref.getText());
-        	}
-            if (k == Key.DELAY_TYPE || k == Key.ADV_DELAY_TYPE){
-            	ListPreference listPref = (ListPreference) p;
-            	String s =  getString(R.string.summary_delay_type_preference) +
-            	" Currently " + listPref.getValue() + ".";
-            	listPref.setSummary(s);
-            }
-            if (k == Key.TIMECONTROL_TYPE){
-	        	ListPreference listPref = (ListPreference) p;
-	        	String s =  getString(R.string.summary_advanced_time_preference_description) +
-	        	" Currently " + listPref.getValue() + ".";
-	        	listPref.setSummary(s);
-            }
+        @Override
+        public String getString(int id) {
+            return TimerOptions.this.getString(id);
         }
-	}
+    }
 
 	@Override
     protected void onPause() {
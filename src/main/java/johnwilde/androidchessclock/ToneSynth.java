@@ -0,0 +1,87 @@
+package johnwilde.androidchessclock;
+
+// Synthesizes the clock's sounds as 16 bit mono PCM.
+//
+// The click is a short, high, quickly damped tone; the bell is a sum of
+// inharmonic partials, each decaying at its own rate, the way a struck
+// bell sounds. Both rise over a few samples and are faded to silence at
+// the end, so starting or cutting them off does not pop.
+//
+// The sounds are made once at the output's native sample rate, so the
+// mixer can play them without resampling.
+final class ToneSynth {
+
+    static final int CLICK_MS = 12;
+    static final int BELL_MS = 1600;
+
+    // peak level, a little below full scale
+    static final double LEVEL = 0.8;
+
+    private static final double CLICK_HZ = 2400;
+    private static final double CLICK_DECAY_MS = 2.5;
+
+    private static final double BELL_HZ = 880;
+    // frequency ratio, amplitude and decay time (ms) of each partial
+    private static final double[] BELL_RATIOS = {0.5, 1.0, 1.19, 1.5, 2.0, 2.74};
+    private static final double[] BELL_AMPLITUDES = {0.35, 1.0, 0.5, 0.3, 0.25, 0.15};
+    private static final double[] BELL_DECAYS_MS = {900, 500, 300, 250, 160, 90};
+
+    private static final double ATTACK_MS = 1;
+    private static final double RELEASE_MS = 5;
+
+    private ToneSynth() {
+    }
+
+    static short[] click(int sampleRate) {
+        double[] wave = new double[samples(sampleRate, CLICK_MS)];
+        addPartial(wave, sampleRate, CLICK_HZ, 1.0, CLICK_DECAY_MS);
+        addPartial(wave, sampleRate, CLICK_HZ * 2.3, 0.4, CLICK_DECAY_MS / 2);
+        return toPcm(wave, sampleRate);
+    }
+
+    static short[] bell(int sampleRate) {
+        double[] wave = new double[samples(sampleRate, BELL_MS)];
+        for (int i = 0; i < BELL_RATIOS.length; i++) {
+            addPartial(wave, sampleRate, BELL_HZ * BELL_RATIOS[i],
+                    BELL_AMPLITUDES[i], BELL_DECAYS_MS[i]);
+        }
+        return toPcm(wave, sampleRate);
+    }
+
+    static int samples(int sampleRate, int ms) {
+        return (int) ((long) sampleRate * ms / 1000);
+    }
+
+    // Add an exponentially decaying sine to 'wave'
+    private static void addPartial(double[] wave, int sampleRate, double hz,
+            double amplitude, double decayMs) {
+        double phaseStep = 2 * Math.PI * hz / sampleRate;
+        double damping = Math.exp(-1000.0 / (decayMs * sampleRate));
+        double envelope = amplitude;
+        for (int i = 0; i < wave.length; i++) {
+            wave[i] += envelope * Math.sin(phaseStep * i);
+            envelope *= damping;
+        }
+    }
+
+    // Shape the ends, scale to LEVEL and quantize
+    private static short[] toPcm(double[] wave, int sampleRate) {
+        int attack = Math.max(1, (int) (ATTACK_MS * sampleRate / 1000));
+        int release = Math.max(1, (int) (RELEASE_MS * sampleRate / 1000));
+        double peak = 0;
+        for (int i = 0; i < wave.length; i++) {
+            if (i < attack)
+                wave[i] *= (double) i / attack;
+            int fromEnd = wave.length - 1 - i;
+            if (fromEnd < release)
+                wave[i] *= (double) fromEnd / release;
+            peak = Math.max(peak, Math.abs(wave[i]));
+        }
+        double scale = (peak > 0) ? LEVEL * Short.MAX_VALUE / peak : 0;
+        short[] pcm = new short[wave.length];
+        for (int i = 0; i < wave.length; i++) {
+            pcm[i] = (short) Math.round(wave[i] * scale);
+        }
+        return pcm;
+    }
+}
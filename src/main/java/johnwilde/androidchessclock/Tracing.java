@@ -0,0 +1,99 @@
+package johnwilde.androidchessclock;
+
+// Tracing of clock transitions and tick work.
+//
+// Code is instrumented with begin()/end() sections and events with
+// typed fields:
+//
+// Tracing.begin(Tracing.SECTION_SWITCH);
+// ...
+// Tracing.event(Tracing.EVENT_STATE, from.ordinal(), to.ordinal());
+// Tracing.end();
+//
+// The calls go to the installed Sink: AndroidTraceSink (android.os.Trace,
+// for systrace) on a device, RingBufferSink in JVM tests. With no sink
+// installed every call is a single null check, and with COMPILED_IN set
+// to false the compiler removes the calls entirely. Names must be
+// constants, so tracing never allocates.
+final class Tracing {
+
+    // set to false to compile tracing out of the app
+    static final boolean COMPILED_IN = true;
+
+    // Sections
+    static final String SECTION_CREATE = "onCreate";
+    static final String SECTION_TRANSITION = "transitionTo";
+    static final String SECTION_SWITCH = "switchMove";
+    static final String SECTION_DEADLINES = "pollDeadlines";
+    static final String SECTION_TICK = "tick";
+    static final String SECTION_VALIDATE_PREFERENCES = "validatePreferences";
+    static final String SECTION_PLAY_SOUND = "playSound";
+
+    // Events and their fields
+    static final String EVENT_STATE = "state"; // from ordinal, to ordinal
+    static final String EVENT_SWITCH = "switch"; // player, ms to go
+    static final String EVENT_WAKE_LOCK = "wakeLock"; // held (0/1), type
+    static final String EVENT_REATTACH = "reattach"; // ns
+    static final String EVENT_PREFERENCE_FIXED = "preferenceFixed"; // key ordinal
+    static final String EVENT_SOUND_STARTED = "soundStarted"; // voice, us since tap
+    static final String EVENT_SOUND_LATENCY = "soundLatency"; // voice, us tap to output
+    static final String EVENT_ADJUST_OPENED = "adjustOpened"; // ms since tap
+    static final String EVENT_ADJUST_CLOSED = "adjustClosed"; // ms since tap
+    static final String EVENT_BITMAP_DECODED = "bitmapDecoded"; // bytes, bytes at resource density
+    static final String EVENT_FRAMES = "frames"; // frames ticked, frames dropped
+    static final String EVENT_PRESET_APPLIED = "presetApplied"; // us on the UI thread
+
+    interface Sink {
+        void begin(String section);
+
+        void end();
+
+        void event(String name, long value1, long value2);
+    }
+
+    private static Sink sSink;
+
+    private Tracing() {
+    }
+
+    // Install a sink, or null to turn tracing off
+    static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    static boolean isEnabled() {
+        return COMPILED_IN && sSink != null;
+    }
+
+    static void begin(String section) {
+        if (COMPILED_IN) {
+            Sink sink = sSink;
+            if (sink != null)
+                sink.begin(section);
+        }
+    }
+
+    static void end() {
+        if (COMPILED_IN) {
+            Sink sink = sSink;
+            if (sink != null)
+                sink.end();
+        }
+    }
+
+    static void event(String name, long value) {
+        if (COMPILED_IN) {
+            Sink sink = sSink;
+            if (sink != null)
+                sink.event(name, value, 0);
+        }
+    }
+
+    static void event(String name, long value1, long value2) {
+        if (COMPILED_IN) {
+            Sink sink = sSink;
+            if (sink != null)
+                sink.event(name, value1, value2);
+        }
+    }
+}
@@ -1,19 +1,34 @@
 package johnwilde.androidchessclock;
 
-import java.text.DecimalFormat;
-
  class Utils {
+    // Longest text formatTime() can produce, with room for the overtime
+    // count the clock shows after it
+    static final int MAX_TIME_CHARS = 32;
+
     public static String formatTime(long millisIn) {
-        // formatters for displaying text in timer
-        DecimalFormat dfOneDecimal = new DecimalFormat("0.0");
-        DecimalFormat dfOneDigit = new DecimalFormat("0");
-        DecimalFormat dfTwoDigit = new DecimalFormat("00");
-   
+        char[] text = new char[MAX_TIME_CHARS];
+        return new String(text, 0, formatTime(millisIn, text));
+    }
+
+    // Write the clock text for millisIn into 'out' and return its
+    // length. Nothing is allocated, so the running clock can call this on
+    // every update.
+    public static int formatTime(long millisIn, char[] out) {
+        return formatTime(millisIn, out, 0);
+    }
+
+    // The same, written at 'pos'. Returns the position after the text.
+    static int formatTime(long millisIn, char[] out, int pos) {
+        return formatTime(millisIn, out, pos, false);
+    }
+
+    // With 'hundredths', a clock between 0 and 10 seconds reads "N.NN"
+    // instead of "N.N".
+    static int formatTime(long millisIn, char[] out, int pos, boolean hundredths) {
         // 1000 ms in 1 second
         // 60*1000 ms in 1 minute
         // 60*60*1000 ms in 1 hour
 
-        String stringSec, stringMin, stringHr;
         long millis = Math.abs(millisIn);
 
         // Parse the input (in ms) into integer hour, minute, and second
@@ -27,22 +42,23 @@ import java.text.DecimalFormat;
         long sec = millis / 1000;
         millis -= sec * 1000;
 
-        // Construct string
-        if (hours > 0)
-            stringHr = dfOneDigit.format(hours) + ":";
-        else
-            stringHr = "";
+        int n = pos;
 
-        if (hours > 0)
-            stringMin = dfTwoDigit.format(min) + ":";
-        else if (min > 0)
-            stringMin = dfOneDigit.format(min) + ":";
-        else
-            stringMin = "";
+        // clock is <= -1 second, prepend a minus sign
+        if (millisIn <= -1000)
+            out[n++] = '-';
 
-        stringSec = dfTwoDigit.format(sec);
+        if (hours > 0) {
+            n = appendNumber(out, n, hours, 1);
+            out[n++] = ':';
+            n = appendNumber(out, n, min, 2);
+            out[n++] = ':';
+        } else if (min > 0) {
+            n = appendNumber(out, n, min, 1);
+            out[n++] = ':';
+        }
 
-        if (hours == 0 && min == 0) {
+        if (hours == 0 && min == 0 && sec < 10) {
             // Desired behavior:
             //
             // for 0 <= millisIn < 10000 (between 0 and 10 seconds)
@@ -51,22 +67,58 @@ import java.text.DecimalFormat;
             // clock should read "0"
             // for millisIn < -999 (all time less than -1 seconds)
             // clock should read like : "-N"
-
-            // modify formatting when less than 10 seconds
-            if (sec < 10 && millisIn >= 0) // between 0 and 9 seconds
-                stringSec = dfOneDecimal.format((double) sec
-                        + (double) millis / 1000.0);
-            else if (sec < 10 && millisIn < 0) // between -1 and -9
-                stringSec = dfOneDigit.format((double) sec
-                        + (double) millis / 1000.0);
+            //
+            // Digits are truncated, so the clock never shows more time
+            // than is left.
+            out[n++] = (char) ('0' + sec);
+            if (millisIn >= 0) {
+                out[n++] = '.';
+                out[n++] = (char) ('0' + millis / 100);
+                if (hundredths)
+                    out[n++] = (char) ('0' + millis / 10 % 10);
+            }
+        } else {
+            n = appendNumber(out, n, sec, 2);
         }
+        return n;
+    }
 
-        // clock is <= -1 second, prepend a minus sign
-        if (millisIn <= -1000) {
-            return "-" + stringHr + stringMin + stringSec;
+    // How long until formatTime() shows something else for a clock that
+    // reads 'millis' and counts down (or up, in hourglass). Each formatted
+    // value covers a range of times, so a clock only has to be redrawn
+    // when it leaves that range.
+    static long msUntilTextChanges(long millis, boolean countingUp) {
+        if (!countingUp) {
+            if (millis >= 10000)
+                return millis % 1000 + 1;
+            if (millis >= 0)
+                return millis % 100 + 1;
+            // "0" until -1000, then "-N" until -(N + 1) * 1000
+            return millis + ((-millis) / 1000 + 1) * 1000;
         }
+        if (millis >= 10000)
+            return 1000 - millis % 1000;
+        if (millis >= 0)
+            return 100 - millis % 100;
+        if (millis > -1000)
+            return -millis;
+        // "-N" down to -N * 1000 + 1, where it becomes "-(N - 1)" or "0"
+        return ((-millis) / 1000) * -1000 + 1 - millis;
+    }
 
-        return stringHr + stringMin + stringSec;
-
+    // Write the decimal digits of a non-negative value at 'pos', padded
+    // with zeros to minDigits. Returns the position after the last digit.
+    static int appendNumber(char[] out, int pos, long value, int minDigits) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
     }
 }
@@ -0,0 +1,87 @@
+package johnwilde.androidchessclock;
+
+// Ticks on a virtual clock, for tests: nothing runs until the test
+// advances the clock, and then the due tasks run in time order on the
+// test's thread, each seeing nanoTime() at exactly its due time.
+final class VirtualTickScheduler implements TickScheduler {
+
+    private long mNowNanos;
+    private Runnable[] mTasks = new Runnable[4];
+    private long[] mDueNanos = new long[4];
+    private int mCount;
+
+    VirtualTickScheduler(long startNanos) {
+        mNowNanos = startNanos;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        cancel(task);
+        if (mCount == mTasks.length) {
+            Runnable[] tasks = new Runnable[mCount * 2];
+            long[] due = new long[mCount * 2];
+            System.arraycopy(mTasks, 0, tasks, 0, mCount);
+            System.arraycopy(mDueNanos, 0, due, 0, mCount);
+            mTasks = tasks;
+            mDueNanos = due;
+        }
+        mTasks[mCount] = task;
+        mDueNanos[mCount] = mNowNanos + Math.max(delayMs, 0) * 1000000L;
+        mCount++;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (int i = 0; i < mCount; i++) {
+            if (mTasks[i] == task) {
+                remove(i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNowNanos;
+    }
+
+    @Override
+    public int wakeupsPerTick() {
+        return 1;
+    }
+
+    @Override
+    public void release() {
+        mCount = 0;
+    }
+
+    boolean isIdle() {
+        return mCount == 0;
+    }
+
+    // Move the clock forward by 'ms', running what falls due on the way
+    void advance(long ms) {
+        long until = mNowNanos + ms * 1000000L;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < mCount; i++) {
+                if (mDueNanos[i] <= until && (next < 0 || mDueNanos[i] < mDueNanos[next]))
+                    next = i;
+            }
+            if (next < 0)
+                break;
+            Runnable task = mTasks[next];
+            mNowNanos = mDueNanos[next];
+            remove(next);
+            task.run();
+        }
+        mNowNanos = until;
+    }
+
+    private void remove(int i) {
+        mCount--;
+        mTasks[i] = mTasks[mCount];
+        mDueNanos[i] = mDueNanos[mCount];
+        mTasks[mCount] = null;
+    }
+}
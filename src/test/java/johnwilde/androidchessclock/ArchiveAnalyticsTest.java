@@ -0,0 +1,105 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * JVM tests for the parallel, cached archive statistics.
+ */
+public class ArchiveAnalyticsTest extends TestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("analytics", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GameArchiveTest.deleteRecursively(mDirectory);
+    }
+
+    public void testIncrementalMatchesFullScan() throws IOException {
+        GameArchive archive = new GameArchive(mDirectory);
+        Random random = new Random(7);
+        // enough moves to span several segments
+        appendGames(archive, random, 12000);
+
+        ArchiveAnalytics incremental = new ArchiveAnalytics(mDirectory, 4);
+        incremental.compute(archive.readIndex());
+        appendGames(archive, random, 3000);
+        GameIndex index = archive.readIndex();
+        TimeUsageStats updated = incremental.compute(index);
+
+        ArchiveAnalytics single = new ArchiveAnalytics(mDirectory, 1);
+        TimeUsageStats full = single.compute(index);
+
+        assertTrue(archive.segmentCount() > 1);
+        assertEquals(15000, updated.mGames);
+        assertStatsEqual(full, updated);
+        incremental.shutdown();
+        single.shutdown();
+        archive.close();
+    }
+
+    public void testCounts() throws IOException {
+        GameArchive archive = new GameArchive(mDirectory);
+        ArchivedGame game = new ArchivedGame();
+        game.mInitialSeconds = 100;
+        game.mIncrementSeconds = 0;
+        game.mResult = ArchivedGame.RESULT_FLAG + 1;
+        game.addMove(2000, 98000); // white
+        game.addMove(95000, 5000); // black, in time trouble
+        game.addMove(4000, 94000);
+        archive.append(game);
+
+        ArchiveAnalytics analytics = new ArchiveAnalytics(mDirectory, 2);
+        TimeUsageStats stats = analytics.compute(archive.readIndex());
+        assertEquals(1, stats.mGames);
+        assertEquals((2000 + 95000 + 4000) / 3,
+                stats.averageMoveMs(TimeUsageStats.PHASE_OPENING));
+        assertEquals(0, stats.timeTroublePercent(ChessTimerActivity.WHITE));
+        assertEquals(100, stats.timeTroublePercent(ChessTimerActivity.BLACK));
+        assertEquals(100, stats.flagRatePercent(0, 0));
+        assertEquals(98, stats.remainingPercentile(1, 100));
+        assertEquals(4, stats.remainingPercentile(1, 50));
+        analytics.shutdown();
+        archive.close();
+    }
+
+    private static void appendGames(GameArchive archive, Random random,
+            int games) throws IOException {
+        for (int i = 0; i < games; i++) {
+            ArchivedGame game = GameArchiveTest.syntheticGame(random,
+                    40 + random.nextInt(120), i);
+            game.mIncrementSeconds = random.nextInt(40);
+            game.mDelayType = (byte) random.nextInt(2);
+            game.mResult = (byte) random.nextInt(3);
+            archive.append(game);
+        }
+    }
+
+    private static void assertStatsEqual(TimeUsageStats a, TimeUsageStats b) {
+        assertEquals(a.mGames, b.mGames);
+        for (int i = 0; i < TimeUsageStats.PHASES; i++) {
+            assertEquals(a.mPhaseMs[i], b.mPhaseMs[i]);
+            assertEquals(a.mPhaseMoves[i], b.mPhaseMoves[i]);
+        }
+        for (int i = 0; i < TimeUsageStats.MAX_PLAYERS; i++) {
+            assertEquals(a.mPlayerGames[i], b.mPlayerGames[i]);
+            assertEquals(a.mTimeTroubleGames[i], b.mTimeTroubleGames[i]);
+        }
+        for (int i = 0; i < a.mControlGames.length; i++) {
+            assertEquals(a.mControlGames[i], b.mControlGames[i]);
+            assertEquals(a.mControlFlags[i], b.mControlFlags[i]);
+        }
+        for (int i = 0; i < a.mCurve.length; i++) {
+            assertEquals(a.mCurve[i], b.mCurve[i]);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * JVM tests for the compressed archive bundles: export, merge and
+ * de-duplication, corrupt bundles, and a 100k game benchmark (run only
+ * with -Pbenchmarks).
+ */
+public class ArchiveBundleTest extends TestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("bundle", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GameArchiveTest.deleteRecursively(mDirectory);
+    }
+
+    public void testRoundTrip() throws IOException {
+        GameArchive source = archive("source");
+        Random random = new Random(1);
+        ArchivedGame[] games = new ArchivedGame[300];
+        for (int i = 0; i < games.length; i++) {
+            // the long games make blocks of their own
+            games[i] = GameArchiveTest.syntheticGame(random,
+                    (i % 100 == 0) ? 20000 : 10 + random.nextInt(90), 1000L * i);
+            games[i].mResult = (byte) (i % 3);
+            source.append(games[i]);
+        }
+        byte[] bundle = export(source);
+
+        GameArchive target = archive("target");
+        ArchiveBundle.Result result = importInto(target, bundle);
+        assertEquals(games.length, result.imported);
+        assertEquals(0, result.duplicates);
+        GameIndex index = target.readIndex();
+        assertEquals(games.length, index.size());
+        for (int i = 0; i < games.length; i++) {
+            GameArchiveTest.assertGamesEqual(games[i], target.load(index, i));
+        }
+        source.close();
+        target.close();
+    }
+
+    public void testMergeSkipsGamesAlreadyThere() throws IOException {
+        Random random = new Random(2);
+        GameArchive first = archive("first");
+        GameArchive second = archive("second");
+        for (int i = 0; i < 50; i++) {
+            ArchivedGame game = GameArchiveTest.syntheticGame(random, 20, 1000L * i);
+            first.append(game);
+            // the second device has every other game of the first too
+            if (i % 2 == 0)
+                second.append(game);
+        }
+        second.append(GameArchiveTest.syntheticGame(random, 20, 0));
+
+        GameArchive merged = archive("merged");
+        ArchiveBundle.Result result = importInto(merged, export(first));
+        assertEquals(50, result.imported);
+        result = importInto(merged, export(second));
+        assertEquals(1, result.imported);
+        assertEquals(25, result.duplicates);
+        // merging a bundle again adds nothing
+        result = importInto(merged, export(first));
+        assertEquals(0, result.imported);
+        assertEquals(50, result.duplicates);
+        assertEquals(51, merged.readIndex().size());
+        first.close();
+        second.close();
+        merged.close();
+    }
+
+    public void testCorruptBundleIsRejected() throws IOException {
+        GameArchive source = archive("source");
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            source.append(GameArchiveTest.syntheticGame(random, 40, i));
+        }
+        byte[] bundle = export(source);
+        source.close();
+
+        byte[] corrupt = bundle.clone();
+        corrupt[corrupt.length / 2] ^= 0x10;
+        assertImportFails(corrupt);
+
+        byte[] truncated = new byte[bundle.length - 100];
+        System.arraycopy(bundle, 0, truncated, 0, truncated.length);
+        assertImportFails(truncated);
+
+        assertImportFails(new byte[] { 1, 2, 3 });
+    }
+
+    public void testSearchAfterMerge() throws IOException {
+        GameArchive archive = archive("archive");
+        Random random = new Random(4);
+        for (int i = 0; i < 10; i++) {
+            archive.append(GameArchiveTest.syntheticGame(random, 5, 100000L + i));
+        }
+        // imported games played before those of this device
+        for (int i = 0; i < 10; i++) {
+            archive.append(GameArchiveTest.syntheticGame(random, 5, i));
+        }
+        GameIndex index = archive.readIndex();
+        assertEquals(10, index.find(0, 100000L, -1, -1, -1).length);
+        assertEquals(10, index.find(100000L, Long.MAX_VALUE, -1, -1, -1).length);
+        assertEquals(20, index.find(0, Long.MAX_VALUE, -1, -1, -1).length);
+        archive.close();
+    }
+
+    public void testTwoInstancesAppend() throws IOException {
+        // the clock saving games while the history screen imports
+        GameArchive clock = archive("shared");
+        GameArchive history = archive("shared");
+        Random random = new Random(5);
+        ArchivedGame[] games = new ArchivedGame[6];
+        for (int i = 0; i < games.length; i++) {
+            games[i] = GameArchiveTest.syntheticGame(random, 10, i);
+            ((i % 2 == 0) ? clock : history).append(games[i]);
+        }
+        GameIndex index = clock.readIndex();
+        assertEquals(games.length, index.size());
+        for (int i = 0; i < games.length; i++) {
+            GameArchiveTest.assertGamesEqual(games[i], clock.load(index, i));
+        }
+        clock.close();
+        history.close();
+    }
+
+    // Only with -Pbenchmarks (see Benchmarks)
+    public void testBenchmark100kGames() throws IOException {
+        if (!Benchmarks.enabled())
+            return;
+        final int games = 100000;
+        Random random = new Random(6);
+        ArchivedGame[] samples = new ArchivedGame[64];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = GameArchiveTest.syntheticGame(random, 20 + random.nextInt(80), 0);
+        }
+        GameArchive source = archive("source");
+        for (int i = 0; i < games; i++) {
+            ArchivedGame game = samples[i % samples.length];
+            game.mId = random.nextLong();
+            game.mStartTime = i * 60000L;
+            source.append(game);
+        }
+        long archiveBytes = 0;
+        for (int segment = 0; segment < source.segmentCount(); segment++) {
+            archiveBytes += source.segmentFile(segment).length();
+        }
+
+        File file = new File(mDirectory, "games" + ArchiveBundle.EXTENSION);
+        long t0 = System.nanoTime();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+            assertEquals(games, ArchiveBundle.export(source, source.readIndex(), out));
+        } finally {
+            out.close();
+        }
+        long t1 = System.nanoTime();
+        source.close();
+
+        GameArchive target = archive("target");
+        long t2 = System.nanoTime();
+        ArchiveBundle.Result result = importFile(target, file);
+        long t3 = System.nanoTime();
+        assertEquals(games, result.imported);
+        // the second pass only looks the ids up
+        result = importFile(target, file);
+        long t4 = System.nanoTime();
+        assertEquals(games, result.duplicates);
+        assertEquals(games, target.readIndex().size());
+        target.close();
+
+        Benchmarks.report(String.format(
+                "bundle: %d games, %.1f MB archive to %.1f MB, export %.1f us/game, "
+                        + "import %.1f us/game, re-import %.1f us/game",
+                games, archiveBytes / 1e6, file.length() / 1e6,
+                (t1 - t0) / 1000.0 / games, (t3 - t2) / 1000.0 / games,
+                (t4 - t3) / 1000.0 / games));
+    }
+
+    private GameArchive archive(String name) throws IOException {
+        return new GameArchive(new File(mDirectory, name));
+    }
+
+    private static byte[] export(GameArchive archive) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArchiveBundle.export(archive, archive.readIndex(), out);
+        return out.toByteArray();
+    }
+
+    private static ArchiveBundle.Result importInto(GameArchive archive, byte[] bundle)
+            throws IOException {
+        return ArchiveBundle.importInto(archive, new ByteArrayInputStream(bundle));
+    }
+
+    private static ArchiveBundle.Result importFile(GameArchive archive, File file)
+            throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            return ArchiveBundle.importInto(archive, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertImportFails(byte[] bundle) throws IOException {
+        GameArchive target = archive("target" + bundle.length);
+        try {
+            importInto(target, bundle);
+            fail("imported a bad bundle");
+        } catch (IOException expected) {
+            // the blocks before the bad one may be imported
+        } finally {
+            target.close();
+        }
+    }
+}
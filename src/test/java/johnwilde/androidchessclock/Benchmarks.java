@@ -0,0 +1,20 @@
+package johnwilde.androidchessclock;
+
+// The benchmarks among the JVM tests run only when asked for, with
+// "gradlew test -Pbenchmarks" (the benchmarks system property); the
+// normal test run stays small and prints nothing.
+final class Benchmarks {
+
+    static final String PROPERTY = "benchmarks";
+
+    private Benchmarks() {
+    }
+
+    static boolean enabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    static void report(String line) {
+        System.out.println(line);
+    }
+}
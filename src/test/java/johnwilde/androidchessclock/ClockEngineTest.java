@@ -0,0 +1,359 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.GameState;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+
+/**
+ * JVM tests for the clock engine, driven with explicit times.
+ */
+public class ClockEngineTest extends TestCase {
+
+    private static final int WHITE = 0;
+    private static final int BLACK = 1;
+
+    private final List<String> mEvents = new ArrayList<String>();
+    private final List<ArchivedGame> mGames = new ArrayList<ArchivedGame>();
+    private long mNextDeadline = DeadlineScheduler.NONE;
+
+    private ClockEngine newEngine(DelayType delay, int initialSeconds, int increment) {
+        ClockEngine engine = new ClockEngine();
+        engine.mDelayType = delay;
+        engine.mInitialDurationSeconds = initialSeconds;
+        engine.mIncrementSeconds = increment;
+        engine.setListener(new ClockEngine.Listener() {
+            @Override
+            public void onFlag(int player) {
+                mEvents.add("flag " + player);
+            }
+
+            @Override
+            public void onDelayExpired(int player) {
+                mEvents.add("delay " + player);
+            }
+
+            @Override
+            public void onLowTimeWarning(int player) {
+                mEvents.add("warning " + player);
+            }
+
+            @Override
+            public void onDeadlinesChanged(long nextDeadline) {
+                mNextDeadline = nextDeadline;
+            }
+
+            @Override
+            public void onGameFinished(ArchivedGame game) {
+                mGames.add(game);
+            }
+        });
+        engine.reset();
+        return engine;
+    }
+
+    public void testFischerIncrement() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 2);
+        assertEquals(62000, engine.getMsToGo(WHITE, 0));
+
+        engine.start(WHITE, 1000);
+        assertEquals(59000, engine.getMsToGo(WHITE, 4000));
+        assertTrue(engine.switchMove(WHITE, 4000));
+        assertEquals(61000, engine.getMsToGo(WHITE, 5000));
+        assertEquals(2, engine.getMoveNumber(WHITE));
+        assertEquals(BLACK, engine.getActive());
+        assertFalse(engine.switchMove(WHITE, 5000));
+        assertEquals(57000, engine.getMsToGo(BLACK, 9000));
+    }
+
+    public void testCommandsReportWhetherTheyChangedTheState() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 0);
+        assertFalse(engine.pause(0));
+        assertFalse(engine.resume(0));
+        assertTrue(engine.start(WHITE, 0));
+        // a second start, as from two taps on a stale snapshot
+        assertFalse(engine.start(BLACK, 100));
+        assertEquals(WHITE, engine.getActive());
+        assertFalse(engine.resume(200));
+        assertTrue(engine.pause(300));
+        assertFalse(engine.pause(400));
+        assertTrue(engine.resume(500));
+        assertEquals(GameState.RUNNING, engine.getState());
+    }
+
+    public void testBronsteinDelayIsNotCharged() {
+        ClockEngine engine = newEngine(DelayType.BRONSTEIN, 60, 5);
+        assertEquals(60000, engine.getMsToGo(WHITE, 0));
+
+        engine.start(WHITE, 0);
+        assertEquals(5000, mNextDeadline);
+        assertEquals(60000, engine.getMsToGo(WHITE, 3000));
+        assertEquals(2000, engine.getMsDelayToGo(WHITE, 3000));
+
+        // pausing keeps what is left of the delay
+        engine.pause(3000);
+        engine.resume(10000);
+        assertEquals(60000, engine.getMsToGo(WHITE, 12000));
+        engine.pollDeadlines(12000);
+        assertEquals(Arrays.asList("delay 0"), mEvents);
+        assertEquals(59000, engine.getMsToGo(WHITE, 13000));
+
+        engine.switchMove(WHITE, 13000);
+        assertEquals(5000, engine.getMsDelayToGo(WHITE, 13000));
+        assertEquals(59000, engine.getMsToGo(WHITE, 20000));
+    }
+
+    public void testTournamentSecondPhase() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 600, 0);
+        engine.mTimeControlType = TimeControlType.TOURNAMENT;
+        engine.mPhase1NumberMoves = 2;
+        engine.mPhase2Minutes = 5;
+        engine.reset();
+
+        long now = 0;
+        engine.start(WHITE, now);
+        for (int i = 0; i < 4; i++) {
+            now += 1000;
+            engine.switchMove(engine.getActive(), now);
+        }
+        assertEquals(3, engine.getMoveNumber(WHITE));
+        assertEquals(600000 - 2000 + 300000, engine.getMsToGo(WHITE, now));
+    }
+
+    public void testSettingsChangedMidGameWaitForReset() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 600, 2);
+        engine.mTimeControlType = TimeControlType.TOURNAMENT;
+        engine.mPhase1NumberMoves = 1;
+        engine.mPhase2Minutes = 5;
+        engine.reset();
+
+        engine.start(WHITE, 0);
+        engine.mDelayType = DelayType.BRONSTEIN;
+        engine.mIncrementSeconds = 30;
+        engine.mTimeControlType = TimeControlType.BASIC;
+        engine.mPhase2Minutes = 50;
+        engine.switchMove(WHITE, 1000);
+        assertEquals(602000 - 1000 + 2000 + 300000, engine.getMsToGo(WHITE, 1000));
+    }
+
+    public void testGameRecordDescribesTheTimeControlPlayed() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 600, 2);
+        engine.mTimeControlType = TimeControlType.TOURNAMENT;
+        engine.mPhase1NumberMoves = 40;
+        engine.mPhase2Minutes = 30;
+        engine.reset();
+
+        // changed after reset(): for the next game only
+        engine.mInitialDurationSeconds = 60;
+        engine.mIncrementSeconds = 5;
+        engine.mDelayType = DelayType.BRONSTEIN;
+        engine.mTimeControlType = TimeControlType.BASIC;
+        engine.mPhase1NumberMoves = 10;
+        engine.mPhase2Minutes = 1;
+        engine.start(WHITE, 0);
+        engine.switchMove(WHITE, 1000);
+        engine.reset();
+
+        assertEquals(1, mGames.size());
+        ArchivedGame game = mGames.get(0);
+        assertEquals(600, game.mInitialSeconds);
+        assertEquals(2, game.mIncrementSeconds);
+        assertEquals(ArchivedGame.DELAY_FISCHER, game.mDelayType);
+        assertEquals(ArchivedGame.CONTROL_TOURNAMENT, game.mControlType);
+        assertEquals(40, game.mPhase1Moves);
+        assertEquals(30, game.mPhase2Minutes);
+        assertEquals(602000 - 1000 + 2000, game.mRemainingMs[0]);
+    }
+
+    public void testFlagFallEndsGameAndRecordsIt() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 10, 0);
+        engine.mLowTimeWarningsMs = new long[] { 5000 };
+        engine.start(WHITE, 0);
+        engine.switchMove(WHITE, 2000);
+        assertEquals(2000 + 5000, mNextDeadline); // black's warning
+        engine.pollDeadlines(7000);
+        assertEquals(Arrays.asList("warning 1"), mEvents);
+        assertEquals(12000, mNextDeadline);
+
+        engine.pollDeadlines(12050);
+        assertEquals(Arrays.asList("warning 1", "flag 1"), mEvents);
+        assertEquals(GameState.DONE, engine.getState());
+        assertEquals(BLACK, engine.getActive());
+        assertEquals(0, engine.getMsToGo(BLACK, 20000));
+        assertEquals(DeadlineScheduler.NONE, mNextDeadline);
+
+        assertEquals(1, mGames.size());
+        ArchivedGame game = mGames.get(0);
+        assertEquals(BLACK, game.flaggedPlayer());
+        assertEquals(1, game.mMoveCount);
+        assertEquals(2000, game.mMoveMs[0]);
+        assertEquals(8000, game.mRemainingMs[0]);
+    }
+
+    public void testNegativeTimeKeepsRunning() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 1, 0);
+        engine.mAllowNegativeTime = true;
+        engine.start(WHITE, 0);
+        engine.pollDeadlines(1000);
+        assertEquals(Arrays.asList("flag 0"), mEvents);
+        assertEquals(GameState.RUNNING, engine.getState());
+        assertEquals(-2000, engine.getMsToGo(WHITE, 3000));
+    }
+
+    public void testUndoRestoresExactStateBeforeTap() {
+        ClockEngine engine = newEngine(DelayType.BRONSTEIN, 300, 3);
+        long[] before = new long[engine.snapshotSize()];
+        long[] after = new long[engine.snapshotSize()];
+        long[] restored = new long[engine.snapshotSize()];
+
+        engine.start(WHITE, 0);
+        engine.switchMove(WHITE, 4321);
+        engine.switchMove(BLACK, 6000);
+        engine.pause(7500);
+        engine.resume(9000);
+        engine.save(before, 9100);
+
+        // mistaken tap, noticed 2 seconds later
+        engine.switchMove(WHITE, 9100);
+        engine.save(after, 9100);
+        assertTrue(engine.undo(11100));
+        engine.save(restored, 11100);
+        assertTrue(Arrays.equals(before, restored));
+        assertEquals(WHITE, engine.getActive());
+        assertEquals(GameState.RUNNING, engine.getState());
+
+        assertTrue(engine.redo(12000));
+        engine.save(restored, 12000);
+        assertTrue(Arrays.equals(after, restored));
+        assertFalse(engine.redo(12000));
+
+        // the recorded game follows undo and redo
+        engine.undo(12000);
+        engine.undo(12000);
+        engine.reset();
+        assertEquals(1, mGames.get(0).mMoveCount);
+    }
+
+    public void testRestoreAfterProcessDeath() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 0);
+        long[] saved = new long[engine.snapshotSize()];
+        engine.start(WHITE, 0);
+        engine.switchMove(WHITE, 1000);
+        engine.save(saved, 3000);
+
+        ClockEngine restored = newEngine(DelayType.FISCHER, 60, 0);
+        restored.restore(GameState.RUNNING, saved);
+        assertEquals(GameState.PAUSED, restored.getState());
+        assertEquals(BLACK, restored.getActive());
+        assertEquals(58000, restored.getMsToGo(BLACK, 100000));
+        assertEquals(59000, restored.getMsToGo(WHITE, 100000));
+    }
+
+    public void testByoYomiPeriods() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 10, 0);
+        engine.mOvertimeType = OvertimeType.BYO_YOMI;
+        engine.mOvertimePeriods = 2;
+        engine.mOvertimeSeconds = 5;
+        engine.reset();
+
+        engine.start(WHITE, 0);
+        engine.pollDeadlines(10000);
+        assertTrue(engine.isInOvertime(WHITE));
+        assertEquals(2, engine.getPeriodsLeft(WHITE));
+        assertEquals(2000, engine.getMsToGo(WHITE, 13000));
+
+        // a move within the period: the next move has a full period
+        engine.switchMove(WHITE, 13000);
+        assertEquals(5000, engine.getMsToGo(WHITE, 13000));
+        engine.switchMove(BLACK, 14000);
+
+        // the first period runs out, then the last one
+        engine.pollDeadlines(19000);
+        assertEquals(1, engine.getPeriodsLeft(WHITE));
+        assertEquals(GameState.RUNNING, engine.getState());
+        assertEquals(24000, mNextDeadline);
+        engine.pollDeadlines(24000);
+        assertEquals(Arrays.asList("flag 0"), mEvents);
+        assertEquals(GameState.DONE, engine.getState());
+    }
+
+    public void testCanadianBlock() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 0, 0);
+        engine.mOvertimeType = OvertimeType.CANADIAN;
+        engine.mOvertimePeriods = 2;
+        engine.mOvertimeSeconds = 60;
+        engine.reset();
+        // no main time: the game starts in overtime
+        assertTrue(engine.isInOvertime(WHITE));
+        assertEquals(60000, engine.getMsToGo(WHITE, 0));
+
+        engine.start(WHITE, 0);
+        engine.switchMove(WHITE, 10000);
+        assertEquals(50000, engine.getMsToGo(WHITE, 10000));
+        assertEquals(1, engine.getPeriodsLeft(WHITE));
+        engine.switchMove(BLACK, 11000);
+        // the second move of the block starts a new block
+        engine.switchMove(WHITE, 31000);
+        assertEquals(60000, engine.getMsToGo(WHITE, 31000));
+        assertEquals(2, engine.getPeriodsLeft(WHITE));
+
+        engine.pollDeadlines(31000 + 59000);
+        assertEquals(Arrays.asList("flag 1"), mEvents);
+    }
+
+    public void testHourglassMovesTimeToOpponent() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 0);
+        engine.mOvertimeType = OvertimeType.HOURGLASS;
+        engine.reset();
+
+        engine.start(WHITE, 0);
+        assertTrue(engine.isChanging(BLACK));
+        assertEquals(57000, engine.getMsToGo(WHITE, 3000));
+        assertEquals(63000, engine.getMsToGo(BLACK, 3000));
+        engine.switchMove(WHITE, 3000);
+        engine.switchMove(BLACK, 4000);
+        assertEquals(58000, engine.getMsToGo(WHITE, 4000));
+        assertEquals(62000, engine.getMsToGo(BLACK, 4000));
+    }
+
+    public void testHourglassAdjustingTheFillingClock() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 0);
+        engine.mOvertimeType = OvertimeType.HOURGLASS;
+        engine.reset();
+
+        engine.start(WHITE, 0);
+        // black's clock filled by 5 s before the adjustment, which replaces it
+        engine.setMsToGo(BLACK, 30000, 5000);
+        assertEquals(30000, engine.getMsToGo(BLACK, 5000));
+        assertEquals(32000, engine.getMsToGo(BLACK, 7000));
+        assertEquals(53000, engine.getMsToGo(WHITE, 7000));
+    }
+
+    public void testTurnPassesAroundFourPlayers() {
+        ClockEngine engine = newEngine(DelayType.FISCHER, 60, 0);
+        engine.mPlayers = 4;
+        engine.reset();
+        assertEquals(4, engine.getPlayerCount());
+
+        long now = 0;
+        engine.start(2, now);
+        int[] expected = { 3, 0, 1, 2, 3 };
+        for (int next : expected) {
+            now += 1000;
+            assertTrue(engine.switchMove(engine.getActive(), now));
+            assertEquals(next, engine.getActive());
+        }
+        assertEquals(58000, engine.getMsToGo(2, now));
+        assertEquals(59000, engine.getMsToGo(0, now));
+
+        engine.reset();
+        assertEquals(4, mGames.get(0).mPlayers);
+        assertEquals(2, mGames.get(0).playerOfMove(4));
+    }
+}
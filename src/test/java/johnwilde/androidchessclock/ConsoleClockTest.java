@@ -0,0 +1,149 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import johnwilde.androidchessclock.ClockEngine.GameState;
+
+/**
+ * JVM tests for the console clock: the keys, the line redrawn only when
+ * it changes, and that it runs in 4 MB of heap as a process of its own
+ * (its startup time is checked only with -Pbenchmarks).
+ */
+public class ConsoleClockTest extends TestCase {
+
+    // the process gets this much heap, and must run in it
+    private static final String MAX_HEAP = "-Xmx4m";
+    // from starting the JVM to the first line drawn (benchmark only)
+    private static final long STARTUP_MS = 2000;
+
+    private ClockEngine mEngine;
+    private ByteArrayOutputStream mOut;
+    private ConsoleClock mClock;
+
+    @Override
+    protected void setUp() {
+        mEngine = new ClockEngine();
+        ConsoleClock.preset("1+0").applyTo(mEngine);
+        mOut = new ByteArrayOutputStream();
+        mClock = new ConsoleClock(mEngine, Channels.newChannel(mOut));
+    }
+
+    public void testPresets() {
+        assertEquals(180, ConsoleClock.preset("3+2").initialSeconds);
+        assertEquals(ClockEngine.TimeControlType.TOURNAMENT,
+                ConsoleClock.preset("FIDE 40/90+30").type);
+        assertEquals(7, ConsoleClock.preset("25+7").incrementSeconds);
+        assertNull(ConsoleClock.preset("blitz"));
+        assertNull(ConsoleClock.preset("+5"));
+    }
+
+    public void testKeys() {
+        // as in the app, the second player's button starts the first
+        // player's clock
+        mClock.key((byte) '2', 1000);
+        assertEquals(GameState.RUNNING, mEngine.getState());
+        assertEquals(0, mEngine.getActive());
+        // not on move: nothing happens
+        mClock.key((byte) '2', 1500);
+        assertEquals(0, mEngine.getActive());
+        mClock.key((byte) '1', 2000);
+        assertEquals(1, mEngine.getActive());
+        mClock.key((byte) ' ', 3000);
+        assertEquals(0, mEngine.getActive());
+        mClock.key((byte) 'p', 3500);
+        assertEquals(GameState.PAUSED, mEngine.getState());
+        // no reset of a running game
+        mClock.key((byte) '1', 4000);
+        mClock.key((byte) 'r', 4000);
+        assertEquals(GameState.RUNNING, mEngine.getState());
+        mClock.key((byte) 'u', 4500);
+        assertEquals(1, mEngine.getActive());
+        mClock.key((byte) '\n', 4600);
+        assertFalse(mClock.isQuit());
+        mClock.key((byte) 'q', 5000);
+        assertTrue(mClock.isQuit());
+    }
+
+    public void testLineIsDrawnOnlyWhenItChanges() throws IOException {
+        long now = 1000;
+        assertEquals(DeadlineScheduler.NONE, mClock.update(now));
+        assertEquals(1, mClock.linesDrawn());
+        assertEquals("\r 1 1:00     2 1:00    " + ConsoleClock.ERASE_TO_END, text());
+        assertEquals(DeadlineScheduler.NONE, mClock.update(now + 5000));
+        assertEquals(1, mClock.linesDrawn());
+
+        mClock.key((byte) '2', now);
+        long due = mClock.update(now);
+        assertEquals(2, mClock.linesDrawn());
+        assertTrue(text().contains(ConsoleClock.REVERSE + " 1 1:00 "));
+        // the text changes once a second: nothing to draw in between
+        assertTrue(due > now && due <= now + 1000);
+        for (long t = now + 10; t < due; t += 10) {
+            mClock.update(t);
+        }
+        assertEquals(2, mClock.linesDrawn());
+        mClock.update(due);
+        assertEquals(3, mClock.linesDrawn());
+    }
+
+    public void testFlagRingsTheBell() throws IOException {
+        mClock.key((byte) '2', 0);
+        mClock.update(0);
+        mOut.reset();
+        mClock.update(61000);
+        assertEquals(GameState.DONE, mEngine.getState());
+        String line = text();
+        assertTrue(line.contains("game over"));
+        assertEquals('\007', line.charAt(line.length() - 1));
+        // the bell rings once
+        mOut.reset();
+        mClock.update(62000);
+        assertEquals("", text());
+    }
+
+    public void testProcessRunsInSmallHeap() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, MAX_HEAP, "-XX:+UseSerialGC",
+                "-cp", System.getProperty("java.class.path"),
+                ConsoleClock.class.getName(), "-stats", "3+2");
+        long start = System.nanoTime();
+        Process process = builder.start();
+        InputStream out = process.getInputStream();
+        // the first line ends with the erase code
+        int c;
+        while ((c = out.read()) >= 0 && c != 'K') {
+            // skip
+        }
+        long startup = (System.nanoTime() - start) / 1000000;
+        assertTrue("no line drawn", c == 'K');
+
+        OutputStream in = process.getOutputStream();
+        in.write("21pq".getBytes("US-ASCII"));
+        in.close();
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        InputStream err = process.getErrorStream();
+        while ((c = err.read()) >= 0) {
+            stats.write(c);
+        }
+        assertEquals(stats.toString("US-ASCII"), 0, process.waitFor());
+
+        // the time depends on the machine running the tests
+        if (Benchmarks.enabled()) {
+            Benchmarks.report(String.format("console clock: first line %d ms after start; %s",
+                    startup, stats.toString("US-ASCII").trim()));
+            assertTrue("startup " + startup + " ms", startup <= STARTUP_MS);
+        }
+    }
+
+    private String text() throws IOException {
+        return mOut.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,179 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * JVM tests for the game archive, including a 100k game benchmark.
+ *
+ * To run them, type:
+ * ./gradlew test
+ * and with the benchmark:
+ * ./gradlew test -Pbenchmarks
+ */
+public class GameArchiveTest extends TestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("archive", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mDirectory);
+    }
+
+    public void testRoundTrip() throws IOException {
+        GameArchive archive = new GameArchive(mDirectory);
+        ArchivedGame game = syntheticGame(new Random(1), 7, 1000L);
+        game.mResult = ArchivedGame.RESULT_FLAG + 1;
+        assertEquals(0, archive.append(game));
+        archive.close();
+
+        archive = new GameArchive(mDirectory);
+        GameIndex index = archive.readIndex();
+        assertEquals(1, index.size());
+        ArchivedGame loaded = archive.load(index, 0);
+        assertGamesEqual(game, loaded);
+        assertEquals(1, loaded.flaggedPlayer());
+        archive.close();
+    }
+
+    public void testFind() throws IOException {
+        GameArchive archive = new GameArchive(mDirectory);
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            ArchivedGame game = syntheticGame(random, 10, 1000L * i);
+            game.mInitialSeconds = (i % 2 == 0) ? 180 : 900;
+            game.mIncrementSeconds = (i % 2 == 0) ? 2 : 10;
+            game.mResult = (byte) (i % 3);
+            archive.append(game);
+        }
+        GameIndex index = archive.readIndex();
+        int[] blitz = index.find(0, Long.MAX_VALUE, 180, 2, -1);
+        assertEquals(50, blitz.length);
+        int[] window = index.find(10000L, 20000L, -1, -1, -1);
+        assertEquals(10, window.length);
+        assertEquals(10, window[0]);
+        int[] flagged = index.find(0, Long.MAX_VALUE, 900, -1, 1);
+        for (int i : flagged) {
+            assertEquals(1, index.mResult[i]);
+            assertEquals(900, index.mInitialSeconds[i]);
+        }
+        archive.close();
+    }
+
+    public void testPartialIndexEntryIsDropped() throws IOException {
+        GameArchive archive = new GameArchive(mDirectory);
+        archive.append(syntheticGame(new Random(3), 5, 0));
+        archive.close();
+
+        RandomAccessFile index = new RandomAccessFile(
+                new File(mDirectory, GameArchive.INDEX_FILE), "rw");
+        index.setLength(index.length() + GameIndex.ENTRY_BYTES / 2);
+        index.close();
+
+        archive = new GameArchive(mDirectory);
+        assertEquals(1, archive.size());
+        archive.append(syntheticGame(new Random(4), 5, 1));
+        GameIndex entries = archive.readIndex();
+        assertEquals(2, entries.size());
+        assertEquals(5, archive.load(entries, 1).mMoveCount);
+        archive.close();
+    }
+
+    // Only with -Pbenchmarks (see Benchmarks)
+    public void testBenchmark100kGames() throws IOException {
+        if (!Benchmarks.enabled())
+            return;
+        final int games = 100000;
+        Random random = new Random(5);
+        ArchivedGame[] samples = new ArchivedGame[64];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = syntheticGame(random, 20 + random.nextInt(80), 0);
+        }
+
+        GameArchive archive = new GameArchive(mDirectory);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            ArchivedGame game = samples[i % samples.length];
+            game.mId = i;
+            game.mStartTime = i * 60000L;
+            archive.append(game);
+        }
+        long t1 = System.nanoTime();
+        archive.close();
+
+        archive = new GameArchive(mDirectory);
+        long t2 = System.nanoTime();
+        GameIndex index = archive.readIndex();
+        long t3 = System.nanoTime();
+        assertEquals(games, index.size());
+
+        int loads = 10000;
+        long moves = 0;
+        for (int n = 0; n < loads; n++) {
+            int i = random.nextInt(games);
+            ArchivedGame game = archive.load(index, i);
+            assertEquals(i, game.mId);
+            moves += game.mMoveCount;
+        }
+        long t4 = System.nanoTime();
+        archive.close();
+
+        Benchmarks.report(String.format(
+                "archive: %d games in %d segments, append %.1f us/game, "
+                        + "index read %.1f ms, load %.1f us/game (%d moves)",
+                games, archive.segmentCount(), (t1 - t0) / 1000.0 / games,
+                (t3 - t2) / 1e6, (t4 - t3) / 1000.0 / loads, moves));
+    }
+
+    static ArchivedGame syntheticGame(Random random, int moves, long startTime) {
+        ArchivedGame game = new ArchivedGame(4);
+        game.mId = random.nextLong();
+        game.mStartTime = startTime;
+        game.mInitialSeconds = 300;
+        game.mIncrementSeconds = 3;
+        game.mFirstPlayer = random.nextInt(2);
+        long[] remaining = { 300000, 300000 };
+        for (int i = 0; i < moves; i++) {
+            int player = game.playerOfMove(i);
+            int spent = random.nextInt(20000);
+            remaining[player] += 3000 - spent;
+            game.addMove(spent, remaining[player]);
+        }
+        return game;
+    }
+
+    static void assertGamesEqual(ArchivedGame expected, ArchivedGame actual) {
+        assertEquals(expected.mId, actual.mId);
+        assertEquals(expected.mStartTime, actual.mStartTime);
+        assertEquals(expected.mInitialSeconds, actual.mInitialSeconds);
+        assertEquals(expected.mIncrementSeconds, actual.mIncrementSeconds);
+        assertEquals(expected.mResult, actual.mResult);
+        assertEquals(expected.mFirstPlayer, actual.mFirstPlayer);
+        assertEquals(expected.mPlayers, actual.mPlayers);
+        assertEquals(expected.mMoveCount, actual.mMoveCount);
+        for (int i = 0; i < expected.mMoveCount; i++) {
+            assertEquals(expected.mMoveMs[i], actual.mMoveMs[i]);
+            assertEquals(expected.mRemainingMs[i], actual.mRemainingMs[i]);
+        }
+    }
+
+    static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,122 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JVM tests for the shared clock feed: a reader mapping the file on its
+ * own never sees a torn publication, and the feed only publishes changes.
+ */
+public class MappedSeqlockTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("clock", ".feed");
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    public void testReaderNeverSeesATornPublication() throws Exception {
+        final int fields = 64;
+        final MappedSeqlock writer = MappedSeqlock.create(mFile, fields);
+        final MappedSeqlock reader = MappedSeqlock.open(mFile);
+        assertEquals(fields, reader.fieldCount());
+
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long[] values = new long[fields];
+                for (long n = 1; n <= 200000; n++) {
+                    for (int i = 0; i < fields; i++) {
+                        values[i] = n * (i + 1);
+                    }
+                    writer.publish(values);
+                }
+                done.set(true);
+            }
+        });
+        writing.start();
+
+        long[] into = new long[fields];
+        long last = -1;
+        int reads = 0;
+        while (!done.get() || reads == 0) {
+            long sequence = reader.read(into);
+            assertEquals(0, sequence & 1);
+            assertTrue(sequence >= last);
+            last = sequence;
+            for (int i = 0; i < fields; i++) {
+                assertEquals(into[0] * (i + 1), into[i]);
+            }
+            reads++;
+        }
+        writing.join();
+        reader.read(into);
+        assertEquals(200000L, into[0]);
+        reader.close();
+        writer.close();
+    }
+
+    public void testRecreatingContinuesTheSequence() throws IOException {
+        MappedSeqlock first = MappedSeqlock.create(mFile, 2);
+        first.publish(new long[] { 1, 2 });
+        first.close();
+        MappedSeqlock reader = MappedSeqlock.open(mFile);
+        long before = reader.read(new long[2]);
+
+        MappedSeqlock second = MappedSeqlock.create(mFile, 2);
+        second.publish(new long[] { 3, 4 });
+        long[] into = new long[2];
+        assertTrue(reader.read(into) > before);
+        assertEquals(3, into[0]);
+        assertEquals(4, into[1]);
+        second.close();
+        reader.close();
+    }
+
+    public void testOpenRejectsOtherFiles() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(MappedSeqlock.HEADER * 8 + 64);
+        raf.close();
+        try {
+            MappedSeqlock.open(mFile);
+            fail("opened a file without the magic");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testFeedPublishesOnlyChanges() throws IOException {
+        ClockFeed feed = ClockFeed.create(mFile);
+        MappedSeqlock reader = MappedSeqlock.open(mFile);
+        assertEquals(ClockFeed.SIZE, reader.fieldCount());
+        long[] into = new long[ClockFeed.SIZE];
+
+        ClockSnapshot snapshot = new ClockSnapshot();
+        feed.stateChanged(snapshot);
+        long sequence = reader.read(into);
+        feed.stateChanged(snapshot);
+        assertEquals(sequence, reader.read(into));
+
+        feed.displayChanged(1, 59000);
+        sequence = reader.read(into);
+        assertEquals(59000, into[ClockFeed.DISPLAY_MS + 1]);
+        assertEquals(ClockEngine.NO_PLAYER,
+                into[ClockFeed.STATE + ClockSnapshot.ENGINE + MoveHistory.ACTIVE]);
+        assertTrue(into[ClockFeed.WRITTEN_AT] > 0);
+        feed.displayChanged(1, 59000);
+        assertEquals(sequence, reader.read(into));
+
+        feed.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,202 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM tests for the move event bus: order, batching, and a producer that
+ * neither waits for nor allocates for its consumers.
+ */
+public class MoveEventBusTest extends TestCase {
+
+    private final List<ExecutorService> mExecutors = new ArrayList<ExecutorService>();
+    private MoveEventBus mBus;
+
+    @Override
+    protected void tearDown() {
+        if (mBus != null)
+            mBus.quit();
+        for (ExecutorService executor : mExecutors) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDeliversEveryEventInOrder() throws InterruptedException {
+        mBus = new MoveEventBus(16384);
+        Recorder recorder = new Recorder(null);
+        subscribe(recorder, 16);
+        for (int i = 0; i < 10000; i++) {
+            mBus.publish(MoveEventBus.SWITCH, i % 2, i, 1000L * i, i + 1, i / 2, null);
+        }
+        assertTrue(recorder.awaitSequence(9999));
+        assertEquals(0, recorder.dropped);
+        assertEquals(10000, recorder.received);
+        assertTrue("largest batch " + recorder.largestBatch, recorder.largestBatch <= 16);
+        assertFalse(recorder.outOfOrder);
+    }
+
+    public void testSlowConsumerDoesNotHoldUpProducer() throws InterruptedException {
+        mBus = new MoveEventBus(64);
+        CountDownLatch blocked = new CountDownLatch(1);
+        Recorder slow = new Recorder(blocked);
+        Recorder fast = new Recorder(null);
+        subscribe(slow, 8);
+        subscribe(fast, 8);
+
+        int count = mBus.capacity() * 10;
+        for (int i = 0; i < count; i++) {
+            mBus.publish(MoveEventBus.SWITCH, i % 2, i, 1000L * i, i + 1, i / 2, null);
+        }
+        // the producer is through while the slow consumer is still stuck
+        // in its first batch
+        assertEquals(count, mBus.published());
+        blocked.countDown();
+
+        for (Recorder recorder : new Recorder[] {slow, fast}) {
+            assertTrue(recorder.awaitSequence(count - 1));
+            assertEquals(count, recorder.received + recorder.dropped);
+            assertFalse(recorder.outOfOrder);
+        }
+        assertTrue(slow.dropped > 0);
+    }
+
+    public void testUnsubscribedConsumerGetsNothing() throws InterruptedException {
+        mBus = new MoveEventBus(64);
+        Recorder recorder = new Recorder(null);
+        MoveEventBus.Subscription subscription = subscribe(recorder, 8);
+        mBus.publish(MoveEventBus.START, 0, 1, 0, 0, 1, null);
+        assertTrue(recorder.awaitSequence(0));
+        mBus.unsubscribe(subscription);
+        mBus.publish(MoveEventBus.PAUSE, 0, 2, 0, 0, 1, null);
+        Thread.sleep(50);
+        assertEquals(1, recorder.received);
+    }
+
+    public void testLastDrainDeliversEverythingPublished() throws InterruptedException {
+        mBus = new MoveEventBus(64);
+        Recorder recorder = new Recorder(null);
+        ExecutorService executor = MoveEventBus.newExecutor("test");
+        mExecutors.add(executor);
+        final MoveEventBus.Subscription subscription =
+                mBus.subscribe(recorder, executor, 8);
+        // the consumer's thread is busy while the last events come in
+        final CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                    // done
+                }
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            mBus.publish(MoveEventBus.SWITCH, i % 2, i, 1000L * i, i + 1, i / 2, null);
+        }
+        // as ArchiveWriter.close(); unsubscribed before its last drain runs
+        final long end = mBus.published();
+        mBus.unsubscribe(subscription);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                subscription.drainTo(end);
+            }
+        });
+        busy.countDown();
+        assertTrue(recorder.awaitSequence(4));
+        assertEquals(5, recorder.received);
+        assertFalse(recorder.outOfOrder);
+    }
+
+    public void testPublishAllocatesNothing() throws InterruptedException {
+        ThreadMXBean plain = ManagementFactory.getThreadMXBean();
+        if (!(plain instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) plain;
+        if (!bean.isThreadAllocatedMemorySupported())
+            return;
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        mBus = new MoveEventBus(MoveEventBus.DEFAULT_CAPACITY);
+        for (int i = 0; i < 8; i++) {
+            subscribe(new Recorder(null), MoveEventBus.DEFAULT_BATCH);
+        }
+        long id = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        // the best of three rounds, the first one warms up
+        for (int round = 0; round < 3 && allocated != 0; round++) {
+            long before = bean.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 10000; i++) {
+                mBus.publish(MoveEventBus.SWITCH, i % 2, i, 1000L * i, i + 1, i / 2, null);
+            }
+            long after = bean.getThreadAllocatedBytes(id);
+            allocated = Math.min(allocated, after - before
+                    - (bean.getThreadAllocatedBytes(id) - after));
+        }
+        assertEquals("bytes allocated by 10000 events", 0, allocated);
+    }
+
+    private MoveEventBus.Subscription subscribe(Recorder recorder, int maxBatch) {
+        ExecutorService executor = MoveEventBus.newExecutor("test");
+        mExecutors.add(executor);
+        return mBus.subscribe(recorder, executor, maxBatch);
+    }
+
+    /**
+     * Checks what it is handed and counts it.
+     */
+    private static final class Recorder implements MoveEventBus.Consumer {
+        private final CountDownLatch mBlocked;
+        volatile long received;
+        volatile long dropped;
+        volatile long lastSequence = -1;
+        volatile int largestBatch;
+        volatile boolean outOfOrder;
+
+        Recorder(CountDownLatch blocked) {
+            mBlocked = blocked;
+        }
+
+        @Override
+        public void onEvents(MoveEventBus.Batch batch) {
+            if (mBlocked != null) {
+                try {
+                    mBlocked.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            if (batch.firstSequence() != lastSequence + 1 + batch.dropped())
+                outOfOrder = true;
+            for (int i = 0; i < batch.size(); i++) {
+                long sequence = batch.firstSequence() + i;
+                // the fields published for event i
+                if (batch.when(i) != sequence || batch.msToGo(i) != 1000L * sequence
+                        || batch.player(i) != sequence % 2)
+                    outOfOrder = true;
+            }
+            largestBatch = Math.max(largestBatch, batch.size());
+            dropped += batch.dropped();
+            received += batch.size();
+            lastSequence = batch.firstSequence() + batch.size() - 1;
+        }
+
+        boolean awaitSequence(long sequence) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (lastSequence < sequence) {
+                if (System.nanoTime() > deadline)
+                    return false;
+                Thread.sleep(1);
+            }
+            return true;
+        }
+    }
+}
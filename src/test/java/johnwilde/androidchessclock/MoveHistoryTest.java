@@ -0,0 +1,80 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * JVM tests for the undo/redo history.
+ */
+public class MoveHistoryTest extends TestCase {
+
+    private static long[] state(MoveHistory history, int moves) {
+        long[] s = new long[history.snapshotSize()];
+        s[MoveHistory.ACTIVE] = moves % 2;
+        s[MoveHistory.RECORDED_MOVES] = moves;
+        for (int player = 0; player < 2; player++) {
+            s[MoveHistory.field(player, MoveHistory.MS_TO_GO)] = 300000 - moves * 1000 - player;
+            s[MoveHistory.field(player, MoveHistory.MS_DELAY_TO_GO)] = 5000 - moves;
+            s[MoveHistory.field(player, MoveHistory.MOVE_MS)] = moves * 7 + player;
+            s[MoveHistory.field(player, MoveHistory.MOVE_NUMBER)] = moves / 2 + 1;
+        }
+        return s;
+    }
+
+    public void testUndoRestoresExactStateBeforeTap() {
+        MoveHistory history = new MoveHistory(2, 8);
+        long[] out = new long[history.snapshotSize()];
+        for (int move = 0; move < 5; move++) {
+            history.record(state(history, move), state(history, move + 1));
+        }
+        assertFalse(history.canRedo());
+
+        for (int move = 4; move >= 0; move--) {
+            assertTrue(history.undo(out));
+            assertTrue(Arrays.equals(state(history, move), out));
+        }
+        assertFalse(history.canUndo());
+        assertFalse(history.undo(out));
+
+        for (int move = 0; move < 5; move++) {
+            assertTrue(history.redo(out));
+            assertTrue(Arrays.equals(state(history, move + 1), out));
+        }
+        assertFalse(history.redo(out));
+    }
+
+    public void testRecordDropsRedo() {
+        MoveHistory history = new MoveHistory(2, 8);
+        long[] out = new long[history.snapshotSize()];
+        history.record(state(history, 0), state(history, 1));
+        history.record(state(history, 1), state(history, 2));
+        history.undo(out);
+        assertTrue(history.canRedo());
+
+        history.record(state(history, 1), state(history, 3));
+        assertFalse(history.canRedo());
+        assertTrue(history.undo(out));
+        assertTrue(Arrays.equals(state(history, 1), out));
+        assertTrue(history.redo(out));
+        assertTrue(Arrays.equals(state(history, 3), out));
+    }
+
+    public void testBoundedCapacityForgetsOldest() {
+        MoveHistory history = new MoveHistory(2, 3);
+        long[] out = new long[history.snapshotSize()];
+        for (int move = 0; move < 10; move++) {
+            history.record(state(history, move), state(history, move + 1));
+        }
+        for (int move = 9; move >= 7; move--) {
+            assertTrue(history.undo(out));
+            assertTrue(Arrays.equals(state(history, move), out));
+        }
+        assertFalse(history.canUndo());
+        // undo and redo cycle around the ring without losing entries
+        for (int move = 7; move <= 9; move++) {
+            assertTrue(history.redo(out));
+            assertTrue(Arrays.equals(state(history, move + 1), out));
+        }
+    }
+}
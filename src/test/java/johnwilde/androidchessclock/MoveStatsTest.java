@@ -0,0 +1,123 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+
+/**
+ * JVM tests for the running move statistics and the projection at the
+ * time control.
+ */
+public class MoveStatsTest extends TestCase {
+
+    public void testMatchesStatisticsOverAllMoves() {
+        Random random = new Random(7);
+        MoveStats stats = new MoveStats(1);
+        long[] moves = new long[500];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = 500 + random.nextInt(120000);
+            stats.add(0, moves[i]);
+        }
+        double sum = 0;
+        for (long move : moves) {
+            sum += move;
+        }
+        double mean = sum / moves.length;
+        double squares = 0;
+        for (long move : moves) {
+            squares += (move - mean) * (move - mean);
+        }
+        assertEquals(moves.length, stats.getMoves(0));
+        assertEquals(moves[moves.length - 1], stats.getLastMs(0));
+        assertEquals(mean, stats.getMeanMs(0), 1e-6);
+        assertEquals(Math.sqrt(squares / (moves.length - 1)), stats.getDeviationMs(0), 1e-6);
+    }
+
+    public void testMovingAverageFollowsRecentMoves() {
+        MoveStats stats = new MoveStats(1);
+        stats.add(0, 10000);
+        assertEquals(10000.0, stats.getEmaMs(0));
+        stats.add(0, 2000);
+        assertEquals(10000 - MoveStats.EMA_WEIGHT * 8000, stats.getEmaMs(0), 1e-9);
+        for (int i = 0; i < 40; i++) {
+            stats.add(0, 2000);
+        }
+        assertEquals(2000, stats.getEmaMs(0), 1);
+        // the mean remembers the first move
+        assertTrue(stats.getMeanMs(0) > 2100);
+    }
+
+    public void testProjection() {
+        // move 31 of 40: 10 moves at 30 s with a 5 s increment
+        assertEquals(300000 - 10 * 25000,
+                MoveStats.projectMsAtControl(300000, 31, 40, 5000, 30000));
+        assertEquals(60000 - 20000, MoveStats.projectMsAtControl(60000, 40, 40, 0, 20000));
+        assertEquals(MoveStats.NO_PROJECTION, MoveStats.projectMsAtControl(60000, 41, 40, 0, 20000));
+        assertEquals(MoveStats.NO_PROJECTION, MoveStats.projectMsAtControl(60000, 1, 0, 0, 20000));
+    }
+
+    public void testEngineKeepsStatisticsThroughUndo() {
+        ClockEngine engine = new ClockEngine();
+        engine.mTimeControlType = TimeControlType.TOURNAMENT;
+        engine.mPhase1NumberMoves = 40;
+        engine.mPhase2Minutes = 30;
+        engine.mInitialDurationSeconds = 5400;
+        engine.mDelayType = DelayType.FISCHER;
+        engine.mIncrementSeconds = 30;
+        engine.reset();
+
+        long now = 1000;
+        engine.start(0, now);
+        long[] whiteMoves = { 12000, 4000, 20000 };
+        for (long move : whiteMoves) {
+            now += move;
+            engine.switchMove(0, now);
+            now += 3000;
+            engine.switchMove(1, now);
+        }
+        ClockSnapshot clock = snapshotOf(engine);
+        assertEquals(3, clock.getTimedMoves(0));
+        assertEquals(20000, clock.getLastMoveMs(0));
+        assertEquals(12000, clock.getMeanMoveMs(0));
+        assertEquals(8000, clock.getMoveDeviationMs(0));
+        assertEquals(3000, clock.getMeanMoveMs(1));
+        assertEquals(0, clock.getMoveDeviationMs(1));
+
+        // white on move 4: 37 moves to go at its pace, each earning 30 s
+        // 12000, then 10000, then 12500
+        long pace = clock.getPaceMs(0);
+        assertEquals(12500, pace);
+        long msToGo = engine.getMsToGo(0, now);
+        assertEquals(msToGo + 37 * (30000 - pace), clock.getProjectedMsAtControl(0));
+
+        // undoing white's last move gives back the statistics before it
+        engine.undo(now);
+        engine.undo(now);
+        clock = snapshotOf(engine);
+        assertEquals(2, clock.getTimedMoves(0));
+        assertEquals(4000, clock.getLastMoveMs(0));
+        assertEquals(8000, clock.getMeanMoveMs(0));
+        engine.redo(now);
+        clock = snapshotOf(engine);
+        assertEquals(3, clock.getTimedMoves(0));
+        assertEquals(12000, clock.getMeanMoveMs(0));
+
+        engine.reset();
+        clock = snapshotOf(engine);
+        assertEquals(0, clock.getTimedMoves(0));
+        assertEquals(MoveStats.NO_PROJECTION, clock.getProjectedMsAtControl(0));
+    }
+
+    private static ClockSnapshot snapshotOf(ClockEngine engine) {
+        SnapshotChannel channel = new SnapshotChannel(ClockSnapshot.SIZE);
+        long[] fields = new long[ClockSnapshot.SIZE];
+        engine.writeSnapshot(fields);
+        channel.publish(fields);
+        ClockSnapshot clock = new ClockSnapshot();
+        clock.readFrom(channel);
+        return clock;
+    }
+}
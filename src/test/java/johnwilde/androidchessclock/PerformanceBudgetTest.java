@@ -0,0 +1,360 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import android.content.SharedPreferences;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+
+/**
+ * Budgets for the work the clock does, checked on scripted games played
+ * on a virtual clock through the same code the app runs: the engine
+ * publishes a snapshot after each command and deadline, and each
+ * player's ClockFace is updated when the engine publishes and when its
+ * tick is due, as Timer does.
+ *
+ * A change to the tick cadence, the formatting or the preference loading
+ * that breaks a budget fails here instead of on the players' batteries.
+ */
+public class PerformanceBudgetTest extends TestCase {
+
+    // Ticks per minute of play while the clocks are above 10 seconds:
+    // one per second shown, plus the first one after each move
+    private static final double TICKS_PER_MINUTE = 75;
+    // below 10 seconds the text changes every 100 ms
+    private static final double LOW_TIME_TICKS_PER_SECOND = 11;
+    // a view added or removed costs a layout pass
+    private static final double LAYOUTS_PER_MOVE_WITH_DELAY = 2;
+    // preferences read to load the basic time control and the warnings
+    private static final int PREFERENCE_READS = 10;
+    // in the hundredths window a running clock ticks every frame
+    private static final long FRAME_MS = 16;
+    // bytes allocated to create, configure and first publish the engine
+    private static final long STARTUP_BYTES = 128 * 1024;
+
+    public void testTicksPerGameMinute() {
+        Game game = new Game(engine(600, DelayType.FISCHER, 0));
+        game.play(40, 2000, 12000);
+        assertEquals(0, game.layouts);
+        double perMinute = game.ticks * 60000.0 / game.played();
+        assertTrue("ticks per minute " + perMinute, perMinute <= TICKS_PER_MINUTE);
+        // and every tick is there to redraw the text
+        assertTrue(game.textChanges >= game.ticks);
+    }
+
+    public void testLowTimeTicks() {
+        Game game = new Game(engine(30, DelayType.FISCHER, 0));
+        game.play(1, 21000, 21000); // white down to 9 seconds
+        game.play(1, 1000, 1000);
+        game.resetCounts();
+        game.play(1, 8000, 8000);
+        double perSecond = game.ticks * 1000.0 / game.played();
+        assertTrue("ticks per second " + perSecond, perSecond <= LOW_TIME_TICKS_PER_SECOND);
+    }
+
+    public void testStoppedClocksDoNotTick() {
+        Game game = new Game(engine(600, DelayType.FISCHER, 0));
+        game.play(3, 5000, 5000);
+        game.engine.pause(game.now);
+        game.publish();
+        game.resetCounts();
+        game.runUntil(game.now + 600000);
+        assertEquals(0, game.ticks);
+    }
+
+    public void testDelaySpinnerBudget() {
+        Game game = new Game(engine(600, DelayType.BRONSTEIN, 3));
+        game.play(40, 2000, 12000);
+        // the first move starts the game, it is not a switch
+        double layoutsPerMove = (double) game.layouts / (game.moves + 1);
+        assertTrue("layouts per move " + layoutsPerMove,
+                layoutsPerMove <= LAYOUTS_PER_MOVE_WITH_DELAY);
+        // a 3 second delay at 100 ms adds up to 30 ticks to a move
+        double perMove = (double) game.ticks / (game.moves + 1);
+        assertTrue("ticks per move " + perMove, perMove <= 30 + 13);
+    }
+
+    public void testHundredthsWindowTicksEveryFrame() {
+        // 20 seconds, and the increment of the first move: 30
+        Game game = new Game(engine(20, DelayType.FISCHER, 10));
+        game.setHundredthsWindow(5000);
+        game.play(1, 23000, 23000); // white down to 7 s, 17 s with the increment
+        game.play(1, 1000, 1000);
+        assertEquals(0, game.frameTicks);
+
+        game.resetCounts();
+        game.play(1, 14000, 14000); // white down to 3 s: 2 s in the window
+        long expected = 2000 / FRAME_MS;
+        assertTrue("frame ticks " + game.frameTicks,
+                Math.abs(game.frameTicks - expected) <= 1);
+        assertEquals(0, game.frames.dropped());
+        // each frame shows the next hundredths
+        assertTrue(game.textChanges >= game.frameTicks);
+
+        // the increment takes white out of the window: back to ticks when
+        // the text changes
+        game.resetCounts();
+        game.play(1, 5000, 5000);
+        assertEquals(0, game.frameTicks);
+        assertTrue("ticks " + game.ticks, game.ticks <= 7);
+    }
+
+    public void testPlayAllocatesNothing() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        if (bean == null)
+            return; // allocation counting not supported by this JVM
+
+        Game game = new Game(engine(100000, DelayType.BRONSTEIN, 2));
+        // warm up: JIT, and the game record grows to 32768 moves
+        game.play(20000, 500, 2500);
+
+        // as in SwitchAllocationTest, the best of three rounds
+        long id = Thread.currentThread().getId();
+        long overhead = measureOverhead(bean, id);
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 3 && allocated != 0; round++) {
+            long before = bean.getThreadAllocatedBytes(id);
+            game.play(5000, 500, 2500);
+            allocated = Math.min(allocated,
+                    bean.getThreadAllocatedBytes(id) - before - overhead);
+        }
+        assertEquals("bytes allocated by 5000 moves", 0, allocated);
+    }
+
+    public void testStartupPreferenceReads() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(TimerOptions.Key.TIMECONTROL_TYPE.toString(), "DISABLED");
+        values.put(TimerOptions.Key.MINUTES.toString(), "5");
+        values.put(TimerOptions.Key.SECONDS.toString(), "0");
+        values.put(TimerOptions.Key.INCREMENT_SECONDS.toString(), "3");
+        values.put(TimerOptions.Key.DELAY_TYPE.toString(), "BRONSTEIN");
+        values.put(TimerOptions.Key.OVERTIME_TYPE.toString(), "NONE");
+        values.put(TimerOptions.Key.LOW_TIME_WARNINGS.toString(), "60,10");
+        Map<String, Integer> reads = new HashMap<String, Integer>();
+        SharedPreferences prefs = countingPreferences(values, reads);
+
+        ClockEngine engine = new ClockEngine();
+        TimeControlPreferences.load(prefs, engine);
+        long[] warnings = TimeControlPreferences.lowTimeWarnings(prefs);
+        assertEquals(300, engine.mInitialDurationSeconds);
+        assertEquals(DelayType.BRONSTEIN, engine.mDelayType);
+        assertEquals(2, warnings.length);
+
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : reads.entrySet()) {
+            assertEquals("reads of " + entry.getKey(), 1, entry.getValue().intValue());
+            total += entry.getValue();
+        }
+        assertTrue("preference reads " + total, total <= PREFERENCE_READS);
+    }
+
+    public void testStartupAllocations() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        if (bean == null)
+            return;
+        new Game(engine(300, DelayType.FISCHER, 0)); // warm up
+
+        long id = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(id);
+        new Game(engine(300, DelayType.FISCHER, 0));
+        long allocated = bean.getThreadAllocatedBytes(id) - before;
+        assertTrue("startup bytes " + allocated, allocated <= STARTUP_BYTES);
+    }
+
+    private static ClockEngine engine(int seconds, DelayType delay, int increment) {
+        ClockEngine engine = new ClockEngine();
+        engine.mInitialDurationSeconds = seconds;
+        engine.mDelayType = delay;
+        engine.mIncrementSeconds = increment;
+        engine.mLowTimeWarningsMs = new long[] { 60000, 10000 };
+        return engine;
+    }
+
+    /**
+     * The app's UI loop on a virtual clock.
+     */
+    private static final class Game implements ClockEngine.Listener {
+        final ClockEngine engine;
+        private final SnapshotChannel mChannel = new SnapshotChannel(ClockSnapshot.SIZE);
+        private final long[] mFields = new long[ClockSnapshot.SIZE];
+        private final ClockSnapshot mSnapshot = new ClockSnapshot();
+        private final ClockFace[] mFaces = new ClockFace[2];
+        private final long[] mTickAt = new long[2];
+        private long mStartedAt;
+        final FrameStats frames = new FrameStats(FRAME_MS * 1000000);
+        long now = 1000;
+        int moves;
+        int ticks;
+        int frameTicks;
+        int textChanges;
+        int layouts;
+
+        Game(ClockEngine engine) {
+            this.engine = engine;
+            engine.setListener(this);
+            for (int p = 0; p < mFaces.length; p++) {
+                mFaces[p] = new ClockFace(p);
+            }
+            engine.reset();
+            publish();
+            engine.start(0, now);
+            publish();
+            mStartedAt = now;
+        }
+
+        void setHundredthsWindow(long windowMs) {
+            for (ClockFace face : mFaces) {
+                face.setHundredthsWindow(windowMs);
+            }
+            publish();
+        }
+
+        // Play 'count' moves, the n-th taking between minMs and maxMs
+        void play(int count, long minMs, long maxMs) {
+            long spread = maxMs - minMs + 1;
+            for (int i = 0; i < count; i++) {
+                long think = minMs + (moves * 7919L) % spread;
+                runUntil(now + think);
+                engine.switchMove(engine.getActive(), now);
+                publish();
+                moves++;
+            }
+        }
+
+        // Let the clocks run to 'until', handling ticks and deadlines in
+        // time order
+        void runUntil(long until) {
+            while (true) {
+                long next = Math.min(Math.min(mTickAt[0], mTickAt[1]),
+                        engine.nextDeadline());
+                if (next > until)
+                    break;
+                now = next;
+                if (engine.nextDeadline() <= now) {
+                    engine.pollDeadlines(now);
+                    publish();
+                }
+                for (int p = 0; p < mFaces.length; p++) {
+                    if (mTickAt[p] <= now) {
+                        ticks++;
+                        update(p);
+                    }
+                }
+            }
+            now = until;
+        }
+
+        // EngineThread.publish() and the UI's onEngineChanged()
+        void publish() {
+            engine.writeSnapshot(mFields);
+            mChannel.publish(mFields);
+            mSnapshot.readFrom(mChannel);
+            for (int p = 0; p < mFaces.length; p++) {
+                update(p);
+            }
+        }
+
+        // Timer's UpdateTimeTask
+        private void update(int player) {
+            ClockFace face = mFaces[player];
+            int changes = face.update(mSnapshot, now);
+            if ((changes & ClockFace.TEXT_CHANGED) != 0)
+                textChanges++;
+            if ((changes & (ClockFace.SPINNER_SHOWN | ClockFace.SPINNER_HIDDEN)) != 0)
+                layouts++;
+            long next = face.getNextTick();
+            if (face.isFrameSynced()) {
+                // the next frame
+                frameTicks++;
+                frames.frame(now * 1000000);
+                mTickAt[player] = now + FRAME_MS;
+            } else {
+                mTickAt[player] = (next == ClockFace.NO_TICK) ? Long.MAX_VALUE : now + next;
+            }
+        }
+
+        long played() {
+            return now - mStartedAt;
+        }
+
+        void resetCounts() {
+            mStartedAt = now;
+            moves = 0;
+            ticks = 0;
+            frameTicks = 0;
+            frames.reset();
+            textChanges = 0;
+            layouts = 0;
+        }
+
+        @Override
+        public void onFlag(int player) {
+        }
+
+        @Override
+        public void onDelayExpired(int player) {
+        }
+
+        @Override
+        public void onLowTimeWarning(int player) {
+        }
+
+        @Override
+        public void onDeadlinesChanged(long nextDeadline) {
+        }
+
+        @Override
+        public void onGameFinished(ArchivedGame game) {
+        }
+    }
+
+    // SharedPreferences that answers from 'values' and counts the reads
+    // of each key
+    private static SharedPreferences countingPreferences(
+            final Map<String, Object> values, final Map<String, Integer> reads) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().startsWith("get") || args == null || args.length != 2)
+                    throw new UnsupportedOperationException(method.getName());
+                String key = (String) args[0];
+                Integer count = reads.get(key);
+                reads.put(key, (count == null) ? 1 : count + 1);
+                Object value = values.get(key);
+                return (value != null) ? value : args[1];
+            }
+        };
+        return (SharedPreferences) Proxy.newProxyInstance(
+                SharedPreferences.class.getClassLoader(),
+                new Class<?>[] { SharedPreferences.class }, handler);
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean bean, long id) {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long a = bean.getThreadAllocatedBytes(id);
+            long b = bean.getThreadAllocatedBytes(id);
+            overhead = Math.min(overhead, b - a);
+        }
+        return overhead;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported())
+            return null;
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+}
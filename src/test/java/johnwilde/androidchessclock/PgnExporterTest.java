@@ -0,0 +1,67 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Calendar;
+
+/**
+ * JVM tests for the PGN export format.
+ */
+public class PgnExporterTest extends TestCase {
+
+    public void testFideGameLostOnTime() throws IOException {
+        ArchivedGame game = new ArchivedGame();
+        Calendar c = Calendar.getInstance();
+        c.set(2017, Calendar.MAY, 3, 12, 0);
+        game.mStartTime = c.getTimeInMillis();
+        game.mControlType = ArchivedGame.CONTROL_TOURNAMENT;
+        game.mDelayType = ArchivedGame.DELAY_FISCHER;
+        game.mInitialSeconds = 90 * 60;
+        game.mIncrementSeconds = 30;
+        game.mPhase1Moves = 40;
+        game.mPhase2Minutes = 30;
+        game.mResult = ArchivedGame.RESULT_FLAG + 1; // black flagged
+        game.addMove(3000, 5427000);
+        game.addMove(65000, 5365000);
+        game.addMove(1000, 5456000);
+
+        StringWriter out = new StringWriter();
+        PgnExporter exporter = new PgnExporter(out);
+        exporter.write(game);
+        exporter.flush();
+
+        assertEquals("[Event \"?\"]\n"
+                + "[Site \"?\"]\n"
+                + "[Date \"2017.05.03\"]\n"
+                + "[Round \"?\"]\n"
+                + "[White \"?\"]\n"
+                + "[Black \"?\"]\n"
+                + "[Result \"1-0\"]\n"
+                + "[TimeControl \"40/5400+30:1800+30\"]\n"
+                + "[Termination \"time forfeit\"]\n"
+                + "\n"
+                + "1. -- {[%clk 1:30:27] [%emt 0:00:03]} -- {[%clk 1:29:25] [%emt 0:01:05]} 2.\n"
+                + "-- {[%clk 1:30:56] [%emt 0:00:01]} 1-0\n"
+                + "\n", out.toString());
+    }
+
+    public void testBlackMovesFirstWithDelay() throws IOException {
+        ArchivedGame game = new ArchivedGame();
+        game.mInitialSeconds = 300;
+        game.mIncrementSeconds = 5;
+        game.mDelayType = ArchivedGame.DELAY_BRONSTEIN;
+        game.mFirstPlayer = 1;
+        game.addMove(2000, -1500);
+
+        StringWriter out = new StringWriter();
+        PgnExporter exporter = new PgnExporter(out);
+        exporter.write(game);
+        exporter.flush();
+
+        String pgn = out.toString();
+        assertTrue(pgn.contains("[TimeControl \"300d5\"]\n"));
+        assertTrue(pgn.endsWith("\n1... -- {[%clk 0:00:00] [%emt 0:00:02]} *\n\n"));
+    }
+}
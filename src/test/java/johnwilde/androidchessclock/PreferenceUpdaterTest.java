@@ -0,0 +1,191 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import johnwilde.androidchessclock.TimerOptions.Key;
+
+/**
+ * JVM tests for the settings screen updates: a change refreshes the
+ * preference and its dependants only, counted in preference lookups and
+ * summaries written.
+ */
+public class PreferenceUpdaterTest extends TestCase {
+
+    private FakeScreen mScreen;
+    private PreferenceUpdater mUpdater;
+
+    @Override
+    protected void setUp() {
+        mScreen = new FakeScreen();
+        mScreen.values.put(Key.TIMECONTROL_TYPE, "DISABLED");
+        mScreen.values.put(Key.ADV_DELAY_TYPE, "FISCHER");
+        mScreen.values.put(Key.DELAY_TYPE, "FISCHER");
+        mScreen.values.put(Key.OVERTIME_TYPE, "NONE");
+        mScreen.values.put(Key.FIDE_MOVES_PHASE1, "40");
+        mScreen.values.put(Key.FIDE_MIN_PHASE1, "90");
+        mScreen.values.put(Key.FIDE_MIN_PHASE2, "30");
+        mScreen.values.put(Key.ADV_INCREMENT_SECONDS, "30");
+        mScreen.values.put(Key.MINUTES, "5");
+        mScreen.values.put(Key.SECONDS, "0");
+        mScreen.values.put(Key.INCREMENT_SECONDS, "3");
+        mScreen.values.put(Key.OVERTIME_PERIODS, "0");
+        mScreen.values.put(Key.OVERTIME_SECONDS, "0");
+        mScreen.values.put(Key.LOW_TIME_WARNINGS, "0");
+        mUpdater = new PreferenceUpdater(mScreen);
+        mUpdater.refreshAll();
+        mScreen.resetCounts();
+    }
+
+    public void testRefreshAllWritesEverySummary() {
+        mUpdater.refreshAll();
+        // 10 text fields, 4 lists and the 2 screens
+        assertEquals(16, mScreen.summaries);
+        assertEquals("Current value is: 5", mScreen.summaryOf.get(Key.MINUTES));
+        assertFalse(mScreen.isEnabled(Key.FIDE_MIN_PHASE1));
+        assertTrue(mScreen.isEnabled(Key.BASIC_SCREEN));
+    }
+
+    public void testTextChangeUpdatesItsOwnSummary() {
+        mScreen.values.put(Key.MINUTES, "15");
+        mUpdater.changed(Key.MINUTES);
+        assertEquals(1, mScreen.summaries);
+        assertEquals(2, mScreen.lookups); // read and summary
+        assertEquals("Current value is: 15", mScreen.summaryOf.get(Key.MINUTES));
+    }
+
+    public void testCheckBoxChangeTouchesNothing() {
+        mUpdater.changed(Key.SCREEN_DIM);
+        mUpdater.changed(Key.SHARED_FEED);
+        assertEquals(0, mScreen.summaries);
+        assertEquals(0, mScreen.lookups);
+    }
+
+    public void testMovesUpdateTheMinutesTitle() {
+        mScreen.values.put(Key.FIDE_MOVES_PHASE1, "35");
+        mUpdater.changed(Key.FIDE_MOVES_PHASE1);
+        assertEquals(2, mScreen.summaries);
+        assertEquals(1, mScreen.titles);
+        assertTrue(mScreen.titleOf.get(Key.FIDE_MIN_PHASE1).contains("35"));
+        assertTrue(mScreen.lookups <= 6);
+    }
+
+    public void testEmptyTextBecomesZero() {
+        mScreen.values.put(Key.SECONDS, " ");
+        mUpdater.changed(Key.SECONDS);
+        assertEquals("0", mScreen.values.get(Key.SECONDS));
+        assertEquals("Current value is: 0", mScreen.summaryOf.get(Key.SECONDS));
+    }
+
+    public void testTimeControlTypeChange() {
+        mScreen.values.put(Key.TIMECONTROL_TYPE, "CUSTOM");
+        mUpdater.changed(Key.TIMECONTROL_TYPE);
+        // the type and the two screens
+        assertEquals(3, mScreen.summaries);
+        assertEquals(1, mScreen.contentChanges);
+        assertFalse(mScreen.isEnabled(Key.BASIC_SCREEN));
+        assertTrue(mScreen.isEnabled(Key.FIDE_MIN_PHASE1));
+
+        // FIDE fills in the official values and refreshes those it changed
+        mScreen.values.put(Key.FIDE_MIN_PHASE1, "60");
+        mScreen.values.put(Key.TIMECONTROL_TYPE, "FIDE");
+        mScreen.resetCounts();
+        mUpdater.changed(Key.TIMECONTROL_TYPE);
+        assertEquals("90", mScreen.values.get(Key.FIDE_MIN_PHASE1));
+        assertEquals("Current value is: 90", mScreen.summaryOf.get(Key.FIDE_MIN_PHASE1));
+        assertEquals(4, mScreen.summaries);
+        assertFalse(mScreen.isEnabled(Key.FIDE_MIN_PHASE1));
+
+        // nothing to do when nothing changed
+        mScreen.resetCounts();
+        mUpdater.changed(Key.TIMECONTROL_TYPE);
+        assertEquals(0, mScreen.contentChanges);
+        assertEquals(3, mScreen.summaries);
+    }
+
+    /**
+     * Counts what TimerOptions would look up with findPreference().
+     */
+    private static final class FakeScreen implements PreferenceUpdater.Screen {
+        final Map<Key, String> values = new EnumMap<Key, String>(Key.class);
+        final Map<Key, Boolean> disabled = new EnumMap<Key, Boolean>(Key.class);
+        final Map<Key, String> summaryOf = new EnumMap<Key, String>(Key.class);
+        final Map<Key, String> titleOf = new EnumMap<Key, String>(Key.class);
+        int lookups;
+        int summaries;
+        int titles;
+        int contentChanges;
+
+        void resetCounts() {
+            lookups = 0;
+            summaries = 0;
+            titles = 0;
+            contentChanges = 0;
+        }
+
+        @Override
+        public String getValue(Key key) {
+            lookups++;
+            return values.get(key);
+        }
+
+        @Override
+        public boolean setValue(Key key, String value) {
+            lookups++;
+            if (value.equals(values.get(key)))
+                return false;
+            values.put(key, value);
+            return true;
+        }
+
+        @Override
+        public boolean setChecked(Key key, boolean checked) {
+            lookups++;
+            return false;
+        }
+
+        @Override
+        public void setSummary(Key key, String summary) {
+            lookups++;
+            summaries++;
+            summaryOf.put(key, summary);
+        }
+
+        @Override
+        public void setTitle(Key key, String title) {
+            lookups++;
+            titles++;
+            titleOf.put(key, title);
+        }
+
+        @Override
+        public boolean isEnabled(Key key) {
+            lookups++;
+            return !disabled.containsKey(key);
+        }
+
+        @Override
+        public boolean setEnabled(Key key, boolean enabled) {
+            lookups++;
+            if (enabled == !disabled.containsKey(key))
+                return false;
+            if (enabled)
+                disabled.remove(key);
+            else
+                disabled.put(key, true);
+            return true;
+        }
+
+        @Override
+        public void contentChanged() {
+            contentChanges++;
+        }
+
+        @Override
+        public String getString(int id) {
+            return "text" + id;
+        }
+    }
+}
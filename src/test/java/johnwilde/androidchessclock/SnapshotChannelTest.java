@@ -0,0 +1,151 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+
+/**
+ * JVM stress tests for the lock-free publication of the clock state.
+ */
+public class SnapshotChannelTest extends TestCase {
+
+    private static final int READERS = 3;
+
+    // Every field of a publication holds the same value; a reader that
+    // sees two different values read a torn publication.
+    public void testNoTornReads() throws Exception {
+        final SnapshotChannel channel = new SnapshotChannel(64);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final int publications = 200000;
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    long[] fields = new long[channel.size()];
+                    long last = 0;
+                    while (last < publications && failure.get() == null) {
+                        channel.read(fields);
+                        for (int i = 1; i < fields.length; i++) {
+                            if (fields[i] != fields[0]) {
+                                failure.set("torn read " + Arrays.toString(fields));
+                                return;
+                            }
+                        }
+                        if (fields[0] < last) {
+                            failure.set("went back from " + last + " to " + fields[0]);
+                            return;
+                        }
+                        last = fields[0];
+                    }
+                }
+            };
+            readers[r].start();
+        }
+
+        long[] fields = new long[channel.size()];
+        for (int n = 1; n <= publications; n++) {
+            Arrays.fill(fields, n);
+            channel.publish(fields);
+        }
+        for (Thread reader : readers) {
+            reader.join(10000);
+        }
+        assertEquals(null, failure.get());
+    }
+
+    // Readers of a running engine always see both clocks settled at the
+    // same switch: the time on the clocks plus the time played is the
+    // time the game started with.
+    public void testEngineSnapshotsAreConsistent() throws Exception {
+        final ClockEngine engine = new ClockEngine();
+        engine.mInitialDurationSeconds = 1000000;
+        engine.reset();
+        final long total = 2 * 1000000 * 1000L;
+        final SnapshotChannel channel = new SnapshotChannel(ClockSnapshot.SIZE);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final int switches = 100000;
+        final long[] written = new long[ClockSnapshot.SIZE];
+        engine.writeSnapshot(written);
+        channel.publish(written);
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    ClockSnapshot clock = new ClockSnapshot();
+                    long[] fields = clock.fields();
+                    int moves = 0;
+                    while (moves < switches && failure.get() == null) {
+                        clock.readFrom(channel);
+                        moves = (int) fields[ClockSnapshot.ENGINE + MoveHistory.RECORDED_MOVES];
+                        long now = fields[ClockSnapshot.SETTLED_AT];
+                        long onClocks = clock.getMsToGo(0, now) + clock.getMsToGo(1, now);
+                        int moveNumbers = clock.getMoveNumber(0) + clock.getMoveNumber(1);
+                        if (onClocks + now != total || moveNumbers != moves + 2
+                                || (moves > 0 && clock.getActive() != moves % 2)) {
+                            failure.set("inconsistent at move " + moves + ": "
+                                    + Arrays.toString(fields));
+                        }
+                    }
+                }
+            };
+            readers[r].start();
+        }
+
+        engine.start(0, 0);
+        for (int n = 1; n <= switches; n++) {
+            engine.switchMove(engine.getActive(), n);
+            engine.writeSnapshot(written);
+            channel.publish(written);
+        }
+        for (Thread reader : readers) {
+            reader.join(10000);
+        }
+        assertEquals(null, failure.get());
+    }
+
+    // A snapshot answers like the engine it was taken from
+    public void testSnapshotMatchesEngine() {
+        ClockEngine engine = new ClockEngine();
+        engine.mDelayType = DelayType.BRONSTEIN;
+        engine.mIncrementSeconds = 3;
+        engine.mOvertimeType = OvertimeType.HOURGLASS;
+        engine.reset();
+        engine.start(0, 0);
+        engine.switchMove(0, 5000);
+
+        SnapshotChannel channel = new SnapshotChannel(ClockSnapshot.SIZE);
+        long[] fields = new long[ClockSnapshot.SIZE];
+        engine.writeSnapshot(fields);
+        channel.publish(fields);
+        ClockSnapshot clock = new ClockSnapshot();
+        assertTrue(clock.readFrom(channel));
+        assertFalse(clock.readFrom(channel));
+
+        for (long now = 5000; now < 12000; now += 700) {
+            for (int player = 0; player < 2; player++) {
+                assertEquals(engine.getMsToGo(player, now), clock.getMsToGo(player, now));
+                assertEquals(engine.getMsDelayToGo(player, now),
+                        clock.getMsDelayToGo(player, now));
+                assertEquals(engine.getMoveMs(player, now), clock.getMoveMs(player, now));
+                assertEquals(engine.isChanging(player), clock.isChanging(player));
+            }
+        }
+        assertEquals(engine.canUndo(), clock.canUndo());
+
+        // settling the copy gives what the engine saves
+        long[] saved = new long[engine.snapshotSize()];
+        long[] copied = new long[ClockSnapshot.ENGINE_FIELDS];
+        engine.save(saved, 9000);
+        clock.settle(9000);
+        clock.copyEngineState(copied);
+        assertTrue(Arrays.equals(saved, copied));
+    }
+}
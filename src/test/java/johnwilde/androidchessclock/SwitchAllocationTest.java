@@ -0,0 +1,126 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+
+/**
+ * Checks that the engine's part of a move switch allocates nothing: the
+ * engine update plus the formatting the activity does for both clocks
+ * and the move counter. The whole tap, through the engine thread, is
+ * checked on a device by SwitchAllocationDeviceTest.
+ *
+ * Each game stays within the moves the game record has room for
+ * (ClockEngine.RECORD_MOVES); past that the record doubles, which is an
+ * allocation by design.
+ */
+public class SwitchAllocationTest extends TestCase {
+
+    private static final int SWITCHES = 10000;
+    private static final int GAME_SWITCHES = ClockEngine.RECORD_MOVES;
+
+    private final ClockEngine mEngine = new ClockEngine();
+    private final char[] mClockText = new char[Utils.MAX_TIME_CHARS];
+    private final char[] mCounterText = new char[16];
+    private long mNow;
+    private int mChars; // keeps the formatting from being optimized away
+
+    public void testSwitchAllocatesNothing() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        assertNotNull("allocation counting not supported by this JVM", bean);
+
+        mEngine.mDelayType = DelayType.BRONSTEIN;
+        mEngine.mIncrementSeconds = 2;
+        mEngine.mInitialDurationSeconds = 3600;
+        mEngine.mLowTimeWarningsMs = new long[] { 60000, 10000 };
+        mEngine.setListener(new ClockEngine.Listener() {
+            @Override
+            public void onFlag(int player) {
+            }
+
+            @Override
+            public void onDelayExpired(int player) {
+            }
+
+            @Override
+            public void onLowTimeWarning(int player) {
+            }
+
+            @Override
+            public void onDeadlinesChanged(long nextDeadline) {
+            }
+
+            @Override
+            public void onGameFinished(ArchivedGame game) {
+            }
+        });
+        // warm up the JIT
+        runSwitches(SWITCHES);
+
+        // a switch that allocates does so in every round; the JVM now and
+        // then allocates a few bytes of its own in one
+        long id = Thread.currentThread().getId();
+        long overhead = measureOverhead(bean, id);
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 3 && allocated != 0; round++) {
+            long roundAllocated = 0;
+            for (int switches = 0; switches < SWITCHES; switches += GAME_SWITCHES) {
+                // a new game (allocated) for every GAME_SWITCHES switches
+                mEngine.reset();
+                mEngine.start(0, mNow);
+                long before = bean.getThreadAllocatedBytes(id);
+                runGameSwitches(Math.min(GAME_SWITCHES, SWITCHES - switches));
+                roundAllocated += bean.getThreadAllocatedBytes(id) - before - overhead;
+            }
+            allocated = Math.min(allocated, roundAllocated);
+        }
+
+        assertEquals("bytes allocated by " + SWITCHES + " switches", 0, allocated);
+        assertTrue(mChars > 0);
+    }
+
+    private void runSwitches(int count) {
+        for (int switches = 0; switches < count; switches += GAME_SWITCHES) {
+            mEngine.reset();
+            mEngine.start(0, mNow);
+            runGameSwitches(Math.min(GAME_SWITCHES, count - switches));
+        }
+    }
+
+    private void runGameSwitches(int count) {
+        for (int i = 0; i < count; i++) {
+            mNow += 1 + (i % 7);
+            int player = mEngine.getActive();
+            assertTrue(mEngine.switchMove(player, mNow));
+            mChars += Utils.formatTime(mEngine.getMsToGo(player, mNow), mClockText);
+            mChars += Utils.formatTime(mEngine.getMsToGo(1 - player, mNow), mClockText);
+            mChars += Utils.appendNumber(mCounterText, 5,
+                    mEngine.getMoveNumber(1 - player), 1);
+            mEngine.pollDeadlines(mNow);
+        }
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean bean, long id) {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long a = bean.getThreadAllocatedBytes(id);
+            long b = bean.getThreadAllocatedBytes(id);
+            overhead = Math.min(overhead, b - a);
+        }
+        return overhead;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported())
+            return null;
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+}
@@ -0,0 +1,107 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * JVM tests for the tick schedulers that do not need Android, and for
+ * the benchmark harness on the virtual clock.
+ */
+public class TickBenchmarkTest extends TestCase {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public void testVirtualClockRunsTasksInTimeOrder() {
+        final VirtualTickScheduler scheduler = new VirtualTickScheduler(0);
+        final List<String> runs = new ArrayList<String>();
+        Runnable a = new Recording("a", scheduler, runs);
+        Runnable b = new Recording("b", scheduler, runs);
+        Runnable c = new Recording("c", scheduler, runs);
+        scheduler.schedule(a, 300);
+        scheduler.schedule(b, 100);
+        scheduler.schedule(c, 200);
+        scheduler.schedule(a, 50); // replaces the run at 300
+        scheduler.cancel(c);
+        scheduler.advance(1000);
+        assertEquals("[a@50, b@100]", runs.toString());
+        assertTrue(scheduler.isIdle());
+        assertEquals(1000000000L, scheduler.nanoTime());
+    }
+
+    public void testBenchmarkOnVirtualClock() {
+        VirtualTickScheduler scheduler = new VirtualTickScheduler(123456789);
+        TickBenchmark benchmark = new TickBenchmark(scheduler, 100, 600);
+        benchmark.start();
+        scheduler.advance(60000);
+        assertTrue(benchmark.isDone());
+        TickBenchmark.Result result = benchmark.result("virtual");
+        assertEquals(600, result.ticks);
+        assertEquals(0, result.max);
+        assertEquals(0, result.jitter());
+        assertEquals(600.0, result.estimatedWakeupsPerMinute, 1e-9);
+    }
+
+    public void testPercentiles() {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i + 1;
+        }
+        assertEquals(50, TickBenchmark.percentile(sorted, 50));
+        assertEquals(99, TickBenchmark.percentile(sorted, 99));
+        assertEquals(7, TickBenchmark.percentile(new long[] {7}, 99));
+        assertEquals(0, TickBenchmark.percentile(new long[0], 50));
+    }
+
+    public void testExecutorBackend() throws InterruptedException {
+        ExecutorTickScheduler scheduler = new ExecutorTickScheduler(DIRECT);
+        try {
+            TickBenchmark benchmark = new TickBenchmark(scheduler, 20, 25);
+            benchmark.start();
+            assertTrue(benchmark.await(5000));
+            TickBenchmark.Result result = benchmark.result("executor");
+            assertEquals(25, result.ticks);
+            // rounded up to the ms and never early
+            assertTrue(result.toString(), result.p50 >= 0 && result.p50 < 20000000L);
+
+            // a cancelled tick does not run
+            final boolean[] ran = new boolean[1];
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    ran[0] = true;
+                }
+            };
+            scheduler.schedule(task, 20);
+            scheduler.cancel(task);
+            Thread.sleep(60);
+            assertFalse(ran[0]);
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    private static final class Recording implements Runnable {
+        private final String mName;
+        private final TickScheduler mScheduler;
+        private final List<String> mRuns;
+
+        Recording(String name, TickScheduler scheduler, List<String> runs) {
+            mName = name;
+            mScheduler = scheduler;
+            mRuns = runs;
+        }
+
+        @Override
+        public void run() {
+            mRuns.add(mName + "@" + mScheduler.nanoTime() / 1000000);
+        }
+    }
+}
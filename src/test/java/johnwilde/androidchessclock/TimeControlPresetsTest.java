@@ -0,0 +1,131 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+import android.content.SharedPreferences;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import johnwilde.androidchessclock.ClockEngine.DelayType;
+import johnwilde.androidchessclock.ClockEngine.OvertimeType;
+import johnwilde.androidchessclock.ClockEngine.TimeControlType;
+
+/**
+ * JVM tests for the time control presets: the stored text, and a preset
+ * applied directly giving the same engine as its preferences loaded
+ * through the settings path.
+ */
+public class TimeControlPresetsTest extends TestCase {
+
+    // applying a preset on the UI thread: the edits and the engine copy
+    private static final long APPLY_MICROS = 100;
+
+    public void testFormatAndParse() {
+        TimeControlPresets presets = TimeControlPresets.defaults();
+        presets.add("Byo|yomi\n", new TimeControlPresets.Preset("", TimeControlType.BASIC,
+                600, 0, DelayType.FISCHER, true, OvertimeType.BYO_YOMI, 5, 30, 0, 0));
+        TimeControlPresets parsed = TimeControlPresets.parse(presets.format());
+        assertEquals(presets.format(), parsed.format());
+
+        TimeControlPresets.Preset byoYomi = parsed.get(parsed.size() - 1);
+        assertEquals("Byo/yomi", byoYomi.name);
+        assertEquals(OvertimeType.BYO_YOMI, byoYomi.overtimeType);
+        assertTrue(byoYomi.allowNegativeTime);
+        assertEquals(30, byoYomi.overtimeSeconds);
+    }
+
+    public void testNothingStoredGivesDefaults() {
+        TimeControlPresets presets = TimeControlPresets.parse(null);
+        assertEquals(TimeControlPresets.defaults().format(), presets.format());
+        assertEquals(0, TimeControlPresets.parse("").size());
+    }
+
+    public void testBadLinesAreDropped() {
+        String text = "3+2|BASIC|180|2|FISCHER|0|NONE|0|0|0|0\n"
+                + "broken|BASIC|x|2|FISCHER|0|NONE|0|0|0|0\n"
+                + "short|BASIC|180\n"
+                + "|BASIC|180|2|FISCHER|0|NONE|0|0|0|0";
+        TimeControlPresets presets = TimeControlPresets.parse(text);
+        assertEquals(1, presets.size());
+        assertEquals("3+2", presets.get(0).name);
+    }
+
+    public void testAddReplacesByName() {
+        TimeControlPresets presets = TimeControlPresets.defaults();
+        int size = presets.size();
+        assertEquals("3+2", presets.add(" 3+2 ", TimeControlPresets.Preset.basic("", 3, 5)));
+        assertEquals(size, presets.size());
+        assertNull(presets.add("  ", TimeControlPresets.Preset.basic("", 1, 0)));
+        presets.remove(0);
+        assertEquals(size - 1, presets.size());
+    }
+
+    public void testApplyMatchesLoadingThePreferences() {
+        TimeControlPresets presets = TimeControlPresets.defaults();
+        presets.add("Canadian", new TimeControlPresets.Preset("", TimeControlType.BASIC,
+                3600, 0, DelayType.BRONSTEIN, false, OvertimeType.CANADIAN, 20, 600, 0, 0));
+        for (int i = 0; i < presets.size(); i++) {
+            TimeControlPresets.Preset preset = presets.get(i);
+            Map<String, Object> values = new HashMap<String, Object>();
+            SharedPreferences prefs = preferences(values);
+            TimeControlPreferences.write(prefs.edit(), preset);
+
+            ClockEngine loaded = new ClockEngine();
+            TimeControlPreferences.load(prefs, loaded);
+            ClockEngine applied = new ClockEngine();
+            preset.applyTo(applied);
+            assertEquals(preset.name, TimeControlPresets.Preset.of("", loaded).toString(),
+                    TimeControlPresets.Preset.of("", applied).toString());
+        }
+    }
+
+    public void testApplyTakesMicroseconds() {
+        TimeControlPresets.Preset preset = TimeControlPresets.defaults().get(1);
+        SharedPreferences prefs = preferences(new HashMap<String, Object>());
+        ClockEngine engine = new ClockEngine();
+        int rounds = 10000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                TimeControlPreferences.write(prefs.edit(), preset);
+                preset.applyTo(engine);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / rounds);
+        }
+        assertTrue("apply " + best + " ns", best <= APPLY_MICROS * 1000);
+    }
+
+    // SharedPreferences over 'values', whose editor writes straight in
+    private static SharedPreferences preferences(final Map<String, Object> values) {
+        final SharedPreferences.Editor editor = (SharedPreferences.Editor) Proxy.newProxyInstance(
+                SharedPreferences.class.getClassLoader(),
+                new Class<?>[] { SharedPreferences.Editor.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().startsWith("put")) {
+                            values.put((String) args[0], args[1]);
+                            return proxy;
+                        }
+                        if (method.getName().equals("commit"))
+                            return true;
+                        return null;
+                    }
+                });
+        return (SharedPreferences) Proxy.newProxyInstance(
+                SharedPreferences.class.getClassLoader(),
+                new Class<?>[] { SharedPreferences.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("edit"))
+                            return editor;
+                        Object value = values.get(args[0]);
+                        return (value != null) ? value : args[1];
+                    }
+                });
+    }
+}
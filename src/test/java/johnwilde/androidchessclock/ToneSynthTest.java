@@ -0,0 +1,47 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+/**
+ * JVM tests for the synthesized click and bell.
+ */
+public class ToneSynthTest extends TestCase {
+
+    private static final int[] RATES = {22050, 44100, 48000};
+
+    public void testLengths() {
+        for (int rate : RATES) {
+            assertEquals(rate * ToneSynth.CLICK_MS / 1000, ToneSynth.click(rate).length);
+            assertEquals(rate * ToneSynth.BELL_MS / 1000, ToneSynth.bell(rate).length);
+        }
+    }
+
+    public void testLevelAndEnds() {
+        for (int rate : RATES) {
+            checkShape(ToneSynth.click(rate));
+            checkShape(ToneSynth.bell(rate));
+        }
+    }
+
+    public void testBellRingsLongerThanClick() {
+        short[] bell = ToneSynth.bell(44100);
+        // still clearly audible half a second in
+        assertTrue(peak(bell, 22050, 22050 + 441) > 0.05 * Short.MAX_VALUE);
+    }
+
+    // peak at LEVEL, and silent at both ends so the sound does not pop
+    private void checkShape(short[] pcm) {
+        long expected = Math.round(ToneSynth.LEVEL * Short.MAX_VALUE);
+        assertEquals(expected, peak(pcm, 0, pcm.length));
+        assertEquals(0, pcm[0]);
+        assertEquals(0, pcm[pcm.length - 1]);
+    }
+
+    private static int peak(short[] pcm, int from, int to) {
+        int peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(pcm[i]));
+        }
+        return peak;
+    }
+}
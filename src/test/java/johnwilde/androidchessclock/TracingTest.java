@@ -0,0 +1,56 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+/**
+ * JVM tests for the tracing facade and the in-memory sink.
+ */
+public class TracingTest extends TestCase {
+
+    @Override
+    protected void tearDown() {
+        Tracing.setSink(null);
+    }
+
+    public void testEngineTransitionsAreTraced() {
+        RingBufferSink sink = new RingBufferSink(64);
+        Tracing.setSink(sink);
+
+        ClockEngine engine = new ClockEngine();
+        engine.start(0, 0);
+        engine.switchMove(0, 1500);
+        engine.switchMove(1, 2500);
+
+        assertEquals(2, sink.count(Tracing.EVENT_SWITCH));
+        assertEquals("switchMove\n"
+                + "  switch 0 58500\n"
+                + "switchMove\n"
+                + "  switch 1 59000\n", sink.dump());
+        assertEquals(RingBufferSink.BEGIN, sink.kind(0));
+        assertEquals(RingBufferSink.END, sink.kind(sink.size() - 1));
+        assertTrue(sink.nanos(0) <= sink.nanos(sink.size() - 1));
+    }
+
+    public void testRingKeepsNewestRecords() {
+        RingBufferSink sink = new RingBufferSink(4);
+        Tracing.setSink(sink);
+        for (int i = 0; i < 10; i++) {
+            Tracing.event(Tracing.EVENT_STATE, i, i + 1);
+        }
+        assertEquals(4, sink.size());
+        assertEquals(6, sink.value1(0));
+        assertEquals(10, sink.value2(3));
+        sink.clear();
+        assertEquals(0, sink.size());
+    }
+
+    public void testOffByDefault() {
+        assertFalse(Tracing.isEnabled());
+        // no sink: calls are ignored
+        Tracing.begin(Tracing.SECTION_TICK);
+        Tracing.event(Tracing.EVENT_STATE, 1, 2);
+        Tracing.end();
+        Tracing.setSink(new RingBufferSink(1));
+        assertTrue(Tracing.isEnabled());
+    }
+}
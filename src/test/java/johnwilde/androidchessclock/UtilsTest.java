@@ -0,0 +1,73 @@
+package johnwilde.androidchessclock;
+
+import junit.framework.TestCase;
+
+/**
+ * JVM tests for the clock text formatting.
+ */
+public class UtilsTest extends TestCase {
+
+    public void testFormatTime() {
+        assertEquals("1:30:00", Utils.formatTime(90 * 60 * 1000));
+        assertEquals("1:00:05", Utils.formatTime(3605000));
+        assertEquals("5:00", Utils.formatTime(300000));
+        assertEquals("1:05", Utils.formatTime(65999));
+        assertEquals("59", Utils.formatTime(59999));
+        assertEquals("10", Utils.formatTime(10000));
+        assertEquals("9.9", Utils.formatTime(9999));
+        assertEquals("0.5", Utils.formatTime(500));
+        assertEquals("0.0", Utils.formatTime(0));
+    }
+
+    public void testFormatNegativeTime() {
+        assertEquals("0", Utils.formatTime(-1));
+        assertEquals("0", Utils.formatTime(-999));
+        assertEquals("-1", Utils.formatTime(-1000));
+        assertEquals("-9", Utils.formatTime(-9999));
+        assertEquals("-12", Utils.formatTime(-12345));
+        assertEquals("-1:05", Utils.formatTime(-65000));
+        assertEquals("-1:00:00", Utils.formatTime(-3600000));
+    }
+
+    public void testFormatIntoBuffer() {
+        char[] text = new char[Utils.MAX_TIME_CHARS];
+        int n = Utils.formatTime(-Long.MAX_VALUE, text);
+        assertEquals('-', text[0]);
+        assertTrue(n <= Utils.MAX_TIME_CHARS);
+
+        n = Utils.appendNumber(text, 2, 7, 3);
+        assertEquals("007", new String(text, 2, n - 2));
+
+        n = Utils.formatTime(83000, text, 3);
+        assertEquals("1:23", new String(text, 3, n - 3));
+    }
+
+    public void testFormatHundredths() {
+        char[] text = new char[Utils.MAX_TIME_CHARS];
+        int n = Utils.formatTime(9999, text, 0, true);
+        assertEquals("9.99", new String(text, 0, n));
+        n = Utils.formatTime(3047, text, 0, true);
+        assertEquals("3.04", new String(text, 0, n));
+        n = Utils.formatTime(9, text, 0, true);
+        assertEquals("0.00", new String(text, 0, n));
+        // only the last 10 seconds have hundredths
+        n = Utils.formatTime(10000, text, 0, true);
+        assertEquals("10", new String(text, 0, n));
+        n = Utils.formatTime(-500, text, 0, true);
+        assertEquals("0", new String(text, 0, n));
+    }
+
+    // The text stays the same until exactly msUntilTextChanges() has passed
+    public void testMsUntilTextChanges() {
+        for (int direction = -1; direction <= 1; direction += 2) {
+            boolean up = direction > 0;
+            for (long ms = -25000; ms <= 25000; ms += 7) {
+                long wait = Utils.msUntilTextChanges(ms, up);
+                String text = Utils.formatTime(ms);
+                assertTrue(wait >= 1);
+                assertEquals(text, Utils.formatTime(ms + direction * (wait - 1)));
+                assertFalse(text.equals(Utils.formatTime(ms + direction * wait)));
+            }
+        }
+    }
+}